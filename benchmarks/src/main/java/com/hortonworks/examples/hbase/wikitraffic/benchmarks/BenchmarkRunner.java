@@ -0,0 +1,36 @@
+package com.hortonworks.examples.hbase.wikitraffic.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the standard JMH command line, always attaching
+ * the GC profiler so every result reports bytes allocated per operation
+ * (<tt>gc.alloc.rate.norm</tt>). Results are also written as JSON to
+ * <tt>jmh-result.json</tt> unless <tt>-rff</tt> says otherwise.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    if (cmd.shouldHelp()) {
+      cmd.showHelp();
+      return;
+    }
+    if (cmd.shouldList()) {
+      new Runner(cmd).list();
+      return;
+    }
+    OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(cmd).addProfiler(GCProfiler.class);
+    if (!cmd.getResult().hasValue()) {
+      builder.resultFormat(ResultFormatType.JSON).result("jmh-result.json");
+    }
+    Options opts = builder.build();
+    new Runner(opts).run();
+  }
+}
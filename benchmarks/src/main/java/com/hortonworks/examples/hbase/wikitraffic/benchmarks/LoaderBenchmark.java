@@ -0,0 +1,206 @@
+package com.hortonworks.examples.hbase.wikitraffic.benchmarks;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsHFileLoader;
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsLocalHFileLoader;
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsOnlineLoader;
+
+/**
+ * Runs the loaders end to end over a directory of pagecounts files, such as
+ * one written by {@code WikistatsDataGenerator}, and reports throughput,
+ * time per stage and the size of each resulting table.
+ * <p>
+ * In <tt>local</tt> mode, jobs run in the local job runner against the
+ * HBase cluster named by the configuration on the classpath. In
+ * <tt>mini</tt> mode, an in-process HBase and MapReduce mini cluster is
+ * started and the input is copied into its file system first.
+ * </p>
+ */
+public class LoaderBenchmark extends Configured implements Tool {
+
+  public static final String NUM_SPLITS_KEY = "wikistats.bench.splits";
+  private static final String[] LOADERS = {
+    "online-tall", "online-wide", "hfile-tall", "hfile-wide", "local-tall", "local-wide" };
+
+  /** Input size, counted once up front. */
+  private long records = 0;
+  private long bytes = 0;
+
+  private void countInput(FileSystem fs, Path input) throws IOException {
+    CompressionCodecFactory codecs = new CompressionCodecFactory(getConf());
+    for (FileStatus file : fs.listStatus(input)) {
+      if (file.isDir() || !file.getPath().getName().startsWith("pagecounts-")) continue;
+      CompressionCodec codec = codecs.getCodec(file.getPath());
+      FSDataInputStream raw = fs.open(file.getPath());
+      LineReader reader = new LineReader(null == codec ? raw : codec.createInputStream(raw));
+      try {
+        Text line = new Text();
+        int read;
+        while ((read = reader.readLine(line)) > 0) {
+          records++;
+          bytes += read;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  private static void dropTable(HBaseAdmin admin, String table) throws IOException {
+    if (admin.tableExists(table)) {
+      if (admin.isTableEnabled(table)) admin.disableTable(table);
+      admin.deleteTable(table);
+    }
+  }
+
+  /**
+   * @return the bytes stored under the table's directory, after flushing.
+   */
+  private static long tableSize(Configuration conf, HBaseAdmin admin, String table)
+      throws IOException, InterruptedException {
+    admin.flush(table);
+    Path tableDir = new Path(FSUtils.getRootDir(conf), table);
+    return tableDir.getFileSystem(conf).getContentSummary(tableDir).getLength();
+  }
+
+  private String runLoader(String name, Configuration conf, Path input, Path work)
+      throws Exception {
+    String table = "bench_" + name.replace('-', '_');
+    String schema = name.endsWith("tall") ? "-tall" : "-wide";
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      dropTable(admin, table);
+
+      Map<String, Long> stages;
+      int status;
+      long start = System.currentTimeMillis();
+      if (name.startsWith("online")) {
+        WikistatsOnlineLoader loader = new WikistatsOnlineLoader();
+        status = ToolRunner.run(new Configuration(conf), loader,
+          new String[] { schema, table, input.toString() });
+        stages = loader.getStageTimes();
+      } else if (name.startsWith("local")) {
+        Configuration localConf = new Configuration(conf);
+        localConf.set(WikistatsLocalHFileLoader.TABLE_KEY, table);
+        WikistatsLocalHFileLoader loader = new WikistatsLocalHFileLoader();
+        status = ToolRunner.run(localConf, loader, new String[] { schema,
+            String.valueOf(conf.getInt(NUM_SPLITS_KEY, 4) + 1), input.toString(),
+            new Path(work, name).toString() });
+        stages = loader.getStageTimes();
+      } else {
+        WikistatsHFileLoader loader = new WikistatsHFileLoader();
+        status = ToolRunner.run(new Configuration(conf), loader, new String[] { schema, table,
+            String.valueOf(conf.getInt(NUM_SPLITS_KEY, 4)), input.toString(),
+            new Path(work, name).toString() });
+        stages = loader.getStageTimes();
+      }
+      long millis = Math.max(1, System.currentTimeMillis() - start);
+
+      StringBuilder stageList = new StringBuilder();
+      for (Map.Entry<String, Long> e : stages.entrySet()) {
+        if (stageList.length() > 0) stageList.append(',');
+        stageList.append(e.getKey()).append('=').append(e.getValue());
+      }
+      long size = status == 0 ? tableSize(conf, admin, table) : -1;
+      return String.format("%s\t%s\t%d\t%d\t%d\t%.0f\t%.0f\t%s\t%d", name,
+        status == 0 ? "ok" : "failed", records, bytes, millis, records * 1000.0 / millis,
+        bytes * 1000.0 / millis, stageList, size);
+    } finally {
+      admin.close();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    boolean argsValid = args.length >= 3;
+    argsValid = argsValid && ("local".equals(args[0]) || "mini".equals(args[0]));
+    if (!argsValid) {
+      System.err.printf("Usage: %s [generic options] (local | mini) <data-dir> <work-dir> "
+          + "[loader ...]%n", getClass().getSimpleName());
+      System.err.printf("  loaders: %s (default all)%n", Arrays.toString(LOADERS));
+      System.err.printf("  %-36s %s%n", NUM_SPLITS_KEY, "<num-splits> for the HFile loaders "
+          + "(default 4)");
+      ToolRunner.printGenericCommandUsage(System.err);
+      return -1;
+    }
+    boolean mini = "mini".equals(args[0]);
+    Path input = new Path(args[1]);
+    Path work = new Path(args[2]);
+    List<String> loaders = args.length > 3
+        ? Arrays.asList(args).subList(3, args.length) : Arrays.asList(LOADERS);
+
+    HBaseTestingUtility util = null;
+    Configuration conf = getConf();
+    List<String> results = new ArrayList<String>();
+    try {
+      if (mini) {
+        util = new HBaseTestingUtility(conf);
+        util.startMiniCluster();
+        util.startMiniMapReduceCluster();
+        conf = util.getConfiguration();
+        FileSystem dfs = util.getTestFileSystem();
+        Path dfsInput = new Path("/wikistats-bench/input");
+        dfs.copyFromLocalFile(input, dfsInput);
+        input = dfsInput;
+      } else {
+        conf.set("mapred.job.tracker", "local");
+      }
+      countInput(input.getFileSystem(conf), input);
+
+      for (String loader : loaders) {
+        results.add(runLoader(loader, conf, input, work));
+      }
+    } finally {
+      if (null != util) {
+        util.shutdownMiniMapReduceCluster();
+        util.shutdownMiniCluster();
+      }
+    }
+
+    PrintWriter report = new PrintWriter(new OutputStreamWriter(
+      new FileOutputStream("loader-benchmark.tsv"), "UTF-8"));
+    try {
+      String header = "loader\tstatus\trecords\tbytes\twall_ms\trecords_per_sec"
+          + "\tbytes_per_sec\tstage_ms\ttable_bytes";
+      System.out.println(header);
+      report.println(header);
+      for (String line : results) {
+        System.out.println(line);
+        report.println(line);
+      }
+    } finally {
+      report.close();
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(HBaseConfiguration.create(), new LoaderBenchmark(), args);
+    System.exit(status);
+  }
+}
@@ -0,0 +1,67 @@
+package com.hortonworks.examples.hbase.wikitraffic.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hortonworks.examples.hbase.wikitraffic.ZipfPagecounts;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Parsing cost per record: {@link WikistatsRecordParser} against the
+ * original <tt>String#split</tt> parse of {@code WikistatsMapper#map}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+  private List<Text> lines;
+  private int next = 0;
+  private final WikistatsRecordParser parser = new WikistatsRecordParser();
+
+  @Setup
+  public void setup() {
+    lines = new ZipfPagecounts(1000000, 1.0, 42).lines(100000);
+  }
+
+  private Text nextLine() {
+    Text line = lines.get(next);
+    next = next + 1 == lines.size() ? 0 : next + 1;
+    return line;
+  }
+
+  @Benchmark
+  public void recordParser(Blackhole bh) {
+    if (parser.parse(nextLine())) {
+      bh.consume(parser.getProjectCode());
+      bh.consume(parser.getPageName());
+      bh.consume(parser.getPageViews());
+      bh.consume(parser.getBytes());
+    }
+  }
+
+  @Benchmark
+  public void legacySplit(Blackhole bh) {
+    String[] splits = nextLine().toString().split(" ", 4);
+    bh.consume(splits[0]);
+    bh.consume(splits[1]);
+    bh.consume(Long.parseLong(splits[2]));
+    bh.consume(Long.parseLong(splits[3]));
+  }
+}
@@ -0,0 +1,124 @@
+package com.hortonworks.examples.hbase.wikitraffic.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hortonworks.examples.hbase.wikitraffic.ZipfPagecounts;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.RowKeyCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsMapper;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Put construction cost per record, for each row key and wide value codec.
+ * The <tt>map</tt> benchmarks cover everything {@code WikistatsMapper#map}
+ * does short of handing the Put to the framework: parse the line, then build
+ * the Put through the schema mapper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PutBenchmark {
+
+  private static final String DATE_TIME = "20090430-230000";
+
+  @Param({ "text", "binary" })
+  public String rowKeyCodec;
+
+  @Param({ "text", "packed" })
+  public String valueCodec;
+
+  private List<Text> lines;
+  private String[] projects;
+  private String[] pages;
+  private long[] views;
+  private long[] bytes;
+  private int next = 0;
+  private final WikistatsRecordParser parser = new WikistatsRecordParser();
+  private RowKeyCodec rowKeys;
+  private WideValueCodec values;
+  private WikistatsMapper tallMapper;
+  private WikistatsMapper wideMapper;
+
+  @Setup
+  public void setup() {
+    lines = new ZipfPagecounts(1000000, 1.0, 42).lines(100000);
+    Configuration conf = new Configuration(false);
+    conf.set(WikistatsSchemaUtils.ROWKEY_CODEC_KEY, rowKeyCodec);
+    conf.set(WikistatsSchemaUtils.WIDE_VALUE_CODEC_KEY, valueCodec);
+    rowKeys = WikistatsSchemaUtils.getRowKeyCodec(conf);
+    values = WikistatsSchemaUtils.getWideValueCodec(conf);
+    tallMapper = new WikistatsSchemaUtils.TallWikistatsMapper();
+    tallMapper.configure(conf);
+    wideMapper = new WikistatsSchemaUtils.WideWikistatsMapper();
+    wideMapper.configure(conf);
+    // pre-parse the records so the builder benchmarks measure only the builders.
+    int n = lines.size();
+    projects = new String[n];
+    pages = new String[n];
+    views = new long[n];
+    bytes = new long[n];
+    for (int i = 0; i < n; i++) {
+      parser.parse(lines.get(i));
+      projects[i] = parser.getProjectCode();
+      pages[i] = parser.getPageName();
+      views[i] = parser.getPageViews();
+      bytes[i] = parser.getBytes();
+    }
+  }
+
+  private int advance() {
+    int i = next;
+    next = next + 1 == lines.size() ? 0 : next + 1;
+    return i;
+  }
+
+  @Benchmark
+  public Put createTallPut() {
+    int i = advance();
+    return WikistatsSchemaUtils.createTallPut(rowKeys, DATE_TIME, projects[i], pages[i],
+      views[i], bytes[i]);
+  }
+
+  @Benchmark
+  public Put createWidePut() {
+    int i = advance();
+    return WikistatsSchemaUtils.createWidePut(rowKeys, values, DATE_TIME, projects[i],
+      pages[i], views[i], bytes[i]);
+  }
+
+  @Benchmark
+  public Put mapTall() {
+    return map(tallMapper);
+  }
+
+  @Benchmark
+  public Put mapWide() {
+    return map(wideMapper);
+  }
+
+  private Put map(WikistatsMapper mapper) {
+    if (!parser.parse(lines.get(advance()))) return null;
+    return mapper.createPut(DATE_TIME, parser.getProjectCode(), parser.getPageName(),
+      parser.getPageViews(), parser.getBytes());
+  }
+}
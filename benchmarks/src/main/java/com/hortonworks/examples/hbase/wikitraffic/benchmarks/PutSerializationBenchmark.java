@@ -0,0 +1,113 @@
+package com.hortonworks.examples.hbase.wikitraffic.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hortonworks.examples.hbase.wikitraffic.ZipfPagecounts;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Serialization cost per schema {@link Put}: alone, as the map output
+ * collector does it, and appended to a local {@link SequenceFile}, as the
+ * prepare job does it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PutSerializationBenchmark {
+
+  private static final String DATE_TIME = "20090430-230000";
+
+  @Param({ "tall", "wide" })
+  public String schema;
+
+  private Put[] puts;
+  private ImmutableBytesWritable[] keys;
+  private int next = 0;
+  private final DataOutputBuffer buffer = new DataOutputBuffer();
+
+  private File file;
+  private SequenceFile.Writer writer;
+
+  @Setup
+  public void setup() {
+    List<Text> lines = new ZipfPagecounts(1000000, 1.0, 42).lines(100000);
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    puts = new Put[lines.size()];
+    keys = new ImmutableBytesWritable[lines.size()];
+    for (int i = 0; i < lines.size(); i++) {
+      parser.parse(lines.get(i));
+      puts[i] = "tall".equals(schema)
+          ? WikistatsSchemaUtils.createTallPut(DATE_TIME, parser.getProjectCode(),
+            parser.getPageName(), parser.getPageViews(), parser.getBytes())
+          : WikistatsSchemaUtils.createWidePut(DATE_TIME, parser.getProjectCode(),
+            parser.getPageName(), parser.getPageViews(), parser.getBytes());
+      keys[i] = new ImmutableBytesWritable(puts[i].getRow());
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void openWriter() throws IOException {
+    Configuration conf = new Configuration();
+    file = File.createTempFile("puts", ".seq");
+    writer = SequenceFile.createWriter(FileSystem.getLocal(conf), conf,
+      new Path(file.getAbsolutePath()), ImmutableBytesWritable.class, Put.class);
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeWriter() throws IOException {
+    writer.close();
+    if (!file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  private int advance() {
+    int i = next;
+    next = next + 1 == puts.length ? 0 : next + 1;
+    return i;
+  }
+
+  @Benchmark
+  public int write() throws IOException {
+    int i = advance();
+    buffer.reset();
+    keys[i].write(buffer);
+    puts[i].write(buffer);
+    return buffer.getLength();
+  }
+
+  @Benchmark
+  public void sequenceFileAppend() throws IOException {
+    int i = advance();
+    writer.append(keys[i], puts[i]);
+  }
+}
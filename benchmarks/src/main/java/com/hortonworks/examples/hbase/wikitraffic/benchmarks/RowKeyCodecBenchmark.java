@@ -0,0 +1,100 @@
+package com.hortonworks.examples.hbase.wikitraffic.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.hortonworks.examples.hbase.wikitraffic.ZipfPagecounts;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.RowKeyCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Row key encoding and decoding cost per record, for each row key codec.
+ * The mean size of the tall and wide keys of the sample is printed at setup,
+ * so a run also gives the size comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowKeyCodecBenchmark {
+
+  private static final String DATE_TIME = "20090430-230000";
+
+  @Param({ "text", "binary" })
+  public String rowKeyCodec;
+
+  private String[] projects;
+  private String[] pages;
+  private byte[][] tallRows;
+  private int next = 0;
+  private RowKeyCodec codec;
+
+  @Setup
+  public void setup() {
+    List<Text> lines = new ZipfPagecounts(1000000, 1.0, 42).lines(100000);
+    Configuration conf = new Configuration(false);
+    conf.set(WikistatsSchemaUtils.ROWKEY_CODEC_KEY, rowKeyCodec);
+    codec = WikistatsSchemaUtils.getRowKeyCodec(conf);
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    int n = lines.size();
+    projects = new String[n];
+    pages = new String[n];
+    tallRows = new byte[n][];
+    long tallBytes = 0;
+    long wideBytes = 0;
+    for (int i = 0; i < n; i++) {
+      parser.parse(lines.get(i));
+      projects[i] = parser.getProjectCode();
+      pages[i] = parser.getPageName();
+      tallRows[i] = codec.tallRow(projects[i], pages[i], DATE_TIME);
+      tallBytes += tallRows[i].length;
+      wideBytes += codec.wideRow(projects[i], pages[i]).length;
+    }
+    System.out.printf("%n%s row keys: %.1f bytes tall, %.1f bytes wide%n", rowKeyCodec,
+      (double) tallBytes / n, (double) wideBytes / n);
+  }
+
+  private int advance() {
+    int i = next;
+    next = next + 1 == pages.length ? 0 : next + 1;
+    return i;
+  }
+
+  @Benchmark
+  public byte[] encodeTall() {
+    int i = advance();
+    return codec.tallRow(projects[i], pages[i], DATE_TIME);
+  }
+
+  @Benchmark
+  public byte[] encodeWide() {
+    int i = advance();
+    return codec.wideRow(projects[i], pages[i]);
+  }
+
+  @Benchmark
+  public void decodeTall(Blackhole bh) {
+    byte[] row = tallRows[advance()];
+    bh.consume(codec.getProjectCode(row));
+    bh.consume(codec.getPageName(row, true));
+    bh.consume(codec.getDateTime(row));
+  }
+}
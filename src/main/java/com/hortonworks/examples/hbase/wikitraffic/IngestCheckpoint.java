@@ -0,0 +1,143 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * The progress of {@link WikistatsIngestDaemon}: the files fully ingested,
+ * and for the file in progress, the offset into its uncompressed text up to
+ * which every record is known to be written. Saved as text, one entry per
+ * line:
+ * <pre>
+ * done    &lt;file-name&gt;
+ * partial &lt;file-name&gt; &lt;offset&gt;
+ * end
+ * </pre>
+ * A save writes a temporary file beside the checkpoint and renames it into
+ * place, so a crash leaves either the old or the new checkpoint readable.
+ * The closing <tt>end</tt> line tells a complete file from a torn one.
+ */
+public class IngestCheckpoint {
+
+  private static final String DONE = "done";
+  private static final String PARTIAL = "partial";
+  private static final String END = "end";
+
+  private final FileSystem fs;
+  private final Path path;
+  private final Path tmpPath;
+  private final Set<String> done = new TreeSet<String>();
+  private final Map<String, Long> partial = new LinkedHashMap<String, Long>();
+
+  public IngestCheckpoint(FileSystem fs, Path path) {
+    this.fs = fs;
+    this.path = path;
+    this.tmpPath = new Path(path.getParent(), "." + path.getName() + ".tmp");
+  }
+
+  /**
+   * Read the last saved checkpoint, if any.
+   */
+  public void load() throws IOException {
+    // a crash between removing the old checkpoint and renaming the new one
+    // leaves only the temporary file.
+    if (!read(path) && !read(tmpPath)) {
+      done.clear();
+      partial.clear();
+    }
+  }
+
+  /**
+   * @return true when <tt>source</tt> holds a complete checkpoint.
+   */
+  private boolean read(Path source) throws IOException {
+    done.clear();
+    partial.clear();
+    if (!fs.exists(source)) {
+      return false;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(source), "UTF-8"));
+    try {
+      String line;
+      while (null != (line = in.readLine())) {
+        String[] fields = line.split("\t");
+        if (DONE.equals(fields[0]) && fields.length == 2) {
+          done.add(fields[1]);
+        } else if (PARTIAL.equals(fields[0]) && fields.length == 3) {
+          partial.put(fields[1], Long.parseLong(fields[2]));
+        } else if (END.equals(fields[0])) {
+          return true;
+        } else {
+          break;
+        }
+      }
+    } finally {
+      in.close();
+    }
+    if (source.equals(path)) {
+      throw new IOException("Incomplete checkpoint " + path);
+    }
+    return false;
+  }
+
+  public boolean isDone(String fileName) {
+    return done.contains(fileName);
+  }
+
+  /**
+   * @return the offset at which to resume <tt>fileName</tt>, or 0.
+   */
+  public long getOffset(String fileName) {
+    Long offset = partial.get(fileName);
+    return null == offset ? 0 : offset;
+  }
+
+  public void setOffset(String fileName, long offset) {
+    partial.put(fileName, offset);
+  }
+
+  public void markDone(String fileName) {
+    partial.remove(fileName);
+    done.add(fileName);
+  }
+
+  public Set<String> getDone() {
+    return Collections.unmodifiableSet(done);
+  }
+
+  /**
+   * Durably replace the saved checkpoint with the current state.
+   */
+  public void save() throws IOException {
+    Writer out = new OutputStreamWriter(fs.create(tmpPath, true), "UTF-8");
+    try {
+      for (String name : done) {
+        out.write(DONE + "\t" + name + "\n");
+      }
+      for (Map.Entry<String, Long> e : partial.entrySet()) {
+        out.write(PARTIAL + "\t" + e.getKey() + "\t" + e.getValue() + "\n");
+      }
+      out.write(END + "\n");
+    } finally {
+      out.close();
+    }
+    // rename does not replace an existing file on every FileSystem.
+    if (fs.exists(path) && !fs.delete(path, false)) {
+      throw new IOException("Failed to remove old checkpoint " + path);
+    }
+    if (!fs.rename(tmpPath, path)) {
+      throw new IOException(String.format("Failed to rename %s to %s", tmpPath, path));
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PagecountsInputFormat;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsCounters;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Converts an archive of <tt>pagecounts-*.gz</tt> files into splittable,
+ * block-compressed SequenceFiles of <tt>(offset, line)</tt>, once, so the
+ * loaders can spread each hour across several mappers. A gzip file can only
+ * be decompressed from its start, so the conversion itself still reads
+ * each file in a single mapper; every later load reads the SequenceFiles.
+ * <p>
+ * Each output file is named for its source,
+ * <tt>pagecounts-YYYYmmdd-HHMMss{@value PagecountsInputFormat#SEQUENCE_EXTENSION}</tt>,
+ * so the mappers still find the hour of every record in the file name.
+ * Files are written as task side-effect files and promoted when the task
+ * commits, so failed attempts leave nothing behind.
+ * </p>
+ */
+public class WikistatsArchiveConverter extends Configured implements Tool {
+
+  private static final Log LOG = LogFactory.getLog(WikistatsArchiveConverter.class);
+
+  public static final String CODEC_KEY = "wikistats.convert.codec";
+
+  public static enum ConverterCounters {
+    /** Lines copied into SequenceFiles. */
+    LINES_CONVERTED
+  }
+
+  /**
+   * Copies the lines of one pagecounts file into a SequenceFile named for it.
+   */
+  public static class ConvertMapper
+      extends Mapper<LongWritable, Text, NullWritable, NullWritable> {
+
+    private SequenceFile.Writer writer = null;
+    private Counter records = null;
+    private Counter filtered = null;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      this.records = context.getCounter(ConverterCounters.LINES_CONVERTED);
+      this.filtered = context.getCounter(WikistatsCounters.RECORDS_FILTERED);
+      InputSplit split = context.getInputSplit();
+      String dateTime = split instanceof FileSplit
+          ? WikistatsRecordParser.parseDateTime(((FileSplit) split).getPath().toString())
+          : null;
+      if (null == dateTime) {
+        LOG.warn("Not a pagecounts file; skipping " + split);
+        return;
+      }
+
+      Configuration conf = context.getConfiguration();
+      Path file = new Path(FileOutputFormat.getWorkOutputPath(context),
+        "pagecounts-" + dateTime + PagecountsInputFormat.SEQUENCE_EXTENSION);
+      CompressionCodec codec = ReflectionUtils.newInstance(
+        conf.getClass(CODEC_KEY, DefaultCodec.class, CompressionCodec.class), conf);
+      this.writer = SequenceFile.createWriter(file.getFileSystem(conf), conf, file,
+        LongWritable.class, Text.class, CompressionType.BLOCK, codec, context);
+    }
+
+    @Override
+    protected void map(LongWritable offset, Text line, Context context) throws IOException {
+      if (null == writer) {
+        filtered.increment(1);
+        return;
+      }
+      writer.append(offset, line);
+      records.increment(1);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException {
+      if (null != writer) {
+        writer.close();
+        this.writer = null;
+      }
+    }
+  }
+
+  /**
+   * Reads each file whole, even uncompressed, so that one task writes each
+   * output file.
+   */
+  public static class WholeFileTextInputFormat extends TextInputFormat {
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+      return false;
+    }
+  }
+
+  /**
+   * Commits the side-effect files of {@link ConvertMapper}; records are
+   * never written through it.
+   */
+  public static class SideFileOutputFormat extends FileOutputFormat<NullWritable, NullWritable> {
+
+    @Override
+    public RecordWriter<NullWritable, NullWritable> getRecordWriter(TaskAttemptContext context) {
+      return new RecordWriter<NullWritable, NullWritable>() {
+        @Override
+        public void write(NullWritable key, NullWritable value) {}
+
+        @Override
+        public void close(TaskAttemptContext context) {}
+      };
+    }
+  }
+
+  Job buildJob(Path input, Path output) throws IOException {
+    Job job = new Job(getConf(), "Convert pagecounts to SequenceFiles.");
+    job.setJarByClass(getClass());
+    // gzip isn't splittable anyway: one mapper reads each file.
+    job.setInputFormatClass(WholeFileTextInputFormat.class);
+    FileInputFormat.addInputPath(job, input);
+    job.setMapperClass(ConvertMapper.class);
+    job.setNumReduceTasks(0);
+    job.setOutputFormatClass(SideFileOutputFormat.class);
+    FileOutputFormat.setOutputPath(job, output);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(NullWritable.class);
+    return job;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.printf("Usage: %s [generic options] <input-path> <output-dir>%n",
+        getClass().getSimpleName());
+      System.err.println();
+      System.err.println("Converter options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", CODEC_KEY,
+        "Block compression codec class (default " + DefaultCodec.class.getName() + ")");
+      System.err.printf("  %-36s %s%n", "io.seqfile.compress.blocksize",
+        "Bytes of lines per compressed block (default 1000000)");
+      System.err.println();
+      ToolRunner.printGenericCommandUsage(System.err);
+      return -1;
+    }
+
+    Job job = buildJob(new Path(args[0]), new Path(args[1]));
+    boolean success = job.waitForCompletion(true);
+    LOG.info(String.format("Converted %d records into %s.",
+      job.getCounters().findCounter(ConverterCounters.LINES_CONVERTED).getValue(), args[1]));
+    return success ? 0 : 1;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(new WikistatsArchiveConverter(), args);
+    System.exit(status);
+  }
+}
@@ -0,0 +1,107 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.EpochHours;
+
+/**
+ * Writes synthetic hourly <tt>pagecounts-YYYYmmdd-HH0000</tt> files, as
+ * generated by {@link ZipfPagecounts}, for testing and benchmarking the
+ * loaders.
+ */
+public class WikistatsDataGenerator extends Configured implements Tool {
+
+  private static final Log LOG = LogFactory.getLog(WikistatsDataGenerator.class);
+
+  public static final String START_KEY = "wikistats.generator.start";
+  public static final String DISTINCT_PAGES_KEY = "wikistats.generator.pages";
+  public static final String EXPONENT_KEY = "wikistats.generator.exponent";
+  public static final String SEED_KEY = "wikistats.generator.seed";
+  public static final String GZIP_KEY = "wikistats.generator.gzip";
+
+  private static final String DEFAULT_START = "20090430-000000";
+  private static final double DEFAULT_EXPONENT = 1.0;
+
+  /**
+   * Write <tt>hours</tt> consecutive hourly files of <tt>records</tt>
+   * records each.
+   * @return the total bytes written, before compression.
+   */
+  public long generate(Path outputDir, int hours, int records) throws IOException {
+    FileSystem fs = outputDir.getFileSystem(getConf());
+    fs.mkdirs(outputDir);
+    int start = EpochHours.fromDateTime(getConf().get(START_KEY, DEFAULT_START));
+    // the default leaves the tail of the distribution sparse, as it is in reality.
+    int distinctPages = getConf().getInt(DISTINCT_PAGES_KEY, records * 10);
+    ZipfPagecounts pagecounts = new ZipfPagecounts(distinctPages,
+      getConf().getFloat(EXPONENT_KEY, (float) DEFAULT_EXPONENT), getConf().getLong(SEED_KEY, 0));
+    CompressionCodec codec = getConf().getBoolean(GZIP_KEY, false)
+        ? ReflectionUtils.newInstance(GzipCodec.class, getConf()) : null;
+
+    long bytes = 0;
+    for (int hour = start; hour < start + hours; hour++) {
+      Path file = new Path(outputDir, "pagecounts-" + EpochHours.toDateTime(hour)
+          + (null == codec ? "" : codec.getDefaultExtension()));
+      OutputStream out = null == codec ? fs.create(file, true)
+          : codec.createOutputStream(fs.create(file, true));
+      try {
+        for (Text line : pagecounts.lines(records)) {
+          out.write(line.getBytes(), 0, line.getLength());
+          out.write('\n');
+          bytes += line.getLength() + 1;
+        }
+      } finally {
+        out.close();
+      }
+      LOG.info("Wrote " + file);
+    }
+    return bytes;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.printf("Usage: %s [generic options] <output-dir> <hours> <records-per-hour>%n",
+        getClass().getSimpleName());
+      System.err.println();
+      System.err.println("Generator options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", START_KEY,
+        String.format("Date-time of the first hour (default %s)", DEFAULT_START));
+      System.err.printf("  %-36s %s%n", DISTINCT_PAGES_KEY,
+        "Distinct page ranks per project (default 10x records-per-hour)");
+      System.err.printf("  %-36s %s%n", EXPONENT_KEY,
+        String.format("Zipf exponent of page popularity (default %.1f)", DEFAULT_EXPONENT));
+      System.err.printf("  %-36s %s%n", SEED_KEY, "Random seed (default 0)");
+      System.err.printf("  %-36s %s%n", GZIP_KEY, "Gzip the output files (default false)");
+      System.err.println();
+      ToolRunner.printGenericCommandUsage(System.err);
+      return -1;
+    }
+
+    Path output = new Path(args[0]);
+    int hours = Integer.parseInt(args[1]);
+    int records = Integer.parseInt(args[2]);
+    long bytes = generate(output, hours, records);
+    LOG.info(String.format("Generated %d records, %d bytes, in %d hourly files.",
+      (long) hours * records, bytes, hours));
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(new WikistatsDataGenerator(), args);
+    System.exit(status);
+  }
+}
@@ -1,31 +1,65 @@
 package com.hortonworks.examples.hbase.wikitraffic;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
-import org.apache.hadoop.hbase.mapreduce.PutSortReducer;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.Utils.OutputFileUtils.OutputFilesFilter;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.util.LineReader;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import com.hortonworks.examples.hbase.wikitraffic.hbase.LoadManifest;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.ParallelBulkLoader;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
 import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
-import com.hortonworks.examples.hbase.wikitraffic.mapreduce.NullValueMapper;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.KeyValueShuffle;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.ObservationShuffle;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PageResolvingMapper;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PagecountsInputFormat;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.RunReport;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.SplitPointReducer;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsCounters;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsInputs;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
 import com.manning.hip.ch4.sampler.ReservoirSamplerInputFormat;
 
 public class WikistatsHFileLoader extends Configured implements Tool {
@@ -34,17 +68,54 @@ public class WikistatsHFileLoader extends Configured implements Tool {
   private static final String TALL = "-tall";
   private static final String WIDE = "-wide";
 
+  /** Materialize parsed data under <tt>prepared/</tt> before sampling. */
+  public static final String KEEP_PREPARED_KEY = "wikistats.hfile.keep.prepared";
+  /** Number of records sampled to place split points. */
+  public static final String NUM_SAMPLES_KEY = "wikistats.split.samples";
+  private static final int DEFAULT_NUM_SAMPLES = 10000;
+  /** Bulk load the generated HFiles into the target table. */
+  public static final String BULK_LOAD_KEY = "wikistats.hfile.bulkload";
+  /** Load only the hours missing from the {@link LoadManifest}. */
+  public static final String INCREMENTAL_KEY = "wikistats.hfile.incremental";
+
+  private final Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+  private RunReport report = null;
+
+  private static final PathFilter HIDDEN_FILE_FILTER = new PathFilter() {
+    @Override
+    public boolean accept(Path p) {
+      String name = p.getName();
+      return !name.startsWith("_") && !name.startsWith(".");
+    }
+  };
+
+  /**
+   * @return the wall time of each stage of the last run, in milliseconds,
+   *         in the order the stages ran.
+   */
+  public Map<String, Long> getStageTimes() {
+    return Collections.unmodifiableMap(stageTimes);
+  }
+
+  private boolean runStage(String stage, Job job) throws Exception {
+    long start = System.currentTimeMillis();
+    boolean success = false;
+    try {
+      success = job.waitForCompletion(true);
+      return success;
+    } finally {
+      // a stage that throws is recorded as failed.
+      stageTimes.put(stage, System.currentTimeMillis() - start);
+      report.addJob(stage, job, stageTimes.get(stage), success);
+    }
+  }
+
   private Job buildPrepareDataJob(String schemaType, Path inputPath,
       Path outputPath) throws IOException {
     Job job = new Job(getConf(), "Prepare raw data.");
     job.setJarByClass(getClass());
 
-    job.setInputFormatClass(TextInputFormat.class);
-    TextInputFormat.addInputPath(job, inputPath);
-
-    job.setMapperClass(schemaType.equals(TALL)
-      ? WikistatsSchemaUtils.TallWikistatsMapper.class
-      : WikistatsSchemaUtils.WideWikistatsMapper.class);
+    WikistatsInputs.configure(job, schemaType.equals(TALL), inputPath);
     job.setNumReduceTasks(0);
 
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
@@ -56,20 +127,59 @@ public class WikistatsHFileLoader extends Configured implements Tool {
     return job;
   }
 
-  private Job buildSampleJob(int numSplits, Path inputPath, Path outputPath)
+  private Job buildResolvePagesJob(Path inputPath) throws IOException {
+    Job job = new Job(getConf(), "Resolve page dictionary ids.");
+    job.setJarByClass(getClass());
+
+    FileInputFormat.setInputPaths(job, inputPath);
+    job.setInputFormatClass(PagecountsInputFormat.class);
+    job.setMapperClass(PageResolvingMapper.class);
+    job.setNumReduceTasks(0);
+
+    job.setOutputFormatClass(NullOutputFormat.class);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(NullWritable.class);
+
+    TableMapReduceUtil.addDependencyJars(job);
+    return job;
+  }
+
+  private Job buildSampleJob(String schemaType, boolean fromPrepared, int numSplits,
+      long estimatedRecords, Path inputPath, Path outputPath, Path reportPath)
       throws IOException {
     Job job = new Job(getConf(), "Sample input dataset.");
     job.setJarByClass(getClass());
-
-    SequenceFileInputFormat.setInputPaths(job, inputPath);
-    ReservoirSamplerInputFormat.setInputFormat(job, SequenceFileInputFormat.class);
-    ReservoirSamplerInputFormat.setNumSamples(job, numSplits);
-    ReservoirSamplerInputFormat.setMaxRecordsToRead(job, 10000);
+    Configuration conf = job.getConfiguration();
+
+    if (fromPrepared) {
+      SequenceFileInputFormat.setInputPaths(job, inputPath);
+      ReservoirSamplerInputFormat.setInputFormat(job, SequenceFileInputFormat.class);
+      conf.setLong(SplitPointReducer.ESTIMATED_PUTS_KEY, estimatedRecords);
+    } else {
+      // sample raw text, mapping the samples through the schema.
+      boolean tall = schemaType.equals(TALL);
+      FileInputFormat.setInputPaths(job, inputPath);
+      ReservoirSamplerInputFormat.setInputFormat(job,
+        WikistatsInputs.getInputFormatClass(conf, tall));
+      job.setMapperClass(WikistatsInputs.getMapperClass(conf, tall));
+      // each input line becomes two tall cells, or one wide cell.
+      conf.setLong(SplitPointReducer.ESTIMATED_CELLS_KEY,
+        estimatedRecords < 0 ? -1 : estimatedRecords * (tall ? 2 : 1));
+    }
+    ReservoirSamplerInputFormat.setNumSamples(job,
+      Math.max(numSplits, conf.getInt(NUM_SAMPLES_KEY, DEFAULT_NUM_SAMPLES)));
+    // draw from every record: a capped read samples only the head of each
+    // split, and keys past it would all fall into the last region.
+    ReservoirSamplerInputFormat.setMaxRecordsToRead(job, Integer.MAX_VALUE);
     ReservoirSamplerInputFormat.setUseSamplesNumberPerInputSplit(job, false);
-
-    job.setMapperClass(NullValueMapper.class);
     job.setMapOutputKeyClass(ImmutableBytesWritable.class);
-    job.setMapOutputValueClass(NullWritable.class);
+    job.setMapOutputValueClass(Put.class);
+
+    // weigh the samples by cell size to place split points.
+    job.setReducerClass(SplitPointReducer.class);
+    job.setNumReduceTasks(1);
+    conf.setInt(SplitPointReducer.NUM_REGIONS_KEY, numSplits + 1);
+    conf.set(SplitPointReducer.REPORT_PATH_KEY, reportPath.toString());
 
     job.setOutputFormatClass(SequenceFileOutputFormat.class);
     SequenceFileOutputFormat.setOutputPath(job, outputPath);
@@ -77,30 +187,35 @@ public class WikistatsHFileLoader extends Configured implements Tool {
     job.setOutputValueClass(NullWritable.class);
 
     TableMapReduceUtil.addDependencyJars(job);
-    TableMapReduceUtil.addDependencyJars(job.getConfiguration(),
-      ReservoirSamplerInputFormat.class, Put.class);
+    TableMapReduceUtil.addDependencyJars(conf, ReservoirSamplerInputFormat.class, Put.class);
     return job;
   }
 
-  private Job buildHFilesJob(String tableName, int numSplits, Path splitsFile, Path inputPath,
-      Path outputPath) throws IOException {
+  private Job buildHFilesJob(String schemaType, String targetTable, boolean fromPrepared,
+      int numSplits, Path splitsFile, Path inputPath, Path outputPath) throws IOException {
     Job job = new Job(getConf(), "Generate HFiles.");
     job.setJarByClass(getClass());
 
-    job.setInputFormatClass(SequenceFileInputFormat.class);
-    SequenceFileInputFormat.addInputPath(job, inputPath);
-
-    job.setMapOutputKeyClass(ImmutableBytesWritable.class);
-    job.setMapOutputValueClass(Put.class);
-
-    job.setPartitionerClass(TotalOrderPartitioner.class);
+    // shuffle in table order, partitioned by row.
     TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), splitsFile);
-
-    job.setReducerClass(PutSortReducer.class);
+    if (fromPrepared) {
+      job.setInputFormatClass(SequenceFileInputFormat.class);
+      SequenceFileInputFormat.addInputPath(job, inputPath);
+      // prepared Puts are broken into cells sorted by their full key.
+      job.setMapperClass(KeyValueShuffle.PreparedPutMapper.class);
+      KeyValueShuffle.configure(job);
+    } else {
+      // parse raw text directly in the map phase, shuffling observations.
+      WikistatsInputs.configure(job, schemaType.equals(TALL), inputPath);
+      ObservationShuffle.configureHFiles(job, targetTable);
+    }
     job.setNumReduceTasks(numSplits + 1);
 
     job.setOutputFormatClass(HFileOutputFormat.class);
     HFileOutputFormat.setOutputPath(job, outputPath);
+    // write HFiles compressed as the table's family will be.
+    job.getConfiguration().set("hfile.compression",
+      WikistatsSchemaUtils.getFamilyCompression(job.getConfiguration()).getName());
     job.setOutputKeyClass(ImmutableBytesWritable.class);
     job.setOutputValueClass(KeyValue.class);
 
@@ -110,22 +225,336 @@ public class WikistatsHFileLoader extends Configured implements Tool {
     return job;
   }
 
+  /**
+   * Generate HFiles for <tt>inputPaths</tt> against the current region
+   * boundaries of <tt>table</tt>, one reducer per region.
+   */
+  private Job buildIncrementalHFilesJob(String schemaType, HTable table, Path[] inputPaths,
+      Path outputPath) throws IOException {
+    Job job = new Job(getConf(), "Generate incremental HFiles.");
+    job.setJarByClass(getClass());
+
+    WikistatsInputs.configure(job, schemaType.equals(TALL), inputPaths);
+    job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+    job.setMapOutputValueClass(KeyValue.class);
+
+    HFileOutputFormat.setOutputPath(job, outputPath);
+    // partitions on the table's region start keys, and compresses each
+    // family as the table does.
+    HFileOutputFormat.configureIncrementalLoad(job, table);
+    ObservationShuffle.configureHFiles(job, Bytes.toString(table.getTableName()));
+
+    TableMapReduceUtil.addDependencyJars(job.getConfiguration(),
+      com.google.common.base.Preconditions.class);
+    return job;
+  }
+
+  /**
+   * Load only the hours under <tt>wikistats</tt> missing from
+   * <tt>manifest</tt> into the existing <tt>targetTable</tt>, then record
+   * them.
+   */
+  private int runIncremental(String schemaType, String targetTable, Path wikistats,
+      Path hfiles, LoadManifest manifest) throws Exception {
+    FileSystem fs = FileSystem.get(getConf());
+    Set<String> loaded = manifest.getLoaded();
+    List<Path> newHours = listNewHours(fs, wikistats, loaded);
+    LOG.info(String.format("%d hours already loaded; %d new.", loaded.size(), newHours.size()));
+    if (newHours.isEmpty()) {
+      return 0;
+    }
+
+    HTable table = new HTable(getConf(), targetTable);
+    try {
+      Job hfilesJob = buildIncrementalHFilesJob(schemaType, table,
+        newHours.toArray(new Path[newHours.size()]), hfiles);
+      LOG.info(String.format("Generating HFiles for %d regions of '%s'.",
+        table.getStartKeys().length, targetTable));
+      if (!runStage("hfiles", hfilesJob))
+        return -1;
+    } finally {
+      table.close();
+    }
+
+    if (!getConf().getBoolean(BULK_LOAD_KEY, true)) {
+      LOG.info("Skipping bulk load; HFiles are under " + hfiles);
+      return 0;
+    }
+    bulkLoad(targetTable, hfiles);
+    writeTopPages(hfiles);
+    manifest.addLoaded(names(newHours));
+    return 0;
+  }
+
+  private void bulkLoad(String targetTable, Path hfiles) throws Exception {
+    long start = System.currentTimeMillis();
+    Map<String, Long> loadTimes = null;
+    try {
+      loadTimes = new ParallelBulkLoader(getConf(), targetTable).load(hfiles);
+    } finally {
+      stageTimes.put("bulkload", System.currentTimeMillis() - start);
+      report.addStage("bulkload", stageTimes.get("bulkload"), null != loadTimes);
+    }
+    LOG.info(String.format("Bulk loaded %d regions into '%s' in %d ms.",
+      loadTimes.size(), targetTable, stageTimes.get("bulkload")));
+  }
+
+  /**
+   * Write the top pages lists the HFiles job left under <tt>hfiles</tt>,
+   * once its HFiles are loaded.
+   */
+  private void writeTopPages(Path hfiles) throws IOException {
+    if (!TopPages.isEnabled(getConf())) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    long lists = -1;
+    try {
+      lists = TopPages.writeLists(getConf(), hfiles);
+    } finally {
+      stageTimes.put("topn", System.currentTimeMillis() - start);
+      report.addStage("topn", stageTimes.get("topn"), lists >= 0);
+    }
+    LOG.info(String.format("Wrote %d top pages lists to '%s' in %d ms.", lists,
+      getConf().get(TopPages.TABLE_KEY), stageTimes.get("topn")));
+  }
+
   private Path getSplitsFile(FileSystem fs, Path splitsOutput) throws IOException {
     FileStatus[] files = fs.listStatus(splitsOutput, new OutputFilesFilter());
     assert files.length == 1 : "Splits job created too many output files.";
     return files[0].getPath();
   }
 
+  private List<byte[]> readSplitPoints(FileSystem fs, Path splitsFile) throws IOException {
+    List<byte[]> splitPoints = new ArrayList<byte[]>();
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, splitsFile, getConf());
+    try {
+      ImmutableBytesWritable key = new ImmutableBytesWritable();
+      while (reader.next(key)) {
+        splitPoints.add(key.copyBytes());
+      }
+    } finally {
+      reader.close();
+    }
+    return splitPoints;
+  }
+
+  /**
+   * @return the files matched by <tt>inputPath</tt>, a file, directory or
+   *         glob, not recursing into subdirectories.
+   */
+  private List<FileStatus> listInputFiles(FileSystem fs, Path inputPath) throws IOException {
+    FileStatus[] statuses = fs.globStatus(inputPath);
+    List<FileStatus> files = new ArrayList<FileStatus>();
+    for (FileStatus status : null == statuses ? new FileStatus[0] : statuses) {
+      for (FileStatus file : status.isDir()
+          ? fs.listStatus(status.getPath(), HIDDEN_FILE_FILTER)
+          : new FileStatus[] { status }) {
+        if (!file.isDir()) files.add(file);
+      }
+    }
+    return files;
+  }
+
+  /**
+   * @return the hourly pagecounts files under <tt>inputPath</tt> whose
+   *         names are not in <tt>loaded</tt>.
+   */
+  private List<Path> listNewHours(FileSystem fs, Path inputPath, Set<String> loaded)
+      throws IOException {
+    List<Path> hours = new ArrayList<Path>();
+    for (FileStatus file : listInputFiles(fs, inputPath)) {
+      Path p = file.getPath();
+      if (null != WikistatsRecordParser.parseDateTime(p.toString())
+          && !loaded.contains(p.getName())) {
+        hours.add(p);
+      }
+    }
+    return hours;
+  }
+
+  private static List<String> names(List<Path> paths) {
+    List<String> names = new ArrayList<String>(paths.size());
+    for (Path p : paths) {
+      names.add(p.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Estimate the number of records under <tt>inputPath</tt> by extrapolating
+   * the record density of the head of one input file to the total input
+   * size.
+   * @return the estimated record count, or -1 when no estimate is possible.
+   */
+  private long estimateRecordCount(FileSystem fs, Path inputPath) throws IOException {
+    List<FileStatus> files = listInputFiles(fs, inputPath);
+    long totalLength = 0;
+    for (FileStatus file : files) {
+      totalLength += file.getLen();
+    }
+    if (files.isEmpty() || totalLength == 0) {
+      return -1;
+    }
+
+    Path sample = files.get(0).getPath();
+    if (sample.getName().endsWith(PagecountsInputFormat.SEQUENCE_EXTENSION)) {
+      return estimateSequenceRecordCount(fs, sample, totalLength);
+    }
+    CompressionCodec codec = new CompressionCodecFactory(getConf()).getCodec(sample);
+    FSDataInputStream raw = fs.open(sample);
+    LineReader reader = new LineReader(
+      null == codec ? raw : codec.createInputStream(raw), getConf());
+    long lines = 0, uncompressed = 0;
+    try {
+      Text line = new Text();
+      int read;
+      while (lines < 10000 && (read = reader.readLine(line)) > 0) {
+        uncompressed += read;
+        lines++;
+      }
+    } finally {
+      reader.close();
+    }
+    long consumed = null == codec ? uncompressed : raw.getPos();
+    return lines == 0 || consumed == 0 ? -1 : (long) (totalLength * (lines / (double) consumed));
+  }
+
+  /**
+   * As {@link #estimateRecordCount(FileSystem, Path)}, for input converted
+   * by {@link WikistatsArchiveConverter}. The reader's position moves a
+   * block at a time in block-compressed files, so records are counted up to
+   * the last position change, where the blocks read end.
+   */
+  long estimateSequenceRecordCount(FileSystem fs, Path sample, long totalLength)
+      throws IOException {
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, sample, getConf());
+    long lines = 0, consumed = 0;
+    try {
+      LongWritable offset = new LongWritable();
+      Text line = new Text();
+      long read = 0, position = reader.getPosition();
+      while (lines < 10000) {
+        if (!reader.next(offset, line)) {
+          // the whole file was read.
+          lines = read;
+          consumed = reader.getPosition();
+          break;
+        }
+        if (reader.getPosition() != position) {
+          // the records read so far end where this one's block begins.
+          lines = read;
+          consumed = position;
+          position = reader.getPosition();
+        }
+        read++;
+      }
+    } finally {
+      reader.close();
+    }
+    return lines == 0 || consumed == 0 ? -1 : (long) (totalLength * (lines / (double) consumed));
+  }
+
+  /** @return true when <tt>tableName</tt> exists in the cluster. */
+  private boolean tableExists(String tableName) throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(getConf());
+    try {
+      return admin.tableExists(tableName);
+    } finally {
+      admin.close();
+    }
+  }
+
+  /**
+   * Create the target table pre-split on <tt>splitPoints</tt>, so each
+   * generated HFile lands in exactly one region. An existing table is used
+   * as-is, provided it carries the schema's column families.
+   * @return false when the existing table cannot hold the data.
+   */
+  static boolean prepareTable(Configuration conf, String tableName, List<byte[]> splitPoints)
+      throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      if (admin.tableExists(tableName)) {
+        HColumnDescriptor[] cols =
+            admin.getTableDescriptor(Bytes.toBytes(tableName)).getColumnFamilies();
+        for (byte[] family : WikistatsSchemaUtils.getFamilies(conf)) {
+          boolean hasFamily = false;
+          for (HColumnDescriptor desc : cols) {
+            hasFamily = hasFamily || Arrays.equals(family, desc.getName());
+          }
+          if (!hasFamily) {
+            LOG.error(String.format(
+              "Target table '%s' does not have required column family '%s'.",
+              tableName, Bytes.toString(family)));
+            return false;
+          }
+        }
+        LOG.info(String.format("Using existing table '%s'; HFiles may be split on load.",
+          tableName));
+        return true;
+      }
+      LOG.info(String.format("Table '%s' does not exist. Creating with %d regions.",
+        tableName, splitPoints.size() + 1));
+      if (splitPoints.isEmpty()) {
+        admin.createTable(WikistatsSchemaUtils.createDefaultTableDesc(tableName, conf));
+      } else {
+        admin.createTable(WikistatsSchemaUtils.createDefaultTableDesc(tableName, conf),
+          splitPoints.toArray(new byte[splitPoints.size()][]));
+      }
+      return true;
+    } finally {
+      admin.close();
+    }
+  }
+
+  private void logRegionReport(FileSystem fs, Path reportPath) throws IOException {
+    if (!fs.exists(reportPath)) {
+      return;
+    }
+    BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(reportPath), "UTF-8"));
+    try {
+      String line;
+      while (null != (line = in.readLine())) {
+        LOG.info("Region estimate: " + line);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
   @Override
   public int run(String[] args) throws Exception {
     boolean argsValid = true;
     argsValid = argsValid && args.length == 5;
     argsValid = argsValid && (TALL.equals(args[0]) || WIDE.equals(args[0]));
+    argsValid = argsValid && !(TALL.equals(args[0]) && WikistatsInputs.isMultiHour(getConf()));
 
     if (!argsValid) {
       System.err.printf("Usage: %s [generic options] (%s | %s) <target-table> <num-splits> <input-path> <working-path>%n",
         getClass().getSimpleName(), TALL, WIDE);
       System.err.println();
+      System.err.println("Loader options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", KEEP_PREPARED_KEY,
+        "Keep parsed Puts under <working-path>/prepared (default false)");
+      System.err.printf("  %-36s %s%n", SplitPointReducer.TARGET_REGION_BYTES_KEY,
+        "Size regions to this many bytes, overriding <num-splits>");
+      System.err.printf("  %-36s %s%n", NUM_SAMPLES_KEY,
+        String.format("Records sampled to place splits (default %d)", DEFAULT_NUM_SAMPLES));
+      System.err.printf("  %-36s %s%n", BULK_LOAD_KEY,
+        "Load HFiles into <target-table> once generated (default true)");
+      System.err.printf("  %-36s %s%n", ParallelBulkLoader.THREADS_KEY,
+        String.format("Regions bulk loaded concurrently (default %d)",
+          ParallelBulkLoader.DEFAULT_THREADS));
+      System.err.printf("  %-36s %s%n", INCREMENTAL_KEY,
+        "Load only hours not in the manifest, into the existing regions (default false)");
+      System.err.printf("  %-36s %s%n", LoadManifest.MANIFEST_KEY,
+        String.format("Keep the manifest in the working path or a table: %s (default) | %s",
+          LoadManifest.PATH_MANIFEST, LoadManifest.TABLE_MANIFEST));
+      System.err.printf("  %-36s %s%n", RunReport.REPORT_PATH_KEY,
+        "Write a JSON report of the run (default <working-path>/report.json)");
+      WikistatsSchemaUtils.printSchemaOptions(System.err);
+      System.err.println();
       ToolRunner.printGenericCommandUsage(System.err);
       return -1;
     }
@@ -135,35 +564,125 @@ public class WikistatsHFileLoader extends Configured implements Tool {
     int numSplits      = Integer.parseInt(args[2]);
     Path wikistats     = new Path(args[3]);
     Path workingPath   = new Path(args[4]);
+    Path runReport     = new Path(getConf().get(RunReport.REPORT_PATH_KEY,
+                           new Path(workingPath, "report.json").toString()));
+
+    // record every stage that ran, even when a later one fails.
+    stageTimes.clear();
+    report = new RunReport(getClass().getSimpleName());
+    try {
+      return runStages(schemaType, targetTable, numSplits, wikistats, workingPath);
+    } finally {
+      report.write(getConf(), runReport);
+    }
+  }
 
+  private int runStages(String schemaType, String targetTable, int numSplits, Path wikistats,
+      Path workingPath) throws Exception {
     Path preparedData  = new Path(workingPath, "prepared");
     Path splits        = new Path(workingPath, "splits");
     Path hfiles        = new Path(workingPath, "hfiles");
+    Path regionReport  = new Path(workingPath, "regions.tsv");
 
     // create/clean workspace
     FileSystem fs = FileSystem.get(getConf());
     fs.mkdirs(workingPath);
-    for (Path p : new Path[] {preparedData, splits, hfiles}) {
+    for (Path p : new Path[] {preparedData, splits, hfiles, regionReport}) {
       fs.delete(p, true);
     }
 
-    Job prepareJob = buildPrepareDataJob(schemaType, wikistats, preparedData);
-    LOG.info("Preparing input data for HBase schema.");
-    if (!prepareJob.waitForCompletion(true))
+    // rollups are summed in the observation shuffle, which prepared Puts
+    // skip; the reducers add them to the totals already loaded.
+    if (WikistatsSchemaUtils.isRollupEnabled(getConf())
+        && getConf().getBoolean(KEEP_PREPARED_KEY, false)) {
+      LOG.error(String.format("%s cannot be combined with %s.",
+        WikistatsSchemaUtils.ROLLUP_KEY, KEEP_PREPARED_KEY));
+      return -1;
+    }
+    // top pages are merged in the observation shuffle, which prepared Puts
+    // skip; hours are whole in every mode, so incremental loads keep them.
+    if (TopPages.getTopN(getConf()) > 0 && getConf().getBoolean(KEEP_PREPARED_KEY, false)) {
+      LOG.error(String.format("%s cannot be combined with %s.",
+        TopPages.TOPN_KEY, KEEP_PREPARED_KEY));
+      return -1;
+    }
+    // the side table is written after the bulk load, and every input page
+    // is given its dictionary id before sampling.
+    if (!TopPages.prepareTable(getConf(), targetTable)
+        || !PageDictionary.prepareTable(getConf(), targetTable)) {
       return -1;
+    }
+
+    // with a manifest, only hours not yet loaded are processed. The first
+    // run, before the table exists, loads everything and starts it.
+    LoadManifest manifest = null;
+    List<Path> allHours = null;
+    if (getConf().getBoolean(INCREMENTAL_KEY, false)) {
+      if (!LoadManifest.prepareTable(getConf(), targetTable))
+        return -1;
+      manifest = LoadManifest.create(getConf(), targetTable, workingPath);
+      if (tableExists(targetTable)) {
+        return runIncremental(schemaType, targetTable, wikistats, hfiles, manifest);
+      }
+      LOG.info(String.format("Table '%s' does not exist; loading all input.", targetTable));
+      allHours = listNewHours(fs, wikistats, Collections.<String>emptySet());
+    }
+
+    // only materialize the parsed dataset when explicitly requested.
+    boolean keepPrepared = getConf().getBoolean(KEEP_PREPARED_KEY, false);
+    Path parsedInput = wikistats;
+    long estimatedRecords;
+    if (keepPrepared) {
+      Job prepareJob = buildPrepareDataJob(schemaType, wikistats, preparedData);
+      LOG.info("Preparing input data for HBase schema.");
+      if (!runStage("prepare", prepareJob))
+        return -1;
+      parsedInput = preparedData;
+      estimatedRecords =
+          prepareJob.getCounters().findCounter(WikistatsCounters.PUTS_OUT).getValue();
+    } else {
+      estimatedRecords = estimateRecordCount(fs, wikistats);
+    }
+
+    // sampled from raw text, only the sampled pages would have ids yet, and
+    // every other page would take a later id than the split points allow
+    // for. The prepare job has already mapped every record.
+    if (!keepPrepared && PageDictionary.isEnabled(getConf())) {
+      LOG.info("Assigning page dictionary ids to every input page.");
+      if (!runStage("dict", buildResolvePagesJob(wikistats)))
+        return -1;
+    }
 
-    Job sampleJob = buildSampleJob(numSplits, preparedData, splits);
+    Job sampleJob = buildSampleJob(schemaType, keepPrepared, numSplits, estimatedRecords,
+      parsedInput, splits, regionReport);
     LOG.info("Sampling input data to determine region splits.");
-    if (!sampleJob.waitForCompletion(true))
+    if (!runStage("sample", sampleJob))
       return -1;
 
     Path splitsFile = getSplitsFile(fs, splits);
-
-    Job hfilesJob = buildHFilesJob(targetTable, numSplits, splitsFile, preparedData, hfiles);
-    LOG.info("Generating HFiles from prepared data according to splits.");
-    if (!hfilesJob.waitForCompletion(true))
+    List<byte[]> splitPoints = readSplitPoints(fs, splitsFile);
+    LOG.info(String.format("Sampling produced %d split points.", splitPoints.size()));
+    logRegionReport(fs, regionReport);
+
+    Job hfilesJob = buildHFilesJob(schemaType, targetTable, keepPrepared, splitPoints.size(),
+      splitsFile, parsedInput, hfiles);
+    LOG.info(keepPrepared
+        ? "Generating HFiles from prepared data according to splits."
+        : "Generating HFiles from raw data according to splits.");
+    if (!runStage("hfiles", hfilesJob))
       return -1;
 
+    if (!getConf().getBoolean(BULK_LOAD_KEY, true)) {
+      LOG.info("Skipping bulk load; HFiles are under " + hfiles);
+      return 0;
+    }
+    if (!prepareTable(getConf(), targetTable, splitPoints))
+      return -1;
+    bulkLoad(targetTable, hfiles);
+    writeTopPages(hfiles);
+    if (null != manifest) {
+      manifest.addLoaded(names(allHours));
+    }
     return 0;
   }
 
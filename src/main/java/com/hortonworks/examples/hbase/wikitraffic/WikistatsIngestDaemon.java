@@ -0,0 +1,345 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.BufferedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.Histogram;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PipelinedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.RowKeyCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideRowBucket;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * A long-running alternative to {@link WikistatsOnlineLoader} for hourly
+ * files as they arrive. Watches a directory for new
+ * <tt>pagecounts-*</tt> files and writes their records to the table from
+ * this process, through a {@link PipelinedTableWriter}, with no MapReduce
+ * job per file.
+ * <p>
+ * Progress is kept in an {@link IngestCheckpoint}. The checkpoint only
+ * advances once the region servers have acknowledged every record before
+ * it, so after a crash or restart ingest resumes from the last checkpoint,
+ * at worst rewriting the records since.
+ * </p>
+ */
+public class WikistatsIngestDaemon extends Configured implements Tool {
+
+  private static final Log LOG = LogFactory.getLog(WikistatsIngestDaemon.class);
+  private static final String TALL = "-tall";
+  private static final String WIDE = "-wide";
+
+  /** Milliseconds between scans of the watched directory. */
+  public static final String POLL_INTERVAL_KEY = "wikistats.ingest.poll.ms";
+  private static final long DEFAULT_POLL_INTERVAL = 30 * 1000;
+  /** Milliseconds a file must go unmodified before it is read. */
+  public static final String SETTLE_KEY = "wikistats.ingest.settle.ms";
+  private static final long DEFAULT_SETTLE = 60 * 1000;
+  /** Records written between checkpoints within a file. */
+  public static final String CHECKPOINT_RECORDS_KEY = "wikistats.ingest.checkpoint.records";
+  private static final int DEFAULT_CHECKPOINT_RECORDS = 100000;
+  /** Ingest the files present, then exit. */
+  public static final String ONCE_KEY = "wikistats.ingest.once";
+
+  private static final Comparator<FileStatus> BY_NAME = new Comparator<FileStatus>() {
+    @Override
+    public int compare(FileStatus a, FileStatus b) {
+      return a.getPath().getName().compareTo(b.getPath().getName());
+    }
+  };
+
+  private final WikistatsRecordParser parser = new WikistatsRecordParser();
+  private volatile boolean stopped = false;
+  private boolean tall;
+  private RowKeyCodec rowKeyCodec;
+  private WideValueCodec valueCodec;
+  private WideRowBucket rowBucket;
+
+  /**
+   * Ask a running daemon to checkpoint and exit.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  /**
+   * @return a shutdown hook that stops the daemon, then waits until
+   *         <tt>finished</tt> signals the last batch is checkpointed.
+   */
+  Thread shutdownHook(final CountDownLatch finished) {
+    return new Thread() {
+      @Override
+      public void run() {
+        // not Thread.stop(), which would kill the hook instead.
+        WikistatsIngestDaemon.this.stop();
+        try {
+          finished.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  /**
+   * Select the schema written, with codecs from the configuration.
+   */
+  void configure(boolean tall) {
+    this.tall = tall;
+    this.rowKeyCodec = WikistatsSchemaUtils.getRowKeyCodec(getConf());
+    this.valueCodec = WikistatsSchemaUtils.getWideValueCodec(getConf());
+    this.rowBucket = WikistatsSchemaUtils.getWideRowBucket(getConf());
+  }
+
+  /**
+   * @return the pagecounts files in <tt>dir</tt> not yet ingested and not
+   *         modified since <tt>settledBefore</tt>, oldest hour first.
+   */
+  List<FileStatus> findReady(FileSystem fs, Path dir, IngestCheckpoint checkpoint,
+      long settledBefore) throws IOException {
+    List<FileStatus> ready = new ArrayList<FileStatus>();
+    FileStatus[] files = fs.listStatus(dir);
+    for (FileStatus file : null == files ? new FileStatus[0] : files) {
+      String name = file.getPath().getName();
+      if (file.isDir()
+          || null == WikistatsRecordParser.parseDateTime(file.getPath().toString())
+          || checkpoint.isDone(name)
+          || file.getModificationTime() > settledBefore) {
+        continue;
+      }
+      ready.add(file);
+    }
+    Collections.sort(ready, BY_NAME);
+    return ready;
+  }
+
+  /**
+   * Write the records of <tt>file</tt> from its checkpointed offset.
+   * @return true when the whole file was ingested, false when stopped
+   *         part way.
+   */
+  boolean ingest(FileSystem fs, Path file, IngestCheckpoint checkpoint,
+      PipelinedTableWriter writer) throws IOException {
+    String name = file.getName();
+    String dateTime = WikistatsRecordParser.parseDateTime(file.toString());
+    int checkpointRecords = getConf().getInt(CHECKPOINT_RECORDS_KEY, DEFAULT_CHECKPOINT_RECORDS);
+    long offset = checkpoint.getOffset(name);
+    if (offset > 0) {
+      LOG.info(String.format("Resuming %s at offset %d", file, offset));
+    }
+
+    // offsets are into the uncompressed text; only plain files can seek.
+    CompressionCodec codec = new CompressionCodecFactory(getConf()).getCodec(file);
+    FSDataInputStream raw = fs.open(file);
+    long pos = 0;
+    if (null == codec && offset > 0) {
+      raw.seek(offset);
+      pos = offset;
+    }
+    LineReader reader = new LineReader(
+      null == codec ? raw : codec.createInputStream(raw), getConf());
+    long start = System.currentTimeMillis();
+    long records = 0, malformed = 0, sinceCheckpoint = 0;
+    try {
+      Text line = new Text();
+      int read;
+      while (!stopped && (read = reader.readLine(line)) > 0) {
+        pos += read;
+        if (pos <= offset) {
+          continue;
+        }
+        if (parser.parse(line)) {
+          writer.write(createPut(dateTime));
+          records++;
+        } else {
+          malformed++;
+        }
+        if (++sinceCheckpoint >= checkpointRecords) {
+          writer.sync();
+          checkpoint.setOffset(name, pos);
+          checkpoint.save();
+          sinceCheckpoint = 0;
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    writer.sync();
+    if (stopped) {
+      checkpoint.setOffset(name, pos);
+    } else {
+      checkpoint.markDone(name);
+    }
+    checkpoint.save();
+    long now = System.currentTimeMillis();
+    LOG.info(String.format("%s %s: %d records (%d malformed) in %d ms, %d ms after arrival",
+      stopped ? "Stopped in" : "Ingested", file, records, malformed, now - start,
+      now - fs.getFileStatus(file).getModificationTime()));
+    return !stopped;
+  }
+
+  private Put createPut(String dateTime) {
+    return tall
+        ? WikistatsSchemaUtils.createTallPut(rowKeyCodec, dateTime, parser.getProjectCode(),
+          parser.getPageName(), parser.getPageViews(), parser.getBytes())
+        : WikistatsSchemaUtils.createWidePut(rowKeyCodec, valueCodec, rowBucket, dateTime,
+          parser.getProjectCode(), parser.getPageName(), parser.getPageViews(),
+          parser.getBytes());
+  }
+
+  /**
+   * Sleep up to <tt>millis</tt>, waking early when stopped.
+   */
+  private void pause(long millis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + millis;
+    while (!stopped && System.currentTimeMillis() < deadline) {
+      Thread.sleep(Math.min(1000, Math.max(1, deadline - System.currentTimeMillis())));
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    boolean argsValid = true;
+    argsValid = argsValid && args.length == 4;
+    argsValid = argsValid && (TALL.equals(args[0]) || WIDE.equals(args[0]));
+
+    if (!argsValid) {
+      System.err.printf("Usage: %s [generic options] (%s | %s) <target-table> <watch-dir> "
+          + "<checkpoint-file>%n", getClass().getSimpleName(), TALL, WIDE);
+      System.err.println();
+      System.err.println("Ingest options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", POLL_INTERVAL_KEY,
+        String.format("Milliseconds between directory scans (default %d)",
+          DEFAULT_POLL_INTERVAL));
+      System.err.printf("  %-36s %s%n", SETTLE_KEY,
+        String.format("Milliseconds a file must be unmodified before reading (default %d)",
+          DEFAULT_SETTLE));
+      System.err.printf("  %-36s %s%n", CHECKPOINT_RECORDS_KEY,
+        String.format("Records between checkpoints within a file (default %d)",
+          DEFAULT_CHECKPOINT_RECORDS));
+      System.err.printf("  %-36s %s%n", ONCE_KEY,
+        "Ingest the files present, then exit (default false)");
+      System.err.printf("  %-36s %s%n", BufferedTableWriter.WRITE_BUFFER_KEY,
+        String.format("Bytes of Puts per batch sent (default %d)",
+          BufferedTableWriter.DEFAULT_WRITE_BUFFER));
+      System.err.printf("  %-36s %s%n", PipelinedTableWriter.IN_FLIGHT_KEY,
+        String.format("Full batches queued behind the one being sent (default %d)",
+          PipelinedTableWriter.DEFAULT_IN_FLIGHT));
+      System.err.printf("  %-36s %s%n", BufferedTableWriter.SKIP_WAL_KEY,
+        "Skip the WAL; only for rebuildable data (default false)");
+      WikistatsSchemaUtils.printSchemaOptions(System.err);
+      System.err.println();
+      ToolRunner.printGenericCommandUsage(System.err);
+      return -1;
+    }
+
+    String targetTable  = args[1];
+    Path watchDir       = new Path(args[2]);
+    Path checkpointFile = new Path(args[3]);
+    // rollups are summed in a shuffle, which the daemon's Puts never pass
+    // through.
+    if (WikistatsSchemaUtils.isRollupEnabled(getConf())) {
+      LOG.error(String.format("%s requires a shuffled load; unset it for the daemon.",
+        WikistatsSchemaUtils.ROLLUP_KEY));
+      return -1;
+    }
+    // top pages are merged there too.
+    if (TopPages.getTopN(getConf()) > 0) {
+      LOG.error(String.format("%s requires a shuffled load; unset it for the daemon.",
+        TopPages.TOPN_KEY));
+      return -1;
+    }
+    if (!WikistatsOnlineLoader.prepareTable(getConf(), targetTable))
+      return -1;
+    // pages are given dictionary ids as they are ingested.
+    if (!PageDictionary.prepareTable(getConf(), targetTable))
+      return -1;
+
+    FileSystem fs = watchDir.getFileSystem(getConf());
+    IngestCheckpoint checkpoint =
+        new IngestCheckpoint(checkpointFile.getFileSystem(getConf()), checkpointFile);
+    checkpoint.load();
+    LOG.info(String.format("Watching %s; %d files already ingested.", watchDir,
+      checkpoint.getDone().size()));
+
+    boolean once = getConf().getBoolean(ONCE_KEY, false);
+    long pollInterval = getConf().getLong(POLL_INTERVAL_KEY, DEFAULT_POLL_INTERVAL);
+    long settle = getConf().getLong(SETTLE_KEY, DEFAULT_SETTLE);
+    // the codec may hold a dictionary table, released with the writer.
+    configure(TALL.equals(args[0]));
+    PipelinedTableWriter writer;
+    try {
+      writer = new PipelinedTableWriter(getConf(), targetTable);
+    } catch (IOException e) {
+      WikistatsSchemaUtils.closeRowKeyCodec(rowKeyCodec);
+      throw e;
+    }
+
+    // on shutdown, finish the current batch and checkpoint before exiting.
+    // the hook is only added once the finally block below is sure to run.
+    CountDownLatch finished = new CountDownLatch(1);
+    Thread hook = shutdownHook(finished);
+    Runtime.getRuntime().addShutdownHook(hook);
+
+    try {
+      while (!stopped) {
+        List<FileStatus> ready =
+            findReady(fs, watchDir, checkpoint, System.currentTimeMillis() - settle);
+        for (FileStatus file : ready) {
+          if (!ingest(fs, file.getPath(), checkpoint, writer))
+            break;
+        }
+        if (once)
+          break;
+        pause(pollInterval);
+      }
+    } finally {
+      try {
+        try {
+          writer.close();
+        } finally {
+          WikistatsSchemaUtils.closeRowKeyCodec(rowKeyCodec);
+        }
+        Histogram latencies = writer.getFlushLatencies();
+        LOG.info(String.format("Sent %d batches; mean %.0f us, p99 %d us.",
+          latencies.getCount(), latencies.getMean(), latencies.getPercentile(0.99)));
+      } finally {
+        finished.countDown();
+        if (!stopped) {
+          Runtime.getRuntime().removeShutdownHook(hook);
+        }
+      }
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(HBaseConfiguration.create(), new WikistatsIngestDaemon(), args);
+    System.exit(status);
+  }
+}
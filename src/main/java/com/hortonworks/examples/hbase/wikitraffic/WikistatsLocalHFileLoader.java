@@ -0,0 +1,431 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.ParallelBulkLoader;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.SpillingKeyValueSorter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PagecountsFileReader;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsMapper;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Writes region-partitioned HFiles from pagecounts files in a single
+ * process, without MapReduce or a cluster. A pool of threads parses the
+ * input files through the schema mappers, each sorting its cells into
+ * bounded in-memory runs spilled to local disk. The runs are then merged
+ * into one sorted stream and cut into HFiles of roughly equal size, one per
+ * region, at row boundaries.
+ * <p>
+ * The output directory holds the HFiles under <tt>hfiles/</tt>, laid out
+ * as {@link org.apache.hadoop.hbase.mapreduce.HFileOutputFormat} does, and
+ * the region split points in <tt>splits</tt>. When {@value #TABLE_KEY} is
+ * set, the table is created on those split points and the HFiles bulk
+ * loaded into it.
+ * </p>
+ */
+public class WikistatsLocalHFileLoader extends Configured implements Tool {
+
+  private static final Log LOG = LogFactory.getLog(WikistatsLocalHFileLoader.class);
+  private static final String TALL = "-tall";
+  private static final String WIDE = "-wide";
+
+  /** Threads parsing input files. */
+  public static final String THREADS_KEY = "wikistats.local.threads";
+  /** Heap bytes of cells each thread sorts in memory before spilling. */
+  public static final String RUN_BYTES_KEY = "wikistats.local.run.bytes";
+  private static final long DEFAULT_RUN_BYTES = 64 * 1024 * 1024;
+  /** Local directory for sorted runs. */
+  public static final String SPILL_DIR_KEY = "wikistats.local.spill.dir";
+  /** Table to create and bulk load once the HFiles are written. */
+  public static final String TABLE_KEY = "wikistats.local.table";
+
+  private static final Comparator<Path> BY_NAME = new Comparator<Path>() {
+    @Override
+    public int compare(Path a, Path b) {
+      return a.getName().compareTo(b.getName());
+    }
+  };
+
+  private final Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+  private final AtomicLong records = new AtomicLong();
+  private final AtomicLong malformed = new AtomicLong();
+
+  /**
+   * @return the wall time of each stage of the last run, in milliseconds,
+   *         in the order the stages ran.
+   */
+  public Map<String, Long> getStageTimes() {
+    return Collections.unmodifiableMap(stageTimes);
+  }
+
+  /**
+   * Parses files from a shared queue until it is empty, sorting the cells
+   * of all of them into one sorter.
+   */
+  private class ParseWorker implements Callable<SpillingKeyValueSorter> {
+
+    private final ConcurrentLinkedQueue<Path> files;
+    private final WikistatsMapper mapper;
+    private final SpillingKeyValueSorter sorter;
+    private final WikistatsRecordParser parser = new WikistatsRecordParser();
+    private final byte[] timestamp;
+
+    ParseWorker(ConcurrentLinkedQueue<Path> files, boolean tall, SpillingKeyValueSorter sorter,
+        byte[] timestamp) {
+      this.files = files;
+      this.mapper = tall
+          ? new WikistatsSchemaUtils.TallWikistatsMapper()
+          : new WikistatsSchemaUtils.WideWikistatsMapper();
+      this.mapper.configure(getConf());
+      this.sorter = sorter;
+      this.timestamp = timestamp;
+    }
+
+    @Override
+    public SpillingKeyValueSorter call() throws IOException {
+      boolean parsedAll = false;
+      try {
+        Path file;
+        while (null != (file = files.poll())) {
+          parse(file);
+        }
+        parsedAll = true;
+      } finally {
+        // leave the other workers nothing more to start on.
+        if (!parsedAll) {
+          files.clear();
+        }
+        try {
+          sorter.close();
+        } finally {
+          mapper.close();
+        }
+      }
+      return sorter;
+    }
+
+    private void parse(Path file) throws IOException {
+      String dateTime = WikistatsRecordParser.parseDateTime(file.toString());
+      PagecountsFileReader reader = new PagecountsFileReader(file, getConf());
+      long parsed = 0, failed = 0;
+      try {
+        Text line = new Text();
+        while (reader.readLine(line) > 0) {
+          if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Cancelled parsing " + file);
+          }
+          if (!parser.parse(line)) {
+            failed++;
+            continue;
+          }
+          Put put = mapper.createPut(dateTime, parser.getProjectCode(), parser.getPageName(),
+            parser.getPageViews(), parser.getBytes());
+          for (List<KeyValue> family : put.getFamilyMap().values()) {
+            for (KeyValue kv : family) {
+              kv.updateLatestStamp(timestamp);
+              sorter.add(kv);
+            }
+          }
+          parsed++;
+        }
+      } finally {
+        reader.close();
+      }
+      records.addAndGet(parsed);
+      malformed.addAndGet(failed);
+      LOG.info(String.format("Parsed %s: %d records, %d malformed.", file, parsed, failed));
+    }
+  }
+
+  /**
+   * @return the pagecounts files matched by <tt>inputPath</tt>, a file,
+   *         directory or glob.
+   */
+  private List<Path> listInputFiles(Path inputPath) throws IOException {
+    FileSystem fs = inputPath.getFileSystem(getConf());
+    FileStatus[] statuses = fs.globStatus(inputPath);
+    List<Path> files = new ArrayList<Path>();
+    for (FileStatus status : null == statuses ? new FileStatus[0] : statuses) {
+      for (FileStatus file : status.isDir()
+          ? fs.listStatus(status.getPath()) : new FileStatus[] { status }) {
+        Path p = file.getPath();
+        if (!file.isDir() && null != WikistatsRecordParser.parseDateTime(p.toString()))
+          files.add(p);
+      }
+    }
+    Collections.sort(files, BY_NAME);
+    return files;
+  }
+
+  /**
+   * Parse <tt>files</tt> across the thread pool into sorted runs.
+   * @return the sorter of each thread.
+   */
+  private List<SpillingKeyValueSorter> sortRuns(List<Path> files, boolean tall,
+      FileSystem localFs, Path spillDir) throws IOException, InterruptedException {
+    int threads = Math.min(files.size(),
+      getConf().getInt(THREADS_KEY, Runtime.getRuntime().availableProcessors()));
+    long runBytes = getConf().getLong(RUN_BYTES_KEY, DEFAULT_RUN_BYTES);
+    ConcurrentLinkedQueue<Path> queue = new ConcurrentLinkedQueue<Path>(files);
+    byte[] timestamp = Bytes.toBytes(System.currentTimeMillis());
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    CompletionService<SpillingKeyValueSorter> workers =
+        new ExecutorCompletionService<SpillingKeyValueSorter>(pool);
+    try {
+      for (int i = 0; i < threads; i++) {
+        SpillingKeyValueSorter sorter =
+            new SpillingKeyValueSorter(localFs, spillDir, String.format("t%03d", i), runBytes);
+        workers.submit(new ParseWorker(queue, tall, sorter, timestamp));
+      }
+      // take workers as they finish, so the first failure is seen at once.
+      List<SpillingKeyValueSorter> sorters = new ArrayList<SpillingKeyValueSorter>();
+      for (int i = 0; i < threads; i++) {
+        try {
+          sorters.add(workers.take().get());
+        } catch (ExecutionException e) {
+          throw new IOException("Failed to parse input", e.getCause());
+        }
+      }
+      return sorters;
+    } finally {
+      // on failure, interrupt the other workers, and let them stop before
+      // their spill directory is removed.
+      queue.clear();
+      pool.shutdownNow();
+      pool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  private StoreFile.Writer createWriter(FileSystem fs, Path file, HColumnDescriptor family)
+      throws IOException {
+    // as HFileOutputFormat does, write without a block cache.
+    Configuration tempConf = new Configuration(getConf());
+    tempConf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0.0f);
+    return new StoreFile.WriterBuilder(tempConf, new CacheConfig(tempConf), fs,
+        family.getBlocksize())
+      .withFilePath(file)
+      .withCompression(family.getCompression())
+      .withDataBlockEncoder(new HFileDataBlockEncoderImpl(family.getDataBlockEncoding()))
+      .withBloomType(family.getBloomFilterType())
+      .withComparator(KeyValue.COMPARATOR)
+      .build();
+  }
+
+  private void closeWriter(StoreFile.Writer writer) throws IOException {
+    // the same metadata HFileOutputFormat writes.
+    writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(System.currentTimeMillis()));
+    writer.appendFileInfo(StoreFile.BULKLOAD_TASK_KEY, Bytes.toBytes(getClass().getSimpleName()));
+    writer.appendFileInfo(StoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(true));
+    writer.appendTrackedTimestampsToMetadata();
+    writer.close();
+  }
+
+  /**
+   * Merge <tt>runs</tt> into HFiles under <tt>familyDir</tt>, starting a new
+   * file at the first row boundary after every <tt>regionBytes</tt>.
+   * @return the first row of every file but the first.
+   */
+  List<byte[]> writeHFiles(FileSystem localFs, List<Path> runs, int numRegions,
+      long regionBytes, FileSystem fs, Path familyDir) throws IOException {
+    HColumnDescriptor family = WikistatsSchemaUtils.createDefaultTableDesc("wikistats", getConf())
+        .getFamily(WikistatsSchemaUtils.COLUMN_FAMILY_NAME);
+    List<byte[]> splitPoints = new ArrayList<byte[]>();
+    SpillingKeyValueSorter.Merger merger = new SpillingKeyValueSorter.Merger(localFs, runs);
+    StoreFile.Writer writer = null;
+    try {
+      KeyValue kv, last = null;
+      long written = 0;
+      while (null != (kv = merger.next())) {
+        boolean newRow = null == last || !Bytes.equals(
+          last.getBuffer(), last.getRowOffset(), last.getRowLength(),
+          kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+        if (null == writer
+            || (newRow && written >= regionBytes && splitPoints.size() < numRegions - 1)) {
+          if (null != writer) {
+            closeWriter(writer);
+            splitPoints.add(kv.getRow());
+          }
+          writer = createWriter(fs,
+            new Path(familyDir, String.format("%05d", splitPoints.size())), family);
+          written = 0;
+        }
+        writer.append(kv);
+        written += kv.getLength();
+        last = kv;
+      }
+    } finally {
+      try {
+        if (null != writer) closeWriter(writer);
+      } finally {
+        merger.close();
+      }
+    }
+    return splitPoints;
+  }
+
+  private void writeSplitPoints(FileSystem fs, Path file, List<byte[]> splitPoints)
+      throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, getConf(), file,
+      ImmutableBytesWritable.class, NullWritable.class);
+    try {
+      for (byte[] split : splitPoints) {
+        writer.append(new ImmutableBytesWritable(split), NullWritable.get());
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    boolean argsValid = true;
+    argsValid = argsValid && args.length == 4;
+    argsValid = argsValid && (TALL.equals(args[0]) || WIDE.equals(args[0]));
+
+    if (!argsValid) {
+      System.err.printf("Usage: %s [generic options] (%s | %s) <num-regions> <input-path> "
+          + "<output-dir>%n", getClass().getSimpleName(), TALL, WIDE);
+      System.err.println();
+      System.err.println("Loader options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", THREADS_KEY,
+        "Threads parsing input (default one per core)");
+      System.err.printf("  %-36s %s%n", RUN_BYTES_KEY,
+        String.format("Heap bytes sorted in memory per thread before spilling (default %d)",
+          DEFAULT_RUN_BYTES));
+      System.err.printf("  %-36s %s%n", SPILL_DIR_KEY,
+        "Local directory for sorted runs (default under java.io.tmpdir)");
+      System.err.printf("  %-36s %s%n", TABLE_KEY,
+        "Create this table on the split points and bulk load the HFiles into it");
+      WikistatsSchemaUtils.printSchemaOptions(System.err);
+      System.err.println();
+      ToolRunner.printGenericCommandUsage(System.err);
+      return -1;
+    }
+
+    boolean tall    = TALL.equals(args[0]);
+    int numRegions  = Integer.parseInt(args[1]);
+    Path inputPath  = new Path(args[2]);
+    Path outputDir  = new Path(args[3]);
+    Path hfiles     = new Path(outputDir, "hfiles");
+    Path splitsFile = new Path(outputDir, "splits");
+    // rollups are summed in the observation shuffle, which this loader
+    // does not run.
+    if (WikistatsSchemaUtils.isRollupEnabled(getConf())) {
+      LOG.error(String.format("%s requires a shuffled load; use %s.",
+        WikistatsSchemaUtils.ROLLUP_KEY, WikistatsHFileLoader.class.getSimpleName()));
+      return -1;
+    }
+    // top pages are merged there too.
+    if (TopPages.getTopN(getConf()) > 0) {
+      LOG.error(String.format("%s requires a shuffled load; use %s.",
+        TopPages.TOPN_KEY, WikistatsHFileLoader.class.getSimpleName()));
+      return -1;
+    }
+
+    stageTimes.clear();
+    records.set(0);
+    malformed.set(0);
+    FileSystem fs = outputDir.getFileSystem(getConf());
+    fs.delete(hfiles, true);
+    fs.delete(splitsFile, false);
+    FileSystem localFs = FileSystem.getLocal(getConf());
+    Path spillDir = new Path(getConf().get(SPILL_DIR_KEY, System.getProperty("java.io.tmpdir")),
+      "wikistats-runs-" + System.currentTimeMillis());
+    localFs.mkdirs(spillDir);
+
+    List<Path> files = listInputFiles(inputPath);
+    if (files.isEmpty()) {
+      LOG.error("No pagecounts files under " + inputPath);
+      return -1;
+    }
+
+    // pages are given their ids as the files are parsed.
+    if (!PageDictionary.prepareTable(getConf(), getConf().get(TABLE_KEY)))
+      return -1;
+
+    try {
+      long start = System.currentTimeMillis();
+      List<SpillingKeyValueSorter> sorters = sortRuns(files, tall, localFs, spillDir);
+      List<Path> runs = new ArrayList<Path>();
+      long cellBytes = 0;
+      for (SpillingKeyValueSorter sorter : sorters) {
+        runs.addAll(sorter.getRuns());
+        cellBytes += sorter.getCellBytes();
+      }
+      stageTimes.put("sort", System.currentTimeMillis() - start);
+      LOG.info(String.format("Sorted %d records (%d malformed) from %d files into %d runs, "
+          + "%d cell bytes, in %d ms.", records.get(), malformed.get(), files.size(),
+          runs.size(), cellBytes, stageTimes.get("sort")));
+
+      start = System.currentTimeMillis();
+      long regionBytes = Math.max(1, cellBytes / Math.max(1, numRegions));
+      List<byte[]> splitPoints = writeHFiles(localFs, runs, numRegions, regionBytes, fs,
+        new Path(hfiles, Bytes.toString(WikistatsSchemaUtils.COLUMN_FAMILY_NAME)));
+      writeSplitPoints(fs, splitsFile, splitPoints);
+      stageTimes.put("hfiles", System.currentTimeMillis() - start);
+      LOG.info(String.format("Wrote %d HFiles under %s in %d ms.", splitPoints.size() + 1,
+        hfiles, stageTimes.get("hfiles")));
+
+      String table = getConf().get(TABLE_KEY);
+      if (null != table) {
+        if (!WikistatsHFileLoader.prepareTable(getConf(), table, splitPoints))
+          return -1;
+        start = System.currentTimeMillis();
+        Map<String, Long> loadTimes = new ParallelBulkLoader(getConf(), table).load(hfiles);
+        stageTimes.put("bulkload", System.currentTimeMillis() - start);
+        LOG.info(String.format("Bulk loaded %d regions into '%s' in %d ms.",
+          loadTimes.size(), table, stageTimes.get("bulkload")));
+      }
+    } finally {
+      localFs.delete(spillDir, true);
+    }
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(new WikistatsLocalHFileLoader(), args);
+    System.exit(status);
+  }
+}
@@ -2,26 +2,36 @@ package com.hortonworks.examples.hbase.wikitraffic;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
-import org.apache.hadoop.hbase.mapreduce.IdentityTableReducer;
 import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
 import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import com.hortonworks.examples.hbase.wikitraffic.hbase.BufferedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
 import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.ObservationShuffle;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PutEmitter;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.RunReport;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsCounters;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsInputs;
 
 /**
  * An example HBase application. Load the wikitraffic's wikistats dataset
@@ -34,15 +44,85 @@ public class WikistatsOnlineLoader extends Configured implements Tool {
   private static final String TALL = "-tall";
   private static final String WIDE = "-wide";
 
+  /** Write from the mappers directly, skipping the shuffle and reduce. */
+  public static final String DIRECT_KEY = "wikistats.online.direct";
+
+  private final Map<String, Long> stageTimes = new LinkedHashMap<String, Long>();
+
+  /**
+   * @return the wall time of each stage of the last run, in milliseconds.
+   */
+  public Map<String, Long> getStageTimes() {
+    return Collections.unmodifiableMap(stageTimes);
+  }
+
+  /**
+   * Verify that <tt>targetTable</tt> carries the schema's column families,
+   * creating it from the default descriptor when it does not exist.
+   * @return false when the existing table cannot hold the data.
+   */
+  static boolean prepareTable(Configuration conf, String targetTable) throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      // verify table and columns exist
+      if (admin.tableExists(targetTable)) {
+        HColumnDescriptor[] cols =
+            admin.getTableDescriptor(Bytes.toBytes(targetTable)).getColumnFamilies();
+        for (byte[] family : WikistatsSchemaUtils.getFamilies(conf)) {
+          boolean hasTargetColumn = false;
+          for (HColumnDescriptor desc : cols) {
+            if (Arrays.equals(family, desc.getName()))
+              hasTargetColumn = true;
+          }
+          if (!hasTargetColumn) {
+            LOG.error(String.format(
+              "Target table '%s' does not have required column family '%s'.",
+              targetTable, Bytes.toString(family)));
+            return false;
+          }
+        }
+        LOG.info(String.format("Using existing table '%s'", targetTable));
+      } else {
+        LOG.info(String.format("Table '%s' does not exist. Creating from default descriptor.",
+            targetTable));
+        // spread salted writes over one region per bucket from the start.
+        HTableDescriptor desc = WikistatsSchemaUtils.createDefaultTableDesc(targetTable, conf);
+        byte[][] splitKeys = WikistatsSchemaUtils.getSaltSplitKeys(conf);
+        if (splitKeys.length > 0) {
+          admin.createTable(desc, splitKeys);
+        } else {
+          admin.createTable(desc);
+        }
+      }
+      return true;
+    } finally {
+      admin.close();
+    }
+  }
+
   public int run(String[] args) throws Exception {
+    stageTimes.clear();
     boolean argsValid = true;
     argsValid = argsValid && args.length == 3;
     argsValid = argsValid && (TALL.equals(args[0]) || WIDE.equals(args[0]));
+    argsValid = argsValid && !(TALL.equals(args[0]) && WikistatsInputs.isMultiHour(getConf()));
 
     if (!argsValid) {
       System.err.printf("Usage: %s [generic options] (%s | %s) <target-table> <input-path>%n",
         getClass().getSimpleName(), TALL, WIDE);
       System.err.println();
+      System.err.println("Loader options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", DIRECT_KEY,
+        "Write from a map-only job, without a reduce (default false)");
+      System.err.printf("  %-36s %s%n", BufferedTableWriter.WRITE_BUFFER_KEY,
+        String.format("Client write buffer of each writing task (default %d)",
+          BufferedTableWriter.DEFAULT_WRITE_BUFFER));
+      System.err.printf("  %-36s %s%n", BufferedTableWriter.SKIP_WAL_KEY,
+        "Skip the WAL; only for rebuildable data (default false)");
+      System.err.printf("  %-36s %s%n", RunReport.REPORT_PATH_KEY,
+        "Write a JSON report of the run's counters to this path");
+      WikistatsSchemaUtils.printSchemaOptions(System.err);
+      System.err.println();
       ToolRunner.printGenericCommandUsage(System.err);
       return -1;
     }
@@ -50,58 +130,53 @@ public class WikistatsOnlineLoader extends Configured implements Tool {
     String schemaType  = args[0];
     String targetTable = args[1];
     String inputPath   = args[2];
+    boolean direct = getConf().getBoolean(DIRECT_KEY, false);
+
+    // rollups are summed in the shuffle, which direct mode skips.
+    if (direct && WikistatsSchemaUtils.isRollupEnabled(getConf())) {
+      LOG.error(String.format("%s requires the shuffle; unset %s.",
+        WikistatsSchemaUtils.ROLLUP_KEY, DIRECT_KEY));
+      return -1;
+    }
+    // top pages are merged there too.
+    if (direct && TopPages.getTopN(getConf()) > 0) {
+      LOG.error(String.format("%s requires the shuffle; unset %s.",
+        TopPages.TOPN_KEY, DIRECT_KEY));
+      return -1;
+    }
 
     // validate destination table
-    HBaseAdmin admin = null;
     try {
-      admin = new HBaseAdmin(getConf());
-      // verify table and column exist
-      if (admin.tableExists(targetTable)) {
-        HColumnDescriptor[] cols =
-            admin.getTableDescriptor(Bytes.toBytes(targetTable)).getColumnFamilies();
-        boolean hasTargetColumn = false;
-        for (HColumnDescriptor desc : cols) {
-          if (Arrays.equals(WikistatsSchemaUtils.COLUMN_FAMILY_NAME, desc.getName()))
-            hasTargetColumn = true;
-        }
-        if (hasTargetColumn) {
-          LOG.info(String.format("Using existing table '%s'", targetTable));
-        } else {
-          LOG.error(String.format("Target table '%s' does not have required column family '%s'.",
-            targetTable, Bytes.toString(WikistatsSchemaUtils.COLUMN_FAMILY_NAME)));
-          return -1;
-        }
-      } else {
-        LOG.info(String.format("Table '%s' does not exist. Creating from default descriptor.",
-            targetTable));
-        admin.createTable(WikistatsSchemaUtils.createDefaultTableDesc(targetTable));
-      }
+      if (!prepareTable(getConf(), targetTable))
+        return -1;
+      if (!TopPages.prepareTable(getConf(), targetTable))
+        return -1;
+      if (!PageDictionary.prepareTable(getConf(), targetTable))
+        return -1;
     } catch (IOException e) {
       LOG.error("Failed to verify target table. Aborting.", e);
       return -1;
-    } finally {
-      if (null != admin)
-        admin.close();
     }
 
     // initialize job
     Job job  = new Job(getConf(), "Populate Wikistats table.");
     job.setJarByClass(getClass());
 
-    // configure job input path
+    // configure job input path and mapper
     Path wikistats = new Path(inputPath);
-    FileInputFormat.addInputPath(job, wikistats);
-
-    // configure job mapper
-    job.setInputFormatClass(TextInputFormat.class);
-    job.setMapperClass(schemaType.equals(TALL)
-        ? WikistatsSchemaUtils.TallWikistatsMapper.class
-        : WikistatsSchemaUtils.WideWikistatsMapper.class);
+    WikistatsInputs.configure(job, schemaType.equals(TALL), wikistats);
     job.setMapOutputKeyClass(ImmutableBytesWritable.class);
     job.setMapOutputValueClass(Put.class);
 
-    // configure job reducer
-    TableMapReduceUtil.initTableReducerJob(targetTable, IdentityTableReducer.class, job);
+    if (direct) {
+      // mappers write to the table themselves; there is nothing to reduce.
+      job.getConfiguration().set(PutEmitter.DIRECT_TABLE_KEY, targetTable);
+      job.setNumReduceTasks(0);
+      job.setOutputFormatClass(NullOutputFormat.class);
+    } else {
+      // shuffle compact observations; the reducer turns them into Puts.
+      ObservationShuffle.configurePuts(job, targetTable);
+    }
 
     // include additional HBase jars
     TableMapReduceUtil.addDependencyJars(job);
@@ -110,9 +185,15 @@ public class WikistatsOnlineLoader extends Configured implements Tool {
     long startTime = System.currentTimeMillis();
     boolean success = job.waitForCompletion(true);
     long endTime = System.currentTimeMillis();
-    Counter c = job.getCounters().findCounter(
-      "org.apache.hadoop.mapred.Task$Counter", "REDUCE_OUTPUT_RECORDS");
-    long recordsWritten = c.getValue();
+    stageTimes.put("load", endTime - startTime);
+
+    String reportPath = getConf().get(RunReport.REPORT_PATH_KEY);
+    if (null != reportPath) {
+      RunReport report = new RunReport(getClass().getSimpleName());
+      report.addJob("load", job, endTime - startTime, success);
+      report.write(getConf(), new Path(reportPath));
+    }
+    long recordsWritten = job.getCounters().findCounter(WikistatsCounters.PUTS_OUT).getValue();
     LOG.info(String.format("Wrote %d %s records to HBase in %d ms",
       recordsWritten, schemaType.equals(TALL) ? "tall" : "wide", (endTime - startTime)));
     return success ? 0 : 1;
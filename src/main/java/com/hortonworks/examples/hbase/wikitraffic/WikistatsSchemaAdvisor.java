@@ -0,0 +1,456 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.Compression;
+import org.apache.hadoop.hbase.io.hfile.Compression.Algorithm;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoder;
+import org.apache.hadoop.hbase.io.hfile.HFileDataBlockEncoderImpl;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CompressionTest;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.EpochHours;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsMapper;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+/**
+ * Recommends column family settings for the wikistats schemas. A sample of
+ * up to {@value #HOURS_KEY} hourly pagecounts files is run through the tall
+ * and wide mappers and written to local HFiles under every combination of
+ * compression, data block encoding, bloom filter and block size. Each
+ * combination is timed for writing, point gets and a full scan, and its
+ * on-disk size is recorded. Results are written to <tt>advisor.tsv</tt> in
+ * the output directory.
+ * <p>
+ * A wide row holds a cell per hour, so the sample must span hours for wide
+ * rows to resemble the table's. The first records of each file are read,
+ * and files list pages in the same order, so the hours cover the same
+ * pages. A sample of a single hour is replayed over the following hours,
+ * with each replayed count scaled by a random factor between 0.5 and 1.5.
+ * </p>
+ * <p>
+ * The recommendation is the smallest combination whose gets and scans are
+ * within {@value #SLOWDOWN_TOLERANCE}x of the fastest. Bloom filters only pay
+ * off across several store files, which a single file cannot show, so the
+ * recommendation always includes a ROW bloom filter and reports its size.
+ * The recommendation is printed as the options read by
+ * {@link WikistatsSchemaUtils#createDefaultTableDesc(String, Configuration)}.
+ * </p>
+ */
+public class WikistatsSchemaAdvisor extends Configured implements Tool {
+
+  private static final Log LOG = LogFactory.getLog(WikistatsSchemaAdvisor.class);
+
+  public static final String MAX_RECORDS_KEY = "wikistats.advisor.records";
+  public static final String COMPRESSIONS_KEY = "wikistats.advisor.compressions";
+  public static final String BLOCK_SIZES_KEY = "wikistats.advisor.block.sizes";
+  public static final String NUM_GETS_KEY = "wikistats.advisor.gets";
+  public static final String HOURS_KEY = "wikistats.advisor.hours";
+
+  private static final int DEFAULT_MAX_RECORDS = 100000;
+  private static final String DEFAULT_COMPRESSIONS = "none,gz,snappy,lzo";
+  private static final String DEFAULT_BLOCK_SIZES = "8192,65536";
+  private static final int DEFAULT_NUM_GETS = 1000;
+  private static final int DEFAULT_HOURS = 24;
+  private static final double SLOWDOWN_TOLERANCE = 1.25;
+
+  private static final DataBlockEncoding[] ENCODINGS = {
+    DataBlockEncoding.NONE, DataBlockEncoding.PREFIX, DataBlockEncoding.DIFF,
+    DataBlockEncoding.FAST_DIFF };
+
+  /** Orders hourly files by their date-time, wherever they are found. */
+  private static final Comparator<Path> BY_NAME = new Comparator<Path>() {
+    @Override
+    public int compare(Path a, Path b) {
+      return a.getName().compareTo(b.getName());
+    }
+  };
+
+  /** The measurements of a single combination. */
+  static class Trial {
+    final Algorithm compression;
+    final DataBlockEncoding encoding;
+    final BloomType bloom;
+    final int blockSize;
+    long fileBytes;
+    long writeMillis;
+    double getMicros;
+    long scanMillis;
+
+    Trial(Algorithm compression, DataBlockEncoding encoding, BloomType bloom, int blockSize) {
+      this.compression = compression;
+      this.encoding = encoding;
+      this.bloom = bloom;
+      this.blockSize = blockSize;
+    }
+
+    boolean sameStorage(Trial o) {
+      return compression == o.compression && encoding == o.encoding
+          && blockSize == o.blockSize;
+    }
+  }
+
+  /**
+   * @return the pagecounts files matching <tt>sample</tt>, a file, a
+   *         directory or a glob, in hour order.
+   */
+  static List<Path> listSamples(FileSystem fs, Path sample) throws IOException {
+    List<Path> samples = new ArrayList<Path>();
+    FileStatus[] matches = fs.globStatus(sample);
+    if (null == matches) {
+      return samples;
+    }
+    for (FileStatus match : matches) {
+      FileStatus[] files = match.isDir()
+          ? fs.listStatus(match.getPath()) : new FileStatus[] { match };
+      for (FileStatus file : files) {
+        if (!file.isDir()
+            && null != WikistatsRecordParser.parseDateTime(file.getPath().toString())) {
+          samples.add(file.getPath());
+        }
+      }
+    }
+    Collections.sort(samples, BY_NAME);
+    return samples;
+  }
+
+  /**
+   * Read up to {@value #MAX_RECORDS_KEY} records of the first
+   * {@value #HOURS_KEY} <tt>samples</tt> through <tt>mapper</tt>, an equal
+   * share from each hour, replaying a single hour over the following hours.
+   * @return the resulting cells, sorted.
+   */
+  List<KeyValue> readSample(List<Path> samples, WikistatsMapper mapper) throws IOException {
+    Configuration conf = getConf();
+    mapper.configure(conf);
+    int hours = Math.max(1, conf.getInt(HOURS_KEY, DEFAULT_HOURS));
+    List<Path> files = samples.size() > hours ? samples.subList(0, hours) : samples;
+    int replays = files.size() == 1 ? hours : 1;
+    int maxRecords = Math.max(1,
+      conf.getInt(MAX_RECORDS_KEY, DEFAULT_MAX_RECORDS) / (files.size() * replays));
+
+    byte[] now = Bytes.toBytes(System.currentTimeMillis());
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    Random random = new Random(0);
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    Text line = new Text();
+    for (Path sample : files) {
+      String dateTime = WikistatsRecordParser.parseDateTime(sample.toString());
+      if (null == dateTime) {
+        throw new IllegalArgumentException("Not a pagecounts file: " + sample);
+      }
+      int hour = EpochHours.fromDateTime(dateTime);
+      FileSystem fs = sample.getFileSystem(conf);
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(sample);
+      LineReader reader = new LineReader(null == codec
+          ? fs.open(sample) : codec.createInputStream(fs.open(sample)), conf);
+      try {
+        int records = 0;
+        while (records < maxRecords && reader.readLine(line) > 0) {
+          if (!parser.parse(line)) continue;
+          for (int i = 0; i < replays; i++) {
+            long pageViews = parser.getPageViews();
+            long bytes = parser.getBytes();
+            if (i > 0) {
+              double scale = 0.5 + random.nextDouble();
+              pageViews = Math.max(1, Math.round(pageViews * scale));
+              bytes = Math.round(bytes * scale);
+            }
+            Put put = mapper.createPut(0 == i ? dateTime : EpochHours.toDateTime(hour + i),
+              parser.getProjectCode(), parser.getPageName(), pageViews, bytes);
+            for (List<KeyValue> family : put.getFamilyMap().values()) {
+              for (KeyValue kv : family) {
+                kv.updateLatestStamp(now);
+                kvs.add(kv);
+              }
+            }
+          }
+          records++;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    Collections.sort(kvs, KeyValue.COMPARATOR);
+    return kvs;
+  }
+
+  /**
+   * @return the number of distinct rows of <tt>kvs</tt>, which are sorted.
+   */
+  static int countRows(List<KeyValue> kvs) {
+    int rows = 0;
+    byte[] last = null;
+    for (KeyValue kv : kvs) {
+      if (null == last || !kv.matchingRow(last)) {
+        last = kv.getRow();
+        rows++;
+      }
+    }
+    return rows;
+  }
+
+  private Trial measure(FileSystem fs, Path dir, List<KeyValue> kvs, List<KeyValue> gets,
+      Trial trial) throws IOException {
+    // measure without a block cache, so every read decodes its block.
+    Configuration conf = new Configuration(getConf());
+    conf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0.0f);
+    CacheConfig cacheConf = new CacheConfig(conf);
+    // store file names must be hex; each trial's file is deleted when done.
+    Path file = new Path(dir, "0");
+    HFileDataBlockEncoder encoder = new HFileDataBlockEncoderImpl(trial.encoding);
+
+    long start = System.currentTimeMillis();
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, fs, trial.blockSize)
+      .withFilePath(file)
+      .withCompression(trial.compression)
+      .withDataBlockEncoder(encoder)
+      .withBloomType(trial.bloom)
+      .withMaxKeyCount(kvs.size())
+      .withComparator(KeyValue.COMPARATOR)
+      .build();
+    try {
+      for (KeyValue kv : kvs) {
+        writer.append(kv);
+      }
+    } finally {
+      writer.close();
+    }
+    trial.writeMillis = System.currentTimeMillis() - start;
+    trial.fileBytes = fs.getFileStatus(file).getLen();
+
+    StoreFile sf = new StoreFile(fs, file, conf, cacheConf, trial.bloom, encoder);
+    StoreFile.Reader reader = sf.createReader();
+    try {
+      // point gets read every cell of a row, as a Get would.
+      StoreFileScanner scanner = reader.getStoreFileScanner(false, true);
+      start = System.nanoTime();
+      for (KeyValue get : gets) {
+        scanner.seek(KeyValue.createFirstOnRow(get.getRow()));
+        while (null != scanner.peek() && Bytes.equals(get.getRow(), scanner.peek().getRow())) {
+          scanner.next();
+        }
+      }
+      trial.getMicros = (System.nanoTime() - start) / 1000.0 / Math.max(1, gets.size());
+      scanner.close();
+
+      scanner = reader.getStoreFileScanner(false, false);
+      start = System.currentTimeMillis();
+      scanner.seek(KeyValue.LOWESTKEY);
+      while (null != scanner.next()) {
+        // read every cell
+      }
+      trial.scanMillis = System.currentTimeMillis() - start;
+      scanner.close();
+    } finally {
+      sf.closeReader(true);
+    }
+    fs.delete(file, false);
+    return trial;
+  }
+
+  private List<Algorithm> getCompressions() {
+    List<Algorithm> algorithms = new ArrayList<Algorithm>();
+    for (String name : getConf().get(COMPRESSIONS_KEY, DEFAULT_COMPRESSIONS).split(",")) {
+      try {
+        Algorithm algo = Compression.getCompressionAlgorithmByName(name.trim());
+        CompressionTest.testCompression(algo);
+        algorithms.add(algo);
+      } catch (Exception e) {
+        LOG.warn(String.format("Skipping unavailable compression '%s': %s", name, e));
+      }
+    }
+    return algorithms;
+  }
+
+  private List<Trial> runTrials(String schema, List<KeyValue> kvs, FileSystem fs, Path dir,
+      PrintWriter report) throws IOException {
+    // sample gets from the cells written.
+    int numGets = getConf().getInt(NUM_GETS_KEY, DEFAULT_NUM_GETS);
+    List<KeyValue> gets = new ArrayList<KeyValue>(numGets);
+    Random random = new Random(0);
+    for (int i = 0; i < numGets && !kvs.isEmpty(); i++) {
+      gets.add(kvs.get(random.nextInt(kvs.size())));
+    }
+
+    List<Integer> blockSizes = new ArrayList<Integer>();
+    for (String size : getConf().get(BLOCK_SIZES_KEY, DEFAULT_BLOCK_SIZES).split(",")) {
+      blockSizes.add(Integer.parseInt(size.trim()));
+    }
+
+    List<Trial> trials = new ArrayList<Trial>();
+    for (Algorithm compression : getCompressions()) {
+      for (DataBlockEncoding encoding : ENCODINGS) {
+        for (BloomType bloom : BloomType.values()) {
+          for (int blockSize : blockSizes) {
+            Trial t = measure(fs, dir, kvs, gets,
+              new Trial(compression, encoding, bloom, blockSize));
+            report.printf("%s\t%s\t%s\t%s\t%d\t%d\t%d\t%.2f\t%d%n", schema,
+              compression.getName(), encoding, bloom, blockSize, t.fileBytes, t.writeMillis,
+              t.getMicros, t.scanMillis);
+            trials.add(t);
+          }
+        }
+      }
+    }
+    return trials;
+  }
+
+  /**
+   * @return the smallest trial, ignoring bloom filters, whose gets and scans
+   *         are within {@link #SLOWDOWN_TOLERANCE} of the fastest.
+   */
+  static Trial recommend(List<Trial> trials) {
+    double fastestGet = Double.MAX_VALUE;
+    long fastestScan = Long.MAX_VALUE;
+    for (Trial t : trials) {
+      if (t.bloom != BloomType.NONE) continue;
+      fastestGet = Math.min(fastestGet, t.getMicros);
+      fastestScan = Math.min(fastestScan, t.scanMillis);
+    }
+    Trial best = null;
+    for (Trial t : trials) {
+      if (t.bloom != BloomType.NONE) continue;
+      if (t.getMicros > fastestGet * SLOWDOWN_TOLERANCE) continue;
+      if (t.scanMillis > Math.max(1, fastestScan) * SLOWDOWN_TOLERANCE) continue;
+      if (null == best || t.fileBytes < best.fileBytes) best = t;
+    }
+    if (null == best) return null;
+    for (Trial t : trials) {
+      if (t.bloom == BloomType.ROW && t.sameStorage(best)) return t;
+    }
+    return best;
+  }
+
+  private void printRecommendation(String schema, Trial t, long baselineBytes) {
+    System.out.println();
+    System.out.printf("Recommended settings for the %s schema (%d bytes, %.1f%% of uncompressed, "
+        + "unencoded, no bloom):%n", schema, t.fileBytes, 100.0 * t.fileBytes / baselineBytes);
+    System.out.printf("  -D%s=%s -D%s=%s -D%s=%s -D%s=%d%n",
+      WikistatsSchemaUtils.FAMILY_COMPRESSION_KEY, t.compression.getName(),
+      WikistatsSchemaUtils.FAMILY_ENCODING_KEY, t.encoding,
+      WikistatsSchemaUtils.FAMILY_BLOOM_KEY, t.bloom,
+      WikistatsSchemaUtils.FAMILY_BLOCKSIZE_KEY, t.blockSize);
+
+    Configuration conf = new Configuration(false);
+    conf.set(WikistatsSchemaUtils.FAMILY_COMPRESSION_KEY, t.compression.getName());
+    conf.set(WikistatsSchemaUtils.FAMILY_ENCODING_KEY, t.encoding.name());
+    conf.set(WikistatsSchemaUtils.FAMILY_BLOOM_KEY, t.bloom.name());
+    conf.setInt(WikistatsSchemaUtils.FAMILY_BLOCKSIZE_KEY, t.blockSize);
+    System.out.println("  " + WikistatsSchemaUtils.createDefaultTableDesc("wikistats", conf));
+  }
+
+  private static long baselineBytes(List<Trial> trials) {
+    long bytes = 1;
+    for (Trial t : trials) {
+      if (t.compression == Algorithm.NONE && t.encoding == DataBlockEncoding.NONE
+          && t.bloom == BloomType.NONE) {
+        bytes = Math.max(bytes, t.fileBytes);
+      }
+    }
+    return bytes;
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.printf("Usage: %s [generic options] <sample-path> <local-output-dir>%n",
+        getClass().getSimpleName());
+      System.err.println();
+      System.err.println("Advisor options (specify with -D<property>=<value>):");
+      System.err.printf("  %-36s %s%n", MAX_RECORDS_KEY,
+        String.format("Records read from the sample (default %d)", DEFAULT_MAX_RECORDS));
+      System.err.printf("  %-36s %s%n", HOURS_KEY,
+        String.format("Hourly files read, or replayed from a single file (default %d)",
+          DEFAULT_HOURS));
+      System.err.printf("  %-36s %s%n", COMPRESSIONS_KEY,
+        String.format("Compressions to try, when available (default %s)", DEFAULT_COMPRESSIONS));
+      System.err.printf("  %-36s %s%n", BLOCK_SIZES_KEY,
+        String.format("Block sizes to try (default %s)", DEFAULT_BLOCK_SIZES));
+      System.err.printf("  %-36s %s%n", NUM_GETS_KEY,
+        String.format("Point gets timed per combination (default %d)", DEFAULT_NUM_GETS));
+      WikistatsSchemaUtils.printSchemaOptions(System.err);
+      System.err.println();
+      ToolRunner.printGenericCommandUsage(System.err);
+      return -1;
+    }
+
+    Path sample = new Path(args[0]);
+    Path output = new Path(args[1]);
+    List<Path> samples = listSamples(sample.getFileSystem(getConf()), sample);
+    if (samples.isEmpty()) {
+      System.err.println("No pagecounts files match " + sample);
+      return 1;
+    }
+
+    FileSystem fs = FileSystem.getLocal(getConf());
+    fs.mkdirs(output);
+    PrintWriter report = new PrintWriter(new OutputStreamWriter(
+      fs.create(new Path(output, "advisor.tsv"), true), "UTF-8"));
+    List<String> schemas = new ArrayList<String>();
+    List<List<Trial>> results = new ArrayList<List<Trial>>();
+    try {
+      report.println("schema\tcompression\tencoding\tbloom\tblock_size\tfile_bytes"
+          + "\twrite_ms\tget_us\tscan_ms");
+      WikistatsMapper[] mappers = {
+        new WikistatsSchemaUtils.TallWikistatsMapper(),
+        new WikistatsSchemaUtils.WideWikistatsMapper() };
+      String[] names = { "tall", "wide" };
+      for (int i = 0; i < mappers.length; i++) {
+        List<KeyValue> kvs = readSample(samples, mappers[i]);
+        LOG.info(String.format("Benchmarking %d %s cells in %d rows.", kvs.size(), names[i],
+          countRows(kvs)));
+        Path dir = new Path(output, names[i]);
+        fs.mkdirs(dir);
+        schemas.add(names[i]);
+        results.add(runTrials(names[i], kvs, fs, dir, report));
+      }
+    } finally {
+      report.close();
+    }
+
+    for (int i = 0; i < schemas.size(); i++) {
+      Trial best = recommend(results.get(i));
+      if (null != best) {
+        printRecommendation(schemas.get(i), best, baselineBytes(results.get(i)));
+      }
+    }
+    System.out.println();
+    System.out.println("Full results written to " + new Path(output, "advisor.tsv"));
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int status = ToolRunner.run(new WikistatsSchemaAdvisor(), args);
+    System.exit(status);
+  }
+}
@@ -0,0 +1,116 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Generates synthetic pagecounts records. Page views are drawn from a Zipf
+ * distribution over page ranks, so a few pages dominate and most are viewed
+ * once, as in the real dataset. Project codes follow a fixed mix weighted
+ * toward "en". Like the real hourly files, each page appears at most once
+ * per batch of records and records are sorted by project and page.
+ */
+public class ZipfPagecounts {
+
+  private static final String[] PROJECTS = {
+    "en", "de", "ja", "es", "fr", "ru", "it", "pl", "commons.m", "en.b", "zh", "pt" };
+  private static final double[] PROJECT_WEIGHTS = {
+    0.45, 0.08, 0.07, 0.06, 0.05, 0.05, 0.04, 0.04, 0.04, 0.04, 0.04, 0.04 };
+
+  private static final String[] WORDS = {
+    "Main_Page", "Special:Search", "Barack_Obama", "List_of", "History", "United_States",
+    "File:Example.jpg", "Swine_influenza", "The", "Album", "Category:Living_people",
+    "Talk:", "Caf%C3%A9", "AC%2FDC", "Wikipedia:Featured_pictures", "Template:Infobox",
+    "2009", "Season", "%E6%97%A5%E6%9C%AC", "Rock_music" };
+
+  private final Random random;
+  private final double[] cdf;
+
+  /**
+   * @param distinctPages the number of distinct page ranks per project.
+   * @param exponent the Zipf exponent; the real dataset is close to 1.
+   * @param seed seeds the generator so runs are comparable.
+   */
+  public ZipfPagecounts(int distinctPages, double exponent, long seed) {
+    this.random = new Random(seed);
+    this.cdf = new double[distinctPages];
+    double sum = 0;
+    for (int i = 0; i < distinctPages; i++) {
+      sum += 1.0 / Math.pow(i + 1, exponent);
+      cdf[i] = sum;
+    }
+    for (int i = 0; i < distinctPages; i++) {
+      cdf[i] /= sum;
+    }
+  }
+
+  /**
+   * @return a Zipf-distributed rank in <tt>[1, distinctPages]</tt>.
+   */
+  public int nextRank() {
+    int i = Arrays.binarySearch(cdf, random.nextDouble());
+    return Math.min(cdf.length, (i < 0 ? -i - 1 : i) + 1);
+  }
+
+  /**
+   * @return a project code drawn from the project mix.
+   */
+  public String nextProject() {
+    double p = random.nextDouble();
+    for (int i = 0; i < PROJECTS.length; i++) {
+      p -= PROJECT_WEIGHTS[i];
+      if (p <= 0) return PROJECTS[i];
+    }
+    return PROJECTS[0];
+  }
+
+  /**
+   * @return the page name of a rank; names vary in length and encoding.
+   */
+  public static String pageName(int rank) {
+    StringBuilder sb = new StringBuilder(WORDS[rank % WORDS.length]);
+    int rest = rank / WORDS.length;
+    while (rest > 0) {
+      sb.append('_').append(WORDS[rest % WORDS.length]);
+      rest /= WORDS.length;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Draw page views until <tt>count</tt> distinct pages have been viewed.
+   * @return <tt>count</tt> sorted pagecounts lines, one per page.
+   * @throws IllegalArgumentException when there are fewer than
+   *         <tt>count</tt> distinct pages to draw from.
+   */
+  public List<Text> lines(int count) {
+    if ((long) count > (long) cdf.length * PROJECTS.length) {
+      throw new IllegalArgumentException(String.format(
+        "Cannot draw %d distinct pages from %d.", count, cdf.length * PROJECTS.length));
+    }
+    Map<String, long[]> views = new TreeMap<String, long[]>();
+    while (views.size() < count) {
+      int rank = nextRank();
+      String page = nextProject() + " " + pageName(rank);
+      long[] v = views.get(page);
+      if (null == v) {
+        // every page has a fixed size, between 4KB and 64KB.
+        views.put(page, new long[] { 1, 4096 + (rank * 2654435761L & 0xffffffL) % 61440 });
+      } else {
+        v[0]++;
+      }
+    }
+    List<Text> lines = new ArrayList<Text>(count);
+    for (Map.Entry<String, long[]> e : views.entrySet()) {
+      long[] v = e.getValue();
+      lines.add(new Text(e.getKey() + " " + v[0] + " " + v[0] * v[1]));
+    }
+    return lines;
+  }
+}
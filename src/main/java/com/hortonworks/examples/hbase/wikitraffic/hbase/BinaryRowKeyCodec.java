@@ -0,0 +1,86 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A compact binary row key layout. Rows are stored as
+ * <tt>projectCode 0x00 vint(len(pageName)) pageName [epochHour]</tt>, where
+ * the trailing 4-byte big-endian epoch hour is present in tall rows only.
+ * <p>
+ * The project code is NUL-terminated rather than padded to a fixed width.
+ * Both sort identically, since 0x00 orders before any project code byte,
+ * but the terminator costs one byte where padding costs the width of the
+ * longest project code. The date-time shrinks from 15 characters to 4 bytes,
+ * truncated to the hour (see {@link EpochHours}), so {@link #getDateTime}
+ * returns the start of the hour rather than the date-time encoded.
+ * </p>
+ */
+public class BinaryRowKeyCodec implements RowKeyCodec {
+
+  private static final byte TERMINATOR = 0x00;
+
+  @Override
+  public byte[] tallRow(String projectCode, String pageName, String dateTime) {
+    return encode(projectCode, pageName, true, EpochHours.fromDateTime(dateTime));
+  }
+
+  @Override
+  public byte[] wideRow(String projectCode, String pageName) {
+    return encode(projectCode, pageName, false, 0);
+  }
+
+  @Override
+  public byte[] projectPrefix(String projectCode) {
+    byte[] project = Bytes.toBytes(projectCode);
+    byte[] prefix = new byte[project.length + 1];
+    Bytes.putBytes(prefix, 0, project, 0, project.length);
+    prefix[project.length] = TERMINATOR;
+    return prefix;
+  }
+
+  @Override
+  public String getProjectCode(byte[] row) {
+    return Bytes.toString(row, 0, terminatorOffset(row));
+  }
+
+  @Override
+  public String getPageName(byte[] row, boolean tall) {
+    int offset = terminatorOffset(row) + 1;
+    int len = (int) VarInts.read(row, offset);
+    return Bytes.toString(row, offset + VarInts.sizeAt(row, offset), len);
+  }
+
+  @Override
+  public String getDateTime(byte[] row) {
+    return EpochHours.toDateTime(Bytes.toInt(row, row.length - Bytes.SIZEOF_INT));
+  }
+
+  private static byte[] encode(String projectCode, String pageName, boolean tall,
+      int epochHour) {
+    byte[] project = Bytes.toBytes(projectCode);
+    for (byte b : project) {
+      if (b == TERMINATOR) {
+        throw new IllegalArgumentException("Project code contains NUL: " + projectCode);
+      }
+    }
+    byte[] page = Bytes.toBytes(pageName);
+
+    byte[] row = new byte[project.length + 1 + VarInts.size(page.length) + page.length
+        + (tall ? Bytes.SIZEOF_INT : 0)];
+    int offset = Bytes.putBytes(row, 0, project, 0, project.length);
+    offset = Bytes.putByte(row, offset, TERMINATOR);
+    offset = VarInts.write(row, offset, page.length);
+    offset = Bytes.putBytes(row, offset, page, 0, page.length);
+    if (tall) {
+      Bytes.putInt(row, offset, epochHour);
+    }
+    return row;
+  }
+
+  private static int terminatorOffset(byte[] row) {
+    for (int i = 0; i < row.length; i++) {
+      if (row[i] == TERMINATOR) return i;
+    }
+    throw new IllegalArgumentException("Not a binary wikistats row key.");
+  }
+}
@@ -0,0 +1,101 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * Writes {@link Put}s to a table through the client-side write buffer.
+ * Auto-flush is disabled, so Puts are sent to the region servers in batches
+ * of roughly {@value #WRITE_BUFFER_KEY} bytes. When {@value #SKIP_WAL_KEY}
+ * is set, Puts bypass the write-ahead log; only use this for data that can
+ * be reloaded after a region server failure.
+ * <p>
+ * The writer decides when to flush rather than leaving it to {@link HTable},
+ * so that the latency and size of every flush can be recorded.
+ * </p>
+ */
+public class BufferedTableWriter implements Closeable {
+
+  public static final String WRITE_BUFFER_KEY = "wikistats.write.buffer.bytes";
+  public static final long DEFAULT_WRITE_BUFFER = 8 * 1024 * 1024;
+  public static final String SKIP_WAL_KEY = "wikistats.write.skip.wal";
+
+  private final HTable table;
+  private final long writeBufferSize;
+  private final boolean skipWal;
+  private final Histogram flushLatencies = new Histogram();
+  private final Histogram flushSizes = new Histogram();
+  private long buffered = 0;
+
+  public BufferedTableWriter(Configuration conf, String tableName) throws IOException {
+    this(new HTable(conf, tableName), conf.getLong(WRITE_BUFFER_KEY, DEFAULT_WRITE_BUFFER),
+      conf.getBoolean(SKIP_WAL_KEY, false));
+  }
+
+  BufferedTableWriter(HTable table, long writeBufferSize, boolean skipWal) throws IOException {
+    this.table = table;
+    this.writeBufferSize = writeBufferSize;
+    this.skipWal = skipWal;
+    table.setAutoFlush(false);
+    // never let the table flush on its own; see write(Put).
+    table.setWriteBufferSize(Long.MAX_VALUE);
+  }
+
+  /**
+   * Buffer <tt>put</tt>, sending the buffer when it is full.
+   */
+  public void write(Put put) throws IOException {
+    if (skipWal) {
+      put.setWriteToWAL(false);
+    }
+    table.put(put);
+    buffered += put.heapSize();
+    if (buffered >= writeBufferSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Send any buffered Puts.
+   */
+  public void flush() throws IOException {
+    if (buffered == 0) {
+      return;
+    }
+    long start = System.nanoTime();
+    table.flushCommits();
+    flushLatencies.add((System.nanoTime() - start) / 1000);
+    flushSizes.add(buffered);
+    buffered = 0;
+  }
+
+  /**
+   * @return the time taken by each flush, in microseconds.
+   */
+  public Histogram getFlushLatencies() {
+    return flushLatencies;
+  }
+
+  /**
+   * @return the heap size of the Puts sent by each flush, in bytes.
+   */
+  public Histogram getFlushSizes() {
+    return flushSizes;
+  }
+
+  /**
+   * Send any buffered Puts and release the table.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      table.close();
+    }
+  }
+}
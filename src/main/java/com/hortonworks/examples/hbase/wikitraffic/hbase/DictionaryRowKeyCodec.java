@@ -0,0 +1,129 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A row key layout replacing the page name with its id in a
+ * {@link PageDictionary}. Rows are stored as
+ * <tt>projectCode 0x00 id(pageId) [epochHour]</tt>, as in
+ * {@link BinaryRowKeyCodec} but with the page name, the bulk of every key,
+ * reduced to one to five bytes. The trailing 4-byte epoch hour is present
+ * in tall rows only.
+ * <p>
+ * The project code is kept, so a project's rows stay contiguous for
+ * {@link #projectPrefix(String)}. The id is written in the sortable form of
+ * {@link VarInts}, so within a project pages sort by id, the order in which
+ * they were given ids, rather than by name. An encoded id is a prefix of no
+ * other, so the hours of a page remain contiguous and in order. Pages
+ * missing from a read-only dictionary are encoded with a first byte no id
+ * uses. Dictionary lookups that fail surface as
+ * {@link IllegalStateException}s.
+ * </p>
+ */
+public class DictionaryRowKeyCodec implements RowKeyCodec, Closeable {
+
+  private static final byte TERMINATOR = 0x00;
+  /** Stands in for {@link PageDictionary#UNKNOWN_ID}; no sortable id starts with it. */
+  private static final byte UNKNOWN = (byte) 0xFF;
+
+  private final PageDictionary dictionary;
+
+  public DictionaryRowKeyCodec(PageDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public byte[] tallRow(String projectCode, String pageName, String dateTime) {
+    return encode(projectCode, getId(projectCode, pageName), true,
+      EpochHours.fromDateTime(dateTime));
+  }
+
+  @Override
+  public byte[] wideRow(String projectCode, String pageName) {
+    return encode(projectCode, getId(projectCode, pageName), false, 0);
+  }
+
+  @Override
+  public byte[] projectPrefix(String projectCode) {
+    byte[] project = Bytes.toBytes(projectCode);
+    byte[] prefix = new byte[project.length + 1];
+    Bytes.putBytes(prefix, 0, project, 0, project.length);
+    prefix[project.length] = TERMINATOR;
+    return prefix;
+  }
+
+  @Override
+  public String getProjectCode(byte[] row) {
+    return Bytes.toString(row, 0, terminatorOffset(row));
+  }
+
+  @Override
+  public String getPageName(byte[] row, boolean tall) {
+    try {
+      return dictionary.getPageName(VarInts.readSortable(row, terminatorOffset(row) + 1));
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read the page dictionary.", e);
+    }
+  }
+
+  @Override
+  public String getDateTime(byte[] row) {
+    return EpochHours.toDateTime(Bytes.toInt(row, row.length - Bytes.SIZEOF_INT));
+  }
+
+  /**
+   * Look up the pages of a block of records at once, so that encoding
+   * their rows finds each in the dictionary's cache.
+   * @see PageDictionary#resolve(java.util.List, java.util.List)
+   */
+  public void resolve(List<String> projectCodes, List<String> pageNames) throws IOException {
+    dictionary.resolve(projectCodes, pageNames);
+  }
+
+  private int getId(String projectCode, String pageName) {
+    try {
+      return dictionary.getId(projectCode, pageName);
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to read the page dictionary.", e);
+    }
+  }
+
+  private static byte[] encode(String projectCode, int pageId, boolean tall, int epochHour) {
+    byte[] project = Bytes.toBytes(projectCode);
+    for (byte b : project) {
+      if (b == TERMINATOR) {
+        throw new IllegalArgumentException("Project code contains NUL: " + projectCode);
+      }
+    }
+    boolean unknown = PageDictionary.UNKNOWN_ID == pageId;
+    byte[] row = new byte[project.length + 1 + (unknown ? 1 : VarInts.sortableSize(pageId))
+        + (tall ? Bytes.SIZEOF_INT : 0)];
+    int offset = Bytes.putBytes(row, 0, project, 0, project.length);
+    offset = Bytes.putByte(row, offset, TERMINATOR);
+    offset = unknown
+        ? Bytes.putByte(row, offset, UNKNOWN) : VarInts.writeSortable(row, offset, pageId);
+    if (tall) {
+      Bytes.putInt(row, offset, epochHour);
+    }
+    return row;
+  }
+
+  private static int terminatorOffset(byte[] row) {
+    for (int i = 0; i < row.length; i++) {
+      if (row[i] == TERMINATOR) return i;
+    }
+    throw new IllegalArgumentException("Not a dictionary wikistats row key.");
+  }
+
+  /**
+   * Release the dictionary's table.
+   */
+  @Override
+  public void close() throws IOException {
+    dictionary.close();
+  }
+}
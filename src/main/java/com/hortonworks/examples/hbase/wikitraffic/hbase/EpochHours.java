@@ -0,0 +1,93 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+/**
+ * Converts between the wikistats date-time format, <tt>YYYYmmdd-HHMMss</tt>,
+ * and hours since the Unix epoch. All times are GMT.
+ * <p>
+ * The conversion is lossy: minutes and seconds are truncated, so a
+ * date-time decodes to the start of its hour, as <tt>YYYYmmdd-HH0000</tt>.
+ * Each pagecounts file covers one hour, so an hour identifies its file's
+ * data, but a file named off the hour does not round-trip to its name.
+ * </p>
+ */
+public final class EpochHours {
+
+  private EpochHours() {}
+
+  /**
+   * @param dateTime a date-time of the form <tt>YYYYmmdd-HHMMss</tt>.
+   * @return the number of whole hours between the epoch and <tt>dateTime</tt>;
+   *         its minutes and seconds are dropped.
+   * @throws IllegalArgumentException when <tt>dateTime</tt> is malformed.
+   */
+  public static int fromDateTime(String dateTime) {
+    if (null == dateTime || dateTime.length() != 15 || dateTime.charAt(8) != '-') {
+      throw new IllegalArgumentException("Malformed date-time: " + dateTime);
+    }
+    int year = digits(dateTime, 0, 4);
+    int month = digits(dateTime, 4, 6);
+    int day = digits(dateTime, 6, 8);
+    int hour = digits(dateTime, 9, 11);
+    if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23) {
+      throw new IllegalArgumentException("Malformed date-time: " + dateTime);
+    }
+    return daysFromCivil(year, month, day) * 24 + hour;
+  }
+
+  /**
+   * @param epochHour hours since the epoch.
+   * @return the date-time of the form <tt>YYYYmmdd-HH0000</tt>.
+   */
+  public static String toDateTime(int epochHour) {
+    int days = epochHour / 24;
+    int hour = epochHour % 24;
+
+    // civil-from-days, see http://howardhinnant.github.io/date_algorithms.html
+    int z = days + 719468;
+    int era = z / 146097;
+    int doe = z - era * 146097;
+    int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int mp = (5 * doy + 2) / 153;
+    int day = doy - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    int year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+    char[] buf = new char[15];
+    pad(buf, 0, 4, year);
+    pad(buf, 4, 2, month);
+    pad(buf, 6, 2, day);
+    buf[8] = '-';
+    pad(buf, 9, 2, hour);
+    pad(buf, 11, 4, 0);
+    return new String(buf);
+  }
+
+  private static int daysFromCivil(int year, int month, int day) {
+    int y = month <= 2 ? year - 1 : year;
+    int era = y / 400;
+    int yoe = y - era * 400;
+    int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146097 + doe - 719468;
+  }
+
+  private static int digits(String s, int start, int end) {
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        throw new IllegalArgumentException("Malformed date-time: " + s);
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static void pad(char[] buf, int offset, int width, int value) {
+    for (int i = offset + width - 1; i >= offset; i--) {
+      buf[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+}
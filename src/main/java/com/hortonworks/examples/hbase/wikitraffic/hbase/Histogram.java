@@ -0,0 +1,87 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+/**
+ * A histogram of non-negative values in power-of-two buckets. Bucket
+ * <tt>i</tt> counts values in <tt>(2^(i-1), 2^i]</tt>; bucket 0 counts values
+ * of at most 1. Percentiles are reported as the upper bound of their bucket,
+ * so they overstate by at most a factor of two. Histograms of separate tasks
+ * merge by adding bucket counts, which lets them travel as job counters.
+ * Not thread-safe.
+ */
+public class Histogram {
+
+  public static final int NUM_BUCKETS = 64;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+  private long count = 0;
+  private long sum = 0;
+
+  /**
+   * @return the bucket holding <tt>value</tt>.
+   */
+  public static int bucket(long value) {
+    return value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+  }
+
+  /**
+   * @return the largest value held by <tt>bucket</tt>.
+   */
+  public static long upperBound(int bucket) {
+    return bucket >= 63 ? Long.MAX_VALUE : 1L << bucket;
+  }
+
+  public void add(long value) {
+    counts[bucket(value)]++;
+    count++;
+    sum += value;
+  }
+
+  /**
+   * Add <tt>n</tt> values to <tt>bucket</tt>, as when merging the bucket
+   * counts of another histogram.
+   */
+  public void addBucket(int bucket, long n) {
+    counts[bucket] += n;
+    count += n;
+  }
+
+  /**
+   * Add to the sum of all values, for use with {@link #addBucket(int, long)}.
+   */
+  public void addSum(long total) {
+    sum += total;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+
+  public long getBucketCount(int bucket) {
+    return counts[bucket];
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : sum / (double) count;
+  }
+
+  /**
+   * @param p a fraction in <tt>(0, 1]</tt>.
+   * @return the upper bound of the bucket holding the <tt>p</tt>th
+   *         percentile, or 0 when empty.
+   */
+  public long getPercentile(double p) {
+    long rank = (long) Math.ceil(p * count);
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return upperBound(i);
+      }
+    }
+    return 0;
+  }
+}
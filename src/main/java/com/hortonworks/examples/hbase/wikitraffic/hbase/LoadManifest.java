@@ -0,0 +1,223 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The names of the hourly pagecounts files already loaded into a table.
+ * Kept either as a text file under the loader's working path, or, with
+ * {@value #MANIFEST_KEY}<tt>=table</tt>, in a side table named for the
+ * target table with {@value #TABLE_SUFFIX}, one qualifier per file, so
+ * that it stays with the cluster holding the data.
+ * <p>
+ * The side table keeps the manifest out of the data table's key space, so
+ * scans of the data, salted or not, never meet it.
+ * </p>
+ */
+public abstract class LoadManifest {
+
+  private static final Log LOG = LogFactory.getLog(LoadManifest.class);
+
+  public static final String MANIFEST_KEY = "wikistats.hfile.manifest";
+  public static final String PATH_MANIFEST = "path";
+  public static final String TABLE_MANIFEST = "table";
+  public static final String TABLE_SUFFIX = "_manifest";
+  public static final byte[] FAMILY_NAME = Bytes.toBytes("m");
+  public static final byte[] MANIFEST_ROW = Bytes.toBytes("loaded");
+
+  /**
+   * @return the manifest selected by {@value #MANIFEST_KEY}.
+   */
+  public static LoadManifest create(Configuration conf, String tableName, Path workingPath) {
+    String type = conf.get(MANIFEST_KEY, PATH_MANIFEST);
+    if (PATH_MANIFEST.equals(type)) {
+      return new FileManifest(conf, new Path(workingPath, "manifest"));
+    }
+    if (TABLE_MANIFEST.equals(type)) {
+      return new TableManifest(conf, getTableName(tableName), new HTableFactory());
+    }
+    throw new IllegalArgumentException(String.format("Unknown %s: %s", MANIFEST_KEY, type));
+  }
+
+  /**
+   * @return the name of the manifest table of <tt>targetTable</tt>.
+   */
+  public static String getTableName(String targetTable) {
+    return targetTable + TABLE_SUFFIX;
+  }
+
+  /**
+   * When {@value #MANIFEST_KEY} selects the table manifest, create the
+   * manifest table of <tt>targetTable</tt> if it does not exist.
+   * @return false when an existing manifest table lacks the family.
+   */
+  public static boolean prepareTable(Configuration conf, String targetTable)
+      throws IOException {
+    if (!TABLE_MANIFEST.equals(conf.get(MANIFEST_KEY, PATH_MANIFEST))) {
+      return true;
+    }
+    String tableName = getTableName(targetTable);
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      if (admin.tableExists(tableName)) {
+        if (!admin.getTableDescriptor(Bytes.toBytes(tableName)).hasFamily(FAMILY_NAME)) {
+          LOG.error(String.format("Manifest table '%s' does not have column family '%s'.",
+            tableName, Bytes.toString(FAMILY_NAME)));
+          return false;
+        }
+      } else {
+        LOG.info(String.format("Creating manifest table '%s'.", tableName));
+        HTableDescriptor desc = new HTableDescriptor(tableName);
+        desc.addFamily(new HColumnDescriptor(FAMILY_NAME));
+        admin.createTable(desc);
+      }
+    } finally {
+      admin.close();
+    }
+    return true;
+  }
+
+  /**
+   * @return the names of the files loaded so far.
+   */
+  public abstract Set<String> getLoaded() throws IOException;
+
+  /**
+   * Record <tt>fileNames</tt> as loaded.
+   */
+  public abstract void addLoaded(Collection<String> fileNames) throws IOException;
+
+  /**
+   * One file name per line. Replaced through a temporary file, so a crash
+   * leaves the previous manifest intact.
+   */
+  static class FileManifest extends LoadManifest {
+
+    private final Configuration conf;
+    private final Path path;
+
+    FileManifest(Configuration conf, Path path) {
+      this.conf = conf;
+      this.path = path;
+    }
+
+    @Override
+    public Set<String> getLoaded() throws IOException {
+      Set<String> loaded = new TreeSet<String>();
+      FileSystem fs = path.getFileSystem(conf);
+      if (!fs.exists(path)) {
+        return loaded;
+      }
+      BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+      try {
+        String line;
+        while (null != (line = in.readLine())) {
+          if (!line.isEmpty()) loaded.add(line);
+        }
+      } finally {
+        in.close();
+      }
+      return loaded;
+    }
+
+    @Override
+    public void addLoaded(Collection<String> fileNames) throws IOException {
+      Set<String> loaded = getLoaded();
+      loaded.addAll(fileNames);
+      FileSystem fs = path.getFileSystem(conf);
+      Path tmp = new Path(path.getParent(), "." + path.getName() + ".tmp");
+      Writer out = new OutputStreamWriter(fs.create(tmp, true), "UTF-8");
+      try {
+        for (String name : loaded) {
+          out.write(name);
+          out.write('\n');
+        }
+      } finally {
+        out.close();
+      }
+      if (fs.exists(path) && !fs.delete(path, false)) {
+        throw new IOException("Failed to remove old manifest " + path);
+      }
+      if (!fs.rename(tmp, path)) {
+        throw new IOException(String.format("Failed to rename %s to %s", tmp, path));
+      }
+    }
+  }
+
+  /**
+   * One qualifier per file in {@link #MANIFEST_ROW} of the manifest table,
+   * valued with the time it was recorded.
+   */
+  static class TableManifest extends LoadManifest {
+
+    private final Configuration conf;
+    private final byte[] tableName;
+    private final HTableInterfaceFactory tables;
+
+    TableManifest(Configuration conf, String tableName, HTableInterfaceFactory tables) {
+      this.conf = conf;
+      this.tableName = Bytes.toBytes(tableName);
+      this.tables = tables;
+    }
+
+    @Override
+    public Set<String> getLoaded() throws IOException {
+      Set<String> loaded = new TreeSet<String>();
+      HTableInterface table = tables.createHTableInterface(conf, tableName);
+      try {
+        Get get = new Get(MANIFEST_ROW);
+        get.addFamily(FAMILY_NAME);
+        Result r = table.get(get);
+        if (!r.isEmpty()) {
+          for (KeyValue kv : r.raw()) {
+            loaded.add(Bytes.toString(kv.getQualifier()));
+          }
+        }
+      } finally {
+        tables.releaseHTableInterface(table);
+      }
+      return loaded;
+    }
+
+    @Override
+    public void addLoaded(Collection<String> fileNames) throws IOException {
+      if (fileNames.isEmpty()) {
+        return;
+      }
+      Put put = new Put(MANIFEST_ROW);
+      byte[] now = Bytes.toBytes(System.currentTimeMillis());
+      for (String name : fileNames) {
+        put.add(FAMILY_NAME, Bytes.toBytes(name), now);
+      }
+      HTableInterface table = tables.createHTableInterface(conf, tableName);
+      try {
+        table.put(put);
+      } finally {
+        tables.releaseHTableInterface(table);
+      }
+    }
+  }
+}
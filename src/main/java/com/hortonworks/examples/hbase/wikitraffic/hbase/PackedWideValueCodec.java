@@ -0,0 +1,40 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+/**
+ * Stores wide schema cells as a format tag followed by two Hadoop
+ * variable-length longs, <tt>0x00 vlong(views) vlong(bytes)</tt>. A typical
+ * hourly cell occupies 5 or 6 bytes. The leading tag distinguishes packed
+ * values from text values, which always begin with <tt>{</tt>; see
+ * {@link WideValueDecoder}.
+ */
+public class PackedWideValueCodec implements WideValueCodec {
+
+  static final byte TAG = 0x00;
+
+  @Override
+  public byte[] encode(long pageViews, long bytes) {
+    byte[] value = new byte[1 + VarInts.size(pageViews) + VarInts.size(bytes)];
+    value[0] = TAG;
+    int offset = VarInts.write(value, 1, pageViews);
+    VarInts.write(value, offset, bytes);
+    return value;
+  }
+
+  @Override
+  public long getPageViews(byte[] value) {
+    checkTag(value);
+    return VarInts.read(value, 1);
+  }
+
+  @Override
+  public long getBytes(byte[] value) {
+    checkTag(value);
+    return VarInts.read(value, 1 + VarInts.sizeAt(value, 1));
+  }
+
+  private static void checkTag(byte[] value) {
+    if (value.length < 3 || value[0] != TAG) {
+      throw new IllegalArgumentException("Not a packed wide value.");
+    }
+  }
+}
@@ -0,0 +1,403 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Assigns each <tt>(projectCode, pageName)</tt> a compact integer id, for
+ * the row keys of {@link DictionaryRowKeyCodec}. The dictionary is kept in
+ * a table of its own, named by {@value #TABLE_KEY}, with one family holding
+ * three kinds of row:
+ * <ul>
+ * <li><tt>f projectCode 0x00 pageName</tt>, the forward row, holding the
+ * page's id as a 4-byte int;</li>
+ * <li><tt>r id</tt>, the reverse row, holding the project code and page
+ * name;</li>
+ * <li>{@link #COUNTER_ROW}, holding the next id to hand out.</li>
+ * </ul>
+ * When {@value #ALLOCATE_KEY} is set, as the loaders do, a page missing from
+ * the dictionary is given the next id. Ids are taken from the counter in
+ * blocks of {@value #ID_BLOCK_KEY} with one increment, and claimed with a
+ * check-and-put of the forward row, so concurrent tasks agree on a single
+ * id per page; the loser's id is skipped. The reverse row is written
+ * first, so every id visible in the forward rows has a name. Readers leave
+ * the option unset: a page missing from the dictionary maps to
+ * {@link #UNKNOWN_ID}, which is never assigned, so its rows are never
+ * found.
+ * <p>
+ * Lookups in both directions are cached in LRU maps of
+ * {@value #CACHE_SIZE_KEY} entries. The cache helps a process that sees a
+ * page many times, such as a reader or the ingest daemon, but a map task
+ * reading an hourly file sees each page once. A miss costs a get, and
+ * assigning an id a put and a check-and-put, so the mappers instead
+ * {@link #resolve(List, List)} the pages of a block of records together:
+ * one multi-get, then one batch of reverse rows and a check-and-put per
+ * page missing. Instances are safe to share across threads.
+ * </p>
+ * <p>
+ * {@link #prepareTable(Configuration, String)} splits a new dictionary
+ * apart from its counter and reverse rows, and spreads the forward rows by
+ * project, with English pages, the bulk of every hour, cut by initial.
+ * </p>
+ */
+public class PageDictionary implements Closeable {
+
+  private static final Log LOG = LogFactory.getLog(PageDictionary.class);
+
+  /** The dictionary table; the loaders default it to {@value #TABLE_SUFFIX}. */
+  public static final String TABLE_KEY = "wikistats.dict.table";
+  public static final String TABLE_SUFFIX = "_dict";
+  /** Entries cached in each direction. */
+  public static final String CACHE_SIZE_KEY = "wikistats.dict.cache.size";
+  public static final int DEFAULT_CACHE_SIZE = 100000;
+  /** Ids taken from the counter at a time. */
+  public static final String ID_BLOCK_KEY = "wikistats.dict.id.block";
+  public static final int DEFAULT_ID_BLOCK = 1000;
+  /** Records whose pages a map task resolves at a time. */
+  public static final String RESOLVE_BLOCK_KEY = "wikistats.dict.resolve.block";
+  public static final int DEFAULT_RESOLVE_BLOCK = 1000;
+  /** Assign ids to pages missing from the dictionary; set by the loaders. */
+  public static final String ALLOCATE_KEY = "wikistats.dict.allocate";
+
+  /** The id of every page missing from a read-only dictionary. */
+  public static final int UNKNOWN_ID = -1;
+
+  public static final byte[] FAMILY_NAME = Bytes.toBytes("i");
+  public static final byte[] COUNTER_ROW = Bytes.toBytes("\u0000wikistats.dict.next");
+  private static final byte[] ID_QUAL = Bytes.toBytes("id");
+  private static final byte[] PROJECT_QUAL = Bytes.toBytes("p");
+  private static final byte[] NAME_QUAL = Bytes.toBytes("n");
+  private static final byte[] NEXT_QUAL = Bytes.toBytes("next");
+  private static final byte FORWARD = 'f';
+  private static final byte REVERSE = 'r';
+  private static final byte TERMINATOR = 0x00;
+  /** Where a new dictionary's forward rows are cut, after {@link #FORWARD}. */
+  private static final String[] FORWARD_SPLITS = {
+    "d", "e", "en\u0000", "en\u0000D", "en\u0000J", "en\u0000P", "en\u0000T", "f", "j", "p",
+    "s" };
+
+  private final HTable table;
+  private final boolean allocate;
+  private final int idBlock;
+  private final Map<String, Integer> ids;
+  private final Map<Integer, String> names;
+  // the block of ids in hand: [nextId, endId).
+  private long nextId = 0;
+  private long endId = 0;
+
+  /**
+   * Open the dictionary named by {@value #TABLE_KEY}.
+   * @throws IllegalArgumentException when no table is named.
+   */
+  public static PageDictionary open(Configuration conf) throws IOException {
+    String tableName = conf.get(TABLE_KEY);
+    if (null == tableName) {
+      throw new IllegalArgumentException(String.format("%s=%s requires %s.",
+        WikistatsSchemaUtils.ROWKEY_CODEC_KEY, WikistatsSchemaUtils.DICT_ROWKEY_CODEC,
+        TABLE_KEY));
+    }
+    return new PageDictionary(new HTable(conf, tableName), conf.getBoolean(ALLOCATE_KEY, false),
+      conf.getInt(ID_BLOCK_KEY, DEFAULT_ID_BLOCK),
+      conf.getInt(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+  }
+
+  PageDictionary(HTable table, boolean allocate, int idBlock, int cacheSize) {
+    this.table = table;
+    this.allocate = allocate;
+    this.idBlock = idBlock;
+    this.ids = lruCache(cacheSize);
+    this.names = lruCache(cacheSize);
+  }
+
+  private static <K, V> Map<K, V> lruCache(final int capacity) {
+    return new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * @return the id of the page, assigning one if allowed, or
+   *         {@link #UNKNOWN_ID} when it is missing and cannot be assigned.
+   */
+  public synchronized int getId(String projectCode, String pageName) throws IOException {
+    String key = cacheKey(projectCode, pageName);
+    Integer cached = ids.get(key);
+    if (null != cached) {
+      return cached;
+    }
+    byte[] row = forwardRow(projectCode, pageName);
+    int id = readId(row);
+    if (UNKNOWN_ID == id && allocate) {
+      id = assign(row, projectCode, pageName);
+    }
+    // missing pages are not cached; another task may yet add them.
+    if (UNKNOWN_ID != id) {
+      ids.put(key, id);
+    }
+    return id;
+  }
+
+  /**
+   * Look up together the pages of a block of records that are not cached,
+   * assigning ids to those missing if allowed, so that
+   * {@link #getId(String, String)} finds them in the cache. Blocks should
+   * be well under {@value #CACHE_SIZE_KEY} pages.
+   * @param projectCodes the project of each of <tt>pageNames</tt>.
+   */
+  public synchronized void resolve(List<String> projectCodes, List<String> pageNames)
+      throws IOException {
+    List<String> keys = new ArrayList<String>();
+    List<Get> gets = new ArrayList<Get>();
+    Set<String> seen = new HashSet<String>();
+    for (int i = 0; i < pageNames.size(); i++) {
+      String key = cacheKey(projectCodes.get(i), pageNames.get(i));
+      if (null != ids.get(key) || !seen.add(key)) {
+        continue;
+      }
+      keys.add(key);
+      gets.add(new Get(forwardRow(projectCodes.get(i), pageNames.get(i)))
+        .addColumn(FAMILY_NAME, ID_QUAL));
+    }
+    if (gets.isEmpty()) {
+      return;
+    }
+    Result[] found = table.get(gets);
+    List<Integer> missing = new ArrayList<Integer>();
+    for (int j = 0; j < found.length; j++) {
+      byte[] value = found[j].getValue(FAMILY_NAME, ID_QUAL);
+      if (null == value) {
+        missing.add(j);
+      } else {
+        ids.put(keys.get(j), Bytes.toInt(value));
+      }
+    }
+    if (!allocate || missing.isEmpty()) {
+      return;
+    }
+
+    // write every reverse row first, in one batch, then claim each page.
+    int[] claimed = new int[missing.size()];
+    List<Put> reverse = new ArrayList<Put>(missing.size());
+    for (int m = 0; m < missing.size(); m++) {
+      String key = keys.get(missing.get(m));
+      int split = key.indexOf(TERMINATOR);
+      claimed[m] = nextId();
+      Put put = new Put(reverseRow(claimed[m]));
+      put.add(FAMILY_NAME, PROJECT_QUAL, Bytes.toBytes(key.substring(0, split)));
+      put.add(FAMILY_NAME, NAME_QUAL, Bytes.toBytes(key.substring(split + 1)));
+      reverse.add(put);
+    }
+    table.put(reverse);
+    List<String> lostKeys = new ArrayList<String>();
+    List<Get> lost = new ArrayList<Get>();
+    for (int m = 0; m < missing.size(); m++) {
+      String key = keys.get(missing.get(m));
+      byte[] row = gets.get(missing.get(m)).getRow();
+      Put forward = new Put(row);
+      forward.add(FAMILY_NAME, ID_QUAL, Bytes.toBytes(claimed[m]));
+      if (table.checkAndPut(row, FAMILY_NAME, ID_QUAL, null, forward)) {
+        ids.put(key, claimed[m]);
+        names.put(claimed[m], key.substring(key.indexOf(TERMINATOR) + 1));
+      } else {
+        lostKeys.add(key);
+        lost.add(new Get(row).addColumn(FAMILY_NAME, ID_QUAL));
+      }
+    }
+    // adopt the ids claimed first by others.
+    if (!lost.isEmpty()) {
+      Result[] winners = table.get(lost);
+      for (int j = 0; j < winners.length; j++) {
+        ids.put(lostKeys.get(j), Bytes.toInt(winners[j].getValue(FAMILY_NAME, ID_QUAL)));
+      }
+    }
+  }
+
+  /**
+   * @return the page name assigned <tt>id</tt>.
+   * @throws IllegalArgumentException when no page has the id.
+   */
+  public synchronized String getPageName(int id) throws IOException {
+    String name = names.get(id);
+    if (null != name) {
+      return name;
+    }
+    byte[] value = table.get(new Get(reverseRow(id)).addColumn(FAMILY_NAME, NAME_QUAL))
+        .getValue(FAMILY_NAME, NAME_QUAL);
+    if (null == value) {
+      throw new IllegalArgumentException("No page has id " + id);
+    }
+    name = Bytes.toString(value);
+    names.put(id, name);
+    return name;
+  }
+
+  private int readId(byte[] row) throws IOException {
+    byte[] value =
+        table.get(new Get(row).addColumn(FAMILY_NAME, ID_QUAL)).getValue(FAMILY_NAME, ID_QUAL);
+    return null == value ? UNKNOWN_ID : Bytes.toInt(value);
+  }
+
+  /**
+   * Claim the next id for a page, or adopt the id another writer claimed
+   * first.
+   */
+  private int assign(byte[] row, String projectCode, String pageName) throws IOException {
+    int id = nextId();
+    Put reverse = new Put(reverseRow(id));
+    reverse.add(FAMILY_NAME, PROJECT_QUAL, Bytes.toBytes(projectCode));
+    reverse.add(FAMILY_NAME, NAME_QUAL, Bytes.toBytes(pageName));
+    table.put(reverse);
+    Put forward = new Put(row);
+    forward.add(FAMILY_NAME, ID_QUAL, Bytes.toBytes(id));
+    if (table.checkAndPut(row, FAMILY_NAME, ID_QUAL, null, forward)) {
+      names.put(id, pageName);
+      return id;
+    }
+    return readId(row);
+  }
+
+  private int nextId() throws IOException {
+    if (nextId == endId) {
+      this.endId = table.incrementColumnValue(COUNTER_ROW, FAMILY_NAME, NEXT_QUAL, idBlock);
+      this.nextId = endId - idBlock;
+      if (endId > Integer.MAX_VALUE) {
+        throw new IllegalStateException("Page dictionary ids exhausted.");
+      }
+    }
+    return (int) nextId++;
+  }
+
+  private static String cacheKey(String projectCode, String pageName) {
+    return projectCode + (char) TERMINATOR + pageName;
+  }
+
+  static byte[] forwardRow(String projectCode, String pageName) {
+    byte[] project = Bytes.toBytes(projectCode);
+    byte[] page = Bytes.toBytes(pageName);
+    byte[] row = new byte[1 + project.length + 1 + page.length];
+    int offset = Bytes.putByte(row, 0, FORWARD);
+    offset = Bytes.putBytes(row, offset, project, 0, project.length);
+    offset = Bytes.putByte(row, offset, TERMINATOR);
+    Bytes.putBytes(row, offset, page, 0, page.length);
+    return row;
+  }
+
+  static byte[] reverseRow(int id) {
+    byte[] row = new byte[1 + Bytes.SIZEOF_INT];
+    Bytes.putInt(row, Bytes.putByte(row, 0, REVERSE), id);
+    return row;
+  }
+
+  @Override
+  public void close() throws IOException {
+    table.close();
+  }
+
+  /**
+   * @return the name of the dictionary table of <tt>targetTable</tt>.
+   */
+  public static String getTableName(String targetTable) {
+    return targetTable + TABLE_SUFFIX;
+  }
+
+  /**
+   * @return true when <tt>conf</tt> selects {@link DictionaryRowKeyCodec}.
+   */
+  public static boolean isEnabled(Configuration conf) {
+    return WikistatsSchemaUtils.DICT_ROWKEY_CODEC.equals(
+      conf.get(WikistatsSchemaUtils.ROWKEY_CODEC_KEY));
+  }
+
+  /**
+   * @return <tt>conf</tt>, or a copy naming the dictionary of
+   *         <tt>targetTable</tt> when the dictionary codec is selected
+   *         without a {@value #TABLE_KEY}.
+   */
+  public static Configuration withDefaultTable(Configuration conf, String targetTable) {
+    if (!isEnabled(conf) || null != conf.get(TABLE_KEY)) {
+      return conf;
+    }
+    Configuration copy = new Configuration(conf);
+    copy.set(TABLE_KEY, getTableName(targetTable));
+    return copy;
+  }
+
+  /**
+   * @return the rows at which a new dictionary is split: after the
+   *         counter, within the forward rows, and before the reverse rows.
+   */
+  static byte[][] getSplitKeys() {
+    byte[][] splits = new byte[FORWARD_SPLITS.length + 2][];
+    splits[0] = new byte[] { FORWARD };
+    for (int i = 0; i < FORWARD_SPLITS.length; i++) {
+      splits[i + 1] = Bytes.add(splits[0], Bytes.toBytes(FORWARD_SPLITS[i]));
+    }
+    splits[splits.length - 1] = new byte[] { REVERSE };
+    return splits;
+  }
+
+  /**
+   * When the dictionary codec is selected, create the dictionary of
+   * <tt>targetTable</tt>, or the one named by {@value #TABLE_KEY}, if it
+   * does not exist, and name it in <tt>conf</tt>
+   * with ids assigned to new pages, for the jobs configured from it.
+   * @return false when an existing dictionary lacks the family, or no
+   *         dictionary is named.
+   */
+  public static boolean prepareTable(Configuration conf, String targetTable)
+      throws IOException {
+    if (!isEnabled(conf)) {
+      return true;
+    }
+    String tableName =
+        conf.get(TABLE_KEY, null == targetTable ? null : getTableName(targetTable));
+    if (null == tableName) {
+      LOG.error(String.format("Name the page dictionary table with %s.", TABLE_KEY));
+      return false;
+    }
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      if (admin.tableExists(tableName)) {
+        if (!admin.getTableDescriptor(Bytes.toBytes(tableName)).hasFamily(FAMILY_NAME)) {
+          LOG.error(String.format("Dictionary table '%s' does not have column family '%s'.",
+            tableName, Bytes.toString(FAMILY_NAME)));
+          return false;
+        }
+      } else {
+        LOG.info(String.format("Creating dictionary table '%s'.", tableName));
+        HTableDescriptor desc = new HTableDescriptor(tableName);
+        desc.addFamily(new HColumnDescriptor(FAMILY_NAME)
+          .setMaxVersions(WikistatsSchemaUtils.MAX_VERSIONS));
+        admin.createTable(desc, getSplitKeys());
+      }
+    } finally {
+      admin.close();
+    }
+    conf.set(TABLE_KEY, tableName);
+    conf.setBoolean(ALLOCATE_KEY, true);
+    return true;
+  }
+}
@@ -0,0 +1,129 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.util.Arrays;
+
+/**
+ * The hourly observations of one page, as read by {@link WikistatsReader}.
+ * Observations are held in parallel primitive arrays in hour order: the
+ * epoch hour of each (see {@link EpochHours}), its page views and its bytes.
+ * An array left out of the reader's {@link WikistatsReader.Projection} is
+ * null.
+ */
+public class PageSeries {
+
+  private final String projectCode;
+  private final String pageName;
+  private final int[] hours;
+  private final long[] pageViews;
+  private final long[] bytes;
+
+  public PageSeries(String projectCode, String pageName, int[] hours, long[] pageViews,
+      long[] bytes) {
+    this.projectCode = projectCode;
+    this.pageName = pageName;
+    this.hours = hours;
+    this.pageViews = pageViews;
+    this.bytes = bytes;
+  }
+
+  public String getProjectCode() {
+    return projectCode;
+  }
+
+  public String getPageName() {
+    return pageName;
+  }
+
+  /**
+   * @return the number of hours observed.
+   */
+  public int size() {
+    return hours.length;
+  }
+
+  /**
+   * @return the epoch hour of each observation, ascending.
+   */
+  public int[] getHours() {
+    return hours;
+  }
+
+  /**
+   * @return the page views of each hour, or null when not projected.
+   */
+  public long[] getPageViews() {
+    return pageViews;
+  }
+
+  /**
+   * @return the bytes of each hour, or null when not projected.
+   */
+  public long[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * @return the date-time of the <tt>i</tt>th observation.
+   */
+  public String getDateTime(int i) {
+    return EpochHours.toDateTime(hours[i]);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s/%s[%d hours]", projectCode, pageName, hours.length);
+  }
+
+  /**
+   * Accumulates the observations of a page in hour order, growing its
+   * arrays as necessary.
+   */
+  static class Builder {
+
+    private final String projectCode;
+    private final String pageName;
+    private int[] hours = new int[16];
+    private long[] pageViews = new long[16];
+    private long[] bytes = new long[16];
+    private int size = 0;
+
+    Builder(String projectCode, String pageName) {
+      this.projectCode = projectCode;
+      this.pageName = pageName;
+    }
+
+    String getProjectCode() {
+      return projectCode;
+    }
+
+    String getPageName() {
+      return pageName;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void add(int hour, long pageViews, long bytes) {
+      if (size == hours.length) {
+        this.hours = Arrays.copyOf(hours, size * 2);
+        this.pageViews = Arrays.copyOf(this.pageViews, size * 2);
+        this.bytes = Arrays.copyOf(this.bytes, size * 2);
+      }
+      hours[size] = hour;
+      this.pageViews[size] = pageViews;
+      this.bytes[size] = bytes;
+      size++;
+    }
+
+    /**
+     * @param withViews keep the page views.
+     * @param withBytes keep the bytes.
+     */
+    PageSeries build(boolean withViews, boolean withBytes) {
+      return new PageSeries(projectCode, pageName, Arrays.copyOf(hours, size),
+        withViews ? Arrays.copyOf(pageViews, size) : null,
+        withBytes ? Arrays.copyOf(bytes, size) : null);
+    }
+  }
+}
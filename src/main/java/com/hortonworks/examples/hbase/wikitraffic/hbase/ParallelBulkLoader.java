@@ -0,0 +1,250 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+
+/**
+ * Bulk loads a directory of HFiles, as written by
+ * {@link org.apache.hadoop.hbase.mapreduce.HFileOutputFormat}, one region at a
+ * time across a pool of {@value #THREADS_KEY} threads. HFiles are grouped by
+ * the region holding their first row and each group is handed to its own
+ * {@link LoadIncrementalHFiles} invocation, so the time taken to load each
+ * region can be reported.
+ */
+public class ParallelBulkLoader {
+
+  private static final Log LOG = LogFactory.getLog(ParallelBulkLoader.class);
+
+  public static final String THREADS_KEY = "wikistats.bulkload.threads";
+  public static final int DEFAULT_THREADS = 8;
+
+  private static final String STAGING_DIR = "_regions";
+
+  private final Configuration conf;
+  private final String tableName;
+
+  public ParallelBulkLoader(Configuration conf, String tableName) {
+    this.conf = conf;
+    this.tableName = tableName;
+  }
+
+  /**
+   * Load every HFile under <tt>hfilesDir</tt> into the table. HFiles left
+   * unloaded by a failure are moved back to their family directories, so
+   * the load can be retried from <tt>hfilesDir</tt>; those split by a
+   * region that loaded are deleted, as both their halves were loaded.
+   * @param hfilesDir a directory holding one subdirectory of HFiles per
+   *                  column family.
+   * @return the time taken to load each region, in milliseconds, keyed by
+   *         region name.
+   */
+  public Map<String, Long> load(Path hfilesDir) throws IOException, InterruptedException {
+    FileSystem fs = hfilesDir.getFileSystem(conf);
+    return load(fs, hfilesDir, groupByRegion(fs, hfilesDir));
+  }
+
+  Map<String, Long> load(FileSystem fs, Path hfilesDir, Map<String, List<Path>> byRegion)
+      throws IOException, InterruptedException {
+    Path staging = new Path(hfilesDir, STAGING_DIR);
+    final Set<String> loadedDirs = Collections.synchronizedSet(new HashSet<String>());
+    try {
+      // stage each region's HFiles in a directory of their own.
+      final Map<String, Path> regionDirs = new LinkedHashMap<String, Path>();
+      int i = 0;
+      for (Map.Entry<String, List<Path>> e : byRegion.entrySet()) {
+        Path regionDir = new Path(staging, String.format("%05d", i++));
+        for (Path hfile : e.getValue()) {
+          Path familyDir = new Path(regionDir, hfile.getParent().getName());
+          fs.mkdirs(familyDir);
+          if (!fs.rename(hfile, new Path(familyDir, hfile.getName()))) {
+            throw new IOException("Failed to stage " + hfile);
+          }
+        }
+        regionDirs.put(e.getKey(), regionDir);
+      }
+
+      // parallelism comes from the region pool; don't nest another.
+      final Configuration loadConf = new Configuration(conf);
+      loadConf.setInt("hbase.loadincremental.threads.max", 1);
+
+      int threads = Math.max(1, conf.getInt(THREADS_KEY, DEFAULT_THREADS));
+      LOG.info(String.format("Bulk loading %d regions of '%s' with %d threads.",
+        regionDirs.size(), tableName, threads));
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      Map<String, Future<Long>> futures = new LinkedHashMap<String, Future<Long>>();
+      try {
+        for (final Map.Entry<String, Path> e : regionDirs.entrySet()) {
+          futures.put(e.getKey(), pool.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+              long start = System.currentTimeMillis();
+              loadRegion(loadConf, e.getValue());
+              loadedDirs.add(e.getValue().getName());
+              return System.currentTimeMillis() - start;
+            }
+          }));
+        }
+
+        Map<String, Long> timings = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Future<Long>> e : futures.entrySet()) {
+          try {
+            timings.put(e.getKey(), e.getValue().get());
+          } catch (ExecutionException ex) {
+            throw new IOException("Failed to bulk load region " + e.getKey(), ex.getCause());
+          }
+          LOG.info(String.format("Loaded region %s in %d ms", e.getKey(),
+            timings.get(e.getKey())));
+        }
+        return timings;
+      } finally {
+        // the remaining regions must finish before their files are moved.
+        pool.shutdownNow();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+    } finally {
+      unstage(fs, staging, hfilesDir, loadedDirs);
+    }
+  }
+
+  /**
+   * Load the HFiles of one region, staged under <tt>regionDir</tt>.
+   */
+  void loadRegion(Configuration loadConf, Path regionDir) throws Exception {
+    HTable table = new HTable(loadConf, tableName);
+    try {
+      new LoadIncrementalHFiles(loadConf).doBulkLoad(regionDir, table);
+    } finally {
+      table.close();
+    }
+  }
+
+  /**
+   * Move any HFiles still under <tt>staging</tt> back to their family
+   * directories in <tt>hfilesDir</tt>, and delete <tt>staging</tt>. An
+   * HFile spanning regions is split by the load into halves under a
+   * subdirectory, and the halves loaded in its place; one left in a region
+   * named in <tt>loadedDirs</tt> is deleted with <tt>staging</tt>. One left
+   * beside halves in a region that failed is restored, and logged apart, as
+   * some of its halves may be loaded already.
+   */
+  static void unstage(FileSystem fs, Path staging, Path hfilesDir, Set<String> loadedDirs)
+      throws IOException {
+    if (!fs.exists(staging)) {
+      return;
+    }
+    int restored = 0;
+    int deleted = 0;
+    List<Path> partlyLoaded = new ArrayList<Path>();
+    for (FileStatus regionDir : fs.listStatus(staging)) {
+      boolean loaded = loadedDirs.contains(regionDir.getPath().getName());
+      for (FileStatus familyDir : fs.listStatus(regionDir.getPath())) {
+        Path target = new Path(hfilesDir, familyDir.getPath().getName());
+        boolean split = false;
+        List<Path> hfiles = new ArrayList<Path>();
+        for (FileStatus hfile : fs.listStatus(familyDir.getPath())) {
+          if (hfile.isDir()) {
+            split = true;
+          } else {
+            hfiles.add(hfile.getPath());
+          }
+        }
+        if (loaded) {
+          deleted += hfiles.size();
+          continue;
+        }
+        fs.mkdirs(target);
+        for (Path hfile : hfiles) {
+          Path restoredPath = new Path(target, hfile.getName());
+          if (!fs.rename(hfile, restoredPath)) {
+            throw new IOException("Failed to restore " + hfile);
+          }
+          restored++;
+          if (split) {
+            partlyLoaded.add(restoredPath);
+          }
+        }
+      }
+    }
+    if (deleted > 0) {
+      LOG.info(String.format("Deleted %d HFiles split by the load; their halves were loaded.",
+        deleted));
+    }
+    if (restored > 0) {
+      LOG.warn(String.format("Moved %d unloaded HFiles back to %s.", restored, hfilesDir));
+    }
+    if (!partlyLoaded.isEmpty()) {
+      LOG.warn(String.format("%d restored HFiles were split by the failed load, and some of"
+          + " their halves may be loaded already: %s", partlyLoaded.size(), partlyLoaded));
+    }
+    fs.delete(staging, true);
+  }
+
+  /**
+   * @return the HFiles under <tt>hfilesDir</tt>, keyed by the name of the
+   *         region currently holding their first row, in region order.
+   */
+  private Map<String, List<Path>> groupByRegion(FileSystem fs, Path hfilesDir)
+      throws IOException {
+    Map<String, List<Path>> byRegion = new TreeMap<String, List<Path>>();
+    CacheConfig cacheConf = new CacheConfig(conf);
+    HTable table = new HTable(conf, tableName);
+    try {
+      for (FileStatus familyDir : fs.listStatus(hfilesDir)) {
+        if (!familyDir.isDir() || familyDir.getPath().getName().startsWith("_")) {
+          continue;
+        }
+        for (FileStatus hfile : fs.listStatus(familyDir.getPath())) {
+          if (hfile.isDir() || hfile.getPath().getName().startsWith("_")) {
+            continue;
+          }
+          HFile.Reader reader = HFile.createReader(fs, hfile.getPath(), cacheConf);
+          byte[] firstRow;
+          try {
+            reader.loadFileInfo();
+            firstRow = reader.getFirstRowKey();
+          } finally {
+            reader.close();
+          }
+          if (null == firstRow) {
+            continue; // empty HFile, nothing to load.
+          }
+          String region = table.getRegionLocation(firstRow, false)
+              .getRegionInfo().getRegionNameAsString();
+          List<Path> files = byRegion.get(region);
+          if (null == files) {
+            files = new ArrayList<Path>();
+            byRegion.put(region, files);
+          }
+          files.add(hfile.getPath());
+        }
+      }
+    } finally {
+      table.close();
+    }
+    return byRegion;
+  }
+}
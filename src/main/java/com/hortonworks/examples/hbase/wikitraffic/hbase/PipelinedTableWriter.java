@@ -0,0 +1,198 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Writes {@link Put}s to a table in batches of roughly
+ * {@value BufferedTableWriter#WRITE_BUFFER_KEY} bytes, sending each batch
+ * from a background thread while the caller fills the next. Up to
+ * {@value #IN_FLIGHT_KEY} full batches may wait to be sent before
+ * {@link #write(Put)} blocks. A failure to send is reported by the next
+ * call to {@link #write(Put)} or {@link #sync()}; batches queued behind a
+ * failed one are discarded.
+ * <p>
+ * The caller must use the writer from a single thread. Only the
+ * background thread touches the {@link HTable}.
+ * </p>
+ */
+public class PipelinedTableWriter implements Closeable {
+
+  public static final String IN_FLIGHT_KEY = "wikistats.write.inflight.batches";
+  public static final int DEFAULT_IN_FLIGHT = 2;
+
+  private static final List<Put> END = new ArrayList<Put>(0);
+
+  private final HTable table;
+  private final long writeBufferSize;
+  private final boolean skipWal;
+  private final BlockingQueue<List<Put>> batches;
+  private final Thread sender;
+  private final Histogram flushLatencies = new Histogram();
+
+  private final Object lock = new Object();
+  private long submitted = 0;
+  private long completed = 0;
+  private volatile IOException failure = null;
+
+  private List<Put> batch = new ArrayList<Put>();
+  private long batchBytes = 0;
+
+  public PipelinedTableWriter(Configuration conf, String tableName) throws IOException {
+    this(new HTable(conf, tableName),
+      conf.getLong(BufferedTableWriter.WRITE_BUFFER_KEY, BufferedTableWriter.DEFAULT_WRITE_BUFFER),
+      conf.getBoolean(BufferedTableWriter.SKIP_WAL_KEY, false),
+      conf.getInt(IN_FLIGHT_KEY, DEFAULT_IN_FLIGHT));
+  }
+
+  PipelinedTableWriter(HTable table, long writeBufferSize, boolean skipWal, int inFlight)
+      throws IOException {
+    this.table = table;
+    this.writeBufferSize = writeBufferSize;
+    this.skipWal = skipWal;
+    this.batches = new ArrayBlockingQueue<List<Put>>(Math.max(1, inFlight));
+    table.setAutoFlush(false);
+    // batches are sized here; never let the table flush on its own.
+    table.setWriteBufferSize(Long.MAX_VALUE);
+    this.sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        send();
+      }
+    }, "PipelinedTableWriter-" + Bytes.toString(table.getTableName()));
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  private void send() {
+    while (true) {
+      List<Put> next;
+      try {
+        next = batches.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      if (END == next) {
+        return;
+      }
+      if (null == failure) {
+        try {
+          long start = System.nanoTime();
+          table.put(next);
+          table.flushCommits();
+          synchronized (flushLatencies) {
+            flushLatencies.add((System.nanoTime() - start) / 1000);
+          }
+        } catch (IOException e) {
+          failure = e;
+        } catch (RuntimeException e) {
+          failure = new IOException("Failed to send batch", e);
+        }
+      }
+      synchronized (lock) {
+        completed++;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    if (null != failure) {
+      throw new IOException("Failed writing to " + Bytes.toString(table.getTableName()), failure);
+    }
+  }
+
+  /**
+   * Add <tt>put</tt> to the current batch, queueing the batch to be sent
+   * when it is full.
+   */
+  public void write(Put put) throws IOException {
+    checkFailure();
+    if (skipWal) {
+      put.setWriteToWAL(false);
+    }
+    batch.add(put);
+    batchBytes += put.heapSize();
+    if (batchBytes >= writeBufferSize) {
+      submit();
+    }
+  }
+
+  private void submit() throws IOException {
+    if (batch.isEmpty()) {
+      return;
+    }
+    synchronized (lock) {
+      submitted++;
+    }
+    try {
+      batches.put(batch);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted queueing a batch");
+    }
+    batch = new ArrayList<Put>();
+    batchBytes = 0;
+  }
+
+  /**
+   * Send the current batch and wait until every Put written so far has
+   * been acknowledged by the region servers.
+   */
+  public void sync() throws IOException {
+    submit();
+    synchronized (lock) {
+      while (completed < submitted) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting for writes");
+        }
+      }
+    }
+    checkFailure();
+  }
+
+  /**
+   * @return the time taken to send each batch, in microseconds.
+   */
+  public Histogram getFlushLatencies() {
+    synchronized (flushLatencies) {
+      Histogram copy = new Histogram();
+      for (int i = 0; i < Histogram.NUM_BUCKETS; i++) {
+        copy.addBucket(i, flushLatencies.getBucketCount(i));
+      }
+      copy.addSum(flushLatencies.getSum());
+      return copy;
+    }
+  }
+
+  /**
+   * Send any remaining Puts, stop the background thread and release the
+   * table.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      sync();
+    } finally {
+      try {
+        batches.put(END);
+        sender.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      table.close();
+    }
+  }
+}
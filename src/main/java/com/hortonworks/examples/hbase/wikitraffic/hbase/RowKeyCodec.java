@@ -0,0 +1,47 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+/**
+ * Encodes and decodes the row keys of the "tall" and "wide" wikistats
+ * schemas. A tall row identifies a single observation,
+ * <tt>(projectCode, pageName, dateTime)</tt>; a wide row identifies a page,
+ * <tt>(projectCode, pageName)</tt>. Implementations must be safe to share
+ * across threads.
+ */
+public interface RowKeyCodec {
+
+  /**
+   * @return the row key for a tall schema observation.
+   */
+  byte[] tallRow(String projectCode, String pageName, String dateTime);
+
+  /**
+   * @return the row key for a wide schema page.
+   */
+  byte[] wideRow(String projectCode, String pageName);
+
+  /**
+   * @return the prefix shared by every tall and wide row of the project's
+   *         pages, and by no other rows. Salted codecs return the prefix
+   *         within each bucket, without a salt byte.
+   */
+  byte[] projectPrefix(String projectCode);
+
+  /**
+   * @param row a tall or wide row key produced by this codec.
+   * @return the project code component of <tt>row</tt>.
+   */
+  String getProjectCode(byte[] row);
+
+  /**
+   * @param row a tall or wide row key produced by this codec.
+   * @param tall true when <tt>row</tt> is a tall schema row key.
+   * @return the page name component of <tt>row</tt>.
+   */
+  String getPageName(byte[] row, boolean tall);
+
+  /**
+   * @param row a tall row key produced by this codec.
+   * @return the date-time component of <tt>row</tt>.
+   */
+  String getDateTime(byte[] row);
+}
@@ -0,0 +1,123 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Prefixes the row keys of another {@link RowKeyCodec} with a single salt
+ * byte, spreading consecutive pages over <tt>buckets</tt> key ranges. The
+ * salt is a hash of <tt>projectCode/pageName</tt> only, so every hour of a
+ * page lands in the same bucket and remains contiguous there. Rows within a
+ * bucket sort in the order of the wrapped codec; {@link SaltedScanner}
+ * merges the buckets back into that order.
+ */
+public class SaltedRowKeyCodec implements RowKeyCodec, Closeable {
+
+  /** Salts are a single unsigned byte. */
+  public static final int MAX_BUCKETS = 256;
+
+  private final RowKeyCodec delegate;
+  private final int buckets;
+
+  public SaltedRowKeyCodec(RowKeyCodec delegate, int buckets) {
+    if (buckets < 1 || buckets > MAX_BUCKETS) {
+      throw new IllegalArgumentException(
+        String.format("Salt buckets must be between 1 and %d: %d", MAX_BUCKETS, buckets));
+    }
+    this.delegate = delegate;
+    this.buckets = buckets;
+  }
+
+  public RowKeyCodec getDelegate() {
+    return delegate;
+  }
+
+  public int getBuckets() {
+    return buckets;
+  }
+
+  /**
+   * @return the salt bucket of a page, in <tt>[0, buckets)</tt>.
+   */
+  public int bucket(String projectCode, String pageName) {
+    // String.hashCode() of "projectCode/pageName", without the concatenation.
+    int h = projectCode.hashCode();
+    h = 31 * h + '/';
+    for (int i = 0; i < pageName.length(); i++) {
+      h = 31 * h + pageName.charAt(i);
+    }
+    return (h & Integer.MAX_VALUE) % buckets;
+  }
+
+  @Override
+  public byte[] tallRow(String projectCode, String pageName, String dateTime) {
+    return salt(bucket(projectCode, pageName), delegate.tallRow(projectCode, pageName, dateTime));
+  }
+
+  @Override
+  public byte[] wideRow(String projectCode, String pageName) {
+    return salt(bucket(projectCode, pageName), delegate.wideRow(projectCode, pageName));
+  }
+
+  /**
+   * @return the prefix of the project within each bucket; a project's pages
+   *         are spread over every bucket.
+   */
+  @Override
+  public byte[] projectPrefix(String projectCode) {
+    return delegate.projectPrefix(projectCode);
+  }
+
+  @Override
+  public String getProjectCode(byte[] row) {
+    return delegate.getProjectCode(unsalt(row));
+  }
+
+  @Override
+  public String getPageName(byte[] row, boolean tall) {
+    return delegate.getPageName(unsalt(row), tall);
+  }
+
+  @Override
+  public String getDateTime(byte[] row) {
+    return delegate.getDateTime(unsalt(row));
+  }
+
+  /**
+   * Release the wrapped codec's resources, if any.
+   */
+  @Override
+  public void close() throws IOException {
+    WikistatsSchemaUtils.closeRowKeyCodec(delegate);
+  }
+
+  /**
+   * @return the first row of each bucket but the first, suitable for
+   *         pre-splitting a table into one region per bucket.
+   */
+  public byte[][] getSplitKeys() {
+    byte[][] splits = new byte[buckets - 1][];
+    for (int i = 1; i < buckets; i++) {
+      splits[i - 1] = new byte[] { (byte) i };
+    }
+    return splits;
+  }
+
+  /**
+   * @return <tt>key</tt> prefixed with the salt of <tt>bucket</tt>.
+   */
+  public static byte[] salt(int bucket, byte[] key) {
+    byte[] row = new byte[key.length + 1];
+    row[0] = (byte) bucket;
+    System.arraycopy(key, 0, row, 1, key.length);
+    return row;
+  }
+
+  /**
+   * @return <tt>row</tt> without its salt byte.
+   */
+  public static byte[] unsalt(byte[] row) {
+    return Arrays.copyOfRange(row, 1, row.length);
+  }
+}
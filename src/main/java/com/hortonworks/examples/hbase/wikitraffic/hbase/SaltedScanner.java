@@ -0,0 +1,175 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Scans a logical row range of a table salted by {@link SaltedRowKeyCodec}.
+ * The range is scanned in every bucket at once, each bucket on its own
+ * thread, and the results are merged back into the order of the unsalted
+ * row keys. Start and stop rows of the {@link Scan} are given unsalted.
+ * <p>
+ * Each bucket buffers up to the scan's caching size of rows ahead of the
+ * merge. Rows returned keep their salt byte; use the table's codec to decode
+ * them. A bucket scan that fails ends its bucket, and the failure is thrown
+ * from {@link #next()} when the merge reaches that end.
+ * </p>
+ */
+public class SaltedScanner implements Closeable {
+
+  private static final int DEFAULT_QUEUE_SIZE = 1000;
+
+  /** Marks the end of a bucket's results. */
+  private static final Result END = new Result();
+
+  private final List<BlockingQueue<Result>> queues;
+  private final Throwable[] failures;
+  private final ExecutorService pool;
+  private final PriorityQueue<Head> heads;
+  private boolean started = false;
+
+  public SaltedScanner(Configuration conf, String tableName, int buckets, Scan scan)
+      throws IOException {
+    this(conf, tableName, buckets, scan, new HTableFactory());
+  }
+
+  SaltedScanner(final Configuration conf, final String tableName, int buckets, Scan scan,
+      final HTableInterfaceFactory tables) throws IOException {
+    int queueSize = scan.getCaching() > 0 ? scan.getCaching() : DEFAULT_QUEUE_SIZE;
+    this.queues = new ArrayList<BlockingQueue<Result>>(buckets);
+    this.failures = new Throwable[buckets];
+    this.pool = Executors.newFixedThreadPool(buckets);
+    this.heads = new PriorityQueue<Head>(buckets, HEAD_COMPARATOR);
+
+    for (int i = 0; i < buckets; i++) {
+      final int bucket = i;
+      final BlockingQueue<Result> queue = new ArrayBlockingQueue<Result>(queueSize);
+      final Scan bucketScan = new Scan(scan);
+      bucketScan.setStartRow(SaltedRowKeyCodec.salt(bucket, scan.getStartRow()));
+      bucketScan.setStopRow(stopRow(bucket, scan.getStopRow()));
+      queues.add(queue);
+      pool.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            HTableInterface table = tables.createHTableInterface(conf, Bytes.toBytes(tableName));
+            try {
+              ResultScanner scanner = table.getScanner(bucketScan);
+              try {
+                for (Result r : scanner) {
+                  queue.put(r);
+                }
+              } finally {
+                scanner.close();
+              }
+            } finally {
+              tables.releaseHTableInterface(table);
+            }
+          } catch (InterruptedException e) {
+            return; // closed early; nobody is waiting for the end marker.
+          } catch (Throwable t) {
+            // anything else ends the bucket, or the merge would wait forever.
+            failures[bucket] = t;
+          }
+          try {
+            queue.put(END);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+    pool.shutdown();
+  }
+
+  /**
+   * @return the next row in unsalted key order, or null when every bucket
+   *         is exhausted.
+   */
+  public Result next() throws IOException {
+    if (!started) {
+      for (int i = 0; i < queues.size(); i++) {
+        advance(i);
+      }
+      started = true;
+    }
+    Head head = heads.poll();
+    if (null == head) {
+      return null;
+    }
+    advance(head.bucket);
+    return head.result;
+  }
+
+  /**
+   * Stop every bucket scan, discarding unread rows.
+   */
+  @Override
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  private void advance(int bucket) throws IOException {
+    Result r;
+    try {
+      r = queues.get(bucket).take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted reading bucket " + bucket);
+    }
+    if (END == r) {
+      if (null != failures[bucket]) {
+        throw new IOException("Failed to scan bucket " + bucket, failures[bucket]);
+      }
+      return;
+    }
+    heads.add(new Head(bucket, r));
+  }
+
+  private static byte[] stopRow(int bucket, byte[] stopRow) {
+    if (stopRow.length > 0) {
+      return SaltedRowKeyCodec.salt(bucket, stopRow);
+    }
+    // open-ended: scan to the start of the next bucket.
+    return bucket + 1 < SaltedRowKeyCodec.MAX_BUCKETS
+        ? new byte[] { (byte) (bucket + 1) }
+        : HConstants.EMPTY_END_ROW;
+  }
+
+  private static class Head {
+    final int bucket;
+    final Result result;
+
+    Head(int bucket, Result result) {
+      this.bucket = bucket;
+      this.result = result;
+    }
+  }
+
+  private static final Comparator<Head> HEAD_COMPARATOR = new Comparator<Head>() {
+    @Override
+    public int compare(Head a, Head b) {
+      byte[] ra = a.result.getRow(), rb = b.result.getRow();
+      int cmp = Bytes.compareTo(ra, 1, ra.length - 1, rb, 1, rb.length - 1);
+      return cmp != 0 ? cmp : a.bucket - b.bucket;
+    }
+  };
+}
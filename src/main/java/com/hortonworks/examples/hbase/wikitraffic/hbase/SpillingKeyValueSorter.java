@@ -0,0 +1,179 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+
+/**
+ * Sorts {@link KeyValue}s in bounded memory. Cells are buffered until their
+ * heap size reaches the run size, then sorted and written to a run file
+ * under the spill directory. The sorted runs of any number of sorters are
+ * combined by a {@link Merger}. Not thread-safe; use one sorter per thread.
+ */
+public class SpillingKeyValueSorter implements Closeable {
+
+  private static final int IO_BUFFER = 64 * 1024;
+
+  private final FileSystem fs;
+  private final Path spillDir;
+  private final String prefix;
+  private final long maxRunBytes;
+  private final List<KeyValue> buffer = new ArrayList<KeyValue>();
+  private final List<Path> runs = new ArrayList<Path>();
+  private long bufferBytes = 0;
+  private long cellBytes = 0;
+
+  /**
+   * @param prefix names this sorter's runs, unique among the sorters
+   *               sharing <tt>spillDir</tt>.
+   */
+  public SpillingKeyValueSorter(FileSystem fs, Path spillDir, String prefix, long maxRunBytes) {
+    this.fs = fs;
+    this.spillDir = spillDir;
+    this.prefix = prefix;
+    this.maxRunBytes = maxRunBytes;
+  }
+
+  public void add(KeyValue kv) throws IOException {
+    buffer.add(kv);
+    bufferBytes += kv.heapSize();
+    cellBytes += kv.getLength();
+    if (bufferBytes >= maxRunBytes) {
+      spill();
+    }
+  }
+
+  private void spill() throws IOException {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    Collections.sort(buffer, KeyValue.COMPARATOR);
+    Path run = new Path(spillDir, String.format("%s-%05d", prefix, runs.size()));
+    DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(fs.create(run, true), IO_BUFFER));
+    try {
+      for (KeyValue kv : buffer) {
+        kv.write(out);
+      }
+      // a zero length marks the end of the run.
+      out.writeInt(0);
+    } finally {
+      out.close();
+    }
+    runs.add(run);
+    buffer.clear();
+    bufferBytes = 0;
+  }
+
+  /**
+   * Spill any buffered cells as a final run.
+   */
+  @Override
+  public void close() throws IOException {
+    spill();
+  }
+
+  /**
+   * @return the runs written, each sorted.
+   */
+  public List<Path> getRuns() {
+    return Collections.unmodifiableList(runs);
+  }
+
+  /**
+   * @return the serialized size of every cell added.
+   */
+  public long getCellBytes() {
+    return cellBytes;
+  }
+
+  /**
+   * Merges sorted runs into a single sorted stream of cells.
+   */
+  public static class Merger implements Closeable {
+
+    private final List<DataInputStream> inputs = new ArrayList<DataInputStream>();
+    private final PriorityQueue<Head> heads;
+
+    public Merger(FileSystem fs, List<Path> runs) throws IOException {
+      this.heads = new PriorityQueue<Head>(Math.max(1, runs.size()), HEAD_COMPARATOR);
+      try {
+        for (Path run : runs) {
+          DataInputStream in =
+              new DataInputStream(new BufferedInputStream(fs.open(run), IO_BUFFER));
+          inputs.add(in);
+          advance(in);
+        }
+      } catch (IOException e) {
+        close();
+        throw e;
+      }
+    }
+
+    private void advance(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (0 != length) {
+        KeyValue kv = new KeyValue();
+        kv.readFields(length, in);
+        heads.add(new Head(kv, in));
+      }
+    }
+
+    /**
+     * @return the next cell in sorted order, or null when every run is
+     *         exhausted.
+     */
+    public KeyValue next() throws IOException {
+      Head head = heads.poll();
+      if (null == head) {
+        return null;
+      }
+      advance(head.in);
+      return head.kv;
+    }
+
+    @Override
+    public void close() throws IOException {
+      IOException failure = null;
+      for (DataInputStream in : inputs) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      if (null != failure) {
+        throw failure;
+      }
+    }
+  }
+
+  private static class Head {
+    final KeyValue kv;
+    final DataInputStream in;
+
+    Head(KeyValue kv, DataInputStream in) {
+      this.kv = kv;
+      this.in = in;
+    }
+  }
+
+  private static final Comparator<Head> HEAD_COMPARATOR = new Comparator<Head>() {
+    @Override
+    public int compare(Head a, Head b) {
+      return KeyValue.COMPARATOR.compare(a.kv, b.kv);
+    }
+  };
+}
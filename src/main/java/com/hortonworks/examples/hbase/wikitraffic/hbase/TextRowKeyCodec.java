@@ -0,0 +1,54 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The original, human-readable row key layout. Tall rows are stored as
+ * <tt>projectCode/pageName/dateTime</tt> and wide rows as
+ * <tt>projectCode/pageName</tt>. Page names may themselves contain
+ * <tt>/</tt>; decoding relies on project codes and date-times never doing so.
+ */
+public class TextRowKeyCodec implements RowKeyCodec {
+
+  private static final char SEPARATOR = '/';
+
+  @Override
+  public byte[] tallRow(String projectCode, String pageName, String dateTime) {
+    return Bytes.toBytes(new StringBuilder(
+        projectCode.length() + pageName.length() + dateTime.length() + 2)
+      .append(projectCode).append(SEPARATOR)
+      .append(pageName).append(SEPARATOR)
+      .append(dateTime).toString());
+  }
+
+  @Override
+  public byte[] wideRow(String projectCode, String pageName) {
+    return Bytes.toBytes(new StringBuilder(projectCode.length() + pageName.length() + 1)
+      .append(projectCode).append(SEPARATOR)
+      .append(pageName).toString());
+  }
+
+  @Override
+  public byte[] projectPrefix(String projectCode) {
+    return Bytes.toBytes(projectCode + SEPARATOR);
+  }
+
+  @Override
+  public String getProjectCode(byte[] row) {
+    String s = Bytes.toString(row);
+    return s.substring(0, s.indexOf(SEPARATOR));
+  }
+
+  @Override
+  public String getPageName(byte[] row, boolean tall) {
+    String s = Bytes.toString(row);
+    int start = s.indexOf(SEPARATOR) + 1;
+    return tall ? s.substring(start, s.lastIndexOf(SEPARATOR)) : s.substring(start);
+  }
+
+  @Override
+  public String getDateTime(byte[] row) {
+    String s = Bytes.toString(row);
+    return s.substring(s.lastIndexOf(SEPARATOR) + 1);
+  }
+}
@@ -0,0 +1,59 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Stores wide schema cells as a JSON object,
+ * <tt>{"views":N,"bytes":N}</tt>. Decoding also accepts the malformed values
+ * written by earlier versions of this project, which quoted the views and
+ * omitted the closing brace.
+ */
+public class TextWideValueCodec implements WideValueCodec {
+
+  private static final byte[] VIEWS_FIELD = Bytes.toBytes("\"views\":");
+  private static final byte[] BYTES_FIELD = Bytes.toBytes("\"bytes\":");
+
+  @Override
+  public byte[] encode(long pageViews, long bytes) {
+    return Bytes.toBytes(new StringBuilder(40)
+      .append("{\"views\":").append(pageViews)
+      .append(",\"bytes\":").append(bytes)
+      .append('}').toString());
+  }
+
+  @Override
+  public long getPageViews(byte[] value) {
+    return field(value, VIEWS_FIELD);
+  }
+
+  @Override
+  public long getBytes(byte[] value) {
+    return field(value, BYTES_FIELD);
+  }
+
+  private static long field(byte[] value, byte[] name) {
+    int offset = indexOf(value, name);
+    if (offset < 0) {
+      throw new IllegalArgumentException("Missing field " + Bytes.toString(name)
+          + " in " + Bytes.toString(value));
+    }
+    offset += name.length;
+    if (offset < value.length && value[offset] == '"') offset++;
+
+    int end = offset;
+    if (end < value.length && value[end] == '-') end++;
+    while (end < value.length && value[end] >= '0' && value[end] <= '9') end++;
+    return Long.parseLong(Bytes.toString(value, offset, end - offset));
+  }
+
+  private static int indexOf(byte[] value, byte[] target) {
+    outer:
+    for (int i = 0; i <= value.length - target.length; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (value[i + j] != target[j]) continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,279 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.SequenceFile;
+
+/**
+ * The most viewed pages of one project in one hour, kept in a heap bounded
+ * to {@value #TOPN_KEY} pages. With that option set, the loaders offer every
+ * record to such a heap as it streams through the mappers, merge the heaps
+ * of all map tasks in the reducers, and write each hour's list to a side
+ * table named for the target table with {@value #TABLE_SUFFIX}. Its rows
+ * are <tt>dateTime/projectCode</tt>, so an hour's rows are contiguous, with
+ * a cell per page in family {@code t}: the page name qualifying its views.
+ * The online loader's reducers write the side table as they go. The HFile
+ * loader's leave their lists under {@value #LISTS_DIR} in the job output,
+ * and the loader writes them with {@link #writeLists(Configuration, Path)}
+ * only once the HFiles are loaded, so a failed load leaves the side table
+ * as it was.
+ * <p>
+ * A page appears once in an hourly file, so its views for the hour are
+ * seen whole by one map task, and the top pages of an hour are among the
+ * top pages of some task. Merging the tasks' lists is therefore exact.
+ * Ties are broken by page name, so the list does not depend on the order
+ * pages are offered.
+ * </p>
+ */
+public class TopPages {
+
+  private static final Log LOG = LogFactory.getLog(TopPages.class);
+
+  /** Number of pages kept per project and hour; 0 disables the side table. */
+  public static final String TOPN_KEY = "wikistats.topn";
+  /** The side table written by the reducers; set by the loaders. */
+  public static final String TABLE_KEY = "wikistats.topn.table";
+  public static final String TABLE_SUFFIX = "_topn";
+  public static final byte[] FAMILY_NAME = Bytes.toBytes("t");
+  /** Holds the lists of an HFile job's reducers, under its output. */
+  public static final String LISTS_DIR = "_topn";
+
+  private static final byte SEPARATOR = '/';
+
+  /** A page and its views, ordered best first. */
+  public static class Page implements Comparable<Page> {
+
+    private final String pageName;
+    private final long pageViews;
+
+    public Page(String pageName, long pageViews) {
+      this.pageName = pageName;
+      this.pageViews = pageViews;
+    }
+
+    public String getPageName() {
+      return pageName;
+    }
+
+    public long getPageViews() {
+      return pageViews;
+    }
+
+    @Override
+    public int compareTo(Page o) {
+      if (pageViews != o.pageViews) {
+        return pageViews > o.pageViews ? -1 : 1;
+      }
+      return pageName.compareTo(o.pageName);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s=%d", pageName, pageViews);
+    }
+  }
+
+  /** Keeps the worst page at the head of the heap. */
+  private static final Comparator<Page> WORST_FIRST = Collections.reverseOrder();
+
+  private final int capacity;
+  private final PriorityQueue<Page> heap;
+
+  public TopPages(int capacity) {
+    this.capacity = capacity;
+    this.heap = new PriorityQueue<Page>(capacity + 1, WORST_FIRST);
+  }
+
+  /**
+   * Keep <tt>pageName</tt> if it is among the best pages offered so far.
+   * Pages that cannot be kept are rejected without allocating.
+   * @return true when the page was kept.
+   */
+  public boolean offer(String pageName, long pageViews) {
+    if (heap.size() == capacity) {
+      Page worst = heap.peek();
+      if (pageViews < worst.pageViews
+          || (pageViews == worst.pageViews && pageName.compareTo(worst.pageName) >= 0)) {
+        return false;
+      }
+      heap.poll();
+    }
+    heap.add(new Page(pageName, pageViews));
+    return true;
+  }
+
+  public int size() {
+    return heap.size();
+  }
+
+  /**
+   * @return the pages kept, best first.
+   */
+  public List<Page> getPages() {
+    List<Page> pages = new ArrayList<Page>(heap);
+    Collections.sort(pages);
+    return pages;
+  }
+
+  /**
+   * @return the number of pages to keep per project and hour, or 0 when
+   *         the side table is not written.
+   */
+  public static int getTopN(Configuration conf) {
+    return conf.getInt(TOPN_KEY, 0);
+  }
+
+  /**
+   * @return true when the mappers should collect top pages for a side table
+   *         named by {@link #TABLE_KEY}.
+   */
+  public static boolean isEnabled(Configuration conf) {
+    return getTopN(conf) > 0 && null != conf.get(TABLE_KEY);
+  }
+
+  /**
+   * @return the name of the side table of <tt>targetTable</tt>.
+   */
+  public static String getTableName(String targetTable) {
+    return targetTable + TABLE_SUFFIX;
+  }
+
+  /**
+   * @return the side table row holding the top pages of
+   *         <tt>projectCode</tt> in the hour <tt>dateTime</tt>.
+   */
+  public static byte[] row(String dateTime, String projectCode) {
+    return Bytes.add(Bytes.toBytes(dateTime), new byte[] { SEPARATOR },
+      Bytes.toBytes(projectCode));
+  }
+
+  /**
+   * @return a Put writing <tt>pages</tt> to the side table <tt>row</tt>.
+   */
+  public static Put createPut(byte[] row, List<Page> pages) {
+    Put put = new Put(row);
+    for (Page page : pages) {
+      put.add(FAMILY_NAME, Bytes.toBytes(page.pageName), Bytes.toBytes(page.pageViews));
+    }
+    return put;
+  }
+
+  /**
+   * @param table the side table.
+   * @return the top pages of <tt>projectCode</tt> in the hour
+   *         <tt>dateTime</tt>, best first; empty when none were recorded.
+   */
+  public static List<Page> read(HTable table, String dateTime, String projectCode)
+      throws IOException {
+    Result result = table.get(new Get(row(dateTime, projectCode)).addFamily(FAMILY_NAME));
+    List<Page> pages = new ArrayList<Page>();
+    NavigableMap<byte[], byte[]> cells = result.getFamilyMap(FAMILY_NAME);
+    if (null == cells) {
+      return pages;
+    }
+    for (Map.Entry<byte[], byte[]> cell : cells.entrySet()) {
+      pages.add(new Page(Bytes.toString(cell.getKey()), Bytes.toLong(cell.getValue())));
+    }
+    Collections.sort(pages);
+    return pages;
+  }
+
+  /**
+   * When {@link #TOPN_KEY} is set, create the side table of
+   * <tt>targetTable</tt> if it does not exist, and name it in <tt>conf</tt>
+   * under {@link #TABLE_KEY} for the jobs configured from it.
+   * @return false when an existing side table lacks the family.
+   */
+  public static boolean prepareTable(Configuration conf, String targetTable)
+      throws IOException {
+    if (getTopN(conf) <= 0) {
+      return true;
+    }
+    String tableName = getTableName(targetTable);
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      if (admin.tableExists(tableName)) {
+        if (!admin.getTableDescriptor(Bytes.toBytes(tableName)).hasFamily(FAMILY_NAME)) {
+          LOG.error(String.format("Top pages table '%s' does not have column family '%s'.",
+            tableName, Bytes.toString(FAMILY_NAME)));
+          return false;
+        }
+      } else {
+        LOG.info(String.format("Creating top pages table '%s'.", tableName));
+        HTableDescriptor desc = new HTableDescriptor(tableName);
+        desc.addFamily(new HColumnDescriptor(FAMILY_NAME)
+          .setMaxVersions(WikistatsSchemaUtils.MAX_VERSIONS));
+        admin.createTable(desc);
+      }
+    } finally {
+      admin.close();
+    }
+    conf.set(TABLE_KEY, tableName);
+    return true;
+  }
+
+  /**
+   * Write the lists left under <tt>outputDir</tt> by an HFile job's
+   * reducers to the side table named in <tt>conf</tt> under
+   * {@link #TABLE_KEY}.
+   * @return the number of lists written.
+   */
+  public static long writeLists(Configuration conf, Path outputDir) throws IOException {
+    BufferedTableWriter writer = new BufferedTableWriter(conf, conf.get(TABLE_KEY));
+    try {
+      return writeLists(conf, outputDir, writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  static long writeLists(Configuration conf, Path outputDir, BufferedTableWriter writer)
+      throws IOException {
+    Path listsDir = new Path(outputDir, LISTS_DIR);
+    FileSystem fs = listsDir.getFileSystem(conf);
+    if (!fs.exists(listsDir)) {
+      return 0;
+    }
+    long lists = 0;
+    ImmutableBytesWritable row = new ImmutableBytesWritable();
+    for (FileStatus file : fs.listStatus(listsDir)) {
+      if (file.isDir() || file.getPath().getName().startsWith("_")
+          || file.getPath().getName().startsWith(".")) {
+        continue;
+      }
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, file.getPath(), conf);
+      try {
+        // the writer buffers each Put it is given.
+        for (Put put = new Put(); reader.next(row, put); put = new Put()) {
+          writer.write(put);
+          lists++;
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return lists;
+  }
+}
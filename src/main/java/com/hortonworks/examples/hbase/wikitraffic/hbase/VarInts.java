@@ -0,0 +1,125 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Reads and writes Hadoop variable-length integers, as produced by
+ * {@link WritableUtils#writeVLong(java.io.DataOutput, long)}, directly
+ * against byte arrays.
+ * <p>
+ * Hadoop's encoding does not sort as its values do, so row keys instead
+ * use the sortable form, for ints from 0: the leading one bits of the first
+ * byte count the bytes that follow, and the value fills the remaining bits
+ * big-endian. A longer encoding always starts with a greater byte, and no
+ * encoding is a prefix of another.
+ * </p>
+ */
+final class VarInts {
+
+  private VarInts() {}
+
+  /**
+   * @return the number of bytes required to encode <tt>i</tt>.
+   */
+  static int size(long i) {
+    return WritableUtils.getVIntSize(i);
+  }
+
+  /**
+   * @return the number of bytes occupied by the value encoded at
+   *         <tt>buf[offset]</tt>.
+   */
+  static int sizeAt(byte[] buf, int offset) {
+    return WritableUtils.decodeVIntSize(buf[offset]);
+  }
+
+  /**
+   * Encode <tt>i</tt> into <tt>buf</tt> at <tt>offset</tt>.
+   * @return the offset immediately following the encoded value.
+   */
+  static int write(byte[] buf, int offset, long i) {
+    if (i >= -112 && i <= 127) {
+      buf[offset] = (byte) i;
+      return offset + 1;
+    }
+
+    int len = -112;
+    if (i < 0) {
+      i ^= -1L;
+      len = -120;
+    }
+    for (long tmp = i; tmp != 0; tmp >>= 8) {
+      len--;
+    }
+    buf[offset++] = (byte) len;
+
+    len = (len < -120) ? -(len + 120) : -(len + 112);
+    for (int idx = len; idx != 0; idx--) {
+      int shift = (idx - 1) * 8;
+      buf[offset++] = (byte) ((i >> shift) & 0xFF);
+    }
+    return offset;
+  }
+
+  /**
+   * @return the value encoded at <tt>buf[offset]</tt>.
+   */
+  static long read(byte[] buf, int offset) {
+    byte first = buf[offset];
+    int size = WritableUtils.decodeVIntSize(first);
+    if (size == 1) return first;
+    long value = 0;
+    for (int i = 1; i < size; i++) {
+      value = (value << 8) | (buf[offset + i] & 0xFF);
+    }
+    return WritableUtils.isNegativeVInt(first) ? ~value : value;
+  }
+
+  /**
+   * @return the number of bytes required to encode <tt>i</tt> in sortable
+   *         form.
+   */
+  static int sortableSize(int i) {
+    if (i < 0) {
+      throw new IllegalArgumentException("Negative sortable int: " + i);
+    }
+    // 7 bits in one byte, 7 more for each byte that follows, up to 4 bytes.
+    int size = 1;
+    while (size < 5 && i >= 1 << (7 * size)) {
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Encode non-negative <tt>i</tt> into <tt>buf</tt> at <tt>offset</tt> in
+   * sortable form.
+   * @return the offset immediately following the encoded value.
+   */
+  static int writeSortable(byte[] buf, int offset, int i) {
+    int size = sortableSize(i);
+    for (int idx = size - 1; idx >= 0; idx--) {
+      buf[offset + idx] = (byte) i;
+      i >>>= 8;
+    }
+    // size - 1 leading ones, then a zero, except in the 5-byte form.
+    buf[offset] |= (byte) (0xFF00 >> (size - 1));
+    return offset + size;
+  }
+
+  /**
+   * @return the value encoded in sortable form at <tt>buf[offset]</tt>.
+   */
+  static int readSortable(byte[] buf, int offset) {
+    int first = buf[offset] & 0xFF;
+    int size = 1;
+    while (size < 5 && (first & (0x80 >> (size - 1))) != 0) {
+      size++;
+    }
+    int value = first & (0xFF >> size);
+    for (int i = 1; i < size; i++) {
+      value = (value << 8) | (buf[offset + i] & 0xFF);
+    }
+    return value;
+  }
+}
@@ -0,0 +1,121 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Splits the wide row of a page into one row per period of time, so a hot
+ * page's rows stop growing. A bucketed row is the codec's wide row followed
+ * by <tt>/</tt> and the leading digits of the date-time: <tt>YYYY</tt>,
+ * <tt>YYYYmm</tt> or <tt>YYYYmmdd</tt>. The suffix has a fixed width per
+ * bucket, so it is stripped with {@link #pageRow(byte[])} before decoding
+ * the row with its codec. Cell qualifiers keep the full date-time.
+ */
+public enum WideRowBucket {
+  /** One row per page; the original wide schema. */
+  NONE(0),
+  YEAR(4),
+  MONTH(6),
+  DAY(8);
+
+  private static final byte SEPARATOR = '/';
+
+  /** Leading digits of the date-time kept in the bucket. */
+  private final int width;
+
+  private WideRowBucket(int width) {
+    this.width = width;
+  }
+
+  /**
+   * @return the bucket named by <tt>name</tt>, ignoring case.
+   * @throws IllegalArgumentException for an unknown name.
+   */
+  public static WideRowBucket forName(String name) {
+    return valueOf(name.toUpperCase());
+  }
+
+  /**
+   * @return the bucket holding <tt>dateTime</tt>, or null for {@link #NONE}.
+   */
+  public String bucketOf(String dateTime) {
+    return NONE == this ? null : dateTime.substring(0, width);
+  }
+
+  /**
+   * @param wideRow a wide row key produced by a {@link RowKeyCodec}.
+   * @return the row holding <tt>dateTime</tt> for the page of
+   *         <tt>wideRow</tt>.
+   */
+  public byte[] row(byte[] wideRow, String dateTime) {
+    if (NONE == this) {
+      return wideRow;
+    }
+    byte[] row = new byte[wideRow.length + 1 + width];
+    int offset = Bytes.putBytes(row, 0, wideRow, 0, wideRow.length);
+    offset = Bytes.putByte(row, offset, SEPARATOR);
+    for (int i = 0; i < width; i++) {
+      row[offset + i] = (byte) dateTime.charAt(i);
+    }
+    return row;
+  }
+
+  /**
+   * @return <tt>row</tt> without its bucket suffix, as its codec wrote it.
+   */
+  public byte[] pageRow(byte[] row) {
+    if (NONE == this) {
+      return row;
+    }
+    byte[] page = new byte[row.length - 1 - width];
+    System.arraycopy(row, 0, page, 0, page.length);
+    return page;
+  }
+
+  /**
+   * @param startDateTime the first hour, inclusive.
+   * @param endDateTime the last hour, exclusive.
+   * @return the date-time of an hour in each bucket overlapping
+   *         <tt>[startDateTime, endDateTime)</tt>, in order; enough to name
+   *         each bucket's row with {@link #row(byte[], String)}.
+   */
+  public List<String> bucketsBetween(String startDateTime, String endDateTime) {
+    List<String> hours = new ArrayList<String>();
+    int hour = EpochHours.fromDateTime(startDateTime);
+    int end = EpochHours.fromDateTime(endDateTime);
+    if (hour >= end) {
+      return hours;
+    }
+    if (NONE == this) {
+      hours.add(startDateTime);
+      return hours;
+    }
+    while (hour < end) {
+      String dateTime = EpochHours.toDateTime(hour);
+      hours.add(dateTime);
+      hour = nextBucketStart(dateTime);
+    }
+    return hours;
+  }
+
+  /**
+   * @return the epoch hour starting the bucket after that of
+   *         <tt>dateTime</tt>.
+   */
+  private int nextBucketStart(String dateTime) {
+    int year = Integer.parseInt(dateTime.substring(0, 4));
+    int month = Integer.parseInt(dateTime.substring(4, 6));
+    switch (this) {
+    case YEAR:
+      return EpochHours.fromDateTime(String.format("%04d0101-000000", year + 1));
+    case MONTH:
+      return EpochHours.fromDateTime(12 == month
+          ? String.format("%04d0101-000000", year + 1)
+          : String.format("%04d%02d01-000000", year, month + 1));
+    default:
+      return (EpochHours.fromDateTime(dateTime) / 24 + 1) * 24;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Reads a range of hours of one page from a wide schema table, whatever its
+ * {@link WideRowBucket}. The range is turned into a {@link Get} of each
+ * bucket row it overlaps, limited to the range's qualifiers, and the gets
+ * are sent as one batch, which the client issues to every region server
+ * involved in parallel. Instances are not safe to share across threads.
+ */
+public class WideRowReader implements Closeable {
+
+  private final HTable table;
+  private final RowKeyCodec codec;
+  private final WideRowBucket bucket;
+
+  /**
+   * Read <tt>tableName</tt> with the row key codec and row bucket named by
+   * the schema options in <tt>conf</tt>, as it was loaded.
+   */
+  public WideRowReader(Configuration conf, String tableName) throws IOException {
+    this(new HTable(conf, tableName),
+      WikistatsSchemaUtils.getRowKeyCodec(PageDictionary.withDefaultTable(conf, tableName)),
+      WikistatsSchemaUtils.getWideRowBucket(conf));
+  }
+
+  WideRowReader(HTable table, RowKeyCodec codec, WideRowBucket bucket) {
+    this.table = table;
+    this.codec = codec;
+    this.bucket = bucket;
+  }
+
+  /**
+   * @param startDateTime the first hour, inclusive.
+   * @param endDateTime the last hour, exclusive.
+   * @return the cell value of each hour of the page in
+   *         <tt>[startDateTime, endDateTime)</tt>, keyed by date-time. Decode
+   *         values with {@link WideValueDecoder}.
+   */
+  public NavigableMap<String, byte[]> getHours(String projectCode, String pageName,
+      String startDateTime, String endDateTime) throws IOException {
+    NavigableMap<String, byte[]> hours = new TreeMap<String, byte[]>();
+    List<Get> gets = createGets(codec, bucket, projectCode, pageName, startDateTime,
+      endDateTime);
+    if (gets.isEmpty()) {
+      return hours;
+    }
+    for (Result result : table.get(gets)) {
+      if (null == result || result.isEmpty()) {
+        continue;
+      }
+      for (KeyValue kv : result.raw()) {
+        hours.put(Bytes.toString(kv.getQualifier()), kv.getValue());
+      }
+    }
+    return hours;
+  }
+
+  /**
+   * @return a {@link Get} of each bucket row of the page overlapping
+   *         <tt>[startDateTime, endDateTime)</tt>, in row order.
+   */
+  static List<Get> createGets(RowKeyCodec codec, WideRowBucket bucket, String projectCode,
+      String pageName, String startDateTime, String endDateTime) {
+    byte[] pageRow = codec.wideRow(projectCode, pageName);
+    List<Get> gets = new ArrayList<Get>();
+    for (String dateTime : bucket.bucketsBetween(startDateTime, endDateTime)) {
+      Get get = new Get(bucket.row(pageRow, dateTime));
+      get.addFamily(WikistatsSchemaUtils.COLUMN_FAMILY_NAME);
+      get.setFilter(new ColumnRangeFilter(Bytes.toBytes(startDateTime), true,
+        Bytes.toBytes(endDateTime), false));
+      gets.add(get);
+    }
+    return gets;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      table.close();
+    } finally {
+      WikistatsSchemaUtils.closeRowKeyCodec(codec);
+    }
+  }
+}
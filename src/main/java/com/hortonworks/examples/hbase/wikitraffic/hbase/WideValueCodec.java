@@ -0,0 +1,30 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+/**
+ * Encodes and decodes the cell value of the "wide" wikistats schema, the
+ * <tt>(views, bytes)</tt> pair observed for a page in one hour.
+ * Implementations must be safe to share across threads.
+ *
+ * @see WideValueDecoder
+ */
+public interface WideValueCodec {
+
+  /**
+   * @param pageViews Number of page views for this hour.
+   * @param bytes Size of the resource requested in bytes.
+   * @return the encoded cell value.
+   */
+  byte[] encode(long pageViews, long bytes);
+
+  /**
+   * @param value a cell value produced by this codec.
+   * @return the number of page views.
+   */
+  long getPageViews(byte[] value);
+
+  /**
+   * @param value a cell value produced by this codec.
+   * @return the size of the resource requested in bytes.
+   */
+  long getBytes(byte[] value);
+}
@@ -0,0 +1,45 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+/**
+ * Decodes wide schema cell values written by any of the built-in
+ * {@link WideValueCodec}s, detecting the format from the first byte. Readers
+ * can use this without knowing how a table was loaded; a table may even mix
+ * formats across loads.
+ */
+public final class WideValueDecoder {
+
+  private static final WideValueCodec TEXT = new TextWideValueCodec();
+  private static final WideValueCodec PACKED = new PackedWideValueCodec();
+
+  private WideValueDecoder() {}
+
+  /**
+   * @param value a wide schema cell value.
+   * @return the number of page views.
+   */
+  public static long getPageViews(byte[] value) {
+    return codecFor(value).getPageViews(value);
+  }
+
+  /**
+   * @param value a wide schema cell value.
+   * @return the size of the resource requested in bytes.
+   */
+  public static long getBytes(byte[] value) {
+    return codecFor(value).getBytes(value);
+  }
+
+  /**
+   * @param value a wide schema cell value.
+   * @return the built-in codec able to decode <tt>value</tt>.
+   */
+  public static WideValueCodec codecFor(byte[] value) {
+    if (value.length > 0 && value[0] == PackedWideValueCodec.TAG) {
+      return PACKED;
+    }
+    if (value.length > 0 && value[0] == '{') {
+      return TEXT;
+    }
+    throw new IllegalArgumentException("Unrecognized wide value format.");
+  }
+}
@@ -0,0 +1,463 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableFactory;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Reads the hourly series of pages from a tall or wide wikistats table, as
+ * it was loaded: the row key codec and, for the wide schema, the
+ * {@link WideRowBucket} are taken from the schema options. Series are
+ * returned as {@link PageSeries} of primitive arrays, never as
+ * {@link Result}s. There are three ways to read:
+ * <ul>
+ * <li>{@link #getSeries(String, String, String, String, Projection)} reads
+ * one page, scanning its tall rows or getting its wide bucket rows.</li>
+ * <li>{@link #getSeries(String, List, String, String, Projection)} reads
+ * many pages of a project as multi-gets of {@value #BATCH_KEY} rows at a
+ * time. A tall page costs a get per hour, so prefer single page reads over
+ * long ranges.</li>
+ * <li>{@link #scanProject(String, String, String, Projection)} streams every
+ * page of a project, scanning each region the project spans on one of
+ * {@value #THREADS_KEY} threads. Region scans are cut at page boundaries,
+ * so each page arrives whole.</li>
+ * </ul>
+ * Scans fetch {@value #CACHING_KEY} rows per call and skip the block
+ * cache. Instances are not safe to share across threads.
+ */
+public class WikistatsReader implements Closeable {
+
+  public static final String CACHING_KEY = "wikistats.read.caching";
+  public static final int DEFAULT_CACHING = 1000;
+  public static final String BATCH_KEY = "wikistats.read.batch";
+  public static final int DEFAULT_BATCH = 1000;
+  public static final String THREADS_KEY = "wikistats.read.threads";
+  public static final int DEFAULT_THREADS = 8;
+
+  private static final byte[] FAMILY = WikistatsSchemaUtils.COLUMN_FAMILY_NAME;
+
+  /** Marks the end of a region's series. */
+  private static final PageSeries END = new PageSeries(null, null, null, null, null);
+
+  /**
+   * The values read for each hour. In the tall schema, a projection reads
+   * only its columns; wide cells hold both values.
+   */
+  public enum Projection {
+    VIEWS(true, false),
+    BYTES(false, true),
+    ALL(true, true);
+
+    final boolean views;
+    final boolean bytes;
+
+    private Projection(boolean views, boolean bytes) {
+      this.views = views;
+      this.bytes = bytes;
+    }
+  }
+
+  private final Configuration conf;
+  private final String tableName;
+  private final HTable table;
+  private final HTableInterfaceFactory tables;
+  private final RowKeyCodec codec;
+  private final WideRowBucket bucket;
+  private final boolean tall;
+  private final int caching;
+  private final int batch;
+  private final int threads;
+
+  /**
+   * Read <tt>tableName</tt> with the schema options in <tt>conf</tt>.
+   * @param tall true for the "tall" schema, false for the "wide" schema.
+   */
+  public WikistatsReader(Configuration conf, String tableName, boolean tall)
+      throws IOException {
+    this(conf, tableName, new HTable(conf, tableName), tall);
+  }
+
+  WikistatsReader(Configuration conf, String tableName, HTable table, boolean tall) {
+    this(conf, tableName, table, new HTableFactory(), tall);
+  }
+
+  /**
+   * @param tables makes the table each region scan of
+   *        {@link #scanProject(String, String, String, Projection)} reads.
+   */
+  WikistatsReader(Configuration conf, String tableName, HTable table,
+      HTableInterfaceFactory tables, boolean tall) {
+    this.conf = conf;
+    this.tableName = tableName;
+    this.table = table;
+    this.tables = tables;
+    this.codec = WikistatsSchemaUtils.getRowKeyCodec(
+      PageDictionary.withDefaultTable(conf, tableName));
+    this.bucket = tall ? WideRowBucket.NONE : WikistatsSchemaUtils.getWideRowBucket(conf);
+    this.tall = tall;
+    this.caching = conf.getInt(CACHING_KEY, DEFAULT_CACHING);
+    this.batch = conf.getInt(BATCH_KEY, DEFAULT_BATCH);
+    this.threads = conf.getInt(THREADS_KEY, DEFAULT_THREADS);
+  }
+
+  /**
+   * @param startDateTime the first hour, inclusive.
+   * @param endDateTime the last hour, exclusive.
+   * @return the page's observations in <tt>[startDateTime, endDateTime)</tt>.
+   */
+  public PageSeries getSeries(String projectCode, String pageName, String startDateTime,
+      String endDateTime, Projection projection) throws IOException {
+    int startHour = EpochHours.fromDateTime(startDateTime);
+    int endHour = EpochHours.fromDateTime(endDateTime);
+    PageSeries.Builder series = new PageSeries.Builder(projectCode, pageName);
+    if (tall) {
+      Scan scan = createScan(codec.tallRow(projectCode, pageName, startDateTime),
+        codec.tallRow(projectCode, pageName, endDateTime), startDateTime, endDateTime,
+        projection);
+      ResultScanner scanner = table.getScanner(scan);
+      try {
+        for (Result result : scanner) {
+          add(series, result, startHour, endHour);
+        }
+      } finally {
+        scanner.close();
+      }
+    } else {
+      List<Get> gets = WideRowReader.createGets(codec, bucket, projectCode, pageName,
+        startDateTime, endDateTime);
+      if (!gets.isEmpty()) {
+        for (Result result : table.get(gets)) {
+          add(series, result, startHour, endHour);
+        }
+      }
+    }
+    return series.build(projection.views, projection.bytes);
+  }
+
+  /**
+   * @return the observations in <tt>[startDateTime, endDateTime)</tt> of
+   *         each of <tt>pageNames</tt>, in the same order; pages without
+   *         observations have empty series.
+   * @see #getSeries(String, String, String, String, Projection)
+   */
+  public List<PageSeries> getSeries(String projectCode, List<String> pageNames,
+      String startDateTime, String endDateTime, Projection projection) throws IOException {
+    int startHour = EpochHours.fromDateTime(startDateTime);
+    int endHour = EpochHours.fromDateTime(endDateTime);
+    List<PageSeries.Builder> series = new ArrayList<PageSeries.Builder>(pageNames.size());
+    // each get's page, by position; results come back in the order asked.
+    List<Get> gets = new ArrayList<Get>();
+    List<PageSeries.Builder> owners = new ArrayList<PageSeries.Builder>();
+    for (String pageName : pageNames) {
+      PageSeries.Builder page = new PageSeries.Builder(projectCode, pageName);
+      series.add(page);
+      if (tall) {
+        for (int hour = startHour; hour < endHour; hour++) {
+          Get get = new Get(codec.tallRow(projectCode, pageName, EpochHours.toDateTime(hour)));
+          if (projection.views) {
+            get.addColumn(FAMILY, WikistatsSchemaUtils.VIEWS_QUAL);
+          }
+          if (projection.bytes) {
+            get.addColumn(FAMILY, WikistatsSchemaUtils.BYTES_QUAL);
+          }
+          gets.add(get);
+          owners.add(page);
+        }
+      } else {
+        for (Get get : WideRowReader.createGets(codec, bucket, projectCode, pageName,
+            startDateTime, endDateTime)) {
+          gets.add(get);
+          owners.add(page);
+        }
+      }
+    }
+
+    for (int i = 0; i < gets.size(); i += batch) {
+      int end = Math.min(i + batch, gets.size());
+      Result[] results = table.get(new ArrayList<Get>(gets.subList(i, end)));
+      for (int j = 0; j < results.length; j++) {
+        add(owners.get(i + j), results[j], startHour, endHour);
+      }
+    }
+
+    List<PageSeries> built = new ArrayList<PageSeries>(series.size());
+    for (PageSeries.Builder page : series) {
+      built.add(page.build(projection.views, projection.bytes));
+    }
+    return built;
+  }
+
+  /**
+   * Stream the series of every page of <tt>projectCode</tt> with
+   * observations in <tt>[startDateTime, endDateTime)</tt>. Pages arrive in
+   * row order within a region, but regions are scanned concurrently. In the
+   * tall schema, hours outside the range are read and dropped.
+   */
+  public SeriesScanner scanProject(String projectCode, String startDateTime,
+      String endDateTime, Projection projection) throws IOException {
+    byte[] prefix = codec.projectPrefix(projectCode);
+    List<byte[]> prefixes = new ArrayList<byte[]>();
+    if (codec instanceof SaltedRowKeyCodec) {
+      for (int i = 0; i < ((SaltedRowKeyCodec) codec).getBuckets(); i++) {
+        prefixes.add(SaltedRowKeyCodec.salt(i, prefix));
+      }
+    } else {
+      prefixes.add(prefix);
+    }
+
+    byte[][] regionStarts = table.getStartKeys();
+    List<byte[][]> ranges = new ArrayList<byte[][]>();
+    for (byte[] start : prefixes) {
+      ranges.addAll(splitRange(start, stopRow(start), regionStarts));
+    }
+    return new SeriesScanner(projectCode, ranges, startDateTime, endDateTime, projection);
+  }
+
+  /**
+   * Cut <tt>[start, stop)</tt> at the region starts within it, each moved
+   * back to the first row of the page it falls in.
+   * @return the <tt>{start, stop}</tt> rows of each part, in order.
+   */
+  List<byte[][]> splitRange(byte[] start, byte[] stop, byte[][] regionStarts) {
+    List<byte[][]> ranges = new ArrayList<byte[][]>();
+    byte[] from = start;
+    for (byte[] regionStart : regionStarts) {
+      byte[] cut = pageStart(regionStart);
+      boolean inside = Bytes.compareTo(cut, from) > 0
+          && (stop.length == 0 || Bytes.compareTo(cut, stop) < 0);
+      if (inside) {
+        ranges.add(new byte[][] { from, cut });
+        from = cut;
+      }
+    }
+    ranges.add(new byte[][] { from, stop });
+    return ranges;
+  }
+
+  /**
+   * @return the first row of the page holding <tt>row</tt>, or <tt>row</tt>
+   *         itself when it cannot be decoded, as with a region boundary
+   *         that is not a row of this schema.
+   */
+  byte[] pageStart(byte[] row) {
+    try {
+      byte[] pageRow = tall ? row : bucket.pageRow(row);
+      byte[] first = codec.wideRow(codec.getProjectCode(pageRow),
+        codec.getPageName(pageRow, tall));
+      return Bytes.compareTo(first, row) <= 0 ? first : row;
+    } catch (RuntimeException e) {
+      return row;
+    }
+  }
+
+  /**
+   * @return the first row after every row starting with <tt>prefix</tt>.
+   */
+  static byte[] stopRow(byte[] prefix) {
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      if (prefix[i] != (byte) 0xff) {
+        byte[] stop = Arrays.copyOf(prefix, i + 1);
+        stop[i]++;
+        return stop;
+      }
+    }
+    return HConstants.EMPTY_END_ROW;
+  }
+
+  private Scan createScan(byte[] startRow, byte[] stopRow, String startDateTime,
+      String endDateTime, Projection projection) {
+    Scan scan = new Scan(startRow, stopRow);
+    scan.setCaching(caching);
+    scan.setCacheBlocks(false);
+    if (tall) {
+      if (projection.views) {
+        scan.addColumn(FAMILY, WikistatsSchemaUtils.VIEWS_QUAL);
+      }
+      if (projection.bytes) {
+        scan.addColumn(FAMILY, WikistatsSchemaUtils.BYTES_QUAL);
+      }
+    } else {
+      scan.addFamily(FAMILY);
+      scan.setFilter(new ColumnRangeFilter(Bytes.toBytes(startDateTime), true,
+        Bytes.toBytes(endDateTime), false));
+    }
+    return scan;
+  }
+
+  /**
+   * Add the observations of one tall row, or of the hours of one wide row,
+   * within <tt>[startHour, endHour)</tt>.
+   */
+  void add(PageSeries.Builder series, Result result, int startHour, int endHour) {
+    if (null == result || result.isEmpty()) {
+      return;
+    }
+    if (tall) {
+      int hour = EpochHours.fromDateTime(codec.getDateTime(result.getRow()));
+      if (hour >= startHour && hour < endHour) {
+        series.add(hour, toLong(result.getValue(FAMILY, WikistatsSchemaUtils.VIEWS_QUAL)),
+          toLong(result.getValue(FAMILY, WikistatsSchemaUtils.BYTES_QUAL)));
+      }
+      return;
+    }
+    for (KeyValue kv : result.raw()) {
+      int hour = EpochHours.fromDateTime(Bytes.toString(kv.getQualifier()));
+      if (hour >= startHour && hour < endHour) {
+        byte[] value = kv.getValue();
+        WideValueCodec values = WideValueDecoder.codecFor(value);
+        series.add(hour, values.getPageViews(value), values.getBytes(value));
+      }
+    }
+  }
+
+  private static long toLong(byte[] value) {
+    return null == value ? 0 : Bytes.toLong(value);
+  }
+
+  /**
+   * Scan <tt>range</tt> on a table of its own, queueing each page's series
+   * as it completes.
+   */
+  private void scanRange(String projectCode, byte[][] range, String startDateTime,
+      String endDateTime, Projection projection, BlockingQueue<PageSeries> queue)
+      throws IOException, InterruptedException {
+    int startHour = EpochHours.fromDateTime(startDateTime);
+    int endHour = EpochHours.fromDateTime(endDateTime);
+    HTableInterface rangeTable = tables.createHTableInterface(conf, Bytes.toBytes(tableName));
+    try {
+      ResultScanner scanner = rangeTable.getScanner(
+        createScan(range[0], range[1], startDateTime, endDateTime, projection));
+      try {
+        PageSeries.Builder series = null;
+        for (Result result : scanner) {
+          byte[] row = result.getRow();
+          String pageName = codec.getPageName(tall ? row : bucket.pageRow(row), tall);
+          if (null == series || !pageName.equals(series.getPageName())) {
+            put(queue, series, projection);
+            series = new PageSeries.Builder(projectCode, pageName);
+          }
+          add(series, result, startHour, endHour);
+        }
+        put(queue, series, projection);
+      } finally {
+        scanner.close();
+      }
+    } finally {
+      tables.releaseHTableInterface(rangeTable);
+    }
+  }
+
+  private static void put(BlockingQueue<PageSeries> queue, PageSeries.Builder series,
+      Projection projection) throws InterruptedException {
+    if (null != series && series.size() > 0) {
+      queue.put(series.build(projection.views, projection.bytes));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      table.close();
+    } finally {
+      WikistatsSchemaUtils.closeRowKeyCodec(codec);
+    }
+  }
+
+  /**
+   * The series of a project's pages, produced by concurrent region scans.
+   * The regions share one queue of up to {@value WikistatsReader#CACHING_KEY}
+   * series ahead of the reader. A region scan that fails ends its region,
+   * and the failure is thrown from {@link #next()} when that end is read.
+   */
+  public class SeriesScanner implements Closeable {
+
+    private final BlockingQueue<PageSeries> queue;
+    private final Throwable[] failures;
+    private final ExecutorService pool;
+    private int running;
+
+    SeriesScanner(final String projectCode, List<byte[][]> ranges,
+        final String startDateTime, final String endDateTime, final Projection projection) {
+      this.queue = new ArrayBlockingQueue<PageSeries>(Math.max(1, caching));
+      this.failures = new Throwable[ranges.size()];
+      this.pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, ranges.size())));
+      this.running = ranges.size();
+      for (int i = 0; i < ranges.size(); i++) {
+        final int index = i;
+        final byte[][] range = ranges.get(i);
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              scanRange(projectCode, range, startDateTime, endDateTime, projection, queue);
+            } catch (InterruptedException e) {
+              return; // closed early; nobody is waiting for the end marker.
+            } catch (Throwable t) {
+              // anything else ends the region, or next() would wait forever.
+              failures[index] = t;
+            }
+            try {
+              queue.put(END);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+      }
+      pool.shutdown();
+    }
+
+    /**
+     * @return the next page's series, or null when every region is done.
+     */
+    public PageSeries next() throws IOException {
+      while (running > 0) {
+        PageSeries series;
+        try {
+          series = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted reading series.");
+        }
+        if (END != series) {
+          return series;
+        }
+        running--;
+        for (int i = 0; i < failures.length; i++) {
+          if (null != failures[i]) {
+            throw new IOException("Failed to scan range " + i, failures[i]);
+          }
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Stop every region scan, discarding unread series.
+     */
+    @Override
+    public void close() {
+      pool.shutdownNow();
+    }
+  }
+}
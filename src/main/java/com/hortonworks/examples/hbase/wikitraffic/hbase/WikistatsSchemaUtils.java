@@ -1,12 +1,34 @@
 package com.hortonworks.examples.hbase.wikitraffic.hbase;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.Compression;
 import org.apache.hadoop.hbase.io.hfile.Compression.Algorithm;
+import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.util.ReflectionUtils;
 
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.CombinedPagecountsInputFormat;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.MultiHourInputFormat;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PageHours;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PutEmitter;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsCounters;
 import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsMapper;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsObservation;
 
 public class WikistatsSchemaUtils {
 
@@ -14,24 +36,267 @@ public class WikistatsSchemaUtils {
   public static final byte[] COLUMN_FAMILY_NAME = Bytes.toBytes("p");
   public static final int MAX_VERSIONS = 1;
   public static final Algorithm DEFAULT_COMPRESSION = Algorithm.NONE;
+  public static final String FAMILY_COMPRESSION_KEY = "wikistats.family.compression";
+  public static final String FAMILY_ENCODING_KEY = "wikistats.family.encoding";
+  public static final String FAMILY_BLOOM_KEY = "wikistats.family.bloom";
+  public static final String FAMILY_BLOCKSIZE_KEY = "wikistats.family.blocksize";
+
+  // rollup settings
+  public static final byte[] DAILY_FAMILY_NAME = Bytes.toBytes("d");
+  public static final byte[] MONTHLY_FAMILY_NAME = Bytes.toBytes("m");
+  public static final String ROLLUP_KEY = "wikistats.rollup";
 
   // qualifier settings
   public static final byte[] VIEWS_QUAL = Bytes.toBytes("views");
   public static final byte[] BYTES_QUAL = Bytes.toBytes("bytes");
 
+  // row key settings
+  public static final String ROWKEY_CODEC_KEY = "wikistats.rowkey.codec";
+  public static final String TEXT_ROWKEY_CODEC = "text";
+  public static final String BINARY_ROWKEY_CODEC = "binary";
+  public static final String DICT_ROWKEY_CODEC = "dict";
+  public static final String SALT_BUCKETS_KEY = "wikistats.rowkey.salt.buckets";
+  private static final RowKeyCodec DEFAULT_ROWKEY_CODEC = new TextRowKeyCodec();
+
+  // wide schema value settings
+  public static final String WIDE_VALUE_CODEC_KEY = "wikistats.wide.value.codec";
+  public static final String TEXT_VALUE_CODEC = "text";
+  public static final String PACKED_VALUE_CODEC = "packed";
+  private static final WideValueCodec DEFAULT_VALUE_CODEC = new TextWideValueCodec();
+  public static final String WIDE_ROW_BUCKET_KEY = "wikistats.wide.row.bucket";
+
+  /**
+   * Resolve the {@link RowKeyCodec} named by {@link #ROWKEY_CODEC_KEY}. The
+   * value is either {@value #TEXT_ROWKEY_CODEC} (the default),
+   * {@value #BINARY_ROWKEY_CODEC}, {@value #DICT_ROWKEY_CODEC}, or the name
+   * of a class implementing {@link RowKeyCodec}. The dictionary codec opens
+   * the {@link PageDictionary} named in <tt>conf</tt>; release it with
+   * {@link #closeRowKeyCodec(RowKeyCodec)}. When {@link #SALT_BUCKETS_KEY} is greater than
+   * zero, the codec is wrapped in a {@link SaltedRowKeyCodec} with that many
+   * buckets.
+   * @param conf the job configuration.
+   * @return the configured codec.
+   */
+  public static RowKeyCodec getRowKeyCodec(Configuration conf) {
+    RowKeyCodec codec = getUnsaltedRowKeyCodec(conf);
+    int buckets = conf.getInt(SALT_BUCKETS_KEY, 0);
+    return buckets > 0 ? new SaltedRowKeyCodec(codec, buckets) : codec;
+  }
+
+  /**
+   * @return split keys placing each salt bucket of the configured row key
+   *         codec in a region of its own, or no split keys when row keys are
+   *         not salted.
+   */
+  public static byte[][] getSaltSplitKeys(Configuration conf) {
+    // the split keys do not depend on the codec salted.
+    int buckets = conf.getInt(SALT_BUCKETS_KEY, 0);
+    return buckets > 0
+        ? new SaltedRowKeyCodec(DEFAULT_ROWKEY_CODEC, buckets).getSplitKeys()
+        : new byte[0][];
+  }
+
+  /**
+   * Release any resources held by <tt>codec</tt>, such as the table of a
+   * {@link DictionaryRowKeyCodec}.
+   */
+  public static void closeRowKeyCodec(RowKeyCodec codec) throws IOException {
+    if (codec instanceof Closeable) {
+      ((Closeable) codec).close();
+    }
+  }
+
+  /**
+   * @return the {@link DictionaryRowKeyCodec} of <tt>codec</tt>, salted or
+   *         not, or null when it does not use a page dictionary.
+   */
+  public static DictionaryRowKeyCodec getDictionaryCodec(RowKeyCodec codec) {
+    if (codec instanceof SaltedRowKeyCodec) {
+      codec = ((SaltedRowKeyCodec) codec).getDelegate();
+    }
+    return codec instanceof DictionaryRowKeyCodec ? (DictionaryRowKeyCodec) codec : null;
+  }
+
+  private static RowKeyCodec getUnsaltedRowKeyCodec(Configuration conf) {
+    String name = conf.get(ROWKEY_CODEC_KEY, TEXT_ROWKEY_CODEC);
+    if (TEXT_ROWKEY_CODEC.equals(name)) {
+      return DEFAULT_ROWKEY_CODEC;
+    }
+    if (BINARY_ROWKEY_CODEC.equals(name)) {
+      return new BinaryRowKeyCodec();
+    }
+    if (DICT_ROWKEY_CODEC.equals(name)) {
+      try {
+        return new DictionaryRowKeyCodec(PageDictionary.open(conf));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to open the page dictionary.", e);
+      }
+    }
+    try {
+      Class<? extends RowKeyCodec> clazz =
+          conf.getClassByName(name).asSubclass(RowKeyCodec.class);
+      return ReflectionUtils.newInstance(clazz, conf);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException(
+        String.format("Unknown %s: %s", ROWKEY_CODEC_KEY, name), e);
+    }
+  }
+
+  /**
+   * Resolve the {@link WideValueCodec} named by {@link #WIDE_VALUE_CODEC_KEY}.
+   * The value is either {@value #TEXT_VALUE_CODEC} (the default),
+   * {@value #PACKED_VALUE_CODEC}, or the name of a class implementing
+   * {@link WideValueCodec}.
+   * @param conf the job configuration.
+   * @return the configured codec.
+   */
+  public static WideValueCodec getWideValueCodec(Configuration conf) {
+    String name = conf.get(WIDE_VALUE_CODEC_KEY, TEXT_VALUE_CODEC);
+    if (TEXT_VALUE_CODEC.equals(name)) {
+      return DEFAULT_VALUE_CODEC;
+    }
+    if (PACKED_VALUE_CODEC.equals(name)) {
+      return new PackedWideValueCodec();
+    }
+    try {
+      Class<? extends WideValueCodec> clazz =
+          conf.getClassByName(name).asSubclass(WideValueCodec.class);
+      return ReflectionUtils.newInstance(clazz, conf);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException(
+        String.format("Unknown %s: %s", WIDE_VALUE_CODEC_KEY, name), e);
+    }
+  }
+
+  /**
+   * @return the {@link WideRowBucket} named by {@link #WIDE_ROW_BUCKET_KEY},
+   *         or {@link WideRowBucket#NONE}.
+   */
+  public static WideRowBucket getWideRowBucket(Configuration conf) {
+    String name = conf.get(WIDE_ROW_BUCKET_KEY, WideRowBucket.NONE.name());
+    try {
+      return WideRowBucket.forName(name);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+        String.format("Unknown %s: %s", WIDE_ROW_BUCKET_KEY, name), e);
+    }
+  }
+
+  /**
+   * @return true when {@link #ROLLUP_KEY} asks the loaders to write daily and
+   *         monthly totals.
+   */
+  public static boolean isRollupEnabled(Configuration conf) {
+    return conf.getBoolean(ROLLUP_KEY, false);
+  }
+
+  /**
+   * @return the column families the loaders write under <tt>conf</tt>: the
+   *         hourly family, and the rollup families when enabled.
+   */
+  public static byte[][] getFamilies(Configuration conf) {
+    return isRollupEnabled(conf)
+        ? new byte[][] { COLUMN_FAMILY_NAME, DAILY_FAMILY_NAME, MONTHLY_FAMILY_NAME }
+        : new byte[][] { COLUMN_FAMILY_NAME };
+  }
+
+  /**
+   * @return the name of the schema family whose one-byte name is
+   *         <tt>family</tt>.
+   */
+  public static byte[] getFamilyName(byte family) {
+    for (byte[] name : new byte[][] {
+        COLUMN_FAMILY_NAME, DAILY_FAMILY_NAME, MONTHLY_FAMILY_NAME }) {
+      if (name[0] == family) {
+        return name;
+      }
+    }
+    throw new IllegalArgumentException("Unknown family: " + (char) family);
+  }
+
+  /**
+   * Print the schema options understood by the loaders, for use in usage
+   * messages.
+   * @param out the stream to print to.
+   */
+  public static void printSchemaOptions(PrintStream out) {
+    out.println("Schema options (specify with -D<property>=<value>):");
+    out.printf("  %-36s %s%n", ROWKEY_CODEC_KEY,
+      String.format("Row key layout: %s (default) | %s | %s | <codec-class>",
+        TEXT_ROWKEY_CODEC, BINARY_ROWKEY_CODEC, DICT_ROWKEY_CODEC));
+    out.printf("  %-36s %s%n", PageDictionary.TABLE_KEY,
+      "Page dictionary table of the dict layout (default <table>_dict)");
+    out.printf("  %-36s %s%n", PageDictionary.CACHE_SIZE_KEY,
+      String.format("Dictionary entries cached per task (default %d)",
+        PageDictionary.DEFAULT_CACHE_SIZE));
+    out.printf("  %-36s %s%n", SALT_BUCKETS_KEY,
+      String.format("Prefix row keys with one of N salt buckets, 1 to %d (default off)",
+        SaltedRowKeyCodec.MAX_BUCKETS));
+    out.printf("  %-36s %s%n", WIDE_VALUE_CODEC_KEY,
+      String.format("Wide cell encoding: %s (default) | %s | <codec-class>",
+        TEXT_VALUE_CODEC, PACKED_VALUE_CODEC));
+    out.printf("  %-36s %s%n", WIDE_ROW_BUCKET_KEY,
+      "Split wide rows by time: none (default) | year | month | day");
+    out.printf("  %-36s %s%n", MultiHourInputFormat.GROUP_SIZE_KEY,
+      "Hours per wide Put; values above 1 merge hourly files (wide only)");
+    out.printf("  %-36s %s%n", CombinedPagecountsInputFormat.SPLIT_BYTES_KEY,
+      "Pack hourly files into splits of this many bytes (default off)");
+    out.printf("  %-36s %s%n", ROLLUP_KEY,
+      "Also write daily and monthly totals per page; shuffled loads only (default false)");
+    out.printf("  %-36s %s%n", TopPages.TOPN_KEY,
+      "Write the N most viewed pages per project and hour to <table>_topn (default 0, off)");
+    out.printf("  %-36s %s%n", FAMILY_COMPRESSION_KEY,
+      "Family compression: none (default) | gz | lzo | snappy");
+    out.printf("  %-36s %s%n", FAMILY_ENCODING_KEY,
+      "Data block encoding: NONE (default) | PREFIX | DIFF | FAST_DIFF");
+    out.printf("  %-36s %s%n", FAMILY_BLOOM_KEY,
+      "Bloom filter: NONE (default) | ROW | ROWCOL");
+    out.printf("  %-36s %s%n", FAMILY_BLOCKSIZE_KEY,
+      String.format("HFile block size in bytes (default %d)", HColumnDescriptor.DEFAULT_BLOCKSIZE));
+  }
+
   /**
    * Create a table descriptor from default values.
    * @return the {@link HTableDescriptor}.
    */
   public static HTableDescriptor createDefaultTableDesc(String tableName) {
-    HColumnDescriptor family = new HColumnDescriptor(COLUMN_FAMILY_NAME)
-      .setCompressionType(DEFAULT_COMPRESSION)
-      .setMaxVersions(MAX_VERSIONS);
+    return createDefaultTableDesc(tableName, new Configuration(false));
+  }
+
+  /**
+   * Create a table descriptor from default values, overridden by the column
+   * family options in <tt>conf</tt>: {@link #FAMILY_COMPRESSION_KEY},
+   * {@link #FAMILY_ENCODING_KEY}, {@link #FAMILY_BLOOM_KEY} and
+   * {@link #FAMILY_BLOCKSIZE_KEY}. With {@link #ROLLUP_KEY}, the daily and
+   * monthly rollup families are added with the same settings.
+   * @return the {@link HTableDescriptor}.
+   */
+  public static HTableDescriptor createDefaultTableDesc(String tableName, Configuration conf) {
+    DataBlockEncoding encoding =
+        DataBlockEncoding.valueOf(conf.get(FAMILY_ENCODING_KEY, DataBlockEncoding.NONE.name()));
+    BloomType bloom = BloomType.valueOf(conf.get(FAMILY_BLOOM_KEY, BloomType.NONE.name()));
     HTableDescriptor desc = new HTableDescriptor(tableName);
-    desc.addFamily(family);
+    for (byte[] name : getFamilies(conf)) {
+      HColumnDescriptor family = new HColumnDescriptor(name)
+        .setCompressionType(getFamilyCompression(conf))
+        .setDataBlockEncoding(encoding)
+        .setBloomFilterType(bloom)
+        .setBlocksize(conf.getInt(FAMILY_BLOCKSIZE_KEY, HColumnDescriptor.DEFAULT_BLOCKSIZE))
+        .setMaxVersions(MAX_VERSIONS);
+      desc.addFamily(family);
+    }
     return desc;
   }
 
+  /**
+   * @return the compression named by {@link #FAMILY_COMPRESSION_KEY}, or
+   *         {@link #DEFAULT_COMPRESSION}.
+   */
+  public static Algorithm getFamilyCompression(Configuration conf) {
+    String name = conf.get(FAMILY_COMPRESSION_KEY);
+    return null == name ? DEFAULT_COMPRESSION : Compression.getCompressionAlgorithmByName(name);
+  }
+
   /**
    * Implements the "tall schema" for the wikistats dataset. Each record is
    * stored as <tt>projectCode/pageName/dateTime => {p:views, p:bytes}</tt>.
@@ -46,9 +311,19 @@ public class WikistatsSchemaUtils {
    */
   public static Put createTallPut(String dateTime, String projectCode,
       String pageName, long pageViews, long bytes) {
-    
-    String rowkey = String.format("%s/%s/%s", projectCode, pageName, dateTime);
-    Put put = new Put(Bytes.toBytes(rowkey));
+    return createTallPut(DEFAULT_ROWKEY_CODEC, dateTime, projectCode, pageName,
+      pageViews, bytes);
+  }
+
+  /**
+   * Implements the "tall schema" for the wikistats dataset, with the row key
+   * produced by <tt>codec</tt>.
+   * @see #createTallPut(String, String, String, long, long)
+   */
+  public static Put createTallPut(RowKeyCodec codec, String dateTime,
+      String projectCode, String pageName, long pageViews, long bytes) {
+
+    Put put = new Put(codec.tallRow(projectCode, pageName, dateTime));
     put.add(COLUMN_FAMILY_NAME, VIEWS_QUAL, Bytes.toBytes(pageViews));
     put.add(COLUMN_FAMILY_NAME, BYTES_QUAL, Bytes.toBytes(bytes));
 
@@ -70,13 +345,86 @@ public class WikistatsSchemaUtils {
    */
   public static Put createWidePut(String dateTime, String projectCode,
       String pageName, long pageViews, long bytes) {
-    
-    String rowkey = String.format("%s/%s", projectCode, pageName);
-    // poor-man's JSON serialization.
-    String value = String.format("{\"views\":\"%s\",\"bytes\":%d", pageViews, bytes);
-    Put put = new Put(Bytes.toBytes(rowkey));
-    put.add(COLUMN_FAMILY_NAME, Bytes.toBytes(dateTime), Bytes.toBytes(value));
+    return createWidePut(DEFAULT_ROWKEY_CODEC, DEFAULT_VALUE_CODEC, dateTime,
+      projectCode, pageName, pageViews, bytes);
+  }
+
+  /**
+   * Implements the "wide schema" for the wikistats dataset, with the row key
+   * produced by <tt>rowKeyCodec</tt> and the cell value produced by
+   * <tt>valueCodec</tt>.
+   * @see #createWidePut(String, String, String, long, long)
+   */
+  public static Put createWidePut(RowKeyCodec rowKeyCodec, WideValueCodec valueCodec,
+      String dateTime, String projectCode, String pageName, long pageViews, long bytes) {
+    return createWidePut(rowKeyCodec, valueCodec, WideRowBucket.NONE, dateTime, projectCode,
+      pageName, pageViews, bytes);
+  }
+
+  /**
+   * Implements the "wide schema" for the wikistats dataset, with the page's
+   * row split into time buckets by <tt>bucket</tt>.
+   * @see #createWidePut(RowKeyCodec, WideValueCodec, String, String, String, long, long)
+   */
+  public static Put createWidePut(RowKeyCodec rowKeyCodec, WideValueCodec valueCodec,
+      WideRowBucket bucket, String dateTime, String projectCode, String pageName,
+      long pageViews, long bytes) {
+
+    Put put = new Put(bucket.row(rowKeyCodec.wideRow(projectCode, pageName), dateTime));
+    return addWideCell(put, valueCodec, dateTime, pageViews, bytes);
+  }
+
+  /**
+   * Add the cell for one hour of observations to a "wide schema" {@link Put}.
+   * 
+   * @param put the wide schema {@link Put} for a page.
+   * @param valueCodec encodes the cell value.
+   * @param dateTime Date/Time of the hour of this observation.
+   * @param pageViews Number of page views for this hour.
+   * @param bytes Size of the resource requested in bytes.
+   * @return <tt>put</tt>, for chaining.
+   */
+  public static Put addWideCell(Put put, WideValueCodec valueCodec, String dateTime,
+      long pageViews, long bytes) {
+    put.add(COLUMN_FAMILY_NAME, Bytes.toBytes(dateTime), valueCodec.encode(pageViews, bytes));
+    return put;
+  }
+
+  /**
+   * Create the cells of a shuffled observation, in the order they sort in
+   * an HFile: <tt>{p:bytes, p:views}</tt> for a tall row, or the single
+   * <tt>p:dateTime</tt> cell of a wide row encoded by <tt>valueCodec</tt>.
+   * A rollup is likewise the single <tt>d:YYYYmmdd</tt> or <tt>m:YYYYmm</tt>
+   * cell of the page's wide row. Timestamps are left as
+   * {@link HConstants#LATEST_TIMESTAMP}.
+   */
+  public static KeyValue[] createCells(WikistatsObservation observation,
+      WideValueCodec valueCodec) {
+    byte[] row = observation.getRow();
+    if (observation.isTall()) {
+      return new KeyValue[] {
+        new KeyValue(row, COLUMN_FAMILY_NAME, BYTES_QUAL, HConstants.LATEST_TIMESTAMP,
+          Bytes.toBytes(observation.getBytes())),
+        new KeyValue(row, COLUMN_FAMILY_NAME, VIEWS_QUAL, HConstants.LATEST_TIMESTAMP,
+          Bytes.toBytes(observation.getPageViews())) };
+    }
+    return new KeyValue[] {
+      new KeyValue(row, getFamilyName(observation.getFamily()), observation.getColumn(),
+        HConstants.LATEST_TIMESTAMP,
+        valueCodec.encode(observation.getPageViews(), observation.getBytes())) };
+  }
 
+  /**
+   * Create the {@link Put} for a shuffled observation.
+   * @see #createCells(WikistatsObservation, WideValueCodec)
+   */
+  public static Put createPut(WikistatsObservation observation, WideValueCodec valueCodec)
+      throws IOException {
+    KeyValue[] cells = createCells(observation, valueCodec);
+    Put put = new Put(cells[0].getRow());
+    for (KeyValue kv : cells) {
+      put.add(kv);
+    }
     return put;
   }
 
@@ -87,11 +435,46 @@ public class WikistatsSchemaUtils {
    */
   public static class TallWikistatsMapper extends WikistatsMapper {
 
+    private RowKeyCodec rowKeyCodec = DEFAULT_ROWKEY_CODEC;
+
+    @Override
+    public void configure(Configuration conf) {
+      this.rowKeyCodec = getRowKeyCodec(conf);
+    }
+
     @Override
     public Put createPut(String dateTime, String projectCode, String pageName,
         long pageViews, long bytes) {
-      return createTallPut(dateTime, projectCode, pageName, pageViews, bytes);
-    }    
+      return createTallPut(rowKeyCodec, dateTime, projectCode, pageName, pageViews, bytes);
+    }
+
+    @Override
+    public void createObservation(WikistatsObservation observation, String dateTime,
+        String projectCode, String pageName, long pageViews, long bytes) {
+      observation.set(rowKeyCodec.tallRow(projectCode, pageName, dateTime),
+        HConstants.EMPTY_BYTE_ARRAY, pageViews, bytes);
+    }
+
+    @Override
+    public byte[] createPageRow(String projectCode, String pageName) {
+      return rowKeyCodec.wideRow(projectCode, pageName);
+    }
+
+    @Override
+    public boolean resolvesPages() {
+      return null != getDictionaryCodec(rowKeyCodec);
+    }
+
+    @Override
+    public void resolvePages(List<String> projectCodes, List<String> pageNames)
+        throws IOException {
+      getDictionaryCodec(rowKeyCodec).resolve(projectCodes, pageNames);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeRowKeyCodec(rowKeyCodec);
+    }
   }
 
   /**
@@ -102,10 +485,129 @@ public class WikistatsSchemaUtils {
    */
   public static class WideWikistatsMapper extends WikistatsMapper {
 
+    private RowKeyCodec rowKeyCodec = DEFAULT_ROWKEY_CODEC;
+    private WideValueCodec valueCodec = DEFAULT_VALUE_CODEC;
+    private WideRowBucket rowBucket = WideRowBucket.NONE;
+
+    @Override
+    public void configure(Configuration conf) {
+      this.rowKeyCodec = getRowKeyCodec(conf);
+      this.valueCodec = getWideValueCodec(conf);
+      this.rowBucket = getWideRowBucket(conf);
+    }
+
     @Override
     public Put createPut(String dateTime, String projectCode, String pageName,
         long pageViews, long bytes) {
-      return createWidePut(dateTime, projectCode, pageName, pageViews, bytes);
+      return createWidePut(rowKeyCodec, valueCodec, rowBucket, dateTime, projectCode,
+        pageName, pageViews, bytes);
+    }
+
+    @Override
+    public void createObservation(WikistatsObservation observation, String dateTime,
+        String projectCode, String pageName, long pageViews, long bytes) {
+      observation.set(rowBucket.row(rowKeyCodec.wideRow(projectCode, pageName), dateTime),
+        Bytes.toBytes(dateTime), pageViews, bytes);
+    }
+
+    @Override
+    public byte[] createPageRow(String projectCode, String pageName) {
+      return rowKeyCodec.wideRow(projectCode, pageName);
+    }
+
+    @Override
+    public boolean resolvesPages() {
+      return null != getDictionaryCodec(rowKeyCodec);
+    }
+
+    @Override
+    public void resolvePages(List<String> projectCodes, List<String> pageNames)
+        throws IOException {
+      getDictionaryCodec(rowKeyCodec).resolve(projectCodes, pageNames);
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeRowKeyCodec(rowKeyCodec);
+    }
+  }
+
+  /**
+   * Implements the "wide schema" over the {@link PageHours} records produced
+   * by {@link MultiHourInputFormat}. Each page is written as a single
+   * {@link Put} carrying a cell for every hour in the group.
+   */
+  public static class WideMultiHourWikistatsMapper
+  extends Mapper<NullWritable, PageHours, ImmutableBytesWritable, Put> {
+
+    private RowKeyCodec rowKeyCodec = DEFAULT_ROWKEY_CODEC;
+    private WideValueCodec valueCodec = DEFAULT_VALUE_CODEC;
+    private WideRowBucket rowBucket = WideRowBucket.NONE;
+    private PutEmitter emitter = null;
+    private Counter parsed = null;
+    private Counter malformed = null;
+    private Counter bytesIn = null;
+    private final WikistatsObservation observation = new WikistatsObservation();
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      this.rowKeyCodec = getRowKeyCodec(context.getConfiguration());
+      this.valueCodec = getWideValueCodec(context.getConfiguration());
+      this.rowBucket = getWideRowBucket(context.getConfiguration());
+      this.emitter = new PutEmitter(context);
+      this.parsed = context.getCounter(WikistatsCounters.RECORDS_PARSED);
+      this.malformed = context.getCounter(WikistatsCounters.RECORDS_MALFORMED);
+      this.bytesIn = context.getCounter(WikistatsCounters.BYTES_IN);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      emitter.close();
+      this.emitter = null;
+      closeRowKeyCodec(rowKeyCodec);
+    }
+
+    @Override
+    public void map(NullWritable key, PageHours value, Context context)
+        throws IOException, InterruptedException {
+      // the reader skips malformed lines, noting them on the next record.
+      bytesIn.increment(value.getBytesIn());
+      malformed.increment(value.getMalformed());
+      byte[] pageRow = rowKeyCodec.wideRow(value.getProjectCode(), value.getPageName());
+      // each hour is one parsed input line.
+      parsed.increment(value.size());
+      if (emitter.emitsObservations()) {
+        for (int i = 0; i < value.size(); i++) {
+          String dateTime = value.getDateTime(i);
+          observation.set(rowBucket.row(pageRow, dateTime), Bytes.toBytes(dateTime),
+            value.getPageViews(i), value.getBytes(i));
+          emitter.emit(observation);
+          if (emitter.emitsRollups()) {
+            emitter.emitRollups(pageRow, dateTime, value.getPageViews(i), value.getBytes(i));
+          }
+          if (emitter.emitsTopPages()) {
+            emitter.offerTopPage(dateTime, value.getProjectCode(), value.getPageName(),
+              value.getPageViews(i));
+          }
+        }
+        return;
+      }
+      Put put = null;
+      for (int i = 0; i < value.size(); i++) {
+        byte[] row = rowBucket.row(pageRow, value.getDateTime(i));
+        if (null == put || !Bytes.equals(row, put.getRow())) {
+          // the group crosses into a new time bucket.
+          if (null != put) {
+            emitter.emit(put);
+          }
+          put = new Put(row);
+        }
+        addWideCell(put, valueCodec, value.getDateTime(i), value.getPageViews(i),
+          value.getBytes(i));
+      }
+      if (null != put) {
+        emitter.emit(put);
+      }
     }
   }
 }
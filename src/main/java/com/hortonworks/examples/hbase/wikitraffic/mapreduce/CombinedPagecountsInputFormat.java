@@ -0,0 +1,157 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Packs many pagecounts files into each split, so a backfill of thousands
+ * of hours doesn't start a map task per hour. Each file is assigned to the
+ * host holding most of its bytes, and each host's files are packed, in
+ * name order, into {@link MultiFileSplit}s of up to
+ * {@value #SPLIT_BYTES_KEY} bytes; files are never divided. A last split
+ * under half full is pooled with those of other hosts and packed again.
+ * {@link CombinedPagecountsRecordReader} keys each record with its file, so
+ * a {@link WikistatsMapper} resolves the hour of every record.
+ */
+public class CombinedPagecountsInputFormat extends FileInputFormat<LongWritable, Text> {
+
+  private static final Log LOG = LogFactory.getLog(CombinedPagecountsInputFormat.class);
+
+  public static final String SPLIT_BYTES_KEY = "wikistats.combine.split.bytes";
+  public static final long DEFAULT_SPLIT_BYTES = 256L * 1024 * 1024;
+
+  /** Files without block locations, as on the local filesystem. */
+  private static final String NO_HOST = "";
+
+  @Override
+  public List<InputSplit> getSplits(JobContext job) throws IOException {
+    Configuration conf = job.getConfiguration();
+    long splitBytes = conf.getLong(SPLIT_BYTES_KEY, DEFAULT_SPLIT_BYTES);
+    if (splitBytes < 1) {
+      throw new IllegalArgumentException(SPLIT_BYTES_KEY + " must be positive.");
+    }
+
+    List<FileStatus> files = listStatus(job);
+    Map<String, List<FileStatus>> byHost = new TreeMap<String, List<FileStatus>>();
+    for (FileStatus file : files) {
+      String host = primaryHost(conf, file);
+      List<FileStatus> hostFiles = byHost.get(host);
+      if (null == hostFiles) {
+        hostFiles = new ArrayList<FileStatus>();
+        byHost.put(host, hostFiles);
+      }
+      hostFiles.add(file);
+    }
+
+    List<List<FileStatus>> groups = new ArrayList<List<FileStatus>>();
+    List<FileStatus> leftovers = new ArrayList<FileStatus>();
+    for (List<FileStatus> hostFiles : byHost.values()) {
+      List<List<FileStatus>> packed = pack(hostFiles, splitBytes);
+      // a short last group is better combined with other hosts' remainders.
+      List<FileStatus> last = packed.get(packed.size() - 1);
+      if (length(last) < splitBytes / 2) {
+        leftovers.addAll(packed.remove(packed.size() - 1));
+      }
+      groups.addAll(packed);
+    }
+    if (!leftovers.isEmpty()) {
+      groups.addAll(pack(leftovers, splitBytes));
+    }
+
+    List<InputSplit> splits = new ArrayList<InputSplit>(groups.size());
+    for (List<FileStatus> group : groups) {
+      splits.add(MultiFileSplit.create(conf, group));
+    }
+    LOG.info(String.format("Packed %d files on %d hosts into %d splits of up to %d bytes.",
+      files.size(), byHost.size(), splits.size(), splitBytes));
+    return splits;
+  }
+
+  /**
+   * Pack <tt>files</tt>, in path order, into consecutive groups of at most
+   * <tt>splitBytes</tt>. A larger file makes a group of its own.
+   */
+  static List<List<FileStatus>> pack(List<FileStatus> files, long splitBytes) {
+    List<FileStatus> sorted = new ArrayList<FileStatus>(files);
+    Collections.sort(sorted, new Comparator<FileStatus>() {
+      @Override
+      public int compare(FileStatus a, FileStatus b) {
+        return a.getPath().compareTo(b.getPath());
+      }
+    });
+
+    List<List<FileStatus>> groups = new ArrayList<List<FileStatus>>();
+    List<FileStatus> group = new ArrayList<FileStatus>();
+    long groupBytes = 0;
+    for (FileStatus file : sorted) {
+      if (!group.isEmpty() && groupBytes + file.getLen() > splitBytes) {
+        groups.add(group);
+        group = new ArrayList<FileStatus>();
+        groupBytes = 0;
+      }
+      group.add(file);
+      groupBytes += file.getLen();
+    }
+    if (!group.isEmpty()) {
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  private static long length(List<FileStatus> files) {
+    long sum = 0;
+    for (FileStatus file : files) {
+      sum += file.getLen();
+    }
+    return sum;
+  }
+
+  /**
+   * @return the host holding the most bytes of <tt>file</tt>, or
+   *         {@link #NO_HOST}.
+   */
+  private static String primaryHost(Configuration conf, FileStatus file) throws IOException {
+    FileSystem fs = file.getPath().getFileSystem(conf);
+    Map<String, Long> hostBytes = new HashMap<String, Long>();
+    String best = NO_HOST;
+    long bestBytes = 0;
+    for (BlockLocation block : fs.getFileBlockLocations(file, 0, file.getLen())) {
+      for (String host : block.getHosts()) {
+        Long sum = hostBytes.get(host);
+        long bytes = (sum == null ? 0 : sum) + block.getLength();
+        hostBytes.put(host, bytes);
+        if (bytes > bestBytes) {
+          best = host;
+          bestBytes = bytes;
+        }
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+      TaskAttemptContext context) {
+    return new CombinedPagecountsRecordReader();
+  }
+}
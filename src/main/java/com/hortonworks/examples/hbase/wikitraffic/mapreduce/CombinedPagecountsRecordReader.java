@@ -0,0 +1,97 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Reads the files of a {@link MultiFileSplit} one after another, each
+ * through the reader {@link PagecountsInputFormat} would use for it. Keys
+ * are {@link FileOffsetWritable}s naming the file of each record.
+ */
+public class CombinedPagecountsRecordReader extends RecordReader<LongWritable, Text> {
+
+  private final PagecountsInputFormat format = new PagecountsInputFormat();
+  private final FileOffsetWritable key = new FileOffsetWritable();
+  private MultiFileSplit split = null;
+  private TaskAttemptContext context = null;
+  private RecordReader<LongWritable, Text> current = null;
+  private int index = -1;
+  private long completedBytes = 0;
+
+  @Override
+  public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+      throws IOException, InterruptedException {
+    this.split = (MultiFileSplit) genericSplit;
+    this.context = context;
+    this.index = -1;
+    this.completedBytes = 0;
+    nextFile();
+  }
+
+  /**
+   * Close the current file and open the next.
+   * @return false when no files remain.
+   */
+  private boolean nextFile() throws IOException, InterruptedException {
+    if (null != current) {
+      current.close();
+      completedBytes += split.getLength(index);
+      current = null;
+    }
+    index++;
+    if (index >= split.getNumPaths()) {
+      return false;
+    }
+    FileSplit fileSplit = new FileSplit(split.getPath(index), 0, split.getLength(index),
+      new String[0]);
+    current = format.createRecordReader(fileSplit, context);
+    current.initialize(fileSplit, context);
+    return true;
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException, InterruptedException {
+    while (null != current) {
+      if (current.nextKeyValue()) {
+        key.set(split.getPath(index), current.getCurrentKey().get());
+        return true;
+      }
+      nextFile();
+    }
+    return false;
+  }
+
+  @Override
+  public LongWritable getCurrentKey() {
+    return key;
+  }
+
+  @Override
+  public Text getCurrentValue() throws IOException, InterruptedException {
+    return current.getCurrentValue();
+  }
+
+  @Override
+  public float getProgress() throws IOException, InterruptedException {
+    long total = split.getLength();
+    if (total == 0) {
+      return null == current ? 1.0f : 0.0f;
+    }
+    float currentBytes = null == current ? 0 : current.getProgress() * split.getLength(index);
+    return Math.min(1.0f, (completedBytes + currentBytes) / total);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (null != current) {
+      current.close();
+      current = null;
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * The offset of a record within its file, along with the file. Produced by
+ * {@link CombinedPagecountsRecordReader}, whose splits span many files, so
+ * that a mapper can resolve the hour of each record from its file name. As
+ * a {@link LongWritable}, it passes through mappers written for plain file
+ * offsets; the file is kept across records of the same file.
+ */
+public class FileOffsetWritable extends LongWritable {
+
+  private Path path = null;
+
+  public FileOffsetWritable() {}
+
+  public FileOffsetWritable(Path path, long offset) {
+    super(offset);
+    this.path = path;
+  }
+
+  public void set(Path path, long offset) {
+    set(offset);
+    this.path = path;
+  }
+
+  /**
+   * @return the file holding the record.
+   */
+  public Path getPath() {
+    return path;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    super.write(out);
+    Text.writeString(out, path.toString());
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    super.readFields(in);
+    this.path = new Path(Text.readString(in));
+  }
+
+  @Override
+  public String toString() {
+    return path + ":" + get();
+  }
+}
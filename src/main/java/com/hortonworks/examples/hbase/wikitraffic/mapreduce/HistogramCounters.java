@@ -0,0 +1,60 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.Histogram;
+
+/**
+ * Carries a {@link Histogram} from the tasks to the client as a counter
+ * group. Each non-empty bucket is a counter named for its upper bound, so
+ * the framework's counter aggregation merges the histograms of all tasks.
+ */
+public class HistogramCounters {
+
+  public static final String FLUSH_LATENCY_GROUP = "WikistatsFlushLatencyMicros";
+  public static final String FLUSH_SIZE_GROUP = "WikistatsFlushBytes";
+
+  private static final String BUCKET_PREFIX = "le_";
+  private static final String SUM = "sum";
+
+  private HistogramCounters() {}
+
+  /**
+   * Add <tt>histogram</tt> to the counters of <tt>group</tt>.
+   */
+  public static void publish(TaskInputOutputContext<?, ?, ?, ?> context, String group,
+      Histogram histogram) {
+    for (int i = 0; i < Histogram.NUM_BUCKETS; i++) {
+      long n = histogram.getBucketCount(i);
+      if (n > 0) {
+        context.getCounter(group, String.format("%s%019d", BUCKET_PREFIX,
+          Histogram.upperBound(i))).increment(n);
+      }
+    }
+    if (histogram.getCount() > 0) {
+      context.getCounter(group, SUM).increment(histogram.getSum());
+    }
+  }
+
+  /**
+   * Rebuild the histogram published to <tt>group</tt>.
+   * @return the merged histogram, empty when nothing was published.
+   */
+  public static Histogram read(Counters counters, String group) {
+    Histogram histogram = new Histogram();
+    CounterGroup counterGroup = counters.getGroup(group);
+    for (Counter counter : counterGroup) {
+      String name = counter.getName();
+      if (SUM.equals(name)) {
+        histogram.addSum(counter.getValue());
+      } else if (name.startsWith(BUCKET_PREFIX)) {
+        long upperBound = Long.parseLong(name.substring(BUCKET_PREFIX.length()));
+        histogram.addBucket(Histogram.bucket(upperBound), counter.getValue());
+      }
+    }
+    return histogram;
+  }
+}
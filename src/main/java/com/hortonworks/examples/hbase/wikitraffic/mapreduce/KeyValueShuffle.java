@@ -0,0 +1,231 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+
+/**
+ * Shuffles individual cells, rather than whole Puts, into HFile-writing
+ * reducers. Each {@link KeyValue} is keyed by its serialized key and the
+ * shuffle sorts those keys with {@link KeyValue#KEY_COMPARATOR}, so every
+ * reducer receives its cells already in HFile order and writes them
+ * straight through. Unlike {@code PutSortReducer}, nothing is collected
+ * per row, so reducer heap stays flat however wide a row grows; the map
+ * side sort spills to disk past <tt>io.sort.mb</tt> as usual.
+ */
+public final class KeyValueShuffle {
+
+  private KeyValueShuffle() {}
+
+  /**
+   * Configure <tt>job</tt>'s map output, sort, partitioning and reduce for
+   * cell output. The split points are read from the job's
+   * {@link TotalOrderPartitioner} partition file, so call this after that
+   * is set, or after {@code HFileOutputFormat.configureIncrementalLoad},
+   * whose partitioner and reducer this replaces.
+   */
+  public static void configure(Job job) {
+    job.getConfiguration().setBoolean(PutEmitter.CELL_OUTPUT_KEY, true);
+    job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+    job.setMapOutputValueClass(KeyValue.class);
+    job.setSortComparatorClass(CellKeyComparator.class);
+    job.setPartitionerClass(RowPartitioner.class);
+    job.setReducerClass(CellReducer.class);
+  }
+
+  /**
+   * Orders {@link ImmutableBytesWritable}s holding serialized
+   * {@link KeyValue} keys as an HFile does, without deserializing them.
+   */
+  public static class CellKeyComparator extends WritableComparator {
+
+    /** Length prefix written by {@link ImmutableBytesWritable#write}. */
+    private static final int PREFIX = Bytes.SIZEOF_INT;
+
+    public CellKeyComparator() {
+      super(ImmutableBytesWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return KeyValue.KEY_COMPARATOR.compare(b1, s1 + PREFIX, l1 - PREFIX,
+        b2, s2 + PREFIX, l2 - PREFIX);
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public int compare(WritableComparable a, WritableComparable b) {
+      ImmutableBytesWritable left = (ImmutableBytesWritable) a;
+      ImmutableBytesWritable right = (ImmutableBytesWritable) b;
+      return KeyValue.KEY_COMPARATOR.compare(left.get(), left.getOffset(), left.getLength(),
+        right.get(), right.getOffset(), right.getLength());
+    }
+  }
+
+  /**
+   * Sends each cell to the reducer owning its row. The split points are
+   * the rows of the {@link TotalOrderPartitioner} partition file, which
+   * that partitioner cannot use directly because it compares whole keys.
+   */
+  public static class RowPartitioner extends Partitioner<ImmutableBytesWritable, KeyValue>
+      implements Configurable {
+
+    private Configuration conf = null;
+    private byte[][] splits = null;
+
+    @Override
+    public Configuration getConf() {
+      return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+      this.splits = loadSplits(conf);
+    }
+
+    /**
+     * @return the split points in the job's {@link TotalOrderPartitioner}
+     *         partition file.
+     */
+    static byte[][] loadSplits(Configuration conf) {
+      String parts = TotalOrderPartitioner.getPartitionFile(conf);
+      Path partFile = new Path(parts);
+      try {
+        // a partition file shipped through the distributed cache is read
+        // from the task's working directory, as TotalOrderPartitioner does.
+        FileSystem fs = TotalOrderPartitioner.DEFAULT_PATH.equals(parts)
+            ? FileSystem.getLocal(conf) : partFile.getFileSystem(conf);
+        return readSplits(fs, partFile, conf);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Can't read partitions file " + partFile, e);
+      }
+    }
+
+    static byte[][] readSplits(FileSystem fs, Path partFile, Configuration conf)
+        throws IOException {
+      List<byte[]> rows = new ArrayList<byte[]>();
+      SequenceFile.Reader reader = new SequenceFile.Reader(fs, partFile, conf);
+      try {
+        ImmutableBytesWritable row = new ImmutableBytesWritable();
+        NullWritable none = NullWritable.get();
+        while (reader.next(row, none)) {
+          rows.add(row.copyBytes());
+        }
+      } finally {
+        reader.close();
+      }
+      return rows.toArray(new byte[rows.size()][]);
+    }
+
+    /**
+     * @return the number of split points at or before the row of the
+     *         serialized key in <tt>key</tt>.
+     */
+    static int partition(byte[][] splits, ImmutableBytesWritable key) {
+      byte[] buf = key.get();
+      return partition(splits, buf, key.getOffset() + Bytes.SIZEOF_SHORT,
+        Bytes.toShort(buf, key.getOffset()));
+    }
+
+    /**
+     * @return the number of split points at or before the row in
+     *         <tt>buf</tt>.
+     */
+    static int partition(byte[][] splits, byte[] buf, int rowOffset, int rowLength) {
+      int low = 0;
+      int high = splits.length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (Bytes.compareTo(splits[mid], 0, splits[mid].length,
+              buf, rowOffset, rowLength) <= 0) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    @Override
+    public int getPartition(ImmutableBytesWritable key, KeyValue value, int numPartitions) {
+      checkPartitions(splits, numPartitions);
+      return partition(splits, key);
+    }
+
+    static void checkPartitions(byte[][] splits, int numPartitions) {
+      if (splits.length + 1 != numPartitions) {
+        throw new IllegalStateException(String.format(
+          "%d split points need %d reducers, not %d.", splits.length, splits.length + 1,
+          numPartitions));
+      }
+    }
+  }
+
+  /**
+   * Writes the cells of each key as they arrive. Cells repeating a key
+   * already written are dropped, as the {@code TreeSet} in
+   * {@code PutSortReducer} did.
+   */
+  public static class CellReducer
+      extends Reducer<ImmutableBytesWritable, KeyValue, ImmutableBytesWritable, KeyValue> {
+
+    @Override
+    protected void reduce(ImmutableBytesWritable key, Iterable<KeyValue> cells,
+        Context context) throws IOException, InterruptedException {
+      boolean first = true;
+      for (KeyValue kv : cells) {
+        if (first) {
+          context.write(key, kv);
+          first = false;
+        } else {
+          context.getCounter(WikistatsCounters.DUPLICATE_CELLS).increment(1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Emits the cells of Puts prepared by an earlier job.
+   */
+  public static class PreparedPutMapper
+      extends Mapper<ImmutableBytesWritable, Put, ImmutableBytesWritable, Put> {
+
+    private PutEmitter emitter = null;
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      this.emitter = new PutEmitter(context);
+    }
+
+    @Override
+    protected void map(ImmutableBytesWritable row, Put put, Context context)
+        throws IOException, InterruptedException {
+      emitter.emit(put);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+      emitter.close();
+      this.emitter = null;
+    }
+  }
+}
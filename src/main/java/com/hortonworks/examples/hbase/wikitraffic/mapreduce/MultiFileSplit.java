@@ -0,0 +1,141 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * An {@link InputSplit} covering a number of whole files. Locations are
+ * those hosts holding the most bytes of the covered files; as with
+ * {@link org.apache.hadoop.mapreduce.lib.input.FileSplit}, they are not
+ * serialized.
+ */
+public class MultiFileSplit extends InputSplit implements Writable {
+
+  private static final int MAX_LOCATIONS = 3;
+
+  private Path[] paths;
+  private long[] lengths;
+  private String[] locations;
+
+  /** For deserialization only. */
+  public MultiFileSplit() {}
+
+  public MultiFileSplit(Path[] paths, long[] lengths, String[] locations) {
+    this.paths = paths;
+    this.lengths = lengths;
+    this.locations = locations;
+  }
+
+  /**
+   * Create a split covering <tt>files</tt>, located on the hosts holding
+   * most of their blocks.
+   * @param conf used to resolve each file's {@link FileSystem}.
+   * @param files the files covered by the split.
+   */
+  public static MultiFileSplit create(Configuration conf, List<FileStatus> files)
+      throws IOException {
+    Path[] paths = new Path[files.size()];
+    long[] lengths = new long[files.size()];
+    final Map<String, Long> hostBytes = new HashMap<String, Long>();
+
+    for (int i = 0; i < files.size(); i++) {
+      FileStatus file = files.get(i);
+      paths[i] = file.getPath();
+      lengths[i] = file.getLen();
+
+      FileSystem fs = file.getPath().getFileSystem(conf);
+      for (BlockLocation block : fs.getFileBlockLocations(file, 0, file.getLen())) {
+        for (String host : block.getHosts()) {
+          Long sum = hostBytes.get(host);
+          hostBytes.put(host, (sum == null ? 0 : sum) + block.getLength());
+        }
+      }
+    }
+
+    List<String> hosts = new ArrayList<String>(hostBytes.keySet());
+    Collections.sort(hosts, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return hostBytes.get(b).compareTo(hostBytes.get(a));
+      }
+    });
+    if (hosts.size() > MAX_LOCATIONS) {
+      hosts = hosts.subList(0, MAX_LOCATIONS);
+    }
+    return new MultiFileSplit(paths, lengths, hosts.toArray(new String[hosts.size()]));
+  }
+
+  public int getNumPaths() {
+    return paths.length;
+  }
+
+  public Path getPath(int i) {
+    return paths[i];
+  }
+
+  public long getLength(int i) {
+    return lengths[i];
+  }
+
+  @Override
+  public long getLength() {
+    long sum = 0;
+    for (long len : lengths) {
+      sum += len;
+    }
+    return sum;
+  }
+
+  @Override
+  public String[] getLocations() {
+    return null == locations ? new String[0] : locations;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, paths.length);
+    for (int i = 0; i < paths.length; i++) {
+      Text.writeString(out, paths[i].toString());
+      WritableUtils.writeVLong(out, lengths[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int n = WritableUtils.readVInt(in);
+    paths = new Path[n];
+    lengths = new long[n];
+    for (int i = 0; i < n; i++) {
+      paths[i] = new Path(Text.readString(in));
+      lengths[i] = WritableUtils.readVLong(in);
+    }
+    locations = null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < paths.length; i++) {
+      if (i > 0) sb.append(',');
+      sb.append(paths[i]);
+    }
+    return sb.toString();
+  }
+}
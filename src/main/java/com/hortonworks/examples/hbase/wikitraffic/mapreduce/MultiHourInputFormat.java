@@ -0,0 +1,70 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+/**
+ * Hands each mapper a group of consecutive hourly pagecounts files. Files
+ * are ordered by the date-time in their names and grouped
+ * {@value #GROUP_SIZE_KEY} at a time. Because each file is sorted by project
+ * and page, {@link MultiHourRecordReader} merge-joins the group and produces
+ * one {@link PageHours} record per page.
+ */
+public class MultiHourInputFormat extends FileInputFormat<NullWritable, PageHours> {
+
+  private static final Log LOG = LogFactory.getLog(MultiHourInputFormat.class);
+
+  public static final String GROUP_SIZE_KEY = "wikistats.multihour.group.size";
+  public static final int DEFAULT_GROUP_SIZE = 24;
+
+  @Override
+  public List<InputSplit> getSplits(JobContext job) throws IOException {
+    int groupSize = job.getConfiguration().getInt(GROUP_SIZE_KEY, DEFAULT_GROUP_SIZE);
+    if (groupSize < 1) {
+      throw new IllegalArgumentException(GROUP_SIZE_KEY + " must be positive.");
+    }
+
+    List<FileStatus> files = new ArrayList<FileStatus>();
+    for (FileStatus file : listStatus(job)) {
+      if (null == WikistatsRecordParser.parseDateTime(file.getPath().toString())) {
+        LOG.warn(String.format("Skipping %s, not a pagecounts file.", file.getPath()));
+        continue;
+      }
+      files.add(file);
+    }
+    Collections.sort(files, new Comparator<FileStatus>() {
+      @Override
+      public int compare(FileStatus a, FileStatus b) {
+        return WikistatsRecordParser.parseDateTime(a.getPath().toString())
+            .compareTo(WikistatsRecordParser.parseDateTime(b.getPath().toString()));
+      }
+    });
+
+    List<InputSplit> splits = new ArrayList<InputSplit>();
+    for (int i = 0; i < files.size(); i += groupSize) {
+      List<FileStatus> group = files.subList(i, Math.min(i + groupSize, files.size()));
+      splits.add(MultiFileSplit.create(job.getConfiguration(), group));
+    }
+    LOG.info(String.format("Grouped %d hourly files into %d splits.", files.size(), splits.size()));
+    return splits;
+  }
+
+  @Override
+  public RecordReader<NullWritable, PageHours> createRecordReader(InputSplit split,
+      TaskAttemptContext context) {
+    return new MultiHourRecordReader();
+  }
+}
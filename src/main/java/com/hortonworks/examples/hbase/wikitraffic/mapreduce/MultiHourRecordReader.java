@@ -0,0 +1,175 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Merge-joins the hourly files of a {@link MultiFileSplit} on
+ * <tt>(projectCode, pageName)</tt>. Each file must be sorted by those fields,
+ * as the wikistats dumps are. Should a file be out of order, a page may be
+ * produced more than once; no observation is ever dropped.
+ */
+public class MultiHourRecordReader extends RecordReader<NullWritable, PageHours> {
+
+  private static final Log LOG = LogFactory.getLog(MultiHourRecordReader.class);
+
+  /** Read position within one hourly file. */
+  private static class Cursor {
+    Path path;
+    String dateTime;
+    PagecountsFileReader reader;
+    long length;
+    long consumed = 0;
+    boolean done = false;
+    final Text line = new Text();
+    // length of the "projectCode pageName" prefix of line
+    int keyLength = -1;
+  }
+
+  private final WikistatsRecordParser parser = new WikistatsRecordParser();
+  private final PageHours value = new PageHours();
+  private Cursor[] cursors;
+  private byte[] minKey = new byte[256];
+  private long totalLength = 0;
+  // input consumed since the last record, for its PageHours.
+  private long bytesIn = 0;
+  private int malformed = 0;
+
+  @Override
+  public void initialize(InputSplit genericSplit, TaskAttemptContext context)
+      throws IOException {
+    MultiFileSplit split = (MultiFileSplit) genericSplit;
+    Configuration conf = context.getConfiguration();
+
+    cursors = new Cursor[split.getNumPaths()];
+    for (int i = 0; i < cursors.length; i++) {
+      Cursor c = new Cursor();
+      c.path = split.getPath(i);
+      c.length = split.getLength(i);
+      c.dateTime = WikistatsRecordParser.parseDateTime(c.path.toString());
+      c.reader = new PagecountsFileReader(c.path, conf);
+      cursors[i] = c;
+      totalLength += c.length;
+      advance(c);
+    }
+  }
+
+  /**
+   * Move <tt>c</tt> to its next record with a well-formed key.
+   */
+  private void advance(Cursor c) throws IOException {
+    while (true) {
+      int read = c.reader.readLine(c.line);
+      if (read == 0) {
+        c.done = true;
+        return;
+      }
+      c.consumed += read;
+      bytesIn += read;
+
+      byte[] buf = c.line.getBytes();
+      int spaces = 0;
+      for (int i = 0; i < c.line.getLength(); i++) {
+        if (buf[i] == ' ' && ++spaces == 2) {
+          c.keyLength = i;
+          return;
+        }
+      }
+      malformed++;
+      LOG.warn(String.format("Failed to parse record in file %s: %s", c.path, c.line));
+    }
+  }
+
+  @Override
+  public boolean nextKeyValue() throws IOException {
+    while (true) {
+      Cursor min = null;
+      for (Cursor c : cursors) {
+        if (!c.done && (null == min || compareKeys(c, min.line.getBytes(), min.keyLength) < 0)) {
+          min = c;
+        }
+      }
+      if (null == min) {
+        return false;
+      }
+
+      int minKeyLength = min.keyLength;
+      if (minKey.length < minKeyLength) {
+        minKey = new byte[minKeyLength];
+      }
+      System.arraycopy(min.line.getBytes(), 0, minKey, 0, minKeyLength);
+
+      // cursors are in date-time order, so hours are appended in order.
+      value.reset(null, null);
+      for (Cursor c : cursors) {
+        if (c.done || compareKeys(c, minKey, minKeyLength) != 0) {
+          continue;
+        }
+        if (parser.parse(c.line)) {
+          if (value.size() == 0) {
+            value.reset(parser.getProjectCode(), parser.getPageName());
+          }
+          value.add(c.dateTime, parser.getPageViews(), parser.getBytes());
+        } else {
+          malformed++;
+          LOG.warn(String.format("Failed to parse record in file %s: %s", c.path, c.line));
+        }
+        advance(c);
+      }
+      if (value.size() > 0) {
+        value.setInput(bytesIn, malformed);
+        this.bytesIn = 0;
+        this.malformed = 0;
+        return true;
+      }
+    }
+  }
+
+  private static int compareKeys(Cursor c, byte[] key, int keyLength) {
+    return WritableComparator.compareBytes(c.line.getBytes(), 0, c.keyLength, key, 0, keyLength);
+  }
+
+  @Override
+  public NullWritable getCurrentKey() {
+    return NullWritable.get();
+  }
+
+  @Override
+  public PageHours getCurrentValue() {
+    return value;
+  }
+
+  @Override
+  public float getProgress() {
+    if (totalLength == 0) {
+      return 1.0f;
+    }
+    long consumed = 0;
+    for (Cursor c : cursors) {
+      consumed += c.done ? c.length : Math.min(c.consumed, c.length);
+    }
+    return Math.min(1.0f, consumed / (float) totalLength);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (null == cursors) {
+      return;
+    }
+    for (Cursor c : cursors) {
+      if (null != c && null != c.reader) {
+        c.reader.close();
+      }
+    }
+  }
+}
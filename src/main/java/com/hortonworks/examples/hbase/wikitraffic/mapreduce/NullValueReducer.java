@@ -0,0 +1,20 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Emits each key once per value, discarding the values.
+ */
+public class NullValueReducer<K, V> extends Reducer<K, V, K, NullWritable> {
+
+  @Override
+  public void reduce(K key, Iterable<V> values, Context context)
+      throws IOException, InterruptedException {
+    for (@SuppressWarnings("unused") V value : values) {
+      context.write(key, NullWritable.get());
+    }
+  }
+}
@@ -0,0 +1,429 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.TableMapReduceUtil;
+import org.apache.hadoop.hbase.mapreduce.TableOutputFormat;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.BufferedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+/**
+ * Shuffles {@link WikistatsObservation}s, rather than Puts, from the
+ * wikistats mappers. An observation serializes to its row key, hour and
+ * two vlongs, a fraction of the size of a {@link Put} with its family map
+ * and timestamps, and sorts on its raw bytes. It becomes cells only in the
+ * reducer, which receives observations in table order.
+ * <p>
+ * With {@link WikistatsSchemaUtils#ROLLUP_KEY}, mappers also emit each
+ * hour as a day and a month rollup observation. A {@link RollupCombiner}
+ * sums them in the map tasks, so a page's month reaches the reducers as a
+ * handful of records rather than one per hour, and the reducers finish
+ * the sums, adding any total already stored by an earlier load through
+ * {@link RollupTotals}. Rollups are not deduplicated: the combiner has
+ * summed a day's hours before any reducer could see a repeat, so an hour
+ * given twice, in one load or in two, is written once but counted twice
+ * in its day and month. Give each hour once.
+ * </p>
+ * <p>
+ * With {@link TopPages#TOPN_KEY}, mappers emit the top pages of each
+ * project and hour they saw when they finish. Each reducer merges those
+ * of the side table rows it owns with a {@link TopPagesWriter}. A
+ * {@link PutReducer} writes them to the side table as it goes; a
+ * {@link CellReducer} leaves them with its HFiles, for the loader to write
+ * once those are loaded.
+ * </p>
+ */
+public final class ObservationShuffle {
+
+  private ObservationShuffle() {}
+
+  /**
+   * Configure <tt>job</tt>'s mappers to emit observations, combining
+   * rollups when enabled and adding them to the totals stored in
+   * <tt>targetTable</tt>. The reducer must accept them, as
+   * {@link CellReducer} and {@link PutReducer} do.
+   */
+  public static void configure(Job job, String targetTable) {
+    job.getConfiguration().setBoolean(PutEmitter.OBSERVATION_OUTPUT_KEY, true);
+    job.setMapOutputKeyClass(WikistatsObservation.class);
+    job.setMapOutputValueClass(NullWritable.class);
+    if (WikistatsSchemaUtils.isRollupEnabled(job.getConfiguration())) {
+      job.setCombinerClass(RollupCombiner.class);
+      job.getConfiguration().set(RollupTotals.TABLE_KEY, targetTable);
+    }
+  }
+
+  /**
+   * Sum the rollup observations grouped under <tt>key</tt>, leaving the
+   * totals in <tt>key</tt>. The key advances with the values.
+   */
+  static void sumRollup(WikistatsObservation key, Iterable<NullWritable> values) {
+    long pageViews = 0;
+    long bytes = 0;
+    for (@SuppressWarnings("unused") NullWritable value : values) {
+      pageViews += key.getPageViews();
+      bytes += key.getBytes();
+    }
+    key.setCounts(pageViews, bytes);
+  }
+
+  /**
+   * Merges the top page candidates reaching a reducer into each side table
+   * row's final list. Candidates arrive ordered by row, then page name, one
+   * reduce call per page; a page repeated by several tasks is counted
+   * once, as duplicate hours are.
+   */
+  abstract static class TopPagesWriter implements Closeable {
+
+    private final int topN;
+    private byte[] row = null;
+    private TopPages pages = null;
+
+    TopPagesWriter(int topN) {
+      this.topN = topN;
+    }
+
+    /**
+     * @return a writer to the side table, or null when top pages are not
+     *         collected.
+     */
+    static TopPagesWriter toTable(Configuration conf) throws IOException {
+      if (!TopPages.isEnabled(conf)) {
+        return null;
+      }
+      final BufferedTableWriter writer =
+          new BufferedTableWriter(conf, conf.get(TopPages.TABLE_KEY));
+      return new TopPagesWriter(TopPages.getTopN(conf)) {
+        @Override
+        void write(Put put) throws IOException {
+          writer.write(put);
+        }
+
+        @Override
+        void closeOutput() throws IOException {
+          writer.close();
+        }
+      };
+    }
+
+    /**
+     * @return a writer to a file of the task's output, under
+     *         {@link TopPages#LISTS_DIR}, or null when top pages are not
+     *         collected. The file is committed with the task.
+     * @see TopPages#writeLists(Configuration, Path)
+     */
+    static TopPagesWriter toOutput(TaskInputOutputContext<?, ?, ?, ?> context)
+        throws IOException, InterruptedException {
+      Configuration conf = context.getConfiguration();
+      if (!TopPages.isEnabled(conf)) {
+        return null;
+      }
+      Path file = new Path(new Path(FileOutputFormat.getWorkOutputPath(context),
+        TopPages.LISTS_DIR), FileOutputFormat.getUniqueFile(context, "part", ""));
+      final SequenceFile.Writer writer = SequenceFile.createWriter(file.getFileSystem(conf),
+        conf, file, ImmutableBytesWritable.class, Put.class);
+      final ImmutableBytesWritable key = new ImmutableBytesWritable();
+      return new TopPagesWriter(TopPages.getTopN(conf)) {
+        @Override
+        void write(Put put) throws IOException {
+          key.set(put.getRow());
+          writer.append(key, put);
+        }
+
+        @Override
+        void closeOutput() throws IOException {
+          writer.close();
+        }
+      };
+    }
+
+    void add(WikistatsObservation key) throws IOException {
+      if (null == row
+          || !Bytes.equals(row, 0, row.length, key.getRowArray(), 0, key.getRowLength())) {
+        flush();
+        this.row = key.getRow();
+        this.pages = new TopPages(topN);
+      }
+      pages.offer(Bytes.toString(key.getColumn()), key.getPageViews());
+    }
+
+    /** Write one row's final list. */
+    abstract void write(Put put) throws IOException;
+
+    /** Release the output, after the last list. */
+    abstract void closeOutput() throws IOException;
+
+    private void flush() throws IOException {
+      if (null != row) {
+        write(TopPages.createPut(row, pages.getPages()));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        closeOutput();
+      }
+    }
+  }
+
+  /**
+   * Configure <tt>job</tt> to write observations to <tt>targetTable</tt>
+   * from {@link PutReducer}s, which write to the table themselves.
+   */
+  public static void configurePuts(Job job, String targetTable) throws IOException {
+    Configuration conf = job.getConfiguration();
+    HBaseConfiguration.merge(conf, HBaseConfiguration.create(conf));
+    configure(job, targetTable);
+    conf.set(TableOutputFormat.OUTPUT_TABLE, targetTable);
+    job.setReducerClass(PutReducer.class);
+    job.setOutputFormatClass(NullOutputFormat.class);
+    job.setOutputKeyClass(NullWritable.class);
+    job.setOutputValueClass(NullWritable.class);
+    TableMapReduceUtil.initCredentials(job);
+  }
+
+  /**
+   * Configure <tt>job</tt> to write HFiles for <tt>targetTable</tt> from
+   * observations, partitioned on the rows of its
+   * {@link TotalOrderPartitioner} partition file. Call
+   * this after that is set, or after
+   * {@code HFileOutputFormat.configureIncrementalLoad}, whose partitioner
+   * and reducer this replaces.
+   */
+  public static void configureHFiles(Job job, String targetTable) {
+    configure(job, targetTable);
+    job.setPartitionerClass(RowPartitioner.class);
+    job.setReducerClass(CellReducer.class);
+  }
+
+  /**
+   * Sends each observation to the reducer owning its row.
+   * @see KeyValueShuffle.RowPartitioner
+   */
+  public static class RowPartitioner extends Partitioner<WikistatsObservation, NullWritable>
+      implements Configurable {
+
+    private Configuration conf = null;
+    private byte[][] splits = null;
+
+    @Override
+    public Configuration getConf() {
+      return conf;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+      this.conf = conf;
+      this.splits = KeyValueShuffle.RowPartitioner.loadSplits(conf);
+    }
+
+    @Override
+    public int getPartition(WikistatsObservation key, NullWritable value, int numPartitions) {
+      KeyValueShuffle.RowPartitioner.checkPartitions(splits, numPartitions);
+      return KeyValueShuffle.RowPartitioner.partition(splits, key.getRowArray(), 0,
+        key.getRowLength());
+    }
+  }
+
+  /**
+   * Sums the rollups of each map task. Hourly observations pass through
+   * untouched, duplicates included, for the reducer to count.
+   */
+  public static class RollupCombiner
+      extends Reducer<WikistatsObservation, NullWritable, WikistatsObservation, NullWritable> {
+
+    @Override
+    protected void reduce(WikistatsObservation key, Iterable<NullWritable> values,
+        Context context) throws IOException, InterruptedException {
+      if (key.isRollup()) {
+        sumRollup(key, values);
+        context.write(key, NullWritable.get());
+        return;
+      }
+      for (NullWritable value : values) {
+        context.write(key, value);
+      }
+    }
+  }
+
+  /**
+   * Writes the cells of each observation as they arrive, in HFile order.
+   * Observations repeating a row and hour already written are dropped
+   * and counted in {@link WikistatsCounters#DUPLICATE_CELLS}; rollups are
+   * summed over every copy and the stored total; top pages go to the
+   * task's output, beside its HFiles.
+   */
+  public static class CellReducer
+      extends Reducer<WikistatsObservation, NullWritable, ImmutableBytesWritable, KeyValue> {
+
+    private final ImmutableBytesWritable outputKey = new ImmutableBytesWritable();
+    private WideValueCodec valueCodec = null;
+    private TopPagesWriter topPages = null;
+    private RollupTotals storedTotals = null;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+      this.valueCodec = WikistatsSchemaUtils.getWideValueCodec(context.getConfiguration());
+      this.topPages = TopPagesWriter.toOutput(context);
+      this.storedTotals = RollupTotals.open(context.getConfiguration(), valueCodec);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException {
+      try {
+        if (null != topPages) {
+          topPages.close();
+          this.topPages = null;
+        }
+      } finally {
+        if (null != storedTotals) {
+          storedTotals.close();
+          this.storedTotals = null;
+        }
+      }
+    }
+
+    @Override
+    protected void reduce(WikistatsObservation key, Iterable<NullWritable> values,
+        Context context) throws IOException, InterruptedException {
+      if (key.isTopPage()) {
+        topPages.add(key);
+        return;
+      }
+      if (key.isRollup()) {
+        sumRollup(key, values);
+        if (null != storedTotals) {
+          storedTotals.add(key);
+        }
+        KeyValue kv = WikistatsSchemaUtils.createCells(key, valueCodec)[0];
+        outputKey.set(kv.getRow());
+        context.write(outputKey, kv);
+        return;
+      }
+      // the key advances with the values; build the cells from the first.
+      KeyValue[] cells = WikistatsSchemaUtils.createCells(key, valueCodec);
+      outputKey.set(cells[0].getRow());
+      for (KeyValue kv : cells) {
+        context.write(outputKey, kv);
+      }
+      long duplicates = -1;
+      for (@SuppressWarnings("unused") NullWritable value : values) {
+        duplicates++;
+      }
+      if (duplicates > 0) {
+        context.getCounter(WikistatsCounters.DUPLICATE_CELLS)
+          .increment(duplicates * cells.length);
+      }
+    }
+  }
+
+  /**
+   * Writes a {@link Put} for each row to the job's table, holding the
+   * cells of every observation of the row, summing rollups over every copy
+   * and the stored total; top pages go to the side table. Observations
+   * arrive in row order, so a row is written once the next begins. Puts go
+   * through a {@link BufferedTableWriter}, whose flush histograms are
+   * published as {@link HistogramCounters} when the task finishes.
+   */
+  public static class PutReducer
+      extends Reducer<WikistatsObservation, NullWritable, NullWritable, NullWritable> {
+
+    private WideValueCodec valueCodec = null;
+    private BufferedTableWriter writer = null;
+    private TopPagesWriter topPages = null;
+    private RollupTotals storedTotals = null;
+    private Put put = null;
+
+    @Override
+    protected void setup(Context context) throws IOException {
+      Configuration conf = context.getConfiguration();
+      this.valueCodec = WikistatsSchemaUtils.getWideValueCodec(conf);
+      this.writer = openWriter(conf);
+      this.topPages = TopPagesWriter.toTable(conf);
+      this.storedTotals = RollupTotals.open(conf, valueCodec);
+    }
+
+    /** @return a writer to the table named by {@link TableOutputFormat#OUTPUT_TABLE}. */
+    BufferedTableWriter openWriter(Configuration conf) throws IOException {
+      return new BufferedTableWriter(conf, conf.get(TableOutputFormat.OUTPUT_TABLE));
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException {
+      try {
+        flush();
+        writer.close();
+        HistogramCounters.publish(context, HistogramCounters.FLUSH_LATENCY_GROUP,
+          writer.getFlushLatencies());
+        HistogramCounters.publish(context, HistogramCounters.FLUSH_SIZE_GROUP,
+          writer.getFlushSizes());
+        if (null != topPages) {
+          topPages.close();
+          this.topPages = null;
+        }
+      } finally {
+        if (null != storedTotals) {
+          storedTotals.close();
+          this.storedTotals = null;
+        }
+      }
+    }
+
+    @Override
+    protected void reduce(WikistatsObservation key, Iterable<NullWritable> values,
+        Context context) throws IOException {
+      if (key.isTopPage()) {
+        topPages.add(key);
+        return;
+      }
+      if (key.isRollup()) {
+        sumRollup(key, values);
+        if (null != storedTotals) {
+          storedTotals.add(key);
+        }
+      }
+      KeyValue[] cells = WikistatsSchemaUtils.createCells(key, valueCodec);
+      if (null != put && !Bytes.equals(put.getRow(), cells[0].getRow())) {
+        flush();
+      }
+      if (null == put) {
+        this.put = new Put(cells[0].getRow());
+      }
+      for (KeyValue kv : cells) {
+        put.add(kv);
+      }
+    }
+
+    /** Write the current row's Put, if any. */
+    private void flush() throws IOException {
+      if (null != put) {
+        writer.write(put);
+        this.put = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The observations of a single page across a group of hours. Instances are
+ * reused by {@link MultiHourRecordReader}; the arrays grow as necessary and
+ * only the first {@link #size()} entries are valid.
+ * <p>
+ * The reader also notes the input it consumed since the previous record,
+ * for the mapper's counters. Those are not serialized.
+ * </p>
+ */
+public class PageHours implements Writable {
+
+  private String projectCode = null;
+  private String pageName = null;
+  private int size = 0;
+  private String[] dateTimes = new String[8];
+  private long[] pageViews = new long[8];
+  private long[] bytes = new long[8];
+  private long bytesIn = 0;
+  private int malformed = 0;
+
+  /**
+   * Reset this instance to hold observations of a new page.
+   */
+  public void reset(String projectCode, String pageName) {
+    this.projectCode = projectCode;
+    this.pageName = pageName;
+    this.size = 0;
+  }
+
+  /**
+   * Append an observation for the current page.
+   */
+  public void add(String dateTime, long pageViews, long bytes) {
+    if (size == dateTimes.length) {
+      grow(size * 2);
+    }
+    this.dateTimes[size] = dateTime;
+    this.pageViews[size] = pageViews;
+    this.bytes[size] = bytes;
+    size++;
+  }
+
+  public String getProjectCode() {
+    return projectCode;
+  }
+
+  public String getPageName() {
+    return pageName;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public String getDateTime(int i) {
+    return dateTimes[i];
+  }
+
+  public long getPageViews(int i) {
+    return pageViews[i];
+  }
+
+  public long getBytes(int i) {
+    return bytes[i];
+  }
+
+  /**
+   * Note the input consumed since the previous record.
+   */
+  public void setInput(long bytesIn, int malformed) {
+    this.bytesIn = bytesIn;
+    this.malformed = malformed;
+  }
+
+  /**
+   * @return the bytes of input read since the previous record.
+   */
+  public long getBytesIn() {
+    return bytesIn;
+  }
+
+  /**
+   * @return the malformed lines skipped since the previous record.
+   */
+  public int getMalformed() {
+    return malformed;
+  }
+
+  private void grow(int capacity) {
+    String[] d = new String[capacity];
+    long[] v = new long[capacity];
+    long[] b = new long[capacity];
+    System.arraycopy(dateTimes, 0, d, 0, size);
+    System.arraycopy(pageViews, 0, v, 0, size);
+    System.arraycopy(bytes, 0, b, 0, size);
+    dateTimes = d;
+    pageViews = v;
+    bytes = b;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    Text.writeString(out, projectCode);
+    Text.writeString(out, pageName);
+    WritableUtils.writeVInt(out, size);
+    for (int i = 0; i < size; i++) {
+      Text.writeString(out, dateTimes[i]);
+      WritableUtils.writeVLong(out, pageViews[i]);
+      WritableUtils.writeVLong(out, bytes[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    reset(Text.readString(in), Text.readString(in));
+    int n = WritableUtils.readVInt(in);
+    for (int i = 0; i < n; i++) {
+      add(Text.readString(in), WritableUtils.readVLong(in), WritableUtils.readVLong(in));
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.DictionaryRowKeyCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.RowKeyCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+/**
+ * Gives every page of the pagecounts read an id in the
+ * {@link PageDictionary}, writing nothing. Run map-only over the whole
+ * input before split points are sampled, so that the sampled row keys are
+ * those the data is finally written under, rather than the ids of only the
+ * pages sampled. Pages are resolved {@value PageDictionary#RESOLVE_BLOCK_KEY}
+ * records at a time.
+ */
+public class PageResolvingMapper extends Mapper<LongWritable, Text, NullWritable, NullWritable> {
+
+  private final WikistatsRecordParser parser = new WikistatsRecordParser();
+  private final List<String> projectCodes = new ArrayList<String>();
+  private final List<String> pageNames = new ArrayList<String>();
+  private RowKeyCodec rowKeyCodec = null;
+  private DictionaryRowKeyCodec dictionary = null;
+  private int block;
+  private boolean skipped = false;
+  private Counter parsed = null;
+  private Counter malformed = null;
+
+  @Override
+  protected void setup(Context context) throws IOException {
+    Configuration conf = context.getConfiguration();
+    this.rowKeyCodec = WikistatsSchemaUtils.getRowKeyCodec(conf);
+    this.dictionary = WikistatsSchemaUtils.getDictionaryCodec(rowKeyCodec);
+    if (null == dictionary) {
+      throw new IllegalArgumentException(String.format("%s requires %s=%s.",
+        getClass().getSimpleName(), WikistatsSchemaUtils.ROWKEY_CODEC_KEY,
+        WikistatsSchemaUtils.DICT_ROWKEY_CODEC));
+    }
+    this.block = Math.max(1,
+      conf.getInt(PageDictionary.RESOLVE_BLOCK_KEY, PageDictionary.DEFAULT_RESOLVE_BLOCK));
+    this.parsed = context.getCounter(WikistatsCounters.RECORDS_PARSED);
+    this.malformed = context.getCounter(WikistatsCounters.RECORDS_MALFORMED);
+    // the schema mappers load nothing from files not named for an hour.
+    InputSplit split = context.getInputSplit();
+    if (split instanceof FileSplit) {
+      this.skipped = null == WikistatsRecordParser.parseDateTime(
+        ((FileSplit) split).getPath().toString());
+    }
+  }
+
+  @Override
+  protected void map(LongWritable key, Text value, Context context) throws IOException {
+    if (skipped) {
+      return;
+    }
+    if (!parser.parse(value)) {
+      malformed.increment(1);
+      return;
+    }
+    parsed.increment(1);
+    projectCodes.add(parser.getProjectCode());
+    pageNames.add(parser.getPageName());
+    if (pageNames.size() >= block) {
+      resolve();
+    }
+  }
+
+  private void resolve() throws IOException {
+    dictionary.resolve(projectCodes, pageNames);
+    projectCodes.clear();
+    pageNames.clear();
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException {
+    try {
+      if (!pageNames.isEmpty()) {
+        resolve();
+      }
+    } finally {
+      WikistatsSchemaUtils.closeRowKeyCodec(rowKeyCodec);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.util.LineReader;
+
+/**
+ * Reads the pagecounts lines of a whole file, as
+ * {@link PagecountsInputFormat} reads its splits: a
+ * {@value PagecountsInputFormat#SEQUENCE_EXTENSION} file through a
+ * {@link SequenceFile.Reader}, any other as text, compressed or not.
+ */
+public class PagecountsFileReader implements Closeable {
+
+  private final LineReader lines;
+  private final SequenceFile.Reader records;
+  private final LongWritable offset = new LongWritable();
+
+  public PagecountsFileReader(Path file, Configuration conf) throws IOException {
+    FileSystem fs = file.getFileSystem(conf);
+    if (PagecountsInputFormat.isSequenceFile(file)) {
+      this.lines = null;
+      this.records = new SequenceFile.Reader(fs, file, conf);
+    } else {
+      CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+      this.lines = new LineReader(null == codec
+          ? fs.open(file) : codec.createInputStream(fs.open(file)), conf);
+      this.records = null;
+    }
+  }
+
+  /**
+   * Read the next line into <tt>line</tt>.
+   * @return the bytes of text read, counting the line's terminator, or 0
+   *         at the end of the file.
+   */
+  public int readLine(Text line) throws IOException {
+    if (null != lines) {
+      return lines.readLine(line);
+    }
+    if (!records.next(offset, line)) {
+      return 0;
+    }
+    // as the text line the record was converted from.
+    return line.getLength() + 1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (null != lines) {
+      lines.close();
+    } else {
+      records.close();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+/**
+ * Reads pagecounts lines from raw text files, compressed or not, and from
+ * the block-compressed SequenceFiles written by
+ * {@code WikistatsArchiveConverter}, which are named for their source file
+ * with a {@value #SEQUENCE_EXTENSION} extension. Both produce
+ * <tt>(offset, line)</tt> records. Unlike gzip text, the SequenceFiles
+ * split, so a large hour is read by several mappers.
+ */
+public class PagecountsInputFormat extends FileInputFormat<LongWritable, Text> {
+
+  public static final String SEQUENCE_EXTENSION = ".seq";
+
+  static boolean isSequenceFile(Path file) {
+    return file.getName().endsWith(SEQUENCE_EXTENSION);
+  }
+
+  @Override
+  public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
+      TaskAttemptContext context) {
+    if (isSequenceFile(((FileSplit) split).getPath())) {
+      return new SequenceFileRecordReader<LongWritable, Text>();
+    }
+    return new LineRecordReader();
+  }
+
+  @Override
+  protected boolean isSplitable(JobContext context, Path file) {
+    if (isSequenceFile(file)) {
+      return true;
+    }
+    // as TextInputFormat: compressed text can't be split.
+    return null == new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+  }
+}
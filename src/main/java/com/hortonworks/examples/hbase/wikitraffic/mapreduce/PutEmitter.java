@@ -0,0 +1,240 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.BufferedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+/**
+ * Emits the {@link Put}s produced by a mapper. Puts go to the task output
+ * unless {@value #DIRECT_TABLE_KEY} names a table, in which case they are
+ * written straight to it through a {@link BufferedTableWriter}. Writing
+ * from the mapper, rather than through an {@code OutputFormat}, keeps the
+ * task's counters in reach: the writer's flush histograms are published
+ * as {@link HistogramCounters} on {@link #close()}.
+ * <p>
+ * When {@value #CELL_OUTPUT_KEY} is set, each Put is instead broken into
+ * its cells and every {@link KeyValue} is written keyed by its serialized
+ * key, for jobs that shuffle through {@link KeyValueShuffle}. Such a job's
+ * map output value class must be {@link KeyValue}. When
+ * {@value #OBSERVATION_OUTPUT_KEY} is set, mappers emit a
+ * {@link WikistatsObservation} key with no value in place of each Put,
+ * through {@link #emit(WikistatsObservation)}, for jobs that shuffle
+ * through {@link ObservationShuffle}. Such jobs may also carry daily and
+ * monthly totals, emitted through
+ * {@link #emitRollups(byte[], String, long, long)} when
+ * {@link WikistatsSchemaUtils#ROLLUP_KEY} is set, and the most viewed
+ * pages of each project and hour, offered through
+ * {@link #offerTopPage(String, String, String, long)} when
+ * {@link TopPages#isEnabled(Configuration)}. Those are held in bounded
+ * heaps until {@link #close()}, which emits them for the reducers to merge.
+ * </p>
+ */
+public class PutEmitter {
+
+  /** Table written directly by the mappers, in map-only jobs. */
+  public static final String DIRECT_TABLE_KEY = "wikistats.direct.table";
+  /** Emit individual cells rather than Puts; set by {@link KeyValueShuffle}. */
+  public static final String CELL_OUTPUT_KEY = "wikistats.emit.cells";
+  /** Emit observations rather than Puts; set by {@link ObservationShuffle}. */
+  public static final String OBSERVATION_OUTPUT_KEY = "wikistats.emit.observations";
+
+  private final TaskInputOutputContext<?, ?, ImmutableBytesWritable, Put> context;
+  private final ImmutableBytesWritable outputKey = new ImmutableBytesWritable();
+  private final BufferedTableWriter writer;
+  private final boolean cellOutput;
+  private final boolean observationOutput;
+  private final boolean rollupOutput;
+  private final WikistatsObservation rollup = new WikistatsObservation();
+  private final int topN;
+  // hour => project => top pages; hours change rarely within a task.
+  private final Map<String, Map<String, TopPages>> topPages =
+      new HashMap<String, Map<String, TopPages>>();
+  private String topPagesHour = null;
+  private Map<String, TopPages> topPagesOfHour = null;
+  private final Counter putsOut;
+  private final Counter bytesOut;
+  private final Counter rollupsOut;
+
+  public PutEmitter(TaskInputOutputContext<?, ?, ImmutableBytesWritable, Put> context)
+      throws IOException {
+    this.context = context;
+    String table = context.getConfiguration().get(DIRECT_TABLE_KEY);
+    this.writer = null == table
+        ? null : new BufferedTableWriter(context.getConfiguration(), table);
+    this.cellOutput = context.getConfiguration().getBoolean(CELL_OUTPUT_KEY, false);
+    this.observationOutput = null == writer
+        && context.getConfiguration().getBoolean(OBSERVATION_OUTPUT_KEY, false);
+    this.rollupOutput = observationOutput
+        && WikistatsSchemaUtils.isRollupEnabled(context.getConfiguration());
+    this.putsOut = context.getCounter(WikistatsCounters.PUTS_OUT);
+    this.bytesOut = context.getCounter(WikistatsCounters.BYTES_OUT);
+    this.rollupsOut = context.getCounter(WikistatsCounters.ROLLUPS_OUT);
+    this.topN = observationOutput && TopPages.isEnabled(context.getConfiguration())
+        ? TopPages.getTopN(context.getConfiguration()) : 0;
+  }
+
+  public void emit(Put put) throws IOException, InterruptedException {
+    if (null != writer) {
+      writer.write(put);
+    } else if (cellOutput) {
+      emitCells(put);
+    } else {
+      outputKey.set(put.getRow());
+      context.write(outputKey, put);
+    }
+    long bytes = 0;
+    for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+      for (KeyValue kv : kvs) {
+        bytes += kv.getLength();
+      }
+    }
+    putsOut.increment(1);
+    bytesOut.increment(bytes);
+  }
+
+  /**
+   * @return true when mappers should emit observations in place of Puts.
+   */
+  public boolean emitsObservations() {
+    return observationOutput;
+  }
+
+  /**
+   * Emit one observation, counted as a Put of its serialized size. As with
+   * cells, the job declares the map output types.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void emit(WikistatsObservation observation)
+      throws IOException, InterruptedException {
+    TaskInputOutputContext observations = context;
+    observations.write(observation, NullWritable.get());
+    putsOut.increment(1);
+    bytesOut.increment(observation.getSerializedSize());
+  }
+
+  /**
+   * @return true when mappers should emit rollups alongside observations.
+   */
+  public boolean emitsRollups() {
+    return rollupOutput;
+  }
+
+  /**
+   * Emit the day and month rollups of one hour of a page, to be summed by
+   * {@link ObservationShuffle.RollupCombiner} and the reducers.
+   * @param pageRow the page's wide schema row, without time buckets.
+   * @param dateTime the hour observed.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void emitRollups(byte[] pageRow, String dateTime, long pageViews, long bytes)
+      throws IOException, InterruptedException {
+    TaskInputOutputContext observations = context;
+    rollup.set(WikistatsSchemaUtils.DAILY_FAMILY_NAME[0], pageRow,
+      Bytes.toBytes(dateTime.substring(0, 8)), pageViews, bytes);
+    observations.write(rollup, NullWritable.get());
+    rollup.set(WikistatsSchemaUtils.MONTHLY_FAMILY_NAME[0], pageRow,
+      Bytes.toBytes(dateTime.substring(0, 6)), pageViews, bytes);
+    observations.write(rollup, NullWritable.get());
+    rollupsOut.increment(2);
+  }
+
+  /**
+   * @return true when mappers should offer each record as a top page.
+   */
+  public boolean emitsTopPages() {
+    return topN > 0;
+  }
+
+  /**
+   * Offer one hour of a page to the top pages of its project and hour.
+   * Memory is bounded by {@value TopPages#TOPN_KEY} pages for each project
+   * and hour seen by the task.
+   */
+  public void offerTopPage(String dateTime, String projectCode, String pageName,
+      long pageViews) {
+    if (!dateTime.equals(topPagesHour)) {
+      this.topPagesOfHour = topPages.get(dateTime);
+      if (null == topPagesOfHour) {
+        this.topPagesOfHour = new HashMap<String, TopPages>();
+        topPages.put(dateTime, topPagesOfHour);
+      }
+      this.topPagesHour = dateTime;
+    }
+    TopPages pages = topPagesOfHour.get(projectCode);
+    if (null == pages) {
+      pages = new TopPages(topN);
+      topPagesOfHour.put(projectCode, pages);
+    }
+    pages.offer(pageName, pageViews);
+  }
+
+  /**
+   * Emit the pages kept for each project and hour, keyed by their side
+   * table row, with the page name as the column.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void emitTopPages() throws IOException, InterruptedException {
+    TaskInputOutputContext observations = context;
+    WikistatsObservation candidate = new WikistatsObservation();
+    Counter topPagesOut = context.getCounter(WikistatsCounters.TOP_PAGES_OUT);
+    for (Map.Entry<String, Map<String, TopPages>> hour : topPages.entrySet()) {
+      for (Map.Entry<String, TopPages> project : hour.getValue().entrySet()) {
+        byte[] row = TopPages.row(hour.getKey(), project.getKey());
+        for (TopPages.Page page : project.getValue().getPages()) {
+          candidate.set(WikistatsObservation.TOP_PAGE_FAMILY, row,
+            Bytes.toBytes(page.getPageName()), page.getPageViews(), 0);
+          observations.write(candidate, NullWritable.get());
+          topPagesOut.increment(1);
+        }
+      }
+    }
+    topPages.clear();
+    this.topPagesHour = null;
+    this.topPagesOfHour = null;
+  }
+
+  /**
+   * The context is typed for Puts, but the job declares {@link KeyValue}
+   * map output in cell mode; the framework checks the runtime types.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private void emitCells(Put put) throws IOException, InterruptedException {
+    TaskInputOutputContext cells = context;
+    for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+      for (KeyValue kv : kvs) {
+        outputKey.set(kv.getBuffer(), kv.getKeyOffset(), kv.getKeyLength());
+        cells.write(outputKey, kv);
+      }
+    }
+  }
+
+  /**
+   * Emit the top pages collected, if any, then flush and release the table,
+   * if writing directly.
+   */
+  public void close() throws IOException, InterruptedException {
+    emitTopPages();
+    if (null == writer) {
+      return;
+    }
+    writer.close();
+    HistogramCounters.publish(context, HistogramCounters.FLUSH_LATENCY_GROUP,
+      writer.getFlushLatencies());
+    HistogramCounters.publish(context, HistogramCounters.FLUSH_SIZE_GROUP,
+      writer.getFlushSizes());
+  }
+}
@@ -0,0 +1,86 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+/**
+ * Adds the day and month totals already stored in the target table to
+ * those a load has summed, so that a period loaded over several runs
+ * totals every hour given, rather than the hours of the last run. The
+ * stored rollups of a row are read with one {@link Get}, when its first
+ * rollup arrives; a reducer sees rows in order, so each is read once.
+ * Totals are read and rewritten, not incremented: a rollup cell holds
+ * views and bytes encoded together by the {@link WideValueCodec}.
+ */
+class RollupTotals implements Closeable {
+
+  /** The table whose stored totals are added to; set by the loaders. */
+  static final String TABLE_KEY = "wikistats.rollup.table";
+
+  private final HTableInterface table;
+  private final WideValueCodec valueCodec;
+  private byte[] row = null;
+  private Result stored = null;
+
+  RollupTotals(HTableInterface table, WideValueCodec valueCodec) {
+    this.table = table;
+    this.valueCodec = valueCodec;
+  }
+
+  /**
+   * @return the stored totals of the table named by {@link #TABLE_KEY},
+   *         or null when rollups are disabled or the table does not exist
+   *         yet, as it does not before a first HFile load.
+   */
+  static RollupTotals open(Configuration conf, WideValueCodec valueCodec) throws IOException {
+    String tableName = conf.get(TABLE_KEY);
+    if (!WikistatsSchemaUtils.isRollupEnabled(conf) || null == tableName) {
+      return null;
+    }
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      if (!admin.tableExists(tableName)) {
+        return null;
+      }
+    } finally {
+      admin.close();
+    }
+    return new RollupTotals(new HTable(conf, tableName), valueCodec);
+  }
+
+  /**
+   * Add the stored total of the rollup <tt>key</tt>, if any, to its counts.
+   */
+  void add(WikistatsObservation key) throws IOException {
+    if (null == row
+        || !Bytes.equals(row, 0, row.length, key.getRowArray(), 0, key.getRowLength())) {
+      this.row = key.getRow();
+      Get get = new Get(row);
+      get.addFamily(WikistatsSchemaUtils.DAILY_FAMILY_NAME);
+      get.addFamily(WikistatsSchemaUtils.MONTHLY_FAMILY_NAME);
+      this.stored = table.get(get);
+    }
+    byte[] value = stored.getValue(WikistatsSchemaUtils.getFamilyName(key.getFamily()),
+      key.getColumn());
+    if (null != value) {
+      key.setCounts(key.getPageViews() + valueCodec.getPageViews(value),
+        key.getBytes() + valueCodec.getBytes(value));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    table.close();
+  }
+}
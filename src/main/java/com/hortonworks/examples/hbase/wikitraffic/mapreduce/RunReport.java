@@ -0,0 +1,144 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.Histogram;
+
+/**
+ * Collects the outcome of each stage of a loader run, and the counters of
+ * the jobs behind them, into a JSON document for comparing runs.
+ */
+public class RunReport {
+
+  /** Where to write the report; the HFile loader defaults to its working path. */
+  public static final String REPORT_PATH_KEY = "wikistats.report.path";
+
+  private static final String TASK_COUNTER_GROUP = "org.apache.hadoop.mapred.Task$Counter";
+  private static final String[] TASK_COUNTERS = {
+    "MAP_INPUT_RECORDS", "MAP_OUTPUT_RECORDS", "MAP_OUTPUT_BYTES", "REDUCE_SHUFFLE_BYTES",
+    "REDUCE_OUTPUT_RECORDS", "SPILLED_RECORDS" };
+  private static final String[] HISTOGRAM_GROUPS = {
+    HistogramCounters.FLUSH_LATENCY_GROUP, HistogramCounters.FLUSH_SIZE_GROUP };
+
+  private final String loader;
+  private final List<String> stages = new ArrayList<String>();
+
+  public RunReport(String loader) {
+    this.loader = loader;
+  }
+
+  /**
+   * Record a stage that ran no job.
+   */
+  public void addStage(String stage, long wallMillis, boolean success) {
+    stages.add(stageJson(stage, wallMillis, success).append('}').toString());
+  }
+
+  /**
+   * Record a stage that ran <tt>job</tt>, with the job's counters.
+   */
+  public void addJob(String stage, Job job, long wallMillis, boolean success)
+      throws IOException {
+    StringBuilder json = stageJson(stage, wallMillis, success);
+    if (null == job.getJobID()) {
+      // the job failed before it was submitted, so it has no counters.
+      stages.add(json.append('}').toString());
+      return;
+    }
+    json.append(",\"job_id\":").append(quote(job.getJobID().toString()));
+    Counters counters = job.getCounters();
+    if (null != counters) {
+      json.append(",\"counters\":{");
+      boolean first = true;
+      for (String name : TASK_COUNTERS) {
+        first = field(json, first, name.toLowerCase(),
+          counters.findCounter(TASK_COUNTER_GROUP, name).getValue());
+      }
+      for (WikistatsCounters counter : WikistatsCounters.values()) {
+        first = field(json, first, counter.name().toLowerCase(),
+          counters.findCounter(counter).getValue());
+      }
+      json.append("},\"histograms\":{");
+      first = true;
+      for (String group : HISTOGRAM_GROUPS) {
+        Histogram histogram = HistogramCounters.read(counters, group);
+        if (histogram.getCount() == 0) {
+          continue;
+        }
+        if (!first) json.append(',');
+        first = false;
+        json.append(quote(group)).append(":{");
+        field(json, true, "count", histogram.getCount());
+        json.append(String.format(Locale.ROOT, ",\"mean\":%.1f", histogram.getMean()));
+        field(json, false, "p50", histogram.getPercentile(0.50));
+        field(json, false, "p95", histogram.getPercentile(0.95));
+        field(json, false, "p99", histogram.getPercentile(0.99));
+        json.append('}');
+      }
+      json.append('}');
+    }
+    stages.add(json.append('}').toString());
+  }
+
+  private static StringBuilder stageJson(String stage, long wallMillis, boolean success) {
+    StringBuilder json = new StringBuilder("{\"stage\":").append(quote(stage));
+    field(json, false, "wall_ms", wallMillis);
+    return json.append(",\"success\":").append(success);
+  }
+
+  private static boolean field(StringBuilder json, boolean first, String name, long value) {
+    if (!first) json.append(',');
+    json.append(quote(name)).append(':').append(value);
+    return false;
+  }
+
+  static String quote(String s) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  public String toJson() {
+    StringBuilder json = new StringBuilder("{\"loader\":").append(quote(loader));
+    json.append(",\"stages\":[");
+    for (int i = 0; i < stages.size(); i++) {
+      if (i > 0) json.append(',');
+      json.append(stages.get(i));
+    }
+    return json.append("]}").toString();
+  }
+
+  /**
+   * Write the report to <tt>path</tt>, replacing any previous report.
+   */
+  public void write(Configuration conf, Path path) throws IOException {
+    FileSystem fs = path.getFileSystem(conf);
+    Writer out = new OutputStreamWriter(fs.create(path, true), "UTF-8");
+    try {
+      out.write(toJson());
+      out.write('\n');
+    } finally {
+      out.close();
+    }
+  }
+}
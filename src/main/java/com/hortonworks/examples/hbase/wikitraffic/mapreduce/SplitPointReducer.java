@@ -0,0 +1,156 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Computes region split points from a sample of schema {@link Put}s. Each
+ * sample is weighted by the serialized size of its cells, so the resulting
+ * regions hold roughly equal bytes rather than equal row counts. Runs as the
+ * single reducer of the sampling job; the split points are its output, in
+ * the format expected by
+ * {@link org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner}.
+ * <p>
+ * The number of regions is either fixed by {@link #NUM_REGIONS_KEY} or
+ * derived from {@link #TARGET_REGION_BYTES_KEY} and the estimated size of the
+ * whole dataset. That estimate scales the sample by either
+ * {@link #ESTIMATED_PUTS_KEY} or {@link #ESTIMATED_CELLS_KEY}. An estimate of
+ * each region's size is written to {@link #REPORT_PATH_KEY}, when set.
+ * </p>
+ */
+public class SplitPointReducer
+extends Reducer<ImmutableBytesWritable, Put, ImmutableBytesWritable, NullWritable> {
+
+  private static final Log LOG = LogFactory.getLog(SplitPointReducer.class);
+
+  public static final String NUM_REGIONS_KEY = "wikistats.split.regions";
+  public static final String TARGET_REGION_BYTES_KEY = "wikistats.region.target.bytes";
+  public static final String ESTIMATED_PUTS_KEY = "wikistats.split.estimated.puts";
+  public static final String ESTIMATED_CELLS_KEY = "wikistats.split.estimated.cells";
+  public static final String REPORT_PATH_KEY = "wikistats.split.report.path";
+
+  private final List<byte[]> rows = new ArrayList<byte[]>();
+  private final List<Long> weights = new ArrayList<Long>();
+  private long totalWeight = 0;
+  private long totalCells = 0;
+
+  @Override
+  public void reduce(ImmutableBytesWritable key, Iterable<Put> values, Context context) {
+    byte[] row = key.copyBytes();
+    long weight = 0;
+    for (Put put : values) {
+      for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+        for (KeyValue kv : kvs) {
+          weight += kv.getLength();
+          totalCells++;
+        }
+      }
+    }
+    rows.add(row);
+    weights.add(weight);
+    totalWeight += weight;
+  }
+
+  @Override
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    Configuration conf = context.getConfiguration();
+    long estimatedBytes = estimateTotalBytes(conf, rows.size(), totalCells, totalWeight);
+    int regions = numRegions(conf, estimatedBytes, rows.size());
+
+    List<Integer> starts = computeSplits(weights, totalWeight, regions);
+    for (int i = 1; i < starts.size(); i++) {
+      context.write(new ImmutableBytesWritable(rows.get(starts.get(i))), NullWritable.get());
+    }
+    LOG.info(String.format("Computed %d regions from %d samples, estimated %d bytes in total.",
+      starts.size(), rows.size(), estimatedBytes));
+
+    String report = conf.get(REPORT_PATH_KEY);
+    if (null != report) {
+      writeReport(conf, new Path(report), starts, estimatedBytes);
+    }
+  }
+
+  /**
+   * Scale the sampled weight up to the whole dataset.
+   * @return the estimated serialized size of every cell in the dataset, or
+   *         the sampled weight when no estimate of the dataset is available.
+   */
+  static long estimateTotalBytes(Configuration conf, long samples, long cells, long weight) {
+    long puts = conf.getLong(ESTIMATED_PUTS_KEY, -1);
+    if (puts > 0 && samples > 0) {
+      return (long) (weight / (double) samples * puts);
+    }
+    long allCells = conf.getLong(ESTIMATED_CELLS_KEY, -1);
+    if (allCells > 0 && cells > 0) {
+      return (long) (weight / (double) cells * allCells);
+    }
+    return weight;
+  }
+
+  static int numRegions(Configuration conf, long estimatedBytes, int samples) {
+    long target = conf.getLong(TARGET_REGION_BYTES_KEY, -1);
+    int regions = target > 0
+        ? (int) Math.min(Integer.MAX_VALUE, (estimatedBytes + target - 1) / target)
+        : conf.getInt(NUM_REGIONS_KEY, 1);
+    return Math.max(1, Math.min(regions, Math.max(1, samples)));
+  }
+
+  /**
+   * Partition the sorted samples into <tt>regions</tt> runs of roughly equal
+   * weight. Runs always begin on a distinct sample, so fewer regions may be
+   * produced when a few samples dominate.
+   * @return the index of the first sample of each region.
+   */
+  static List<Integer> computeSplits(List<Long> weights, long totalWeight, int regions) {
+    List<Integer> starts = new ArrayList<Integer>();
+    if (weights.isEmpty()) {
+      return starts;
+    }
+    starts.add(0);
+    double perRegion = totalWeight / (double) regions;
+    long cumulative = 0;
+    for (int i = 0; i < weights.size() && starts.size() < regions; i++) {
+      if (cumulative >= perRegion * starts.size() && i > starts.get(starts.size() - 1)) {
+        starts.add(i);
+      }
+      cumulative += weights.get(i);
+    }
+    return starts;
+  }
+
+  private void writeReport(Configuration conf, Path report, List<Integer> starts,
+      long estimatedBytes) throws IOException {
+    FileSystem fs = report.getFileSystem(conf);
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(fs.create(report, true), "UTF-8"));
+    try {
+      out.println("region\tstart_key\tsampled_weight\testimated_bytes");
+      for (int i = 0; i < starts.size(); i++) {
+        int end = i + 1 < starts.size() ? starts.get(i + 1) : rows.size();
+        long weight = 0;
+        for (int j = starts.get(i); j < end; j++) {
+          weight += weights.get(j);
+        }
+        long bytes = totalWeight == 0 ? 0 : (long) (estimatedBytes * (weight / (double) totalWeight));
+        out.printf("%d\t%s\t%d\t%d%n", i,
+          i == 0 ? "" : Bytes.toStringBinary(rows.get(starts.get(i))), weight, bytes);
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+/**
+ * Counters maintained by the wikistats mappers and reducers.
+ */
+public enum WikistatsCounters {
+  /** Input records parsed successfully. */
+  RECORDS_PARSED,
+  /** Input records that could not be parsed. */
+  RECORDS_MALFORMED,
+  /** Input records dropped because the hour of their file is unknown. */
+  RECORDS_FILTERED,
+  /** Bytes of input read, including line terminators. */
+  BYTES_IN,
+  /**
+   * Puts emitted, either to the task output or directly to the table, or
+   * observations emitted in their place.
+   */
+  PUTS_OUT,
+  /** Serialized bytes of the cells in every Put, or of every observation, emitted. */
+  BYTES_OUT,
+  /** Cells dropped by the HFile reducers for repeating an earlier key. */
+  DUPLICATE_CELLS,
+  /** Daily and monthly rollup observations emitted by the mappers, before combining. */
+  ROLLUPS_OUT,
+  /** Top page candidates emitted by the mappers, at most N per project and hour. */
+  TOP_PAGES_OUT
+}
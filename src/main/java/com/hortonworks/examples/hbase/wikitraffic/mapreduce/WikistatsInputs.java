@@ -0,0 +1,93 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+/**
+ * Configures the input side of a job that reads raw wikistats pagecounts
+ * and produces schema {@link org.apache.hadoop.hbase.client.Put}s: the input
+ * path, input format and schema mapper.
+ */
+public final class WikistatsInputs {
+
+  private WikistatsInputs() {}
+
+  /**
+   * @return true when {@link MultiHourInputFormat#GROUP_SIZE_KEY} asks for
+   *         more than one hour per wide {@link org.apache.hadoop.hbase.client.Put}.
+   */
+  public static boolean isMultiHour(Configuration conf) {
+    return conf.getInt(MultiHourInputFormat.GROUP_SIZE_KEY, 0) > 1;
+  }
+
+  /**
+   * @return true when {@link CombinedPagecountsInputFormat#SPLIT_BYTES_KEY}
+   *         asks for many files per split. Multi-hour input already groups
+   *         files, and takes precedence.
+   */
+  public static boolean isCombined(Configuration conf) {
+    return conf.getLong(CombinedPagecountsInputFormat.SPLIT_BYTES_KEY, 0) > 0;
+  }
+
+  /**
+   * Configure <tt>job</tt> to read pagecounts from <tt>inputPaths</tt> and
+   * map them through the selected schema.
+   * @param job the job to configure.
+   * @param tall true for the "tall" schema, false for the "wide" schema.
+   * @param inputPaths pagecounts files or directories.
+   */
+  public static void configure(Job job, boolean tall, Path... inputPaths) throws IOException {
+    for (Path inputPath : inputPaths) {
+      FileInputFormat.addInputPath(job, inputPath);
+    }
+    job.setInputFormatClass(getInputFormatClass(job.getConfiguration(), tall));
+    job.setMapperClass(getMapperClass(job.getConfiguration(), tall));
+  }
+
+  /**
+   * @param conf the job configuration.
+   * @param tall true for the "tall" schema, false for the "wide" schema.
+   * @return the {@link InputFormat} reading raw pagecounts.
+   */
+  @SuppressWarnings("rawtypes")
+  public static Class<? extends InputFormat> getInputFormatClass(Configuration conf,
+      boolean tall) {
+    if (isMultiHour(conf)) {
+      checkWide(tall);
+      return MultiHourInputFormat.class;
+    }
+    return isCombined(conf) ? CombinedPagecountsInputFormat.class : PagecountsInputFormat.class;
+  }
+
+  /**
+   * @param conf the job configuration.
+   * @param tall true for the "tall" schema, false for the "wide" schema.
+   * @return the {@link Mapper} producing schema {@link org.apache.hadoop.hbase.client.Put}s
+   *         from the records of {@link #getInputFormatClass(Configuration, boolean)}.
+   */
+  @SuppressWarnings("rawtypes")
+  public static Class<? extends Mapper> getMapperClass(Configuration conf, boolean tall) {
+    if (isMultiHour(conf)) {
+      checkWide(tall);
+      return WikistatsSchemaUtils.WideMultiHourWikistatsMapper.class;
+    }
+    return tall
+        ? WikistatsSchemaUtils.TallWikistatsMapper.class
+        : WikistatsSchemaUtils.WideWikistatsMapper.class;
+  }
+
+  private static void checkWide(boolean tall) {
+    if (tall) {
+      throw new IllegalArgumentException(
+        MultiHourInputFormat.GROUP_SIZE_KEY + " applies to the wide schema only.");
+    }
+  }
+}
@@ -1,40 +1,64 @@
 package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
 
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 import com.hortonworks.examples.hbase.wikitraffic.WikistatsOnlineLoader;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
 
 /**
  * Reads text lines from Wikistats and produces HBase {@code rowkey => Put}
  * pairs. Wikistats data comes in text lines as
  * {@code projectcode, pagename, pageviews, bytes}. Datetime is parsed from
- * the filename.
+ * the filename; when a split spans many files, as with
+ * {@link CombinedPagecountsInputFormat}, the key of each record is a
+ * {@link FileOffsetWritable} naming its file.
+ * <p>
+ * When the row keys come from a {@link PageDictionary}, records are read
+ * ahead in blocks, sized by {@value PageDictionary#RESOLVE_BLOCK_KEY}, and
+ * their pages resolved together before each is mapped.
+ * </p>
  */
 public abstract class WikistatsMapper
 extends Mapper<LongWritable, Text, ImmutableBytesWritable, Put> {
 
   private static final Log LOG = LogFactory.getLog(WikistatsOnlineLoader.class);
-  // don't assume a file extension
-  private static final Pattern fileNameParser =
-      Pattern.compile("^.*/pagecounts-(\\d{8}-\\d{6})\\..*$");
   private static final String MAP_INPUT_FILE = "map.input.file";
 
+  private final WikistatsRecordParser parser = new WikistatsRecordParser();
+  private final WikistatsRecordParser blockParser = new WikistatsRecordParser();
+  private final WikistatsObservation observation = new WikistatsObservation();
+  private PutEmitter emitter = null;
+  private Counter parsed = null;
+  private Counter malformed = null;
+  private Counter filtered = null;
+  private Counter bytesIn = null;
   private String inputFile = null;
+  private Path inputPath = null;
+  private String dateTime = null;
 
   @Override
-  protected void setup(Context context) {
+  protected void setup(Context context) throws IOException {
+    configure(context.getConfiguration());
+    this.emitter = new PutEmitter(context);
+    this.parsed = context.getCounter(WikistatsCounters.RECORDS_PARSED);
+    this.malformed = context.getCounter(WikistatsCounters.RECORDS_MALFORMED);
+    this.filtered = context.getCounter(WikistatsCounters.RECORDS_FILTERED);
+    this.bytesIn = context.getCounter(WikistatsCounters.BYTES_IN);
 
     // TODO: why doesn't configuration work for integration tests? bug?
     this.inputFile = context.getConfiguration().get(MAP_INPUT_FILE, null);
@@ -44,69 +68,179 @@ extends Mapper<LongWritable, Text, ImmutableBytesWritable, Put> {
       InputSplit split = context.getInputSplit();
       if (split instanceof FileSplit) {
         this.inputFile = ((FileSplit) split).getPath().toString();
+      } else if (split instanceof MultiFileSplit) {
+        // each record's key names its file.
+        return;
       } else {
         LOG.warn("Unable to determine input file path for this split."
             + " Mapper will produce no records.");
       }
     }
+
+    setInputFile(this.inputFile);
+  }
+
+  /**
+   * Resolve the date of the records of <tt>inputFile</tt>, once per file.
+   */
+  private void setInputFile(String inputFile) {
+    this.inputFile = inputFile;
+    this.dateTime = WikistatsRecordParser.parseDateTime(inputFile);
+    if (null != inputFile && null == this.dateTime) {
+      LOG.warn(String.format("Failed to parse filename: %s", inputFile));
+    }
+  }
+
+  @Override
+  public void run(Context context) throws IOException, InterruptedException {
+    setup(context);
+    int block = context.getConfiguration().getInt(PageDictionary.RESOLVE_BLOCK_KEY,
+      PageDictionary.DEFAULT_RESOLVE_BLOCK);
+    if (resolvesPages() && block > 1) {
+      mapInBlocks(context, block);
+    } else {
+      while (context.nextKeyValue()) {
+        map(context.getCurrentKey(), context.getCurrentValue(), context);
+      }
+    }
+    cleanup(context);
+  }
+
+  /**
+   * Map the records of the split <tt>block</tt> at a time, resolving the
+   * pages of each block before mapping any of it. The records are copied
+   * into instances kept across blocks, as the reader reuses its own.
+   */
+  private void mapInBlocks(Context context, int block) throws IOException, InterruptedException {
+    LongWritable[] keys = new LongWritable[block];
+    Text[] values = new Text[block];
+    List<String> projectCodes = new ArrayList<String>(block);
+    List<String> pageNames = new ArrayList<String>(block);
+    boolean more = true;
+    while (more) {
+      int read = 0;
+      while (read < block && (more = context.nextKeyValue())) {
+        LongWritable key = context.getCurrentKey();
+        if (null == keys[read] || keys[read].getClass() != key.getClass()) {
+          keys[read] = key instanceof FileOffsetWritable
+              ? new FileOffsetWritable() : new LongWritable();
+          values[read] = new Text();
+        }
+        if (key instanceof FileOffsetWritable) {
+          ((FileOffsetWritable) keys[read]).set(((FileOffsetWritable) key).getPath(), key.get());
+        } else {
+          keys[read].set(key.get());
+        }
+        values[read].set(context.getCurrentValue());
+        // malformed records are left for map to count.
+        if (blockParser.parse(values[read])) {
+          projectCodes.add(blockParser.getProjectCode());
+          pageNames.add(blockParser.getPageName());
+        }
+        read++;
+      }
+      if (!pageNames.isEmpty()) {
+        resolvePages(projectCodes, pageNames);
+        projectCodes.clear();
+        pageNames.clear();
+      }
+      for (int i = 0; i < read; i++) {
+        map(keys[i], values[i], context);
+      }
+    }
   }
 
   // Just in case this Mapper instance is reused, avoid annoying bugs.
   @Override
-  protected void cleanup(Context context) {
+  protected void cleanup(Context context) throws IOException, InterruptedException {
+    emitter.close();
+    this.emitter = null;
+    close();
     this.inputFile = null;
+    this.inputPath = null;
+    this.dateTime = null;
   }
 
   @Override
   public void map(LongWritable key, Text value, Context context)
       throws IOException, InterruptedException {
 
-    /*
-     * Parse the date-time component from the key.
-     * 
-     * Using the descriptions in `man date` as a reference, each file in the
-     * wikistats dataset is of the format "pagecounts-YYYYmmdd-HHMMss.gz". No
-     * timezone information is provided in the documentation; assume GMT, so
-     * no TZ manipulation will be performed.
-     */
-    if (null == this.inputFile) {
-      LOG.error("Map context does not provide 'map.input.file'. Aborting.");
-      return;
+    bytesIn.increment(value.getLength() + 1);
+    if (key instanceof FileOffsetWritable) {
+      Path path = ((FileOffsetWritable) key).getPath();
+      // the reader keeps one Path per file; compare by identity first.
+      if (path != inputPath && !path.equals(inputPath)) {
+        this.inputPath = path;
+        setInputFile(path.toString());
+      }
     }
-
-    String dt = null;
-    Matcher m = fileNameParser.matcher(this.inputFile);
-    if (!m.matches()) {
-      LOG.warn(String.format("Failed to parse filename: %s", this.inputFile));
+    if (null == this.dateTime) {
+      filtered.increment(1);
       return;
     }
-    dt = m.group(1);
 
     /*
-     * Parse the remaining components from the value.
-     * 
+     * Parse the remaining components from the value, directly from the
+     * underlying bytes.
+     *
      * Each record in the wikistats dataset is a string delimited with Space.
      * Record order is projectcode, pagename, pageviews, bytes.
      */
-    String projectCode = null, pageName = null;
-    long pageViews = -1, bytes = -1;
-
-    try {
-      String splits[] = value.toString().split(" ", 4);
-      projectCode = splits[0];
-      pageName = splits[1];
-      pageViews = Long.parseLong(splits[2]);
-      bytes = Long.parseLong(splits[3]);
-    } catch (IllegalArgumentException e) {
+    if (!parser.parse(value)) {
       LOG.warn(String.format("Failed to parse record in file %s, position %d: %s",
         this.inputFile, key.get(), value.toString()));
+      malformed.increment(1);
       return;
     }
+    parsed.increment(1);
 
-    Put put = createPut(dt, projectCode, pageName, pageViews, bytes);
-    context.write(new ImmutableBytesWritable(put.getRow()), put);
+    if (emitter.emitsObservations()) {
+      createObservation(observation, dateTime, parser.getProjectCode(), parser.getPageName(),
+        parser.getPageViews(), parser.getBytes());
+      emitter.emit(observation);
+      if (emitter.emitsRollups()) {
+        emitter.emitRollups(createPageRow(parser.getProjectCode(), parser.getPageName()),
+          dateTime, parser.getPageViews(), parser.getBytes());
+      }
+      if (emitter.emitsTopPages()) {
+        emitter.offerTopPage(dateTime, parser.getProjectCode(), parser.getPageName(),
+          parser.getPageViews());
+      }
+      return;
+    }
+    Put put = createPut(dateTime, parser.getProjectCode(), parser.getPageName(),
+      parser.getPageViews(), parser.getBytes());
+    emitter.emit(put);
+  }
+
+  /**
+   * Configure schema options from the job configuration. Invoked from
+   * {@link #setup(Context)} before any records are processed.
+   * @param conf the job configuration.
+   */
+  public void configure(Configuration conf) {}
+
+  /**
+   * @return true when the schema looks pages up, and so would rather
+   *         {@link #resolvePages(List, List)} a block of records at once.
+   */
+  public boolean resolvesPages() {
+    return false;
   }
 
+  /**
+   * Look up the pages of a block of records before they are mapped.
+   * @param projectCodes the project of each of <tt>pageNames</tt>.
+   */
+  public void resolvePages(List<String> projectCodes, List<String> pageNames)
+      throws IOException {}
+
+  /**
+   * Release resources held by the schema, such as a row key dictionary.
+   * Invoked from {@link #cleanup(Context)}.
+   */
+  public void close() throws IOException {}
+
   /**
    * Create a {@link Put} instance from a wikistats record.
    * @param dateTime Date/Time of the hour of this observation.
@@ -118,4 +252,18 @@ extends Mapper<LongWritable, Text, ImmutableBytesWritable, Put> {
    */
   public abstract Put createPut(String dateTime, String projectCode, String pageName,
       long pageViews, long bytes);
+
+  /**
+   * Reset <tt>observation</tt> to a wikistats record, for jobs shuffling
+   * {@link WikistatsObservation}s in place of Puts.
+   * @see #createPut(String, String, String, long, long)
+   */
+  public abstract void createObservation(WikistatsObservation observation, String dateTime,
+      String projectCode, String pageName, long pageViews, long bytes);
+
+  /**
+   * @return the row holding a page's daily and monthly rollups: its wide
+   *         schema row, whatever the schema loaded.
+   */
+  public abstract byte[] createPageRow(String projectCode, String pageName);
 }
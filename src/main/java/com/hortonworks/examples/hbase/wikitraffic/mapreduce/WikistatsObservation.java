@@ -0,0 +1,269 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+/**
+ * One hour of observations of a page, as shuffled between the wikistats
+ * mappers and reducers in place of a {@code Put}. The page is carried as
+ * its encoded row key, so instances order exactly as their rows will in
+ * the table whatever the row key codec; the hour is carried as the
+ * <tt>column</tt>, the wide schema qualifier, and is empty for tall rows,
+ * whose key already includes it. Serialized, an observation is the row
+ * with a vint length, the one-byte family, the column with a vint length,
+ * and the views and bytes as vlongs.
+ * <p>
+ * Observations in a rollup family carry a day or month total as their
+ * column; instances with equal keys there are summed, not deduplicated.
+ * Observations in the {@link TopPages} family carry a side table row and
+ * a page name as their column.
+ * </p>
+ * <p>
+ * A {@link Comparator} over the serialized form is registered, so the
+ * shuffle sorts without deserializing. Instances are reused by the
+ * framework; the arrays grow as necessary.
+ * </p>
+ */
+public class WikistatsObservation implements WritableComparable<WikistatsObservation> {
+
+  static {
+    WritableComparator.define(WikistatsObservation.class, new Comparator());
+  }
+
+  /** The family of hourly cells; the schema's family names are one byte. */
+  public static final byte DATA_FAMILY = WikistatsSchemaUtils.COLUMN_FAMILY_NAME[0];
+  /** The family of top page candidates, bound for the side table. */
+  public static final byte TOP_PAGE_FAMILY = TopPages.FAMILY_NAME[0];
+
+  private byte[] row = HConstants.EMPTY_BYTE_ARRAY;
+  private int rowLength = 0;
+  private byte family = DATA_FAMILY;
+  private byte[] column = HConstants.EMPTY_BYTE_ARRAY;
+  private int columnLength = 0;
+  private long pageViews = 0;
+  private long bytes = 0;
+  // read into by readFields(); arrays passed to set() belong to the caller.
+  private byte[] rowBuffer = HConstants.EMPTY_BYTE_ARRAY;
+  private byte[] columnBuffer = HConstants.EMPTY_BYTE_ARRAY;
+
+  public WikistatsObservation() {}
+
+  public WikistatsObservation(byte[] row, byte[] column, long pageViews, long bytes) {
+    set(row, column, pageViews, bytes);
+  }
+
+  /**
+   * Reset this instance to an hourly observation. <tt>row</tt> and
+   * <tt>column</tt> are referenced, not copied.
+   * @param column the wide schema qualifier, or an empty array for a tall
+   *        row.
+   */
+  public void set(byte[] row, byte[] column, long pageViews, long bytes) {
+    set(DATA_FAMILY, row, column, pageViews, bytes);
+  }
+
+  /**
+   * Reset this instance to an observation in <tt>family</tt>.
+   * @see #set(byte[], byte[], long, long)
+   */
+  public void set(byte family, byte[] row, byte[] column, long pageViews, long bytes) {
+    this.family = family;
+    this.row = row;
+    this.rowLength = row.length;
+    this.column = column;
+    this.columnLength = column.length;
+    this.pageViews = pageViews;
+    this.bytes = bytes;
+  }
+
+  /**
+   * @return a copy of the row key.
+   */
+  public byte[] getRow() {
+    return copy(row, rowLength);
+  }
+
+  /**
+   * @return a copy of the column, empty for a tall row.
+   */
+  public byte[] getColumn() {
+    return copy(column, columnLength);
+  }
+
+  /** The row key, without copying; valid to {@link #getRowLength()}. */
+  byte[] getRowArray() {
+    return row;
+  }
+
+  int getRowLength() {
+    return rowLength;
+  }
+
+  public byte getFamily() {
+    return family;
+  }
+
+  public boolean isTall() {
+    return DATA_FAMILY == family && 0 == columnLength;
+  }
+
+  /**
+   * @return true for a day or month total, outside the hourly family.
+   */
+  public boolean isRollup() {
+    return WikistatsSchemaUtils.DAILY_FAMILY_NAME[0] == family
+        || WikistatsSchemaUtils.MONTHLY_FAMILY_NAME[0] == family;
+  }
+
+  /**
+   * @return true for a candidate of a {@link TopPages} side table row,
+   *         whose column is the page name.
+   */
+  public boolean isTopPage() {
+    return TOP_PAGE_FAMILY == family;
+  }
+
+  public long getPageViews() {
+    return pageViews;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Replace the counts, keeping the key; used to write summed rollups.
+   */
+  public void setCounts(long pageViews, long bytes) {
+    this.pageViews = pageViews;
+    this.bytes = bytes;
+  }
+
+  /**
+   * @return the serialized size of this instance.
+   */
+  public int getSerializedSize() {
+    return WritableUtils.getVIntSize(rowLength) + rowLength + 1
+        + WritableUtils.getVIntSize(columnLength) + columnLength
+        + WritableUtils.getVIntSize(pageViews) + WritableUtils.getVIntSize(bytes);
+  }
+
+  private static byte[] copy(byte[] buf, int length) {
+    byte[] out = new byte[length];
+    System.arraycopy(buf, 0, out, 0, length);
+    return out;
+  }
+
+  private static byte[] readBytes(DataInput in, byte[] buf, int length) throws IOException {
+    byte[] out = buf.length >= length ? buf : new byte[Math.max(length, buf.length * 2)];
+    in.readFully(out, 0, length);
+    return out;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    WritableUtils.writeVInt(out, rowLength);
+    out.write(row, 0, rowLength);
+    out.writeByte(family);
+    WritableUtils.writeVInt(out, columnLength);
+    out.write(column, 0, columnLength);
+    WritableUtils.writeVLong(out, pageViews);
+    WritableUtils.writeVLong(out, bytes);
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    this.rowLength = WritableUtils.readVInt(in);
+    this.rowBuffer = readBytes(in, rowBuffer, rowLength);
+    this.row = rowBuffer;
+    this.family = in.readByte();
+    this.columnLength = WritableUtils.readVInt(in);
+    this.columnBuffer = readBytes(in, columnBuffer, columnLength);
+    this.column = columnBuffer;
+    this.pageViews = WritableUtils.readVLong(in);
+    this.bytes = WritableUtils.readVLong(in);
+  }
+
+  /**
+   * Orders by row, family, then column, as the cells the observation
+   * becomes are ordered in an HFile.
+   */
+  @Override
+  public int compareTo(WikistatsObservation o) {
+    int c = Bytes.compareTo(row, 0, rowLength, o.row, 0, o.rowLength);
+    if (0 != c) {
+      return c;
+    }
+    c = (family & 0xff) - (o.family & 0xff);
+    return 0 != c ? c : Bytes.compareTo(column, 0, columnLength, o.column, 0, o.columnLength);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof WikistatsObservation && 0 == compareTo((WikistatsObservation) o);
+  }
+
+  /**
+   * Hashes the row only, so that every hour of a page shuffles to the same
+   * reducer under the default partitioner.
+   */
+  @Override
+  public int hashCode() {
+    return Bytes.hashCode(row, 0, rowLength);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s/%c:%s=%d,%d", Bytes.toStringBinary(row, 0, rowLength),
+      (char) family, Bytes.toStringBinary(column, 0, columnLength), pageViews, bytes);
+  }
+
+  /**
+   * Compares serialized observations on their row, family and column bytes.
+   */
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(WikistatsObservation.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        int rowSize1 = WritableUtils.decodeVIntSize(b1[s1]);
+        int rowSize2 = WritableUtils.decodeVIntSize(b2[s2]);
+        int rowLength1 = readVInt(b1, s1);
+        int rowLength2 = readVInt(b2, s2);
+        int row1 = s1 + rowSize1;
+        int row2 = s2 + rowSize2;
+        int c = compareBytes(b1, row1, rowLength1, b2, row2, rowLength2);
+        if (0 != c) {
+          return c;
+        }
+        // the family byte follows the row.
+        c = (b1[row1 + rowLength1] & 0xff) - (b2[row2 + rowLength2] & 0xff);
+        if (0 != c) {
+          return c;
+        }
+        int col1 = row1 + rowLength1 + 1;
+        int col2 = row2 + rowLength2 + 1;
+        int columnLength1 = readVInt(b1, col1);
+        int columnLength2 = readVInt(b2, col2);
+        return compareBytes(b1, col1 + WritableUtils.decodeVIntSize(b1[col1]), columnLength1,
+          b2, col2 + WritableUtils.decodeVIntSize(b2[col2]), columnLength2);
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+}
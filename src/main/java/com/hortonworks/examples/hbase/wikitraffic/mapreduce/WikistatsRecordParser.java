@@ -0,0 +1,162 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import java.nio.charset.CharacterCodingException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Parses wikistats records directly from the bytes backing a {@link Text}
+ * line. Each record is a Space-delimited string of
+ * {@code projectcode, pagename, pageviews, bytes}. Fields are located by
+ * scanning for delimiter offsets and the numeric fields are parsed without
+ * materializing intermediate {@link String}s. A single instance is intended
+ * to be reused across records; it is not thread-safe.
+ */
+public class WikistatsRecordParser {
+
+  // don't assume a file extension
+  private static final Pattern fileNameParser =
+      Pattern.compile("^.*/pagecounts-(\\d{8}-\\d{6})\\..*$");
+
+  private static final byte DELIMITER = ' ';
+
+  private String projectCode = null;
+  private String pageName = null;
+  private long pageViews = -1;
+  private long bytes = -1;
+
+  // input files are sorted by project, so the decoded project code is cached.
+  private byte[] projectCodeBytes = new byte[16];
+  private int projectCodeLength = -1;
+
+  /**
+   * Parse the date-time component from a wikistats file name.
+   *
+   * Using the descriptions in `man date` as a reference, each file in the
+   * wikistats dataset is of the format "pagecounts-YYYYmmdd-HHMMss.gz". No
+   * timezone information is provided in the documentation; assume GMT, so
+   * no TZ manipulation will be performed.
+   *
+   * @param inputFile full path of a wikistats pagecounts file.
+   * @return the date-time string, or null when <tt>inputFile</tt> does not
+   *         name a pagecounts file.
+   */
+  public static String parseDateTime(String inputFile) {
+    if (null == inputFile) {
+      return null;
+    }
+    Matcher m = fileNameParser.matcher(inputFile);
+    return m.matches() ? m.group(1) : null;
+  }
+
+  /**
+   * Parse a single record. On success, the parsed fields are available
+   * through the accessors until the next invocation.
+   * @param line the raw record.
+   * @return true when the record is well formed, false otherwise.
+   */
+  public boolean parse(Text line) {
+    byte[] buf = line.getBytes();
+    int end = line.getLength();
+
+    int projectEnd = indexOf(buf, 0, end);
+    if (projectEnd < 0) return false;
+    int pageEnd = indexOf(buf, projectEnd + 1, end);
+    if (pageEnd < 0) return false;
+    int viewsEnd = indexOf(buf, pageEnd + 1, end);
+    if (viewsEnd < 0) return false;
+
+    // the final field runs to the end of the line, as String#split(" ", 4).
+    long views = parseLong(buf, pageEnd + 1, viewsEnd);
+    if (views == Long.MIN_VALUE) return false;
+    long size = parseLong(buf, viewsEnd + 1, end);
+    if (size == Long.MIN_VALUE) return false;
+
+    try {
+      if (!isCachedProjectCode(buf, projectEnd)) {
+        this.projectCode = Text.decode(buf, 0, projectEnd);
+        cacheProjectCode(buf, projectEnd);
+      }
+      this.pageName = Text.decode(buf, projectEnd + 1, pageEnd - projectEnd - 1);
+    } catch (CharacterCodingException e) {
+      this.projectCodeLength = -1;
+      return false;
+    }
+    this.pageViews = views;
+    this.bytes = size;
+    return true;
+  }
+
+  public String getProjectCode() {
+    return projectCode;
+  }
+
+  public String getPageName() {
+    return pageName;
+  }
+
+  public long getPageViews() {
+    return pageViews;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  private boolean isCachedProjectCode(byte[] buf, int len) {
+    if (len != projectCodeLength) return false;
+    for (int i = 0; i < len; i++) {
+      if (buf[i] != projectCodeBytes[i]) return false;
+    }
+    return true;
+  }
+
+  private void cacheProjectCode(byte[] buf, int len) {
+    if (projectCodeBytes.length < len) {
+      projectCodeBytes = new byte[len];
+    }
+    System.arraycopy(buf, 0, projectCodeBytes, 0, len);
+    projectCodeLength = len;
+  }
+
+  private static int indexOf(byte[] buf, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (buf[i] == DELIMITER) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Parse a decimal long from <tt>buf[start, end)</tt>, accepting the same
+   * inputs as {@link Long#parseLong(String)}.
+   * @return the parsed value, or {@link Long#MIN_VALUE} when the input is
+   *         malformed or out of range.
+   */
+  static long parseLong(byte[] buf, int start, int end) {
+    if (start >= end) return Long.MIN_VALUE;
+
+    boolean negative = false;
+    int i = start;
+    if (buf[i] == '-') {
+      negative = true;
+      if (++i == end) return Long.MIN_VALUE;
+    }
+
+    // accumulate negatively, as Long#parseLong does, to cover the full range.
+    long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+    long multmin = limit / 10;
+    long result = 0;
+    for (; i < end; i++) {
+      int digit = buf[i] - '0';
+      if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+      if (result < multmin) return Long.MIN_VALUE;
+      result *= 10;
+      if (result < limit + digit) return Long.MIN_VALUE;
+      result -= digit;
+    }
+    // Long.MIN_VALUE itself is reserved as the failure sentinel.
+    return negative ? (result == Long.MIN_VALUE ? Long.MIN_VALUE : result) : -result;
+  }
+}
@@ -0,0 +1,95 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Mapper.Context;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.PagecountsInputFormat;
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsArchiveConverter {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Convert <tt>lines</tt> as if read from <tt>source</tt>.
+   */
+  private Path convert(String source, String... lines) throws Exception {
+    File out = tmp.newFolder("converted");
+    Configuration conf = new Configuration();
+    // side-effect files are written to the committer's work path.
+    FileOutputCommitter committer = mock(FileOutputCommitter.class);
+    when(committer.getWorkPath()).thenReturn(new Path(out.toURI()));
+
+    WikistatsArchiveConverter.ConvertMapper m = new WikistatsArchiveConverter.ConvertMapper();
+    @SuppressWarnings("unchecked")
+    Mapper<LongWritable, Text, NullWritable, NullWritable>.Context context =
+        mock(Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    when(context.getOutputCommitter()).thenReturn(committer);
+    when(context.getInputSplit()).thenReturn(
+      new FileSplit(new Path("/archive/" + source), 0, 100, new String[0]));
+    when(context.getCounter(any(Enum.class))).thenReturn(mock(Counter.class));
+
+    m.setup(context);
+    long offset = 0;
+    for (String line : lines) {
+      m.map(new LongWritable(offset), new Text(line), context);
+      offset += line.length() + 1;
+    }
+    m.cleanup(context);
+    return new Path(new File(out, "pagecounts-20090430-230000.seq").toURI());
+  }
+
+  @Test
+  public void convertedFileKeepsHourAndLines() throws Exception {
+    Path converted = convert("pagecounts-20090430-230000.gz", "en Foo 1 100", "de Bar 2 200");
+    assertEquals("20090430-230000", WikistatsRecordParser.parseDateTime(converted.toString()));
+
+    Configuration conf = new Configuration();
+    long length = FileSystem.getLocal(conf).getFileStatus(converted).getLen();
+    PagecountsInputFormat format = new PagecountsInputFormat();
+    TaskAttemptContext context = new TaskAttemptContext(conf, new TaskAttemptID());
+    FileSplit split = new FileSplit(converted, 0, length, new String[0]);
+    RecordReader<LongWritable, Text> reader = format.createRecordReader(split, context);
+    reader.initialize(split, context);
+    try {
+      assertTrue(reader.nextKeyValue());
+      assertEquals(0, reader.getCurrentKey().get());
+      assertEquals("en Foo 1 100", reader.getCurrentValue().toString());
+      assertTrue(reader.nextKeyValue());
+      assertEquals(13, reader.getCurrentKey().get());
+      assertEquals("de Bar 2 200", reader.getCurrentValue().toString());
+      assertFalse(reader.nextKeyValue());
+    } finally {
+      reader.close();
+    }
+  }
+}
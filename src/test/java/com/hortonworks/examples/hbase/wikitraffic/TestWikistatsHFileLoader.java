@@ -0,0 +1,75 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsHFileLoader {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  /**
+   * Write <tt>records</tt> pagecounts lines to a sequence file, as the
+   * archive converter does.
+   * @return the file's length.
+   */
+  private long writeSequence(FileSystem fs, Configuration conf, Path file, int records,
+      CompressionType compression) throws IOException {
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, file, LongWritable.class,
+      Text.class, compression, new DefaultCodec());
+    try {
+      long offset = 0;
+      for (int i = 0; i < records; i++) {
+        Text line = new Text(String.format("en Page_%d %d %d", i, i % 97 + 1, i * 31 % 100000));
+        writer.append(new LongWritable(offset), line);
+        offset += line.getLength() + 1;
+      }
+    } finally {
+      writer.close();
+    }
+    return fs.getFileStatus(file).getLen();
+  }
+
+  private void assertEstimates(CompressionType compression, int records) throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path file = new Path(tmp.getRoot().toURI().toString(), compression + ".seq");
+    long length = writeSequence(fs, conf, file, records, compression);
+    WikistatsHFileLoader loader = new WikistatsHFileLoader();
+    loader.setConf(conf);
+    long estimate = loader.estimateSequenceRecordCount(fs, file, length);
+    assertEquals(compression.toString(), records, estimate, records * 0.05);
+  }
+
+  @Test
+  public void estimatesBlockCompressedRecords() throws IOException {
+    // the sample ends mid-file, at a block boundary.
+    assertEstimates(CompressionType.BLOCK, 200000);
+  }
+
+  @Test
+  public void estimatesUncompressedRecords() throws IOException {
+    assertEstimates(CompressionType.NONE, 50000);
+  }
+
+  @Test
+  public void estimatesSmallFilesWhole() throws IOException {
+    assertEstimates(CompressionType.BLOCK, 3000);
+  }
+}
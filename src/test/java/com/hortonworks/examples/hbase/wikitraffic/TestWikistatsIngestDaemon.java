@@ -0,0 +1,182 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.Put;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PipelinedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsIngestDaemon {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path write(String name, String... lines) throws IOException {
+    File f = tmp.newFile(name);
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    for (String line : lines) {
+      w.write(line);
+      w.write('\n');
+    }
+    w.close();
+    return new Path(f.toURI());
+  }
+
+  @Test
+  public void checkpointRoundTrip() throws IOException {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path path = new Path(tmp.getRoot().toURI().toString(), "checkpoint");
+    IngestCheckpoint checkpoint = new IngestCheckpoint(fs, path);
+    checkpoint.load();
+    assertEquals(0, checkpoint.getDone().size());
+
+    checkpoint.markDone("pagecounts-20090430-220000.gz");
+    checkpoint.setOffset("pagecounts-20090430-230000.gz", 1234);
+    checkpoint.save();
+    checkpoint.markDone("pagecounts-20090430-230000.gz");
+    checkpoint.save();
+
+    IngestCheckpoint reloaded = new IngestCheckpoint(fs, path);
+    reloaded.load();
+    assertTrue(reloaded.isDone("pagecounts-20090430-220000.gz"));
+    assertTrue(reloaded.isDone("pagecounts-20090430-230000.gz"));
+    assertEquals(0, reloaded.getOffset("pagecounts-20090430-230000.gz"));
+  }
+
+  @Test
+  public void resumesFromOffset() throws IOException {
+    String first = "en Barack_Obama 997 123091092";
+    Path file = write("pagecounts-20090430-230000.txt",
+      first,
+      "en Barack_Obama%27s_first_100_days 8 850127",
+      "malformed",
+      "en Barack_Obama,_Jr 2 288206");
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path checkpointPath = new Path(tmp.getRoot().toURI().toString(), "checkpoint");
+    IngestCheckpoint checkpoint = new IngestCheckpoint(fs, checkpointPath);
+    checkpoint.setOffset(file.getName(), first.length() + 1);
+
+    WikistatsIngestDaemon daemon = new WikistatsIngestDaemon();
+    daemon.setConf(conf);
+    daemon.configure(true);
+    assertEquals(1, daemon.findReady(fs, file.getParent(), checkpoint, Long.MAX_VALUE).size());
+
+    PipelinedTableWriter writer = mock(PipelinedTableWriter.class);
+    assertTrue(daemon.ingest(fs, file, checkpoint, writer));
+    verify(writer, times(2)).write(any(Put.class));
+    verify(writer).sync();
+
+    IngestCheckpoint reloaded = new IngestCheckpoint(fs, checkpointPath);
+    reloaded.load();
+    assertTrue(reloaded.isDone(file.getName()));
+    assertEquals(0, daemon.findReady(fs, file.getParent(), reloaded, Long.MAX_VALUE).size());
+  }
+
+  @Test(timeout = 10000)
+  public void shutdownHookStopsAndCheckpoints() throws Exception {
+    String first = "en Foo 1 100";
+    Path file = write("pagecounts-20090430-230000.txt", first, "en Bar 2 200", "en Baz 3 300",
+      "en Qux 4 400");
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path checkpointPath = new Path(tmp.getRoot().toURI().toString(), "checkpoint");
+    IngestCheckpoint checkpoint = new IngestCheckpoint(fs, checkpointPath);
+    WikistatsIngestDaemon daemon = new WikistatsIngestDaemon();
+    daemon.setConf(conf);
+    daemon.configure(true);
+
+    // the JVM runs the hook while the first record is being written.
+    CountDownLatch finished = new CountDownLatch(1);
+    final Thread hook = daemon.shutdownHook(finished);
+    PipelinedTableWriter writer = mock(PipelinedTableWriter.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws InterruptedException {
+        if (Thread.State.NEW == hook.getState()) {
+          hook.start();
+          // until the hook has asked the daemon to stop, or died trying.
+          while (Thread.State.WAITING != hook.getState()
+              && Thread.State.TERMINATED != hook.getState()) {
+            Thread.sleep(10);
+          }
+        }
+        return null;
+      }
+    }).when(writer).write(any(Put.class));
+
+    assertFalse(daemon.ingest(fs, file, checkpoint, writer));
+    verify(writer, times(1)).write(any(Put.class));
+    verify(writer).sync();
+    // the hook waits for the daemon to finish before letting the JVM exit.
+    assertTrue(hook.isAlive());
+    finished.countDown();
+    hook.join();
+
+    IngestCheckpoint reloaded = new IngestCheckpoint(fs, checkpointPath);
+    reloaded.load();
+    assertFalse(reloaded.isDone(file.getName()));
+    assertEquals(first.length() + 1, reloaded.getOffset(file.getName()));
+  }
+
+  @Test
+  public void skipsUnsettledFiles() throws IOException {
+    Path file = write("pagecounts-20090430-230000.txt", "en Foo 1 100");
+    write("notes.txt", "not a pagecounts file");
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    IngestCheckpoint checkpoint =
+        new IngestCheckpoint(fs, new Path(tmp.getRoot().toURI().toString(), "checkpoint"));
+    WikistatsIngestDaemon daemon = new WikistatsIngestDaemon();
+    daemon.setConf(conf);
+
+    long modified = fs.getFileStatus(file).getModificationTime();
+    assertEquals(0, daemon.findReady(fs, file.getParent(), checkpoint, modified - 1).size());
+    assertEquals(1, daemon.findReady(fs, file.getParent(), checkpoint, modified).size());
+  }
+
+  /** @return what the daemon returns for <tt>conf</tt>, before any table is touched. */
+  private int runWith(Configuration conf) throws Exception {
+    WikistatsIngestDaemon daemon = new WikistatsIngestDaemon();
+    daemon.setConf(conf);
+    return daemon.run(new String[] { "-tall", "t", tmp.getRoot().getPath(),
+      new File(tmp.getRoot(), "checkpoint").getPath() });
+  }
+
+  @Test
+  public void rejectsOptionsNeedingAShuffle() throws Exception {
+    Configuration rollup = new Configuration();
+    rollup.setBoolean(WikistatsSchemaUtils.ROLLUP_KEY, true);
+    assertEquals(-1, runWith(rollup));
+    Configuration topN = new Configuration();
+    topN.setInt(TopPages.TOPN_KEY, 5);
+    assertEquals(-1, runWith(topN));
+  }
+}
@@ -0,0 +1,279 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.io.hfile.HFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.SpillingKeyValueSorter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsLocalHFileLoader {
+
+  private static final byte[] FAMILY = WikistatsSchemaUtils.COLUMN_FAMILY_NAME;
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Configuration conf;
+  private FileSystem fs;
+  private WikistatsLocalHFileLoader loader;
+
+  @Before
+  public void localLoader() throws IOException {
+    this.conf = new Configuration();
+    conf.setFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY, 0.0f);
+    this.fs = FileSystem.getLocal(conf);
+    this.loader = new WikistatsLocalHFileLoader();
+    loader.setConf(conf);
+  }
+
+  private Path tmpPath(String name) throws IOException {
+    return new Path(tmp.newFolder(name).toURI().toString());
+  }
+
+  /** The cells of one HFile, in order. */
+  private List<KeyValue> read(Path file, Map<byte[], byte[]> fileInfo) throws IOException {
+    HFile.Reader reader = HFile.createReader(fs, file, new CacheConfig(conf));
+    List<KeyValue> cells = new ArrayList<KeyValue>();
+    try {
+      fileInfo.putAll(reader.loadFileInfo());
+      HFileScanner scanner = reader.getScanner(false, false);
+      if (scanner.seekTo()) {
+        do {
+          cells.add(scanner.getKeyValue());
+        } while (scanner.next());
+      }
+    } finally {
+      reader.close();
+    }
+    return cells;
+  }
+
+  private static boolean sameRow(KeyValue a, KeyValue b) {
+    return Bytes.equals(a.getBuffer(), a.getRowOffset(), a.getRowLength(),
+      b.getBuffer(), b.getRowOffset(), b.getRowLength());
+  }
+
+  @Test
+  public void cutsRegionsAtRowBoundaries() throws IOException {
+    // 100 rows of two cells, spread over two sorters.
+    Path spillDir = tmpPath("runs");
+    List<Path> runs = new ArrayList<Path>();
+    long cellBytes = 0;
+    for (int s = 0; s < 2; s++) {
+      SpillingKeyValueSorter sorter = new SpillingKeyValueSorter(fs, spillDir, "t" + s, 4096);
+      for (int row = s; row < 100; row += 2) {
+        byte[] key = Bytes.toBytes(String.format("en/Page%03d/20090430-230000", row));
+        sorter.add(new KeyValue(key, FAMILY, WikistatsSchemaUtils.VIEWS_QUAL, 1L,
+          Bytes.toBytes((long) row)));
+        sorter.add(new KeyValue(key, FAMILY, WikistatsSchemaUtils.BYTES_QUAL, 1L,
+          Bytes.toBytes((long) row * 100)));
+      }
+      sorter.close();
+      runs.addAll(sorter.getRuns());
+      cellBytes += sorter.getCellBytes();
+    }
+
+    Path familyDir = new Path(tmpPath("hfiles"), Bytes.toString(FAMILY));
+    List<byte[]> splitPoints =
+        loader.writeHFiles(fs, runs, 4, cellBytes / 4, fs, familyDir);
+    assertEquals(3, splitPoints.size());
+
+    FileStatus[] files = fs.listStatus(familyDir);
+    assertEquals(4, files.length);
+    List<KeyValue> all = new ArrayList<KeyValue>();
+    for (int i = 0; i < files.length; i++) {
+      Path file = new Path(familyDir, String.format("%05d", i));
+      Map<byte[], byte[]> fileInfo = new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR);
+      List<KeyValue> cells = read(file, fileInfo);
+      assertFalse(cells.isEmpty());
+      // each file after the first starts at its split point.
+      if (i > 0) {
+        assertArrayEquals(splitPoints.get(i - 1), cells.get(0).getRow());
+        // and no row straddles two files.
+        assertFalse(sameRow(all.get(all.size() - 1), cells.get(0)));
+      }
+      // the metadata HFileOutputFormat writes.
+      assertNotNull(fileInfo.get(StoreFile.BULKLOAD_TIME_KEY));
+      assertTrue(Bytes.toBoolean(fileInfo.get(StoreFile.MAJOR_COMPACTION_KEY)));
+      all.addAll(cells);
+    }
+    assertEquals(200, all.size());
+    for (int i = 1; i < all.size(); i++) {
+      assertTrue(KeyValue.COMPARATOR.compare(all.get(i - 1), all.get(i)) < 0);
+    }
+  }
+
+  @Test
+  public void neverCutsMoreRegionsThanAsked() throws IOException {
+    SpillingKeyValueSorter sorter =
+        new SpillingKeyValueSorter(fs, tmpPath("runs"), "t", 1024 * 1024);
+    for (int row = 0; row < 10; row++) {
+      sorter.add(new KeyValue(Bytes.toBytes(String.format("row-%02d", row)), FAMILY,
+        WikistatsSchemaUtils.VIEWS_QUAL, 1L, Bytes.toBytes((long) row)));
+    }
+    sorter.close();
+    Path familyDir = new Path(tmpPath("hfiles"), Bytes.toString(FAMILY));
+    // every row would start a region, were it not for the limit.
+    assertEquals(2, loader.writeHFiles(fs, sorter.getRuns(), 3, 1, fs, familyDir).size());
+    assertEquals(3, fs.listStatus(familyDir).length);
+  }
+
+  private void writeHour(File dir, String dateTime, String... lines) throws IOException {
+    Writer w = new OutputStreamWriter(
+      new FileOutputStream(new File(dir, "pagecounts-" + dateTime + ".txt")), "UTF-8");
+    for (String line : lines) {
+      w.write(line);
+      w.write('\n');
+    }
+    w.close();
+  }
+
+  @Test
+  public void writesHFilesAndSplitPoints() throws Exception {
+    File input = tmp.newFolder("input");
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < 200; i++) {
+      lines.add(String.format("en Page%03d %d %d", i, i + 1, (i + 1) * 1000));
+    }
+    String[] hour = lines.toArray(new String[lines.size()]);
+    writeHour(input, "20090430-220000", hour);
+    writeHour(input, "20090430-230000", hour);
+    Path output = tmpPath("output");
+    conf.set(WikistatsLocalHFileLoader.SPILL_DIR_KEY, tmp.newFolder("spill").getPath());
+    conf.setInt(WikistatsLocalHFileLoader.THREADS_KEY, 2);
+
+    assertEquals(0, loader.run(new String[] { "-tall", "3", input.getPath(),
+      output.toString() }));
+    assertTrue(loader.getStageTimes().containsKey("sort"));
+    assertTrue(loader.getStageTimes().containsKey("hfiles"));
+
+    List<byte[]> splitPoints = new ArrayList<byte[]>();
+    SequenceFile.Reader splits = new SequenceFile.Reader(fs, new Path(output, "splits"), conf);
+    try {
+      ImmutableBytesWritable key = new ImmutableBytesWritable();
+      while (splits.next(key, NullWritable.get())) {
+        splitPoints.add(key.copyBytes());
+      }
+    } finally {
+      splits.close();
+    }
+    assertEquals(2, splitPoints.size());
+
+    Path familyDir = new Path(new Path(output, "hfiles"), Bytes.toString(FAMILY));
+    int cells = 0;
+    for (int i = 0; i <= splitPoints.size(); i++) {
+      List<KeyValue> file = read(new Path(familyDir, String.format("%05d", i)),
+        new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR));
+      if (i > 0) {
+        assertArrayEquals(splitPoints.get(i - 1), file.get(0).getRow());
+      }
+      cells += file.size();
+    }
+    // a views and a bytes cell per record.
+    assertEquals(2 * 2 * 200, cells);
+    // the sorted runs are removed.
+    assertEquals(0, new File(conf.get(WikistatsLocalHFileLoader.SPILL_DIR_KEY)).list().length);
+  }
+
+  @Test
+  public void readsSequenceFileHours() throws Exception {
+    File input = tmp.newFolder("input");
+    SequenceFile.Writer w = SequenceFile.createWriter(fs, conf,
+      new Path(new File(input, "pagecounts-20090430-230000.seq").toURI()),
+      LongWritable.class, Text.class, CompressionType.BLOCK);
+    for (int i = 0; i < 100; i++) {
+      w.append(new LongWritable(i), new Text(String.format("en Page%03d 1 1000", i)));
+    }
+    w.close();
+    Path output = tmpPath("output");
+    conf.set(WikistatsLocalHFileLoader.SPILL_DIR_KEY, tmp.newFolder("spill").getPath());
+
+    assertEquals(0, loader.run(new String[] { "-tall", "1", input.getPath(),
+      output.toString() }));
+    Path familyDir = new Path(new Path(output, "hfiles"), Bytes.toString(FAMILY));
+    int cells = 0;
+    for (FileStatus file : fs.listStatus(familyDir)) {
+      cells += read(file.getPath(), new TreeMap<byte[], byte[]>(Bytes.BYTES_COMPARATOR)).size();
+    }
+    // a views and a bytes cell per record, none read as malformed text.
+    assertEquals(2 * 100, cells);
+  }
+
+  @Test
+  public void failedFileFailsTheRun() throws Exception {
+    File input = tmp.newFolder("input");
+    for (int h = 0; h < 6; h++) {
+      writeHour(input, String.format("20090430-%02d0000", h), "en Page 1 1000");
+    }
+    // not gzip, so reading it fails.
+    writeHour(input, "20090430-060000", "en Page 1 1000");
+    assertTrue(new File(input, "pagecounts-20090430-060000.txt")
+      .renameTo(new File(input, "pagecounts-20090430-060000.gz")));
+    conf.set(WikistatsLocalHFileLoader.SPILL_DIR_KEY, tmp.newFolder("spill").getPath());
+    conf.setInt(WikistatsLocalHFileLoader.THREADS_KEY, 3);
+
+    try {
+      loader.run(new String[] { "-tall", "2", input.getPath(), tmpPath("output").toString() });
+      fail("expected the unreadable file to fail the run");
+    } catch (IOException e) {
+      assertEquals("Failed to parse input", e.getMessage());
+    }
+    // every worker has stopped, so their runs could be removed.
+    assertEquals(Arrays.asList(),
+      Arrays.asList(new File(conf.get(WikistatsLocalHFileLoader.SPILL_DIR_KEY)).list()));
+  }
+
+  @Test
+  public void rejectsOptionsNeedingAShuffle() throws Exception {
+    String[] args = { "-tall", "2", tmp.newFolder("input").getPath(),
+      tmpPath("output").toString() };
+    conf.setBoolean(WikistatsSchemaUtils.ROLLUP_KEY, true);
+    assertEquals(-1, loader.run(args));
+    conf.setBoolean(WikistatsSchemaUtils.ROLLUP_KEY, false);
+    conf.setInt(TopPages.TOPN_KEY, 5);
+    assertEquals(-1, loader.run(args));
+    // nothing was read or written.
+    assertFalse(loader.getStageTimes().containsKey("sort"));
+  }
+}
@@ -0,0 +1,142 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.Compression.Algorithm;
+import org.apache.hadoop.hbase.regionserver.StoreFile.BloomType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsSchemaAdvisor.Trial;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsSchemaAdvisor {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File hour(String dateTime, String... lines) throws IOException {
+    File file = new File(tmp.getRoot(), "pagecounts-" + dateTime + ".txt");
+    Writer out = new FileWriter(file);
+    try {
+      for (String line : lines) {
+        out.write(line + "\n");
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private WikistatsSchemaAdvisor advisor(int hours) {
+    Configuration conf = new Configuration();
+    conf.setInt(WikistatsSchemaAdvisor.HOURS_KEY, hours);
+    WikistatsSchemaAdvisor advisor = new WikistatsSchemaAdvisor();
+    advisor.setConf(conf);
+    return advisor;
+  }
+
+  private static List<Path> samples(String path) throws IOException {
+    return WikistatsSchemaAdvisor.listSamples(FileSystem.getLocal(new Configuration()),
+      new Path(path));
+  }
+
+  private static Trial trial(Algorithm compression, DataBlockEncoding encoding, BloomType bloom,
+      long fileBytes, double getMicros, long scanMillis) {
+    Trial t = new Trial(compression, encoding, bloom, 65536);
+    t.fileBytes = fileBytes;
+    t.getMicros = getMicros;
+    t.scanMillis = scanMillis;
+    return t;
+  }
+
+  @Test
+  public void smallestWithinTolerance() {
+    Trial plain = trial(Algorithm.NONE, DataBlockEncoding.NONE, BloomType.NONE, 1000, 10, 100);
+    Trial diff = trial(Algorithm.NONE, DataBlockEncoding.FAST_DIFF, BloomType.NONE, 600, 12, 110);
+    Trial gz = trial(Algorithm.GZ, DataBlockEncoding.FAST_DIFF, BloomType.NONE, 300, 40, 300);
+    Trial diffRow = trial(Algorithm.NONE, DataBlockEncoding.FAST_DIFF, BloomType.ROW, 650, 12, 110);
+    // the smallest, gz, is too slow; FAST_DIFF is recommended with a ROW bloom.
+    assertSame(diffRow, WikistatsSchemaAdvisor.recommend(Arrays.asList(plain, diff, gz, diffRow)));
+    assertSame(diff, WikistatsSchemaAdvisor.recommend(Arrays.asList(plain, diff, gz)));
+  }
+
+  @Test
+  public void wideRowsSpanTheSampledHours() throws IOException {
+    hour("20090430-220000", "en A 1 10", "en B 2 20");
+    hour("20090430-230000", "en A 3 30", "en B 4 40");
+    hour("20090501-000000", "en A 5 50", "en B 6 60");
+    List<Path> samples = samples(tmp.getRoot().getPath());
+    assertEquals(3, samples.size());
+    assertEquals("pagecounts-20090430-220000.txt", samples.get(0).getName());
+
+    WikistatsSchemaAdvisor advisor = advisor(24);
+    List<KeyValue> wide =
+        advisor.readSample(samples, new WikistatsSchemaUtils.WideWikistatsMapper());
+    assertEquals(6, wide.size());
+    assertEquals(2, WikistatsSchemaAdvisor.countRows(wide));
+    List<KeyValue> tall =
+        advisor.readSample(samples, new WikistatsSchemaUtils.TallWikistatsMapper());
+    assertEquals(6, WikistatsSchemaAdvisor.countRows(tall));
+
+    // fewer hours than sampled; only the first are read.
+    assertEquals(4, advisor(2).readSample(samples,
+      new WikistatsSchemaUtils.WideWikistatsMapper()).size());
+  }
+
+  @Test
+  public void singleHourIsReplayed() throws IOException {
+    File file = hour("20090430-230000", "en A 100 1000", "en B 2 20");
+    List<KeyValue> wide = advisor(4).readSample(samples(file.getPath()),
+      new WikistatsSchemaUtils.WideWikistatsMapper());
+    assertEquals(8, wide.size());
+    assertEquals(2, WikistatsSchemaAdvisor.countRows(wide));
+    assertEquals("20090430-230000", Bytes.toString(wide.get(0).getQualifier()));
+    assertEquals("20090501-020000", Bytes.toString(wide.get(3).getQualifier()));
+  }
+
+  @Test
+  public void reportsEveryCombination() throws Exception {
+    hour("20090430-220000", "en A 1 10", "en B 2 20", "fr C 3 30");
+    hour("20090430-230000", "en A 3 30", "en B 4 40", "fr C 5 50");
+    WikistatsSchemaAdvisor advisor = advisor(24);
+    advisor.getConf().set(WikistatsSchemaAdvisor.COMPRESSIONS_KEY, "none");
+    advisor.getConf().set(WikistatsSchemaAdvisor.BLOCK_SIZES_KEY, "8192");
+    advisor.getConf().setInt(WikistatsSchemaAdvisor.NUM_GETS_KEY, 5);
+    File output = new File(tmp.getRoot(), "advisor");
+    assertEquals(0, advisor.run(new String[] { tmp.getRoot().getPath(), output.getPath() }));
+
+    BufferedReader report =
+        new BufferedReader(new FileReader(new File(output, "advisor.tsv")));
+    int lines = 0;
+    try {
+      while (null != report.readLine()) {
+        lines++;
+      }
+    } finally {
+      report.close();
+    }
+    // a header, then each schema under 4 encodings and 3 bloom types.
+    assertEquals(1 + 2 * 4 * 3, lines);
+  }
+}
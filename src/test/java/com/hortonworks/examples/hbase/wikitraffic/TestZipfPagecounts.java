@@ -0,0 +1,48 @@
+package com.hortonworks.examples.hbase.wikitraffic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.mapreduce.WikistatsRecordParser;
+
+@RunWith(JUnit4.class)
+public class TestZipfPagecounts {
+
+  @Test
+  public void linesAreSortedDistinctAndParseable() {
+    List<Text> lines = new ZipfPagecounts(1000, 1.0, 0).lines(500);
+    assertEquals(500, lines.size());
+
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    long totalViews = 0;
+    for (int i = 0; i < lines.size(); i++) {
+      assertTrue(parser.parse(lines.get(i)));
+      assertTrue(parser.getPageViews() > 0);
+      assertTrue(parser.getBytes() >= parser.getPageViews() * 4096);
+      totalViews += parser.getPageViews();
+      if (i > 0) {
+        assertTrue(lines.get(i - 1).compareTo(lines.get(i)) < 0);
+      }
+    }
+    // popular pages are viewed more than once.
+    assertTrue(totalViews > lines.size());
+  }
+
+  @Test
+  public void sameSeedSameLines() {
+    assertEquals(new ZipfPagecounts(1000, 1.0, 7).lines(100),
+      new ZipfPagecounts(1000, 1.0, 7).lines(100));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooFewPages() {
+    new ZipfPagecounts(1, 1.0, 0).lines(1000);
+  }
+}
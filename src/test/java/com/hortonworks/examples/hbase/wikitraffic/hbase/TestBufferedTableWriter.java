@@ -0,0 +1,74 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+@RunWith(JUnit4.class)
+public class TestBufferedTableWriter {
+
+  private static Put samplePut() {
+    return WikistatsSchemaUtils.createWidePut("20090430-230000", "en", "Foo", 1, 100);
+  }
+
+  @Test
+  public void buffersAndFlushesOnClose() throws IOException {
+    HTable table = mock(HTable.class);
+    BufferedTableWriter writer = new BufferedTableWriter(table, 1024, false);
+    verify(table).setAutoFlush(false);
+    verify(table).setWriteBufferSize(Long.MAX_VALUE);
+
+    Put put = samplePut();
+    writer.write(put);
+    assertTrue(put.getWriteToWAL());
+    verify(table, never()).flushCommits();
+    writer.close();
+
+    InOrder order = inOrder(table);
+    order.verify(table).put(put);
+    order.verify(table).flushCommits();
+    order.verify(table).close();
+  }
+
+  @Test
+  public void skipWal() throws IOException {
+    HTable table = mock(HTable.class);
+    BufferedTableWriter writer = new BufferedTableWriter(table, 1024, true);
+    Put put = samplePut();
+    writer.write(put);
+    assertFalse(put.getWriteToWAL());
+    verify(table).put(put);
+  }
+
+  @Test
+  public void flushesWhenFullAndRecordsHistograms() throws IOException {
+    HTable table = mock(HTable.class);
+    Put put = samplePut();
+    // room for two Puts, so every second write flushes.
+    BufferedTableWriter writer = new BufferedTableWriter(table, 2 * put.heapSize(), false);
+    for (int i = 0; i < 4; i++) {
+      writer.write(samplePut());
+    }
+    verify(table, times(2)).flushCommits();
+    writer.close();
+    verify(table, times(2)).flushCommits();
+
+    assertEquals(2, writer.getFlushLatencies().getCount());
+    assertEquals(2, writer.getFlushSizes().getCount());
+    assertEquals(4 * put.heapSize(), writer.getFlushSizes().getSum());
+  }
+}
@@ -0,0 +1,56 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestHistogram {
+
+  @Test
+  public void buckets() {
+    assertEquals(0, Histogram.bucket(0));
+    assertEquals(0, Histogram.bucket(1));
+    assertEquals(1, Histogram.bucket(2));
+    assertEquals(2, Histogram.bucket(3));
+    assertEquals(2, Histogram.bucket(4));
+    assertEquals(3, Histogram.bucket(5));
+    assertEquals(63, Histogram.bucket(Long.MAX_VALUE));
+    for (int i = 0; i < Histogram.NUM_BUCKETS; i++) {
+      assertEquals(i, Histogram.bucket(Histogram.upperBound(i)));
+    }
+  }
+
+  @Test
+  public void percentiles() {
+    Histogram h = new Histogram();
+    assertEquals(0, h.getPercentile(0.5));
+    for (long v = 1; v <= 100; v++) {
+      h.add(v);
+    }
+    assertEquals(100, h.getCount());
+    assertEquals(5050, h.getSum());
+    assertEquals(50.5, h.getMean(), 0.0001);
+    assertEquals(64, h.getPercentile(0.50));
+    assertEquals(128, h.getPercentile(0.95));
+    assertEquals(128, h.getPercentile(1.0));
+    assertEquals(1, h.getPercentile(0.01));
+  }
+
+  @Test
+  public void mergeBuckets() {
+    Histogram a = new Histogram();
+    a.add(3);
+    a.add(1000);
+    Histogram b = new Histogram();
+    for (int i = 0; i < Histogram.NUM_BUCKETS; i++) {
+      b.addBucket(i, a.getBucketCount(i));
+    }
+    b.addSum(a.getSum());
+    assertEquals(a.getCount(), b.getCount());
+    assertEquals(a.getSum(), b.getSum());
+    assertEquals(a.getPercentile(0.99), b.getPercentile(0.99));
+  }
+}
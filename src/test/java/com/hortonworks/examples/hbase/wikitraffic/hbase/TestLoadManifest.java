@@ -0,0 +1,132 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@RunWith(JUnit4.class)
+public class TestLoadManifest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void fileManifestAccumulates() throws IOException {
+    Configuration conf = new Configuration();
+    Path workingPath = new Path(tmp.getRoot().toURI().toString());
+    LoadManifest manifest = LoadManifest.create(conf, "wikistats", workingPath);
+    assertTrue(manifest.getLoaded().isEmpty());
+
+    manifest.addLoaded(Arrays.asList("pagecounts-20090430-220000.gz"));
+    manifest.addLoaded(Arrays.asList("pagecounts-20090430-230000.gz",
+      "pagecounts-20090430-220000.gz"));
+
+    LoadManifest reopened = LoadManifest.create(conf, "wikistats", workingPath);
+    assertEquals(new TreeSet<String>(Arrays.asList("pagecounts-20090430-220000.gz",
+      "pagecounts-20090430-230000.gz")), reopened.getLoaded());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownManifest() {
+    Configuration conf = new Configuration();
+    conf.set(LoadManifest.MANIFEST_KEY, "zookeeper");
+    LoadManifest.create(conf, "wikistats", new Path("work"));
+  }
+
+  /**
+   * @return a factory of tables named <tt>tableName</tt> keeping their
+   *         cells in <tt>cells</tt>, recording each table named in
+   *         <tt>opened</tt>.
+   */
+  private static HTableInterfaceFactory tables(final List<KeyValue> cells,
+      final List<String> opened) throws IOException {
+    final HTableInterface table = mock(HTableInterface.class);
+    when(table.get(any(Get.class))).thenAnswer(new Answer<Result>() {
+      @Override
+      public Result answer(InvocationOnMock invocation) {
+        Get get = (Get) invocation.getArguments()[0];
+        List<KeyValue> found = new ArrayList<KeyValue>();
+        for (KeyValue kv : cells) {
+          if (Bytes.equals(get.getRow(), kv.getRow())
+              && get.getFamilyMap().containsKey(kv.getFamily())) {
+            found.add(kv);
+          }
+        }
+        return new Result(found);
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        for (List<KeyValue> kvs : ((Put) invocation.getArguments()[0]).getFamilyMap().values()) {
+          cells.addAll(kvs);
+        }
+        return null;
+      }
+    }).when(table).put(any(Put.class));
+    return new HTableInterfaceFactory() {
+      @Override
+      public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+        opened.add(Bytes.toString(tableName));
+        return table;
+      }
+
+      @Override
+      public void releaseHTableInterface(HTableInterface table) {}
+    };
+  }
+
+  @Test
+  public void tableManifestAccumulatesInItsSideTable() throws IOException {
+    List<KeyValue> cells = new ArrayList<KeyValue>();
+    List<String> opened = new ArrayList<String>();
+    Configuration conf = new Configuration(false);
+    LoadManifest manifest = new LoadManifest.TableManifest(conf,
+      LoadManifest.getTableName("wikistats"), tables(cells, opened));
+    assertTrue(manifest.getLoaded().isEmpty());
+
+    manifest.addLoaded(Arrays.<String>asList());
+    assertTrue(cells.isEmpty());
+    manifest.addLoaded(Arrays.asList("pagecounts-20090430-220000.gz"));
+    manifest.addLoaded(Arrays.asList("pagecounts-20090430-230000.gz",
+      "pagecounts-20090430-220000.gz"));
+
+    LoadManifest reopened = new LoadManifest.TableManifest(conf,
+      LoadManifest.getTableName("wikistats"), tables(cells, opened));
+    assertEquals(new TreeSet<String>(Arrays.asList("pagecounts-20090430-220000.gz",
+      "pagecounts-20090430-230000.gz")), reopened.getLoaded());
+    // the manifest never touches the data table.
+    for (String name : opened) {
+      assertEquals("wikistats_manifest", name);
+    }
+    for (KeyValue kv : cells) {
+      assertTrue(Bytes.equals(LoadManifest.MANIFEST_ROW, kv.getRow()));
+    }
+  }
+}
@@ -0,0 +1,299 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@RunWith(JUnit4.class)
+public class TestPageDictionary {
+
+  private static final String DATE_TIME = "20090430-230000";
+
+  /** The dictionary table's cells, keyed by row and qualifier. */
+  private final Map<byte[], KeyValue> cells =
+      new TreeMap<byte[], KeyValue>(Bytes.BYTES_COMPARATOR);
+  private long counter = 0;
+  /** Gets to answer as though the table were empty, to stage a race. */
+  private int staleGets = 0;
+  private HTable table;
+
+  private static byte[] cellKey(byte[] row, byte[] qualifier) {
+    return Bytes.add(row, new byte[] { 0 }, qualifier);
+  }
+
+  private void store(Put put) {
+    for (List<KeyValue> kvs : put.getFamilyMap().values()) {
+      for (KeyValue kv : kvs) {
+        cells.put(cellKey(kv.getRow(), kv.getQualifier()), kv);
+      }
+    }
+  }
+
+  private Result read(Get get) {
+    List<KeyValue> found = new ArrayList<KeyValue>();
+    if (staleGets > 0) {
+      staleGets--;
+    } else {
+      for (byte[] qualifier : get.getFamilyMap().get(PageDictionary.FAMILY_NAME)) {
+        KeyValue kv = cells.get(cellKey(get.getRow(), qualifier));
+        if (null != kv) {
+          found.add(kv);
+        }
+      }
+    }
+    return new Result(found.toArray(new KeyValue[found.size()]));
+  }
+
+  @Before
+  public void fakeTable() throws IOException {
+    this.table = mock(HTable.class);
+    when(table.get(any(Get.class))).thenAnswer(new Answer<Result>() {
+      @Override
+      public Result answer(InvocationOnMock invocation) {
+        return read((Get) invocation.getArguments()[0]);
+      }
+    });
+    when(table.get(anyListOf(Get.class))).thenAnswer(new Answer<Result[]>() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public Result[] answer(InvocationOnMock invocation) {
+        List<Get> gets = (List<Get>) invocation.getArguments()[0];
+        Result[] results = new Result[gets.size()];
+        for (int i = 0; i < results.length; i++) {
+          results[i] = read(gets.get(i));
+        }
+        return results;
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        store((Put) invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(table).put(any(Put.class));
+    doAnswer(new Answer<Void>() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        for (Put put : (List<Put>) invocation.getArguments()[0]) {
+          store(put);
+        }
+        return null;
+      }
+    }).when(table).put(anyListOf(Put.class));
+    when(table.checkAndPut(any(byte[].class), any(byte[].class), any(byte[].class),
+      any(byte[].class), any(Put.class))).thenAnswer(new Answer<Boolean>() {
+        @Override
+        public Boolean answer(InvocationOnMock invocation) {
+          Object[] args = invocation.getArguments();
+          if (cells.containsKey(cellKey((byte[]) args[0], (byte[]) args[2]))) {
+            return false;
+          }
+          store((Put) args[4]);
+          return true;
+        }
+      });
+    when(table.incrementColumnValue(any(byte[].class), any(byte[].class), any(byte[].class),
+      anyLong())).thenAnswer(new Answer<Long>() {
+        @Override
+        public Long answer(InvocationOnMock invocation) {
+          counter += (Long) invocation.getArguments()[3];
+          return counter;
+        }
+      });
+  }
+
+  @Test
+  public void assignsIdsOnceInBlocks() throws IOException {
+    PageDictionary dictionary = new PageDictionary(table, true, 2, 100);
+    assertEquals(0, dictionary.getId("en", "A"));
+    assertEquals(1, dictionary.getId("en", "B"));
+    assertEquals(2, dictionary.getId("de", "A"));
+    assertEquals(0, dictionary.getId("en", "A"));
+    assertEquals("B", dictionary.getPageName(1));
+    verify(table, times(2)).incrementColumnValue(any(byte[].class), any(byte[].class),
+      any(byte[].class), anyLong());
+    // the cached page was only looked up once.
+    verify(table, times(3)).get(any(Get.class));
+
+    PageDictionary reader = new PageDictionary(table, false, 2, 100);
+    assertEquals(2, reader.getId("de", "A"));
+    assertEquals("A", reader.getPageName(2));
+    assertEquals(PageDictionary.UNKNOWN_ID, reader.getId("en", "Z"));
+    assertEquals(PageDictionary.UNKNOWN_ID, reader.getId("en", "Z"));
+    // readers never take ids.
+    assertEquals(4, counter);
+  }
+
+  @Test
+  public void adoptsIdClaimedFirst() throws IOException {
+    new PageDictionary(table, true, 10, 100).getId("en", "A");
+    // a second writer misses the page, then loses the check-and-put.
+    staleGets = 1;
+    PageDictionary late = new PageDictionary(table, true, 10, 100);
+    assertEquals(0, late.getId("en", "A"));
+    // the id it lost is skipped.
+    assertEquals(11, late.getId("en", "B"));
+  }
+
+  @Test
+  public void resolvesABlockWithOneMultiGet() throws IOException {
+    PageDictionary dictionary = new PageDictionary(table, true, 1000, 100);
+    assertEquals(0, dictionary.getId("en", "A"));
+    // one known page, and two new ones, one of them twice.
+    dictionary.resolve(Arrays.asList("en", "en", "de", "en"), Arrays.asList("A", "B", "A", "B"));
+    verify(table, times(1)).get(anyListOf(Get.class));
+    // the new pages' reverse rows went in one batch.
+    verify(table, times(1)).put(anyListOf(Put.class));
+    verify(table, times(3)).checkAndPut(any(byte[].class), any(byte[].class),
+      any(byte[].class), any(byte[].class), any(Put.class));
+
+    // every page of the block is now cached.
+    assertEquals(1, dictionary.getId("en", "B"));
+    assertEquals(2, dictionary.getId("de", "A"));
+    assertEquals(0, dictionary.getId("en", "A"));
+    assertEquals("A", dictionary.getPageName(2));
+    verify(table, times(1)).get(any(Get.class));
+    // and a block of cached pages costs nothing.
+    dictionary.resolve(Arrays.asList("en", "de"), Arrays.asList("B", "A"));
+    verify(table, times(1)).get(anyListOf(Get.class));
+
+    PageDictionary reader = new PageDictionary(table, false, 1000, 100);
+    reader.resolve(Arrays.asList("en", "en"), Arrays.asList("B", "Z"));
+    assertEquals(1, reader.getId("en", "B"));
+    assertEquals(PageDictionary.UNKNOWN_ID, reader.getId("en", "Z"));
+    assertEquals(1000, counter);
+  }
+
+  @Test
+  public void resolveAdoptsIdsClaimedFirst() throws IOException {
+    new PageDictionary(table, true, 10, 100).getId("en", "A");
+    // a second writer misses the page, then loses the check-and-put.
+    staleGets = 1;
+    PageDictionary late = new PageDictionary(table, true, 10, 100);
+    late.resolve(Arrays.asList("en", "en"), Arrays.asList("A", "B"));
+    // the winners' ids are read back together.
+    verify(table, times(2)).get(anyListOf(Get.class));
+    assertEquals(0, late.getId("en", "A"));
+    assertEquals(11, late.getId("en", "B"));
+  }
+
+  @Test
+  public void findsTheDictionaryOfSaltedCodecs() {
+    DictionaryRowKeyCodec codec =
+        new DictionaryRowKeyCodec(new PageDictionary(table, true, 1000, 100));
+    assertSame(codec, WikistatsSchemaUtils.getDictionaryCodec(codec));
+    assertSame(codec, WikistatsSchemaUtils.getDictionaryCodec(new SaltedRowKeyCodec(codec, 4)));
+    assertEquals(null, WikistatsSchemaUtils.getDictionaryCodec(new BinaryRowKeyCodec()));
+  }
+
+  @Test
+  public void splitsNewDictionariesInOrder() {
+    byte[][] splits = PageDictionary.getSplitKeys();
+    // the counter sorts before every forward row.
+    assertTrue(Bytes.compareTo(PageDictionary.COUNTER_ROW, splits[0]) < 0);
+    for (int i = 1; i < splits.length; i++) {
+      assertTrue(Bytes.compareTo(splits[i - 1], splits[i]) < 0);
+    }
+    assertTrue(Bytes.compareTo(PageDictionary.forwardRow("zh", "A"),
+      splits[splits.length - 1]) < 0);
+    assertTrue(Bytes.compareTo(PageDictionary.reverseRow(0), splits[splits.length - 1]) >= 0);
+  }
+
+  @Test
+  public void sortableIdsSortAsTheyCount() {
+    int[] ids = { 0, 1, 127, 128, 255, 256, 16383, 16384, 65535, 65536, (1 << 21) - 1, 1 << 21,
+      (1 << 28) - 1, 1 << 28, Integer.MAX_VALUE };
+    byte[] previous = null;
+    for (int id : ids) {
+      byte[] encoded = new byte[VarInts.sortableSize(id)];
+      assertEquals(encoded.length, VarInts.writeSortable(encoded, 0, id));
+      assertEquals(id, VarInts.readSortable(encoded, 0));
+      if (null != previous) {
+        assertTrue(id + " sorts after its predecessor", Bytes.compareTo(previous, encoded) < 0);
+        assertFalse(Bytes.startsWith(encoded, previous));
+      }
+      previous = encoded;
+    }
+    assertEquals(2, VarInts.sortableSize(16383));
+    assertEquals(5, VarInts.sortableSize(Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void dictionaryRowsSortById() throws IOException {
+    // ids 250 to 269, across the byte boundary Hadoop's vints sort wrongly.
+    counter = 250;
+    RowKeyCodec codec = new DictionaryRowKeyCodec(new PageDictionary(table, true, 20, 100));
+    byte[] previous = null;
+    for (int i = 0; i < 20; i++) {
+      byte[] row = codec.tallRow("en", "Page" + i, DATE_TIME);
+      assertEquals("Page" + i, codec.getPageName(row, true));
+      if (null != previous) {
+        assertTrue(Bytes.compareTo(previous, row) < 0);
+      }
+      previous = row;
+    }
+  }
+
+  @Test
+  public void dictionaryRowsAreCompact() throws IOException {
+    RowKeyCodec codec = new DictionaryRowKeyCodec(new PageDictionary(table, true, 1000, 100));
+    RowKeyCodec binary = new BinaryRowKeyCodec();
+    String page = "Barack_Obama%27s_first_100_days";
+    byte[] tall = codec.tallRow("en", page, DATE_TIME);
+    assertEquals("en", codec.getProjectCode(tall));
+    assertEquals(page, codec.getPageName(tall, true));
+    assertEquals(DATE_TIME, codec.getDateTime(tall));
+    assertEquals(binary.tallRow("en", page, DATE_TIME).length - page.length(), tall.length);
+
+    byte[] wide = codec.wideRow("en", page);
+    assertEquals(page, codec.getPageName(wide, false));
+    assertTrue(Bytes.compareTo(codec.tallRow("en", page, "20090430-220000"), tall) < 0);
+    byte[] prefix = codec.projectPrefix("en");
+    assertTrue(Bytes.equals(prefix, 0, prefix.length, tall, 0, prefix.length));
+  }
+
+  @Test
+  public void readersFindNothingForUnknownPages() throws IOException {
+    RowKeyCodec writer = new DictionaryRowKeyCodec(new PageDictionary(table, true, 1000, 100));
+    RowKeyCodec reader = new DictionaryRowKeyCodec(new PageDictionary(table, false, 1000, 100));
+    for (int i = 0; i < 300; i++) {
+      writer.wideRow("en", "Page" + i);
+    }
+    byte[] unknown = reader.wideRow("en", "Missing");
+    for (int i = 0; i < 300; i++) {
+      assertFalse(Bytes.equals(unknown, reader.wideRow("en", "Page" + i)));
+    }
+    assertEquals("Page299", reader.getPageName(reader.wideRow("en", "Page299"), false));
+  }
+}
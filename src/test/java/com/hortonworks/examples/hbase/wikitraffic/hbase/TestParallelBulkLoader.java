@@ -0,0 +1,176 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestParallelBulkLoader {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private FileSystem fs;
+  private Path hfilesDir;
+  private final Map<String, List<Path>> byRegion = new LinkedHashMap<String, List<Path>>();
+
+  /**
+   * Loads regions as LoadIncrementalHFiles does, moving their files away,
+   * and fails the region named <tt>failing</tt>. A file named
+   * <tt>*-split</tt> spans regions: it is split into two halves under
+   * <tt>_tmp</tt>, and only the halves are loaded, the bottom first; name a
+   * half to fail it.
+   */
+  private class FakeLoader extends ParallelBulkLoader {
+
+    private final String failing;
+    final List<String> loaded = Collections.synchronizedList(new ArrayList<String>());
+
+    FakeLoader(String failing) {
+      super(new Configuration(), "wikistats");
+      this.failing = failing;
+    }
+
+    @Override
+    void loadRegion(Configuration loadConf, Path regionDir) throws Exception {
+      assertEquals(1, loadConf.getInt("hbase.loadincremental.threads.max", 0));
+      for (FileStatus familyDir : fs.listStatus(regionDir)) {
+        for (FileStatus hfile : fs.listStatus(familyDir.getPath())) {
+          if (hfile.getPath().getName().equals(failing)) {
+            throw new IOException("region server went away");
+          }
+          if (hfile.getPath().getName().endsWith("-split")) {
+            Path halves = new Path(familyDir.getPath(), "_tmp");
+            for (String half : new String[] { ".bottom", ".top" }) {
+              Path halfPath = new Path(halves, hfile.getPath().getName() + half);
+              fs.create(halfPath).close();
+            }
+            loadHalf(familyDir, new Path(halves, hfile.getPath().getName() + ".bottom"));
+            loadHalf(familyDir, new Path(halves, hfile.getPath().getName() + ".top"));
+            continue;
+          }
+          loaded.add(familyDir.getPath().getName() + "/" + hfile.getPath().getName());
+          fs.delete(hfile.getPath(), false);
+        }
+      }
+    }
+
+    private void loadHalf(FileStatus familyDir, Path half) throws IOException {
+      if (half.getName().equals(failing)) {
+        throw new IOException("region server went away");
+      }
+      loaded.add(familyDir.getPath().getName() + "/" + half.getName());
+      fs.delete(half, false);
+    }
+  }
+
+  private void hfile(String region, String family, String name) throws IOException {
+    Path path = new Path(new Path(hfilesDir, family), name);
+    fs.create(path).close();
+    List<Path> files = byRegion.get(region);
+    if (null == files) {
+      files = new ArrayList<Path>();
+      byRegion.put(region, files);
+    }
+    files.add(path);
+  }
+
+  /** @return the files left in the HFile directory, as family/name. */
+  private TreeSet<String> remaining() throws IOException {
+    TreeSet<String> names = new TreeSet<String>();
+    for (FileStatus familyDir : fs.listStatus(hfilesDir)) {
+      for (FileStatus hfile : fs.listStatus(familyDir.getPath())) {
+        names.add(familyDir.getPath().getName() + "/" + hfile.getPath().getName());
+      }
+    }
+    return names;
+  }
+
+  @Before
+  public void hfiles() throws IOException {
+    fs = FileSystem.getLocal(new Configuration());
+    hfilesDir = new Path(tmp.newFolder("hfiles").toURI().toString());
+    hfile("region-a", "f", "a1");
+    hfile("region-a", "d", "a2");
+    hfile("region-b", "f", "b1");
+    hfile("region-c", "f", "c1");
+  }
+
+  @Test
+  public void loadsEveryRegionAndRemovesStaging() throws Exception {
+    FakeLoader loader = new FakeLoader(null);
+    Map<String, Long> timings = loader.load(fs, hfilesDir, byRegion);
+    assertEquals(Arrays.asList("region-a", "region-b", "region-c"),
+      new ArrayList<String>(timings.keySet()));
+    assertEquals(new TreeSet<String>(Arrays.asList("d/a2", "f/a1", "f/b1", "f/c1")),
+      new TreeSet<String>(loader.loaded));
+    assertFalse(fs.exists(new Path(hfilesDir, "_regions")));
+    assertTrue(remaining().isEmpty());
+  }
+
+  @Test
+  public void failedLoadRestoresUnloadedFiles() throws Exception {
+    FakeLoader loader = new FakeLoader("b1");
+    try {
+      loader.load(fs, hfilesDir, byRegion);
+      fail("expected the failed region to fail the load");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("region-b"));
+    }
+    assertFalse(fs.exists(new Path(hfilesDir, "_regions")));
+    // whatever was loaded is gone; the rest can be loaded again.
+    TreeSet<String> expected =
+        new TreeSet<String>(Arrays.asList("d/a2", "f/a1", "f/b1", "f/c1"));
+    expected.removeAll(loader.loaded);
+    assertTrue(remaining().contains("f/b1"));
+    assertEquals(expected, remaining());
+  }
+
+  @Test
+  public void deletesSplitFilesOfLoadedRegions() throws Exception {
+    hfile("region-b", "f", "b2-split");
+    FakeLoader loader = new FakeLoader(null);
+    loader.load(fs, hfilesDir, byRegion);
+    assertTrue(loader.loaded.containsAll(Arrays.asList("f/b2-split.bottom", "f/b2-split.top")));
+    assertFalse(fs.exists(new Path(hfilesDir, "_regions")));
+    // its halves were loaded; loading it again would double its cells.
+    assertTrue(remaining().isEmpty());
+  }
+
+  @Test
+  public void restoresSplitFilesOfFailedRegions() throws Exception {
+    hfile("region-b", "f", "b0-split");
+    FakeLoader loader = new FakeLoader("b0-split.top");
+    try {
+      loader.load(fs, hfilesDir, byRegion);
+      fail("expected the failed region to fail the load");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("region-b"));
+    }
+    assertTrue(loader.loaded.contains("f/b0-split.bottom"));
+    assertFalse(fs.exists(new Path(hfilesDir, "_regions")));
+    // the partly loaded file is restored whole, to be logged, not deleted.
+    assertTrue(remaining().contains("f/b0-split"));
+  }
+}
@@ -0,0 +1,79 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+@RunWith(JUnit4.class)
+public class TestPipelinedTableWriter {
+
+  private static Put samplePut() {
+    return WikistatsSchemaUtils.createWidePut("20090430-230000", "en", "Foo", 1, 100);
+  }
+
+  @Test
+  public void sendsBatchesInBackground() throws IOException {
+    HTable table = mock(HTable.class);
+    long putSize = samplePut().heapSize();
+    PipelinedTableWriter writer = new PipelinedTableWriter(table, 2 * putSize, false, 2);
+    verify(table).setAutoFlush(false);
+    verify(table).setWriteBufferSize(Long.MAX_VALUE);
+
+    for (int i = 0; i < 5; i++) {
+      writer.write(samplePut());
+    }
+    // two full batches queued, one Put left in the current batch.
+    writer.sync();
+    verify(table, times(3)).put(anyListOf(Put.class));
+    verify(table, times(3)).flushCommits();
+    assertEquals(3, writer.getFlushLatencies().getCount());
+
+    writer.close();
+    InOrder order = inOrder(table);
+    order.verify(table, times(3)).flushCommits();
+    order.verify(table).close();
+  }
+
+  @Test
+  public void reportsFailures() throws IOException {
+    HTable table = mock(HTable.class);
+    doThrow(new IOException("region server down")).when(table).flushCommits();
+    PipelinedTableWriter writer = new PipelinedTableWriter(table, Long.MAX_VALUE, false, 2);
+    writer.write(samplePut());
+    try {
+      writer.sync();
+      fail("sync should report the failed batch");
+    } catch (IOException e) {
+      assertEquals("region server down", e.getCause().getMessage());
+    }
+    try {
+      writer.write(samplePut());
+      fail("write should report the failed batch");
+    } catch (IOException e) {
+      // expected
+    }
+    try {
+      writer.close();
+      fail("close should report the failed batch");
+    } catch (IOException e) {
+      // expected
+    }
+    verify(table).close();
+    verify(table, never()).setAutoFlush(true);
+  }
+}
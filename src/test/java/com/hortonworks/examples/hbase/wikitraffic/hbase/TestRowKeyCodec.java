@@ -0,0 +1,162 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestRowKeyCodec {
+
+  private static final String DATE_TIME = "20090430-230000";
+  private static final String[][] SAMPLE = {
+    { "en", "Barack_Obama" },
+    { "en", "Barack_Obama%27s_first_100_days" },
+    { "en", "AC/DC" },
+    { "commons.m", "File:Example.jpg" },
+    { "de", "Café" },
+  };
+
+  @Test
+  public void epochHours() {
+    assertEquals(0, EpochHours.fromDateTime("19700101-000000"));
+    assertEquals(344759, EpochHours.fromDateTime("20090430-230000"));
+    assertEquals("20090430-230000", EpochHours.toDateTime(344759));
+    assertEquals("20080229-050000",
+      EpochHours.toDateTime(EpochHours.fromDateTime("20080229-050000")));
+    // minutes and seconds are truncated
+    assertEquals(344759, EpochHours.fromDateTime("20090430-230001"));
+  }
+
+  @Test
+  public void binaryDateTimesDecodeToTheHour() {
+    RowKeyCodec codec = new BinaryRowKeyCodec();
+    assertEquals("20090430-230000",
+      codec.getDateTime(codec.tallRow("en", "Barack_Obama", "20090430-231542")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void epochHoursRejectsMalformed() {
+    EpochHours.fromDateTime("dt");
+  }
+
+  @Test
+  public void textMatchesLegacyLayout() {
+    RowKeyCodec codec = new TextRowKeyCodec();
+    for (String[] rec : SAMPLE) {
+      assertArrayEquals(Bytes.toBytes(String.format("%s/%s/%s", rec[0], rec[1], DATE_TIME)),
+        codec.tallRow(rec[0], rec[1], DATE_TIME));
+      assertArrayEquals(Bytes.toBytes(String.format("%s/%s", rec[0], rec[1])),
+        codec.wideRow(rec[0], rec[1]));
+    }
+  }
+
+  @Test
+  public void roundTrip() {
+    RowKeyCodec[] codecs = { new TextRowKeyCodec(), new BinaryRowKeyCodec(),
+        new SaltedRowKeyCodec(new BinaryRowKeyCodec(), 16) };
+    for (RowKeyCodec codec : codecs) {
+      for (String[] rec : SAMPLE) {
+        byte[] tall = codec.tallRow(rec[0], rec[1], DATE_TIME);
+        assertEquals(rec[0], codec.getProjectCode(tall));
+        assertEquals(rec[1], codec.getPageName(tall, true));
+        assertEquals(DATE_TIME, codec.getDateTime(tall));
+
+        byte[] wide = codec.wideRow(rec[0], rec[1]);
+        assertEquals(rec[0], codec.getProjectCode(wide));
+        assertEquals(rec[1], codec.getPageName(wide, false));
+      }
+    }
+  }
+
+  @Test
+  public void binaryIsSmallerForTallRows() {
+    RowKeyCodec text = new TextRowKeyCodec(), binary = new BinaryRowKeyCodec();
+    for (String[] rec : SAMPLE) {
+      int textLen = text.tallRow(rec[0], rec[1], DATE_TIME).length;
+      int binaryLen = binary.tallRow(rec[0], rec[1], DATE_TIME).length;
+      assertEquals(textLen - 11, binaryLen);
+    }
+  }
+
+  @Test
+  public void binaryPreservesProjectOrder() {
+    RowKeyCodec codec = new BinaryRowKeyCodec();
+    byte[] en = codec.wideRow("en", "Zebra");
+    byte[] enb = codec.wideRow("en.b", "Aardvark");
+    byte[] es = codec.wideRow("es", "Aardvark");
+    assertTrue(Bytes.compareTo(en, enb) < 0);
+    assertTrue(Bytes.compareTo(enb, es) < 0);
+
+    byte[] early = codec.tallRow("en", "Page", "20090430-220000");
+    byte[] late = codec.tallRow("en", "Page", "20090430-230000");
+    assertTrue(Bytes.compareTo(early, late) < 0);
+  }
+
+  private static boolean startsWith(byte[] row, byte[] prefix) {
+    return row.length >= prefix.length
+        && Bytes.equals(row, 0, prefix.length, prefix, 0, prefix.length);
+  }
+
+  @Test
+  public void projectPrefixCoversOnlyItsPages() {
+    for (RowKeyCodec codec : new RowKeyCodec[] {
+        new TextRowKeyCodec(), new BinaryRowKeyCodec() }) {
+      byte[] prefix = codec.projectPrefix("en");
+      for (String[] rec : SAMPLE) {
+        boolean en = "en".equals(rec[0]);
+        assertEquals(en, startsWith(codec.wideRow(rec[0], rec[1]), prefix));
+        assertEquals(en, startsWith(codec.tallRow(rec[0], rec[1], DATE_TIME), prefix));
+      }
+      assertFalse(startsWith(codec.wideRow("en.b", "Page"), prefix));
+    }
+  }
+
+  @Test
+  public void resolveFromConfiguration() {
+    Configuration conf = new Configuration(false);
+    assertTrue(WikistatsSchemaUtils.getRowKeyCodec(conf) instanceof TextRowKeyCodec);
+    conf.set(WikistatsSchemaUtils.ROWKEY_CODEC_KEY, WikistatsSchemaUtils.BINARY_ROWKEY_CODEC);
+    assertTrue(WikistatsSchemaUtils.getRowKeyCodec(conf) instanceof BinaryRowKeyCodec);
+    conf.set(WikistatsSchemaUtils.ROWKEY_CODEC_KEY, BinaryRowKeyCodec.class.getName());
+    assertTrue(WikistatsSchemaUtils.getRowKeyCodec(conf) instanceof BinaryRowKeyCodec);
+  }
+
+  @Test
+  public void saltKeepsPageHoursTogether() {
+    SaltedRowKeyCodec codec = new SaltedRowKeyCodec(new TextRowKeyCodec(), 16);
+    for (String[] rec : SAMPLE) {
+      int bucket = codec.bucket(rec[0], rec[1]);
+      assertEquals(((rec[0] + "/" + rec[1]).hashCode() & Integer.MAX_VALUE) % 16, bucket);
+      byte[] early = codec.tallRow(rec[0], rec[1], "20090430-220000");
+      byte[] late = codec.tallRow(rec[0], rec[1], DATE_TIME);
+      assertEquals(bucket, early[0]);
+      assertEquals(bucket, late[0]);
+      assertEquals(bucket, codec.wideRow(rec[0], rec[1])[0]);
+      assertTrue(Bytes.compareTo(early, late) < 0);
+    }
+  }
+
+  @Test
+  public void saltSplitKeys() {
+    Configuration conf = new Configuration(false);
+    assertEquals(0, WikistatsSchemaUtils.getSaltSplitKeys(conf).length);
+    conf.setInt(WikistatsSchemaUtils.SALT_BUCKETS_KEY, 4);
+    assertTrue(WikistatsSchemaUtils.getRowKeyCodec(conf) instanceof SaltedRowKeyCodec);
+    byte[][] splits = WikistatsSchemaUtils.getSaltSplitKeys(conf);
+    assertEquals(3, splits.length);
+    assertArrayEquals(new byte[] { 1 }, splits[0]);
+    assertArrayEquals(new byte[] { 3 }, splits[2]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void saltRejectsTooManyBuckets() {
+    new SaltedRowKeyCodec(new TextRowKeyCodec(), 257);
+  }
+}
@@ -0,0 +1,145 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@RunWith(JUnit4.class)
+public class TestSaltedScanner {
+
+  private static final int BUCKETS = 4;
+  private static final SaltedRowKeyCodec CODEC =
+      new SaltedRowKeyCodec(new TextRowKeyCodec(), BUCKETS);
+
+  /** The rows of a salted table, in salted order. */
+  private final TreeSet<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+
+  /**
+   * @return a factory of tables serving {@link #rows}, whose scans of
+   *         <tt>failingBucket</tt> fail after their first row.
+   */
+  private HTableInterfaceFactory tables(final int failingBucket) throws IOException {
+    final HTableInterface table = mock(HTableInterface.class);
+    when(table.getScanner(any(Scan.class))).thenAnswer(new Answer<ResultScanner>() {
+      @Override
+      public ResultScanner answer(InvocationOnMock invocation) {
+        Scan scan = (Scan) invocation.getArguments()[0];
+        final List<Result> results = new ArrayList<Result>();
+        for (byte[] row : rows.subSet(scan.getStartRow(), scan.getStopRow())) {
+          results.add(new Result(new KeyValue[] { new KeyValue(row,
+            WikistatsSchemaUtils.COLUMN_FAMILY_NAME, WikistatsSchemaUtils.VIEWS_QUAL) }));
+        }
+        final boolean fails = scan.getStartRow()[0] == failingBucket;
+        ResultScanner scanner = mock(ResultScanner.class);
+        when(scanner.iterator()).thenReturn(new Iterator<Result>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < results.size();
+          }
+
+          @Override
+          public Result next() {
+            if (fails && next > 0) {
+              throw new IllegalStateException("Failed to read the page dictionary.");
+            }
+            return results.get(next++);
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        });
+        return scanner;
+      }
+    });
+    return new HTableInterfaceFactory() {
+      @Override
+      public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+        return table;
+      }
+
+      @Override
+      public void releaseHTableInterface(HTableInterface table) {}
+    };
+  }
+
+  private void load(String projectCode, int pages) {
+    for (int i = 0; i < pages; i++) {
+      rows.add(CODEC.tallRow(projectCode, String.format("Page%02d", i), "20090430-230000"));
+    }
+  }
+
+  private static String unsalted(Result result) {
+    byte[] row = result.getRow();
+    return Bytes.toString(row, 1, row.length - 1);
+  }
+
+  @Test(timeout = 10000)
+  public void mergesBucketsInUnsaltedOrder() throws IOException {
+    load("de", 10);
+    load("en", 30);
+    load("fr", 10);
+    // only the en pages, in any bucket.
+    Scan scan = new Scan(Bytes.toBytes("en/"), Bytes.toBytes("en0"));
+    scan.setCaching(2);
+    SaltedScanner scanner =
+        new SaltedScanner(new Configuration(false), "t", BUCKETS, scan, tables(-1));
+    List<String> read = new ArrayList<String>();
+    for (Result r = scanner.next(); null != r; r = scanner.next()) {
+      read.add(unsalted(r));
+    }
+    scanner.close();
+
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 30; i++) {
+      expected.add(String.format("en/Page%02d/20090430-230000", i));
+    }
+    assertEquals(expected, read);
+  }
+
+  @Test(timeout = 10000)
+  public void failedBucketEndsTheScan() throws IOException {
+    load("en", 40);
+    SaltedScanner scanner =
+        new SaltedScanner(new Configuration(false), "t", BUCKETS, new Scan(), tables(2));
+    int read = 0;
+    try {
+      while (null != scanner.next()) {
+        read++;
+      }
+      fail("expected the failed bucket to fail the scan");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("bucket 2"));
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    } finally {
+      scanner.close();
+    }
+    assertTrue(read < 40);
+  }
+}
@@ -0,0 +1,73 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestSpillingKeyValueSorter {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static KeyValue cell(int row) {
+    return new KeyValue(Bytes.toBytes(String.format("row-%06d", row)),
+      WikistatsSchemaUtils.COLUMN_FAMILY_NAME, WikistatsSchemaUtils.VIEWS_QUAL, 1L,
+      Bytes.toBytes((long) row));
+  }
+
+  @Test
+  public void spillsAndMerges() throws IOException {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path spillDir = new Path(tmp.getRoot().toURI().toString());
+    Random random = new Random(0);
+    List<KeyValue> expected = new ArrayList<KeyValue>();
+
+    // two sorters with runs of roughly ten cells each.
+    List<Path> runs = new ArrayList<Path>();
+    long cellBytes = 0;
+    for (String prefix : new String[] { "a", "b" }) {
+      SpillingKeyValueSorter sorter =
+          new SpillingKeyValueSorter(fs, spillDir, prefix, 10 * cell(0).heapSize());
+      for (int i = 0; i < 95; i++) {
+        KeyValue kv = cell(random.nextInt(1000));
+        expected.add(kv);
+        sorter.add(kv);
+      }
+      sorter.close();
+      assertEquals(10, sorter.getRuns().size());
+      runs.addAll(sorter.getRuns());
+      cellBytes += sorter.getCellBytes();
+    }
+    Collections.sort(expected, KeyValue.COMPARATOR);
+
+    SpillingKeyValueSorter.Merger merger = new SpillingKeyValueSorter.Merger(fs, runs);
+    long mergedBytes = 0;
+    for (KeyValue want : expected) {
+      KeyValue got = merger.next();
+      assertEquals(0, KeyValue.COMPARATOR.compare(want, got));
+      assertTrue(Bytes.equals(want.getValue(), got.getValue()));
+      mergedBytes += got.getLength();
+    }
+    assertNull(merger.next());
+    merger.close();
+    assertEquals(cellBytes, mergedBytes);
+  }
+}
@@ -0,0 +1,152 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.SequenceFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@RunWith(JUnit4.class)
+public class TestTopPages {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static String names(TopPages pages) {
+    StringBuilder sb = new StringBuilder();
+    for (TopPages.Page page : pages.getPages()) {
+      sb.append(page.getPageName()).append(' ');
+    }
+    return sb.toString().trim();
+  }
+
+  @Test
+  public void keepsMostViewedBestFirst() {
+    TopPages pages = new TopPages(3);
+    assertTrue(pages.offer("a", 5));
+    assertTrue(pages.offer("b", 50));
+    assertTrue(pages.offer("c", 1));
+    assertTrue(pages.offer("d", 20));
+    assertFalse(pages.offer("e", 1));
+    assertEquals(3, pages.size());
+    assertEquals("b d a", names(pages));
+    assertEquals(50, pages.getPages().get(0).getPageViews());
+  }
+
+  @Test
+  public void tiesDoNotDependOnOrder() {
+    List<String> offered = new ArrayList<String>();
+    for (char c = 'a'; c <= 'j'; c++) {
+      offered.add(String.valueOf(c));
+    }
+    for (int i = 0; i < 5; i++) {
+      Collections.shuffle(offered);
+      TopPages pages = new TopPages(4);
+      for (String name : offered) {
+        pages.offer(name, "c".equals(name) ? 2 : 1);
+      }
+      assertEquals("c a b d", names(pages));
+    }
+  }
+
+  @Test
+  public void mergingTaskListsIsExact() {
+    // each page is seen by one task; the merged list matches one heap.
+    TopPages all = new TopPages(5);
+    TopPages merged = new TopPages(5);
+    for (int task = 0; task < 4; task++) {
+      TopPages local = new TopPages(5);
+      for (int i = 0; i < 100; i++) {
+        String name = String.format("p%d-%d", task, i);
+        long views = (i * 7919L + task * 104729L) % 1000;
+        all.offer(name, views);
+        local.offer(name, views);
+      }
+      for (TopPages.Page page : local.getPages()) {
+        merged.offer(page.getPageName(), page.getPageViews());
+      }
+    }
+    assertEquals(names(all), names(merged));
+  }
+
+  @Test
+  public void rowsOfAnHourAreContiguous() {
+    assertEquals("20090430-230000/en",
+      Bytes.toString(TopPages.row("20090430-230000", "en")));
+    assertTrue(Bytes.compareTo(TopPages.row("20090430-230000", "zh"),
+      TopPages.row("20090501-000000", "aa")) < 0);
+    assertEquals("wikistats_topn", TopPages.getTableName("wikistats"));
+  }
+
+  /** Write <tt>rows</tt>' lists to <tt>file</tt>, as a reducer does. */
+  private static void writeLists(FileSystem fs, Configuration conf, Path file, String... rows)
+      throws IOException {
+    SequenceFile.Writer writer =
+        SequenceFile.createWriter(fs, conf, file, ImmutableBytesWritable.class, Put.class);
+    try {
+      for (String row : rows) {
+        Put put = TopPages.createPut(Bytes.toBytes(row),
+          Arrays.asList(new TopPages.Page("Foo", 10), new TopPages.Page("Bar", 5)));
+        writer.append(new ImmutableBytesWritable(put.getRow()), put);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void writesTheListsOfEveryReducer() throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path output = new Path(tmp.getRoot().toURI().toString());
+    HTable table = mock(HTable.class);
+    final List<String> written = new ArrayList<String>();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        Put put = (Put) invocation.getArguments()[0];
+        assertEquals(2, put.size());
+        written.add(Bytes.toString(put.getRow()));
+        return null;
+      }
+    }).when(table).put(any(Put.class));
+    BufferedTableWriter writer = new BufferedTableWriter(table, 1024, false);
+
+    // no lists were left.
+    assertEquals(0, TopPages.writeLists(conf, output, writer));
+
+    Path lists = new Path(output, TopPages.LISTS_DIR);
+    writeLists(fs, conf, new Path(lists, "part-r-00000"),
+      "20090430-230000/de", "20090430-230000/en");
+    writeLists(fs, conf, new Path(lists, "part-r-00001"), "20090430-230000/fr");
+    fs.create(new Path(lists, "_SUCCESS")).close();
+    assertEquals(3, TopPages.writeLists(conf, output, writer));
+    writer.close();
+    Collections.sort(written);
+    assertEquals(Arrays.asList("20090430-230000/de", "20090430-230000/en",
+      "20090430-230000/fr"), written);
+  }
+}
@@ -0,0 +1,59 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestWideRowBucket {
+
+  private static final byte[] PAGE = Bytes.toBytes("en/Main_Page");
+
+  @Test
+  public void appendsBucketToRow() {
+    String dt = "20090430-230000";
+    assertArrayEquals(PAGE, WideRowBucket.NONE.row(PAGE, dt));
+    assertEquals("en/Main_Page/2009", Bytes.toString(WideRowBucket.YEAR.row(PAGE, dt)));
+    assertEquals("en/Main_Page/200904", Bytes.toString(WideRowBucket.MONTH.row(PAGE, dt)));
+    assertEquals("en/Main_Page/20090430", Bytes.toString(WideRowBucket.DAY.row(PAGE, dt)));
+    for (WideRowBucket bucket : WideRowBucket.values()) {
+      assertArrayEquals(PAGE, bucket.pageRow(bucket.row(PAGE, dt)));
+    }
+  }
+
+  @Test
+  public void bucketRowsSortByTime() {
+    byte[] earlier = WideRowBucket.DAY.row(PAGE, "20090430-230000");
+    byte[] later = WideRowBucket.DAY.row(PAGE, "20090501-000000");
+    assertTrue(Bytes.compareTo(earlier, later) < 0);
+  }
+
+  @Test
+  public void bucketsBetween() {
+    assertEquals(Arrays.asList("20090430-220000", "20090501-000000"),
+      WideRowBucket.DAY.bucketsBetween("20090430-220000", "20090501-020000"));
+    // the end is exclusive.
+    assertEquals(Arrays.asList("20090430-220000"),
+      WideRowBucket.DAY.bucketsBetween("20090430-220000", "20090501-000000"));
+    assertEquals(Arrays.asList("20091130-000000", "20091201-000000", "20100101-000000"),
+      WideRowBucket.MONTH.bucketsBetween("20091130-000000", "20100102-000000"));
+    assertEquals(Arrays.asList("20091231-230000", "20100101-000000"),
+      WideRowBucket.YEAR.bucketsBetween("20091231-230000", "20100101-010000"));
+    assertEquals(Arrays.asList("20090101-000000"),
+      WideRowBucket.NONE.bucketsBetween("20090101-000000", "20120101-000000"));
+    assertTrue(WideRowBucket.DAY.bucketsBetween("20090102-000000", "20090101-000000")
+      .isEmpty());
+  }
+
+  @Test
+  public void forName() {
+    assertEquals(WideRowBucket.MONTH, WideRowBucket.forName("month"));
+  }
+}
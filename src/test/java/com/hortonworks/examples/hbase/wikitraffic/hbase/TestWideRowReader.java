@@ -0,0 +1,67 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestWideRowReader {
+
+  private static final WideValueCodec VALUES = new PackedWideValueCodec();
+
+  private static KeyValue cell(byte[] row, String dateTime, long views) {
+    return new KeyValue(row, WikistatsSchemaUtils.COLUMN_FAMILY_NAME, Bytes.toBytes(dateTime),
+      VALUES.encode(views, 1));
+  }
+
+  @Test
+  public void getsOneRowPerBucket() {
+    List<Get> gets = WideRowReader.createGets(new TextRowKeyCodec(), WideRowBucket.DAY,
+      "en", "Main_Page", "20090430-120000", "20090502-060000");
+    assertEquals(3, gets.size());
+    assertEquals("en/Main_Page/20090430", Bytes.toString(gets.get(0).getRow()));
+    assertEquals("en/Main_Page/20090501", Bytes.toString(gets.get(1).getRow()));
+    assertEquals("en/Main_Page/20090502", Bytes.toString(gets.get(2).getRow()));
+
+    gets = WideRowReader.createGets(new TextRowKeyCodec(), WideRowBucket.NONE,
+      "en", "Main_Page", "20090430-120000", "20090502-060000");
+    assertEquals(1, gets.size());
+    assertEquals("en/Main_Page", Bytes.toString(gets.get(0).getRow()));
+  }
+
+  @Test
+  public void mergesBucketRows() throws IOException {
+    RowKeyCodec codec = new TextRowKeyCodec();
+    byte[] page = codec.wideRow("en", "Main_Page");
+    byte[] first = WideRowBucket.DAY.row(page, "20090430-230000");
+    byte[] second = WideRowBucket.DAY.row(page, "20090501-000000");
+    HTable table = mock(HTable.class);
+    when(table.get(anyListOf(Get.class))).thenReturn(new Result[] {
+      new Result(new KeyValue[] { cell(first, "20090430-230000", 7) }),
+      new Result(new KeyValue[] {
+        cell(second, "20090501-000000", 8), cell(second, "20090501-010000", 9) }) });
+
+    WideRowReader reader = new WideRowReader(table, codec, WideRowBucket.DAY);
+    NavigableMap<String, byte[]> hours =
+        reader.getHours("en", "Main_Page", "20090430-230000", "20090501-020000");
+    assertEquals(Arrays.asList("20090430-230000", "20090501-000000", "20090501-010000"),
+      Arrays.asList(hours.keySet().toArray()));
+    assertEquals(8, WideValueDecoder.getPageViews(hours.get("20090501-000000")));
+    reader.close();
+  }
+}
@@ -0,0 +1,63 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestWideValueCodec {
+
+  private static final long[][] SAMPLE = {
+    { 0, 0 },
+    { 1, 144103 },
+    { 997, 123091092 },
+    { 127, 128 },
+    { Long.MAX_VALUE, Integer.MAX_VALUE },
+  };
+
+  @Test
+  public void roundTrip() {
+    WideValueCodec[] codecs = { new TextWideValueCodec(), new PackedWideValueCodec() };
+    for (WideValueCodec codec : codecs) {
+      for (long[] rec : SAMPLE) {
+        byte[] value = codec.encode(rec[0], rec[1]);
+        assertEquals(rec[0], codec.getPageViews(value));
+        assertEquals(rec[1], codec.getBytes(value));
+        assertEquals(rec[0], WideValueDecoder.getPageViews(value));
+        assertEquals(rec[1], WideValueDecoder.getBytes(value));
+      }
+    }
+  }
+
+  @Test
+  public void textIsWellFormed() {
+    assertEquals("{\"views\":997,\"bytes\":123091092}",
+      Bytes.toString(new TextWideValueCodec().encode(997, 123091092)));
+  }
+
+  @Test
+  public void decodesLegacyText() {
+    byte[] legacy = Bytes.toBytes("{\"views\":\"997\",\"bytes\":123091092");
+    assertEquals(997, WideValueDecoder.getPageViews(legacy));
+    assertEquals(123091092, WideValueDecoder.getBytes(legacy));
+  }
+
+  @Test
+  public void packedIsCompact() {
+    assertEquals(3, new PackedWideValueCodec().encode(8, 100).length);
+    assertEquals(6, new PackedWideValueCodec().encode(8, 850127).length);
+  }
+
+  @Test
+  public void resolveFromConfiguration() {
+    Configuration conf = new Configuration(false);
+    assertTrue(WikistatsSchemaUtils.getWideValueCodec(conf) instanceof TextWideValueCodec);
+    conf.set(WikistatsSchemaUtils.WIDE_VALUE_CODEC_KEY, WikistatsSchemaUtils.PACKED_VALUE_CODEC);
+    assertTrue(WikistatsSchemaUtils.getWideValueCodec(conf) instanceof PackedWideValueCodec);
+  }
+}
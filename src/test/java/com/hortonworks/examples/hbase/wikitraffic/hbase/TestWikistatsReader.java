@@ -0,0 +1,254 @@
+package com.hortonworks.examples.hbase.wikitraffic.hbase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTableInterfaceFactory;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsReader {
+
+  private static final RowKeyCodec CODEC = new TextRowKeyCodec();
+  private static final byte[] FAMILY = WikistatsSchemaUtils.COLUMN_FAMILY_NAME;
+
+  private static Result tallRow(String pageName, String dateTime, long views, long bytes) {
+    byte[] row = CODEC.tallRow("en", pageName, dateTime);
+    return new Result(new KeyValue[] {
+      new KeyValue(row, FAMILY, WikistatsSchemaUtils.BYTES_QUAL, Bytes.toBytes(bytes)),
+      new KeyValue(row, FAMILY, WikistatsSchemaUtils.VIEWS_QUAL, Bytes.toBytes(views)) });
+  }
+
+  private static KeyValue wideCell(String pageName, String dateTime, long views) {
+    return new KeyValue(CODEC.wideRow("en", pageName), FAMILY, Bytes.toBytes(dateTime),
+      new PackedWideValueCodec().encode(views, views * 10));
+  }
+
+  @Test
+  public void readsTallSeries() throws IOException {
+    HTable table = mock(HTable.class);
+    ResultScanner scanner = mock(ResultScanner.class);
+    when(scanner.iterator()).thenReturn(Arrays.asList(
+      tallRow("Foo", "20090430-220000", 3, 30),
+      tallRow("Foo", "20090430-230000", 4, 40)).iterator());
+    when(table.getScanner(any(Scan.class))).thenReturn(scanner);
+
+    WikistatsReader reader = new WikistatsReader(new Configuration(false), "t", table, true);
+    PageSeries series = reader.getSeries("en", "Foo", "20090430-000000", "20090501-000000",
+      WikistatsReader.Projection.VIEWS);
+    assertEquals(2, series.size());
+    assertEquals("20090430-220000", series.getDateTime(0));
+    assertEquals(EpochHours.fromDateTime("20090430-230000"), series.getHours()[1]);
+    assertArrayEquals(new long[] { 3, 4 }, series.getPageViews());
+    assertNull(series.getBytes());
+    reader.close();
+  }
+
+  @Test
+  public void readsManyWidePagesInOrder() throws IOException {
+    HTable table = mock(HTable.class);
+    when(table.get(anyListOf(Get.class))).thenReturn(new Result[] {
+      new Result(new KeyValue[] {
+        wideCell("Bar", "20090430-220000", 1), wideCell("Bar", "20090430-230000", 2) }),
+      new Result(new KeyValue[0]) });
+
+    WikistatsReader reader = new WikistatsReader(new Configuration(false), "t", table, false);
+    List<PageSeries> series = reader.getSeries("en", Arrays.asList("Bar", "Missing"),
+      "20090430-000000", "20090501-000000", WikistatsReader.Projection.ALL);
+    assertEquals(2, series.size());
+    assertEquals("Bar", series.get(0).getPageName());
+    assertArrayEquals(new long[] { 1, 2 }, series.get(0).getPageViews());
+    assertArrayEquals(new long[] { 10, 20 }, series.get(0).getBytes());
+    assertEquals("Missing", series.get(1).getPageName());
+    assertEquals(0, series.get(1).size());
+  }
+
+  @Test
+  public void splitsProjectAtPageBoundaries() {
+    WikistatsReader reader = new WikistatsReader(new Configuration(false), "t",
+      mock(HTable.class), true);
+    byte[] prefix = CODEC.projectPrefix("en");
+    byte[] stop = WikistatsReader.stopRow(prefix);
+    assertEquals("en0", Bytes.toString(stop));
+
+    byte[][] regionStarts = {
+      new byte[0], Bytes.toBytes("de/Foo/20090430-230000"),
+      Bytes.toBytes("en/Foo/20090430-230000"), Bytes.toBytes("en/Zed"),
+      Bytes.toBytes("fr/Foo/20090430-230000") };
+    List<byte[][]> ranges = reader.splitRange(prefix, stop, regionStarts);
+    assertEquals(3, ranges.size());
+    assertEquals("en/", Bytes.toString(ranges.get(0)[0]));
+    // the region holding part of Foo's hours starts with all of them.
+    assertEquals("en/Foo", Bytes.toString(ranges.get(0)[1]));
+    assertEquals("en/Foo", Bytes.toString(ranges.get(1)[0]));
+    // not a tall row; cut where the region starts.
+    assertEquals("en/Zed", Bytes.toString(ranges.get(1)[1]));
+    assertEquals("en0", Bytes.toString(ranges.get(2)[1]));
+  }
+
+  @Test
+  public void stopRowCarries() {
+    assertArrayEquals(new byte[] { 'a', 'c' },
+      WikistatsReader.stopRow(new byte[] { 'a', 'b', (byte) 0xff }));
+    assertEquals(0, WikistatsReader.stopRow(new byte[] { (byte) 0xff }).length);
+  }
+
+  /** The rows of a tall table, in order. */
+  private final TreeMap<byte[], Result> rows = new TreeMap<byte[], Result>(Bytes.BYTES_COMPARATOR);
+
+  private void load(String projectCode, String pageName, int hours) {
+    for (int h = 0; h < hours; h++) {
+      String dateTime = String.format("20090430-%02d0000", h);
+      byte[] row = CODEC.tallRow(projectCode, pageName, dateTime);
+      rows.put(row, new Result(new KeyValue[] {
+        new KeyValue(row, FAMILY, WikistatsSchemaUtils.BYTES_QUAL, Bytes.toBytes(h * 10L)),
+        new KeyValue(row, FAMILY, WikistatsSchemaUtils.VIEWS_QUAL, Bytes.toBytes((long) h)) }));
+    }
+  }
+
+  /**
+   * @return a factory of tables serving {@link #rows}, whose scans starting
+   *         at <tt>failingStart</tt> fail after their first row.
+   */
+  private HTableInterfaceFactory tables(final String failingStart) throws IOException {
+    final HTableInterface table = mock(HTableInterface.class);
+    when(table.getScanner(any(Scan.class))).thenAnswer(new Answer<ResultScanner>() {
+      @Override
+      public ResultScanner answer(InvocationOnMock invocation) {
+        Scan scan = (Scan) invocation.getArguments()[0];
+        Map<byte[], Result> range = scan.getStopRow().length == 0
+            ? rows.tailMap(scan.getStartRow())
+            : rows.subMap(scan.getStartRow(), scan.getStopRow());
+        final List<Result> results = new ArrayList<Result>(range.values());
+        final boolean fails = Bytes.toString(scan.getStartRow()).equals(failingStart);
+        ResultScanner scanner = mock(ResultScanner.class);
+        when(scanner.iterator()).thenReturn(new Iterator<Result>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < results.size();
+          }
+
+          @Override
+          public Result next() {
+            if (fails && next > 0) {
+              throw new IllegalStateException("Region moved.");
+            }
+            return results.get(next++);
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        });
+        return scanner;
+      }
+    });
+    return new HTableInterfaceFactory() {
+      @Override
+      public HTableInterface createHTableInterface(Configuration config, byte[] tableName) {
+        return table;
+      }
+
+      @Override
+      public void releaseHTableInterface(HTableInterface table) {}
+    };
+  }
+
+  /** @return a reader of {@link #rows}, split in regions at <tt>regionStarts</tt>. */
+  private WikistatsReader projectReader(String failingStart, String... regionStarts)
+      throws IOException {
+    HTable table = mock(HTable.class);
+    byte[][] starts = new byte[regionStarts.length + 1][];
+    starts[0] = new byte[0];
+    for (int i = 0; i < regionStarts.length; i++) {
+      starts[i + 1] = Bytes.toBytes(regionStarts[i]);
+    }
+    when(table.getStartKeys()).thenReturn(starts);
+    Configuration conf = new Configuration(false);
+    // the regions outpace the reader.
+    conf.setInt(WikistatsReader.CACHING_KEY, 1);
+    conf.setInt(WikistatsReader.THREADS_KEY, 2);
+    return new WikistatsReader(conf, "t", table, tables(failingStart), true);
+  }
+
+  @Test(timeout = 10000)
+  public void scansEveryPageOfAProjectWhole() throws IOException {
+    load("de", "Foo", 2);
+    load("en", "Bar", 2);
+    load("en", "Foo", 5);
+    load("en", "Zed", 3);
+    load("fr", "Foo", 2);
+    // one region starts among Foo's hours.
+    WikistatsReader reader = projectReader(null, "en/Foo/20090430-030000", "fr/");
+    WikistatsReader.SeriesScanner scanner = reader.scanProject("en", "20090430-010000",
+      "20090501-000000", WikistatsReader.Projection.ALL);
+    Map<String, PageSeries> read = new TreeMap<String, PageSeries>();
+    for (PageSeries series = scanner.next(); null != series; series = scanner.next()) {
+      assertNull(series.getPageName(), read.put(series.getPageName(), series));
+    }
+    scanner.close();
+    reader.close();
+
+    assertEquals(Arrays.asList("Bar", "Foo", "Zed"), new ArrayList<String>(read.keySet()));
+    // the first hour is out of range.
+    assertArrayEquals(new long[] { 1 }, read.get("Bar").getPageViews());
+    assertArrayEquals(new long[] { 1, 2, 3, 4 }, read.get("Foo").getPageViews());
+    assertArrayEquals(new long[] { 10, 20, 30, 40 }, read.get("Foo").getBytes());
+    assertArrayEquals(new long[] { 1, 2 }, read.get("Zed").getPageViews());
+  }
+
+  @Test(timeout = 10000)
+  public void failedRegionEndsTheScan() throws IOException {
+    for (int i = 0; i < 20; i++) {
+      load("en", String.format("Page%02d", i), 2);
+    }
+    WikistatsReader reader = projectReader("en/Page10", "en/Page10/20090430-000000");
+    WikistatsReader.SeriesScanner scanner = reader.scanProject("en", "20090430-000000",
+      "20090501-000000", WikistatsReader.Projection.VIEWS);
+    int read = 0;
+    try {
+      while (null != scanner.next()) {
+        read++;
+      }
+      fail("expected the failed region to fail the scan");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("range 1"));
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    } finally {
+      scanner.close();
+      reader.close();
+    }
+    assertTrue(read < 20);
+  }
+}
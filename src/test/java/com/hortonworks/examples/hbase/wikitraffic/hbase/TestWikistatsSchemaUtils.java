@@ -49,8 +49,7 @@ public class TestWikistatsSchemaUtils {
     String dateTime = "dt", projectCode = "pc", pageName = "pn";
     long pageViews = 100, bytes = 10000;
     String rowkey = String.format("%s/%s", projectCode, pageName);
-    // TODO: replace this with maps and an actual json writer/parser.
-    String json = String.format("{\"views\":\"%s\",\"bytes\":%d", pageViews, bytes);
+    String json = String.format("{\"views\":%d,\"bytes\":%d}", pageViews, bytes);
 
     Put p = WikistatsSchemaUtils
         .createWidePut(dateTime, projectCode, pageName, pageViews, bytes);
@@ -63,5 +62,7 @@ public class TestWikistatsSchemaUtils {
     assertEquals(rowkey, Bytes.toString(kvs.get(0).getRow()));
     assertEquals(dateTime, Bytes.toString(kvs.get(0).getQualifier()));
     assertEquals(json, Bytes.toString(kvs.get(0).getValue()));
+    assertEquals(pageViews, WideValueDecoder.getPageViews(kvs.get(0).getValue()));
+    assertEquals(bytes, WideValueDecoder.getBytes(kvs.get(0).getValue()));
   }
 }
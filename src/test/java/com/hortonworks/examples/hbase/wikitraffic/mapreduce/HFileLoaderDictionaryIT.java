@@ -0,0 +1,120 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsDataGenerator;
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsHFileLoader;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class HFileLoaderDictionaryIT {
+
+  private static final String TABLE_NAME = "HFileDictionaryTest";
+  private static final int RECORDS = 20000;
+  private static final int SPLITS = 4;
+  private static Configuration conf = HBaseConfiguration.create();
+
+  private FileSystem fs;
+  // qualified, so the tasks resolve them as the client does.
+  private Path inputPath;
+  private Path workingPath;
+
+  private static long countRows(HTable table, byte[] startRow, byte[] stopRow)
+      throws IOException {
+    long cnt = 0;
+    Scan scan = new Scan(startRow, stopRow);
+    scan.setCacheBlocks(false);
+    scan.setCaching(1000);
+    scan.setFilter(new FirstKeyOnlyFilter());
+    ResultScanner results = table.getScanner(scan);
+    for (Iterator<Result> it = results.iterator(); it.hasNext(); it.next())
+      cnt++;
+    results.close();
+    return cnt;
+  }
+
+  private static void dropTable(HBaseAdmin admin, String tableName) throws IOException {
+    if (admin.tableExists(tableName)) {
+      admin.disableTable(tableName);
+      admin.deleteTable(tableName);
+    }
+  }
+
+  @Before
+  public void cleanTheSlate() throws Exception {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      dropTable(admin, TABLE_NAME);
+      dropTable(admin, PageDictionary.getTableName(TABLE_NAME));
+    } finally {
+      admin.close();
+    }
+    this.fs = FileSystem.get(conf);
+    this.inputPath = fs.makeQualified(new Path("dictionary-input"));
+    this.workingPath = fs.makeQualified(new Path("dictionary-work"));
+    fs.delete(inputPath, true);
+    fs.delete(workingPath, true);
+
+    // one hour of mostly distinct pages, far more than are sampled.
+    assertEquals(0, ToolRunner.run(new Configuration(conf), new WikistatsDataGenerator(),
+      new String[] { inputPath.toString(), "1", Integer.toString(RECORDS) }));
+    for (FileStatus file : fs.listStatus(inputPath)) {
+      fs.rename(file.getPath(), new Path(inputPath, file.getPath().getName() + ".txt"));
+    }
+  }
+
+  @Test
+  public void splitsOnTheIdsEveryPageIsLoadedUnder() throws Exception {
+    WikistatsHFileLoader loader = new WikistatsHFileLoader();
+    Configuration runConf = new Configuration(conf);
+    runConf.set(WikistatsSchemaUtils.ROWKEY_CODEC_KEY, WikistatsSchemaUtils.DICT_ROWKEY_CODEC);
+    runConf.setInt(WikistatsHFileLoader.NUM_SAMPLES_KEY, 1000);
+    loader.setConf(runConf);
+    String[] args = { "-tall", TABLE_NAME, Integer.toString(SPLITS), inputPath.toString(),
+      workingPath.toString() };
+    assertEquals(0, loader.run(args));
+    assertTrue(loader.getStageTimes().containsKey("dict"));
+
+    HTable table = new HTable(conf, TABLE_NAME);
+    try {
+      byte[][] startKeys = table.getStartKeys();
+      byte[][] endKeys = table.getEndKeys();
+      assertEquals(SPLITS + 1, startKeys.length);
+      long total = 0;
+      long largest = 0;
+      for (int i = 0; i < startKeys.length; i++) {
+        long rows = countRows(table, startKeys[i], endKeys[i]);
+        total += rows;
+        largest = Math.max(largest, rows);
+      }
+      assertEquals(RECORDS, total);
+      // pages given ids after sampling would all land past the last split.
+      assertTrue("largest region holds " + largest + " of " + total + " rows",
+        largest < 2 * total / startKeys.length);
+    } finally {
+      table.close();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.LineReader;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsHFileLoader;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.LoadManifest;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class HFileLoaderIncrementalIT {
+
+  private static final String TABLE_NAME = "HFileIncrementalTest";
+  private static final String SAMPLE = "./sampledata/pagecounts-20090430-230000.txt";
+  private static final String[] HOURS = {
+    "pagecounts-20090430-220000.txt", "pagecounts-20090430-230000.txt" };
+  private static Configuration conf = HBaseConfiguration.create();
+
+  private FileSystem fs;
+  // qualified, so the tasks resolve them as the client does.
+  private Path inputPath;
+  private Path workingPath;
+  private long linesPerHour = 0;
+  private long viewsPerHour = 0;
+
+  private static long countRows(HTable table) throws IOException {
+    long cnt = 0;
+    Scan scan = new Scan();
+    scan.setCacheBlocks(false);
+    scan.setCaching(1000);
+    scan.setFilter(new FirstKeyOnlyFilter());
+    ResultScanner results = table.getScanner(scan);
+    for (Iterator<Result> it = results.iterator(); it.hasNext(); it.next())
+      cnt++;
+    results.close();
+    return cnt;
+  }
+
+  /** @return the views of every cell in <tt>family</tt>. */
+  private static long sumViews(HTable table, byte[] family) throws IOException {
+    WideValueCodec valueCodec = WikistatsSchemaUtils.getWideValueCodec(conf);
+    long views = 0;
+    Scan scan = new Scan();
+    scan.addFamily(family);
+    ResultScanner results = table.getScanner(scan);
+    for (Result result : results) {
+      for (KeyValue kv : result.raw()) {
+        views += valueCodec.getPageViews(kv.getValue());
+      }
+    }
+    results.close();
+    return views;
+  }
+
+  private static void dropTable(HBaseAdmin admin, String tableName) throws IOException {
+    if (admin.tableExists(tableName)) {
+      admin.disableTable(tableName);
+      admin.deleteTable(tableName);
+    }
+  }
+
+  @Before
+  public void cleanTheSlate() throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      dropTable(admin, TABLE_NAME);
+      dropTable(admin, LoadManifest.getTableName(TABLE_NAME));
+      dropTable(admin, TopPages.getTableName(TABLE_NAME));
+    } finally {
+      admin.close();
+    }
+    this.fs = FileSystem.get(conf);
+    this.inputPath = fs.makeQualified(new Path("incremental-input"));
+    this.workingPath = fs.makeQualified(new Path("incremental-work"));
+    fs.delete(inputPath, true);
+    fs.delete(workingPath, true);
+    fs.mkdirs(inputPath);
+
+    LineReader reader = new LineReader(FileSystem.getLocal(conf).open(new Path(SAMPLE)));
+    Text line = new Text();
+    while (0 != reader.readLine(line)) {
+      linesPerHour++;
+      viewsPerHour += Long.parseLong(line.toString().split(" ")[2]);
+    }
+    reader.close();
+  }
+
+  /** Make the sample available as one more hour of input. */
+  private void addHour(String name) throws IOException {
+    FileUtil.copy(FileSystem.getLocal(conf), new Path(SAMPLE), fs, new Path(inputPath, name),
+      false, conf);
+  }
+
+  private WikistatsHFileLoader load() throws Exception {
+    return load(false);
+  }
+
+  private WikistatsHFileLoader load(boolean rollup) throws Exception {
+    WikistatsHFileLoader loader = new WikistatsHFileLoader();
+    Configuration runConf = new Configuration(conf);
+    runConf.setBoolean(WikistatsHFileLoader.INCREMENTAL_KEY, true);
+    runConf.setBoolean(WikistatsSchemaUtils.ROLLUP_KEY, rollup);
+    runConf.set(LoadManifest.MANIFEST_KEY, LoadManifest.TABLE_MANIFEST);
+    runConf.setInt(TopPages.TOPN_KEY, 3);
+    loader.setConf(runConf);
+    String[] args = { "-tall", TABLE_NAME, "2", inputPath.toString(), workingPath.toString() };
+    assertEquals(0, loader.run(args));
+    return loader;
+  }
+
+  private TreeSet<String> loaded() throws IOException {
+    return new TreeSet<String>(
+      LoadManifest.create(conf(), TABLE_NAME, workingPath).getLoaded());
+  }
+
+  /** @return the number of top pages recorded for the English pages of <tt>hour</tt>. */
+  private static int topPages(String hour) throws IOException {
+    HTable topN = new HTable(conf, TopPages.getTableName(TABLE_NAME));
+    try {
+      // the file's hour, as pagecounts-YYYYmmdd-HH0000.txt.
+      return TopPages.read(topN, hour.substring(11, 26), "en").size();
+    } finally {
+      topN.close();
+    }
+  }
+
+  private static Configuration conf() {
+    Configuration manifestConf = new Configuration(conf);
+    manifestConf.set(LoadManifest.MANIFEST_KEY, LoadManifest.TABLE_MANIFEST);
+    return manifestConf;
+  }
+
+  @Test
+  public void loadsOnlyNewHours() throws Exception {
+    // the first run creates the table, sampling splits as a full load does.
+    addHour(HOURS[0]);
+    WikistatsHFileLoader first = load();
+    assertTrue(first.getStageTimes().containsKey("sample"));
+    assertEquals(new TreeSet<String>(Arrays.asList(HOURS[0])), loaded());
+    // the top pages are written once the HFiles are loaded.
+    assertTrue(first.getStageTimes().containsKey("topn"));
+    assertEquals(3, topPages(HOURS[0]));
+    assertEquals(0, topPages(HOURS[1]));
+    HTable table = new HTable(conf, TABLE_NAME);
+    try {
+      assertEquals(linesPerHour, countRows(table));
+
+      // later runs load the new hour into the existing regions.
+      addHour(HOURS[1]);
+      WikistatsHFileLoader second = load();
+      assertFalse(second.getStageTimes().containsKey("sample"));
+      assertTrue(second.getStageTimes().containsKey("hfiles"));
+      assertEquals(new TreeSet<String>(Arrays.asList(HOURS)), loaded());
+      assertEquals(2 * linesPerHour, countRows(table));
+      assertEquals(3, topPages(HOURS[1]));
+
+      // with nothing new, nothing runs.
+      WikistatsHFileLoader third = load();
+      assertFalse(third.getStageTimes().containsKey("hfiles"));
+      assertEquals(2 * linesPerHour, countRows(table));
+    } finally {
+      table.close();
+    }
+  }
+
+  @Test
+  public void addsRollupsToTheTotalsLoaded() throws Exception {
+    // each run loads one hour of the same day and month.
+    addHour(HOURS[0]);
+    load(true);
+    addHour(HOURS[1]);
+    load(true);
+    HTable table = new HTable(conf, TABLE_NAME);
+    try {
+      assertEquals(2 * viewsPerHour, sumViews(table, WikistatsSchemaUtils.DAILY_FAMILY_NAME));
+      assertEquals(2 * viewsPerHour, sumViews(table, WikistatsSchemaUtils.MONTHLY_FAMILY_NAME));
+    } finally {
+      table.close();
+    }
+  }
+}
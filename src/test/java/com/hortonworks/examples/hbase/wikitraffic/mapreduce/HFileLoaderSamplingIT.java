@@ -0,0 +1,117 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Iterator;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.WikistatsHFileLoader;
+
+@RunWith(JUnit4.class)
+public class HFileLoaderSamplingIT {
+
+  private static final String TABLE_NAME = "HFileSamplingTest";
+  private static final int COLD_RECORDS = 12000;
+  private static final int HOT_RECORDS = 24000;
+  private static final int SPLITS = 4;
+  private static Configuration conf = HBaseConfiguration.create();
+
+  private FileSystem fs;
+  // qualified, so the tasks resolve them as the client does.
+  private Path inputPath;
+  private Path workingPath;
+
+  private static long countRows(HTable table, byte[] startRow, byte[] stopRow)
+      throws IOException {
+    long cnt = 0;
+    Scan scan = new Scan(startRow, stopRow);
+    scan.setCacheBlocks(false);
+    scan.setCaching(1000);
+    scan.setFilter(new FirstKeyOnlyFilter());
+    ResultScanner results = table.getScanner(scan);
+    for (Iterator<Result> it = results.iterator(); it.hasNext(); it.next())
+      cnt++;
+    results.close();
+    return cnt;
+  }
+
+  @Before
+  public void cleanTheSlate() throws IOException {
+    HBaseAdmin admin = new HBaseAdmin(conf);
+    try {
+      if (admin.tableExists(TABLE_NAME)) {
+        admin.disableTable(TABLE_NAME);
+        admin.deleteTable(TABLE_NAME);
+      }
+    } finally {
+      admin.close();
+    }
+    this.fs = FileSystem.get(conf);
+    this.inputPath = fs.makeQualified(new Path("sampling-input"));
+    this.workingPath = fs.makeQualified(new Path("sampling-work"));
+    fs.delete(inputPath, true);
+    fs.delete(workingPath, true);
+
+    // sorted as the real files are: a long run of one project's pages
+    // first, and most of the keys after it.
+    PrintStream out =
+        new PrintStream(fs.create(new Path(inputPath, "pagecounts-20090430-230000.txt")));
+    try {
+      for (int i = 0; i < COLD_RECORDS; i++) {
+        out.printf("aa Cold_%05d 1 100%n", i);
+      }
+      for (int i = 0; i < HOT_RECORDS; i++) {
+        out.printf("en Hot_%05d 50 5000%n", i);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  @Test
+  public void samplesKeysPastTheHeadOfTheInput() throws Exception {
+    WikistatsHFileLoader loader = new WikistatsHFileLoader();
+    loader.setConf(new Configuration(conf));
+    String[] args = { "-tall", TABLE_NAME, Integer.toString(SPLITS), inputPath.toString(),
+      workingPath.toString() };
+    assertEquals(0, loader.run(args));
+
+    HTable table = new HTable(conf, TABLE_NAME);
+    try {
+      byte[][] startKeys = table.getStartKeys();
+      byte[][] endKeys = table.getEndKeys();
+      assertEquals(SPLITS + 1, startKeys.length);
+      long total = 0;
+      long largest = 0;
+      for (int i = 0; i < startKeys.length; i++) {
+        long rows = countRows(table, startKeys[i], endKeys[i]);
+        total += rows;
+        largest = Math.max(largest, rows);
+      }
+      assertEquals(COLD_RECORDS + HOT_RECORDS, total);
+      // sampled from the cold head alone, every hot page would land in the
+      // last region.
+      assertTrue("largest region holds " + largest + " of " + total + " rows",
+        largest < 2 * total / startKeys.length);
+    } finally {
+      table.close();
+    }
+  }
+}
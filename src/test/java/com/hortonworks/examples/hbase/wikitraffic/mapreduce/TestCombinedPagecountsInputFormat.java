@@ -0,0 +1,106 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestCombinedPagecountsInputFormat {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path write(String name, String... lines) throws IOException {
+    File f = new File(tmp.getRoot(), name);
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    for (String line : lines) {
+      w.write(line);
+      w.write('\n');
+    }
+    w.close();
+    return new Path(f.toURI());
+  }
+
+  private static FileStatus file(String name, long len) {
+    return new FileStatus(len, false, 1, 1, 0, new Path("/in/" + name));
+  }
+
+  @Test
+  public void packsWholeFilesInOrder() {
+    List<FileStatus> files = new ArrayList<FileStatus>();
+    files.add(file("c", 40));
+    files.add(file("a", 60));
+    files.add(file("b", 30));
+    files.add(file("d", 150));
+    files.add(file("e", 10));
+
+    List<List<FileStatus>> groups = CombinedPagecountsInputFormat.pack(files, 100);
+    assertEquals(4, groups.size());
+    assertEquals(2, groups.get(0).size());
+    assertEquals("a", groups.get(0).get(0).getPath().getName());
+    assertEquals("b", groups.get(0).get(1).getPath().getName());
+    assertEquals("c", groups.get(1).get(0).getPath().getName());
+    // a file larger than the target is not divided.
+    assertEquals(1, groups.get(2).size());
+    assertEquals("d", groups.get(2).get(0).getPath().getName());
+    assertEquals("e", groups.get(3).get(0).getPath().getName());
+  }
+
+  @Test
+  public void readsEachRecordWithItsFile() throws IOException, InterruptedException {
+    Path h0 = write("pagecounts-20090430-220000.txt", "de Berlin 5 500", "en Foo 1 100");
+    write("pagecounts-20090430-230000.txt");
+    Path h2 = write("pagecounts-20090501-000000.txt", "en Bar 2 200");
+
+    Job job = new Job(new Configuration());
+    job.getConfiguration().setLong(CombinedPagecountsInputFormat.SPLIT_BYTES_KEY, 1024);
+    FileInputFormat.setInputPaths(job, new Path(tmp.getRoot().toURI()));
+    CombinedPagecountsInputFormat format = new CombinedPagecountsInputFormat();
+    List<InputSplit> splits = format.getSplits(job);
+    assertEquals(1, splits.size());
+    MultiFileSplit split = (MultiFileSplit) splits.get(0);
+    assertEquals(3, split.getNumPaths());
+
+    CombinedPagecountsRecordReader reader = new CombinedPagecountsRecordReader();
+    reader.initialize(split,
+      new TaskAttemptContext(job.getConfiguration(), new TaskAttemptID()));
+    assertTrue(reader.nextKeyValue());
+    FileOffsetWritable key = (FileOffsetWritable) reader.getCurrentKey();
+    assertEquals(h0.getName(), key.getPath().getName());
+    assertEquals(0, key.get());
+    assertEquals("de Berlin 5 500", reader.getCurrentValue().toString());
+    assertTrue(reader.nextKeyValue());
+    assertEquals(16, reader.getCurrentKey().get());
+    // the empty hour is skipped.
+    assertTrue(reader.nextKeyValue());
+    key = (FileOffsetWritable) reader.getCurrentKey();
+    assertEquals(h2.getName(), key.getPath().getName());
+    assertEquals(0, key.get());
+    assertEquals("en Bar 2 200", reader.getCurrentValue().toString());
+    assertFalse(reader.nextKeyValue());
+    assertEquals(1.0f, reader.getProgress(), 0.0f);
+    reader.close();
+  }
+}
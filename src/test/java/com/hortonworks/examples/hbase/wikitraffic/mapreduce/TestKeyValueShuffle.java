@@ -0,0 +1,130 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestKeyValueShuffle {
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private static KeyValue cell(String row, String qualifier, long ts) {
+    return new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes(qualifier), ts,
+      Bytes.toBytes(0L));
+  }
+
+  private static ImmutableBytesWritable keyOf(KeyValue kv) {
+    return new ImmutableBytesWritable(kv.getBuffer(), kv.getKeyOffset(), kv.getKeyLength());
+  }
+
+  private static byte[] serialize(ImmutableBytesWritable key) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    key.write(out);
+    return Arrays.copyOf(out.getData(), out.getLength());
+  }
+
+  private static int rawCompare(KeyValue a, KeyValue b) throws IOException {
+    byte[] left = serialize(keyOf(a));
+    byte[] right = serialize(keyOf(b));
+    return new KeyValueShuffle.CellKeyComparator()
+        .compare(left, 0, left.length, right, 0, right.length);
+  }
+
+  @Test
+  public void sortsAsKeyValues() throws IOException {
+    KeyValue[] ordered = {
+      cell("a", "q", 2), cell("a", "q", 1), cell("a", "r", 5), cell("ab", "a", 1),
+      cell("b", "a", 1) };
+    KeyValueShuffle.CellKeyComparator comparator = new KeyValueShuffle.CellKeyComparator();
+    for (int i = 0; i + 1 < ordered.length; i++) {
+      assertTrue(rawCompare(ordered[i], ordered[i + 1]) < 0);
+      assertTrue(rawCompare(ordered[i + 1], ordered[i]) > 0);
+      assertTrue(comparator.compare(keyOf(ordered[i]), keyOf(ordered[i + 1])) < 0);
+    }
+    assertEquals(0, rawCompare(cell("a", "q", 1), cell("a", "q", 1)));
+  }
+
+  @Test
+  public void partitionsByRow() {
+    byte[][] splits = { Bytes.toBytes("c"), Bytes.toBytes("m") };
+    assertEquals(0, KeyValueShuffle.RowPartitioner.partition(splits, keyOf(cell("a", "z", 1))));
+    assertEquals(0, KeyValueShuffle.RowPartitioner.partition(splits, keyOf(cell("bz", "a", 1))));
+    assertEquals(1, KeyValueShuffle.RowPartitioner.partition(splits, keyOf(cell("c", "a", 1))));
+    assertEquals(1, KeyValueShuffle.RowPartitioner.partition(splits, keyOf(cell("lz", "a", 1))));
+    assertEquals(2, KeyValueShuffle.RowPartitioner.partition(splits, keyOf(cell("m", "a", 1))));
+    assertEquals(2, KeyValueShuffle.RowPartitioner.partition(splits, keyOf(cell("z", "a", 1))));
+    assertEquals(0, KeyValueShuffle.RowPartitioner.partition(new byte[0][],
+      keyOf(cell("z", "a", 1))));
+  }
+
+  @Test
+  public void readsPartitionFile() throws IOException {
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+    Path partFile = new Path(new File(temp.getRoot(), "partitions").getPath());
+    SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, partFile,
+      ImmutableBytesWritable.class, NullWritable.class);
+    try {
+      writer.append(new ImmutableBytesWritable(Bytes.toBytes("c")), NullWritable.get());
+      writer.append(new ImmutableBytesWritable(Bytes.toBytes("m")), NullWritable.get());
+    } finally {
+      writer.close();
+    }
+    TotalOrderPartitioner.setPartitionFile(conf, partFile);
+
+    KeyValueShuffle.RowPartitioner partitioner = new KeyValueShuffle.RowPartitioner();
+    partitioner.setConf(conf);
+    KeyValue kv = cell("d", "a", 1);
+    assertEquals(1, partitioner.getPartition(keyOf(kv), kv, 3));
+  }
+
+  @Test
+  public void dropsRepeatedKeys() throws IOException, InterruptedException {
+    KeyValue first = cell("a", "q", 1);
+    KeyValue repeat = cell("a", "q", 1);
+    ImmutableBytesWritable key = keyOf(first);
+
+    @SuppressWarnings("unchecked")
+    Reducer<ImmutableBytesWritable, KeyValue, ImmutableBytesWritable, KeyValue>.Context
+        context = mock(Context.class);
+    Counter duplicates = mock(Counter.class);
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(duplicates);
+
+    new KeyValueShuffle.CellReducer().reduce(key, Arrays.asList(first, repeat), context);
+    // KeyValue equality is key equality, so count every write.
+    verify(context, times(1)).write(any(ImmutableBytesWritable.class), any(KeyValue.class));
+    verify(context).write(key, first);
+    verify(duplicates).increment(1);
+  }
+}
@@ -0,0 +1,163 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestMultiHourRecordReader {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path write(String name, String... lines) throws IOException {
+    File f = tmp.newFile(name);
+    Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+    for (String line : lines) {
+      w.write(line);
+      w.write('\n');
+    }
+    w.close();
+    return new Path(f.toURI());
+  }
+
+  /** Write <tt>lines</tt> as {@code WikistatsArchiveConverter} does. */
+  private Path writeSequence(Configuration conf, String name, String... lines)
+      throws IOException {
+    Path file = new Path(new File(tmp.getRoot(), name).toURI());
+    SequenceFile.Writer w = SequenceFile.createWriter(FileSystem.getLocal(conf), conf, file,
+      LongWritable.class, Text.class, CompressionType.BLOCK);
+    long offset = 0;
+    for (String line : lines) {
+      w.append(new LongWritable(offset), new Text(line));
+      offset += line.length() + 1;
+    }
+    w.close();
+    return file;
+  }
+
+  @Test
+  public void mergeJoinsHours() throws IOException {
+    Path h0 = write("pagecounts-20090430-220000.txt",
+      "de Berlin 5 500",
+      "en Barack_Obama 997 123091092",
+      "en Barack_Obama,_Jr 1 144103");
+    Path h1 = write("pagecounts-20090430-230000.txt",
+      "en Barack_Obama 1000 123456789",
+      "en Barack_Obama%27s_first_100_days 8 850127",
+      "malformed",
+      "en Barack_Obama,_Jr 2 288206");
+
+    Configuration conf = new Configuration();
+    MultiFileSplit split = new MultiFileSplit(new Path[] { h0, h1 },
+      new long[] { 0, 0 }, new String[0]);
+    MultiHourRecordReader reader = new MultiHourRecordReader();
+    reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+
+    assertTrue(reader.nextKeyValue());
+    PageHours v = reader.getCurrentValue();
+    assertEquals("de", v.getProjectCode());
+    assertEquals("Berlin", v.getPageName());
+    assertEquals(1, v.size());
+    assertEquals("20090430-220000", v.getDateTime(0));
+
+    assertTrue(reader.nextKeyValue());
+    v = reader.getCurrentValue();
+    assertEquals("Barack_Obama", v.getPageName());
+    assertEquals(2, v.size());
+    assertEquals("20090430-220000", v.getDateTime(0));
+    assertEquals(997, v.getPageViews(0));
+    assertEquals("20090430-230000", v.getDateTime(1));
+    assertEquals(123456789, v.getBytes(1));
+
+    assertTrue(reader.nextKeyValue());
+    assertEquals("Barack_Obama%27s_first_100_days", reader.getCurrentValue().getPageName());
+    assertEquals(1, reader.getCurrentValue().size());
+
+    assertTrue(reader.nextKeyValue());
+    v = reader.getCurrentValue();
+    assertEquals("Barack_Obama,_Jr", v.getPageName());
+    assertEquals(2, v.size());
+    assertEquals(2, v.getPageViews(1));
+
+    assertFalse(reader.nextKeyValue());
+    reader.close();
+  }
+
+  @Test
+  public void notesConsumedInput() throws IOException {
+    Path h0 = write("pagecounts-20090430-220000.txt",
+      "malformed",
+      "de Berlin 5 500",
+      "en Barack_Obama 997 123091092");
+    Path h1 = write("pagecounts-20090430-230000.txt",
+      "en Barack_Obama 1000 123456789",
+      "also malformed");
+
+    MultiFileSplit split = new MultiFileSplit(new Path[] { h0, h1 },
+      new long[] { 0, 0 }, new String[0]);
+    MultiHourRecordReader reader = new MultiHourRecordReader();
+    reader.initialize(split, new TaskAttemptContext(new Configuration(), new TaskAttemptID()));
+    long bytesIn = 0;
+    int malformed = 0;
+    while (reader.nextKeyValue()) {
+      bytesIn += reader.getCurrentValue().getBytesIn();
+      malformed += reader.getCurrentValue().getMalformed();
+    }
+    reader.close();
+    // every line, trailing malformed ones included, is accounted for.
+    assertEquals(new File(h0.toUri()).length() + new File(h1.toUri()).length(), bytesIn);
+    assertEquals(2, malformed);
+  }
+
+  @Test
+  public void readsSequenceFileHours() throws IOException {
+    Configuration conf = new Configuration();
+    Path h0 = write("pagecounts-20090430-220000.txt",
+      "en Barack_Obama 997 123091092");
+    Path h1 = writeSequence(conf, "pagecounts-20090430-230000.seq",
+      "de Berlin 5 500",
+      "en Barack_Obama 1000 123456789");
+
+    MultiFileSplit split = new MultiFileSplit(new Path[] { h0, h1 },
+      new long[] { 0, 0 }, new String[0]);
+    MultiHourRecordReader reader = new MultiHourRecordReader();
+    reader.initialize(split, new TaskAttemptContext(conf, new TaskAttemptID()));
+
+    assertTrue(reader.nextKeyValue());
+    PageHours v = reader.getCurrentValue();
+    assertEquals("Berlin", v.getPageName());
+    assertEquals("20090430-230000", v.getDateTime(0));
+    assertEquals(500, v.getBytes(0));
+
+    assertTrue(reader.nextKeyValue());
+    v = reader.getCurrentValue();
+    assertEquals("Barack_Obama", v.getPageName());
+    assertEquals(2, v.size());
+    assertEquals(1000, v.getPageViews(1));
+
+    assertFalse(reader.nextKeyValue());
+    reader.close();
+  }
+}
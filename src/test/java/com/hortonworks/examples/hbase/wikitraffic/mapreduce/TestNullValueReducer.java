@@ -0,0 +1,33 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.Reducer.Context;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestNullValueReducer {
+
+  @Test
+  public void invokeAsExpected() throws IOException, InterruptedException {
+    Text inputKey = new Text("some row key");
+    Iterable<Text> inputValues = Arrays.asList(new Text("some value"), new Text("another"));
+
+    NullValueReducer<Text, Text> r = new NullValueReducer<Text, Text>();
+    @SuppressWarnings("unchecked")
+    Reducer<Text, Text, Text, NullWritable>.Context context = mock(Context.class);
+
+    r.reduce(inputKey, inputValues, context);
+    verify(context, times(2)).write(inputKey, NullWritable.get());
+  }
+}
@@ -0,0 +1,276 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.BufferedTableWriter;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.Histogram;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class TestObservationShuffle {
+
+  private static final byte[] PAGE_ROW = Bytes.toBytes("en/Barack_Obama");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final Configuration conf = new Configuration();
+  private final List<KeyValue> written = new ArrayList<KeyValue>();
+  private final Counter duplicates = mock(Counter.class);
+  private Reducer<WikistatsObservation, NullWritable, ImmutableBytesWritable, KeyValue>.Context
+    context;
+  private ObservationShuffle.CellReducer reducer;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void cellReducer() throws IOException, InterruptedException {
+    this.context = mock(Reducer.Context.class);
+    when(context.getConfiguration()).thenReturn(conf);
+    when(context.getCounter(WikistatsCounters.DUPLICATE_CELLS)).thenReturn(duplicates);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        written.add((KeyValue) invocation.getArguments()[1]);
+        return null;
+      }
+    }).when(context).write(any(ImmutableBytesWritable.class), any(KeyValue.class));
+    this.reducer = new ObservationShuffle.CellReducer();
+    reducer.setup(context);
+  }
+
+  private static void set(WikistatsObservation key, WikistatsObservation o) {
+    key.set(o.getFamily(), o.getRow(), o.getColumn(), o.getPageViews(), o.getBytes());
+  }
+
+  /**
+   * @return the values of a group, setting <tt>key</tt> to the first of
+   *         <tt>observations</tt> and advancing it to each in turn, as the
+   *         framework does.
+   */
+  private static Iterable<NullWritable> group(final WikistatsObservation key,
+      final WikistatsObservation... observations) {
+    set(key, observations[0]);
+    return new Iterable<NullWritable>() {
+      @Override
+      public Iterator<NullWritable> iterator() {
+        return new Iterator<NullWritable>() {
+          private int next = 0;
+
+          @Override
+          public boolean hasNext() {
+            return next < observations.length;
+          }
+
+          @Override
+          public NullWritable next() {
+            set(key, observations[next++]);
+            return NullWritable.get();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+
+  private static WikistatsObservation day(long pageViews, long bytes) {
+    WikistatsObservation o = new WikistatsObservation();
+    o.set(WikistatsSchemaUtils.DAILY_FAMILY_NAME[0], PAGE_ROW, Bytes.toBytes("20090430"),
+      pageViews, bytes);
+    return o;
+  }
+
+  @Test
+  public void writesRepeatedHoursOnce() throws IOException, InterruptedException {
+    byte[] tallRow = Bytes.toBytes("en/Barack_Obama/20090430-230000");
+    WikistatsObservation hour = new WikistatsObservation(tallRow, new byte[0], 1000, 123456);
+    WikistatsObservation key = new WikistatsObservation(tallRow, new byte[0], 1000, 123456);
+    reducer.reduce(key, group(key, hour, hour), context);
+
+    // a views and a bytes cell, from the first copy only.
+    assertEquals(2, written.size());
+    verify(duplicates, times(1)).increment(2);
+  }
+
+  @Test
+  public void rollupsCountEveryCopyOfAnHour() throws IOException, InterruptedException {
+    // two hours of a day, the second given twice.
+    WikistatsObservation key = day(0, 0);
+    reducer.reduce(key, group(key, day(10, 100), day(20, 200), day(20, 200)), context);
+
+    assertEquals(1, written.size());
+    WideValueCodec codec = WikistatsSchemaUtils.getWideValueCodec(new Configuration(false));
+    KeyValue total = written.get(0);
+    assertEquals(50, codec.getPageViews(total.getValue()));
+    assertEquals(500, codec.getBytes(total.getValue()));
+    // rollups do not know their hours, so repeats go uncounted.
+    verify(duplicates, times(0)).increment(anyLong());
+  }
+
+  private static WikistatsObservation candidate(String dateTime, String projectCode,
+      String pageName, long pageViews) {
+    WikistatsObservation o = new WikistatsObservation();
+    o.set(WikistatsObservation.TOP_PAGE_FAMILY, TopPages.row(dateTime, projectCode),
+      Bytes.toBytes(pageName), pageViews, 0);
+    return o;
+  }
+
+  /** Reduce each of <tt>copies</tt>, a page's candidates from every task. */
+  private void reduceTopPages(WikistatsObservation[]... copies)
+      throws IOException, InterruptedException {
+    for (WikistatsObservation[] page : copies) {
+      WikistatsObservation key = new WikistatsObservation();
+      reducer.reduce(key, group(key, page), context);
+    }
+  }
+
+  @Test
+  public void leavesTopPagesWithTheHFiles() throws Exception {
+    conf.setInt(TopPages.TOPN_KEY, 2);
+    conf.set(TopPages.TABLE_KEY, "t_topn");
+    Path workPath = new Path(tmp.getRoot().toURI().toString());
+    FileOutputCommitter committer = mock(FileOutputCommitter.class);
+    when(committer.getWorkPath()).thenReturn(workPath);
+    when(context.getOutputCommitter()).thenReturn(committer);
+    when(context.getTaskAttemptID()).thenReturn(new TaskAttemptID("test", 1, false, 3, 0));
+    this.reducer = new ObservationShuffle.CellReducer();
+    reducer.setup(context);
+
+    String hour = "20090430-230000";
+    WikistatsObservation foo = candidate(hour, "en", "Foo", 30);
+    reduceTopPages(
+      new WikistatsObservation[] { candidate(hour, "de", "Bar", 5) },
+      // two tasks kept Foo; it is counted once.
+      new WikistatsObservation[] { candidate(hour, "en", "Baz", 10) },
+      new WikistatsObservation[] { foo, foo },
+      new WikistatsObservation[] { candidate(hour, "en", "Qux", 20) });
+    reducer.cleanup(context);
+    // no cells were written for the candidates.
+    assertEquals(0, written.size());
+
+    FileSystem fs = FileSystem.getLocal(conf);
+    FileStatus[] files = fs.listStatus(new Path(workPath, TopPages.LISTS_DIR));
+    assertEquals(1, files.length);
+    assertEquals("part-r-00003", files[0].getPath().getName());
+    List<Put> lists = new ArrayList<Put>();
+    SequenceFile.Reader reader = new SequenceFile.Reader(fs, files[0].getPath(), conf);
+    try {
+      ImmutableBytesWritable row = new ImmutableBytesWritable();
+      for (Put put = new Put(); reader.next(row, put); put = new Put()) {
+        assertArrayEquals(put.getRow(), row.copyBytes());
+        lists.add(put);
+      }
+    } finally {
+      reader.close();
+    }
+
+    assertEquals(2, lists.size());
+    assertArrayEquals(TopPages.row(hour, "de"), lists.get(0).getRow());
+    assertArrayEquals(TopPages.row(hour, "en"), lists.get(1).getRow());
+    Put en = lists.get(1);
+    assertEquals(2, en.size());
+    assertEquals(30, Bytes.toLong(
+      en.get(TopPages.FAMILY_NAME, Bytes.toBytes("Foo")).get(0).getValue()));
+    assertEquals(20, Bytes.toLong(
+      en.get(TopPages.FAMILY_NAME, Bytes.toBytes("Qux")).get(0).getValue()));
+    assertFalse(en.has(TopPages.FAMILY_NAME, Bytes.toBytes("Baz")));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void writesOnePutPerRow() throws IOException, InterruptedException {
+    final List<Put> puts = new ArrayList<Put>();
+    final BufferedTableWriter writer = mock(BufferedTableWriter.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        puts.add((Put) invocation.getArguments()[0]);
+        return null;
+      }
+    }).when(writer).write(any(Put.class));
+    Histogram flushes = new Histogram();
+    flushes.add(1000);
+    when(writer.getFlushLatencies()).thenReturn(flushes);
+    when(writer.getFlushSizes()).thenReturn(new Histogram());
+    Reducer<WikistatsObservation, NullWritable, NullWritable, NullWritable>.Context
+      putContext = mock(Reducer.Context.class);
+    when(putContext.getConfiguration()).thenReturn(conf);
+    Counter flushCounter = mock(Counter.class);
+    when(putContext.getCounter(anyString(), anyString())).thenReturn(flushCounter);
+    ObservationShuffle.PutReducer putReducer = new ObservationShuffle.PutReducer() {
+      @Override
+      BufferedTableWriter openWriter(Configuration conf) {
+        return writer;
+      }
+    };
+    putReducer.setup(putContext);
+
+    // two hours and a day of one page, then an hour of the next.
+    byte[] nextRow = Bytes.toBytes("en/Barack_Obama_Sr.");
+    WikistatsObservation[] observations = {
+      new WikistatsObservation(PAGE_ROW, Bytes.toBytes("20090430-220000"), 10, 100),
+      new WikistatsObservation(PAGE_ROW, Bytes.toBytes("20090430-230000"), 20, 200),
+      day(30, 300),
+      new WikistatsObservation(nextRow, Bytes.toBytes("20090430-230000"), 1, 10) };
+    for (WikistatsObservation o : observations) {
+      WikistatsObservation key = new WikistatsObservation();
+      putReducer.reduce(key, group(key, o), putContext);
+    }
+    // the first row is written once the next begins.
+    assertEquals(1, puts.size());
+    putReducer.cleanup(putContext);
+
+    assertEquals(2, puts.size());
+    assertArrayEquals(PAGE_ROW, puts.get(0).getRow());
+    assertEquals(3, puts.get(0).size());
+    assertArrayEquals(nextRow, puts.get(1).getRow());
+    assertEquals(1, puts.get(1).size());
+    // the writer is closed and its flushes published with the counters.
+    verify(writer).close();
+    verify(putContext).getCounter(HistogramCounters.FLUSH_LATENCY_GROUP, "sum");
+    verify(flushCounter).increment(1000);
+  }
+}
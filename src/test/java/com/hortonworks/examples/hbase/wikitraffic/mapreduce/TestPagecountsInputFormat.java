@@ -0,0 +1,39 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestPagecountsInputFormat {
+
+  @Test
+  public void splitsSequenceFilesOnly() {
+    JobContext context = new JobContext(new Configuration(), new JobID());
+    PagecountsInputFormat format = new PagecountsInputFormat();
+    assertTrue(format.isSplitable(context, new Path("/a/pagecounts-20090430-230000.seq")));
+    assertTrue(format.isSplitable(context, new Path("/a/pagecounts-20090430-230000.txt")));
+    assertFalse(format.isSplitable(context, new Path("/a/pagecounts-20090430-230000.gz")));
+  }
+
+  @Test
+  public void readerFollowsExtension() {
+    PagecountsInputFormat format = new PagecountsInputFormat();
+    assertTrue(format.createRecordReader(new FileSplit(
+      new Path("/a/pagecounts-20090430-230000.seq"), 0, 1, new String[0]), null)
+        instanceof SequenceFileRecordReader);
+    assertTrue(format.createRecordReader(new FileSplit(
+      new Path("/a/pagecounts-20090430-230000.gz"), 0, 1, new String[0]), null)
+        instanceof LineRecordReader);
+  }
+}
@@ -0,0 +1,82 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class TestRollupTotals {
+
+  private static final byte[] PAGE_ROW = Bytes.toBytes("en/Barack_Obama");
+  private static final byte DAY = WikistatsSchemaUtils.DAILY_FAMILY_NAME[0];
+  private static final byte MONTH = WikistatsSchemaUtils.MONTHLY_FAMILY_NAME[0];
+
+  private final WideValueCodec valueCodec =
+      WikistatsSchemaUtils.getWideValueCodec(new Configuration());
+
+  private static WikistatsObservation rollup(byte family, String period, long pageViews,
+      long bytes) {
+    WikistatsObservation o = new WikistatsObservation();
+    o.set(family, PAGE_ROW, Bytes.toBytes(period), pageViews, bytes);
+    return o;
+  }
+
+  private KeyValue stored(byte[] family, String period, long pageViews, long bytes) {
+    return new KeyValue(PAGE_ROW, family, Bytes.toBytes(period),
+      valueCodec.encode(pageViews, bytes));
+  }
+
+  @Test
+  public void addsTheStoredTotals() throws IOException {
+    HTableInterface table = mock(HTableInterface.class);
+    when(table.get(any(Get.class))).thenReturn(new Result(new KeyValue[] {
+      stored(WikistatsSchemaUtils.DAILY_FAMILY_NAME, "20090430", 10, 100),
+      stored(WikistatsSchemaUtils.MONTHLY_FAMILY_NAME, "200904", 30, 300) }));
+    RollupTotals totals = new RollupTotals(table, valueCodec);
+
+    WikistatsObservation day = rollup(DAY, "20090430", 5, 50);
+    totals.add(day);
+    assertEquals(15, day.getPageViews());
+    assertEquals(150, day.getBytes());
+    WikistatsObservation month = rollup(MONTH, "200904", 5, 50);
+    totals.add(month);
+    assertEquals(35, month.getPageViews());
+    assertEquals(350, month.getBytes());
+    // a period not loaded before is written as summed.
+    WikistatsObservation nextDay = rollup(DAY, "20090501", 5, 50);
+    totals.add(nextDay);
+    assertEquals(5, nextDay.getPageViews());
+    assertEquals(50, nextDay.getBytes());
+
+    // the row's totals were read once.
+    verify(table, times(1)).get(any(Get.class));
+    totals.close();
+    verify(table).close();
+  }
+
+  @Test
+  public void readsNothingWithoutRollups() throws IOException {
+    Configuration conf = new Configuration();
+    conf.set(RollupTotals.TABLE_KEY, "wikistats");
+    assertNull(RollupTotals.open(conf, valueCodec));
+  }
+}
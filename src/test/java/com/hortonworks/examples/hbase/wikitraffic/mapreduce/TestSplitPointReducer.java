@@ -0,0 +1,58 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestSplitPointReducer {
+
+  @Test
+  public void equalWeightSplits() {
+    List<Long> weights = Arrays.asList(10L, 10L, 10L, 10L, 10L, 10L);
+    assertEquals(Arrays.asList(0, 2, 4), SplitPointReducer.computeSplits(weights, 60, 3));
+  }
+
+  @Test
+  public void skewedWeightSplits() {
+    // one hot row carries half the weight and gets a region to itself.
+    List<Long> weights = Arrays.asList(20L, 20L, 50L, 5L, 5L);
+    assertEquals(Arrays.asList(0, 2, 3), SplitPointReducer.computeSplits(weights, 100, 3));
+  }
+
+  @Test
+  public void fewerRegionsThanRequested() {
+    List<Long> weights = Arrays.asList(100L, 1L);
+    assertEquals(Arrays.asList(0, 1), SplitPointReducer.computeSplits(weights, 101, 4));
+  }
+
+  @Test
+  public void targetRegionBytes() {
+    Configuration conf = new Configuration(false);
+    conf.setInt(SplitPointReducer.NUM_REGIONS_KEY, 2);
+    assertEquals(2, SplitPointReducer.numRegions(conf, 1000, 100));
+
+    conf.setLong(SplitPointReducer.TARGET_REGION_BYTES_KEY, 300);
+    assertEquals(4, SplitPointReducer.numRegions(conf, 1000, 100));
+    // never more regions than samples
+    assertEquals(3, SplitPointReducer.numRegions(conf, 1000, 3));
+  }
+
+  @Test
+  public void estimateTotalBytes() {
+    Configuration conf = new Configuration(false);
+    assertEquals(500, SplitPointReducer.estimateTotalBytes(conf, 10, 20, 500));
+
+    conf.setLong(SplitPointReducer.ESTIMATED_CELLS_KEY, 2000);
+    assertEquals(50000, SplitPointReducer.estimateTotalBytes(conf, 10, 20, 500));
+
+    conf.setLong(SplitPointReducer.ESTIMATED_PUTS_KEY, 100);
+    assertEquals(5000, SplitPointReducer.estimateTotalBytes(conf, 10, 20, 500));
+  }
+}
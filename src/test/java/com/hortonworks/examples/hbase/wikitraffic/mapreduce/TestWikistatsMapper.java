@@ -1,25 +1,47 @@
 package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
 
 import static com.hortonworks.test.matchers.IsEquivalentPut.isEquivalentPut;
+import static org.junit.Assert.assertEquals;
 import static org.hamcrest.number.OrderingComparison.comparesEqualTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Mapper.Context;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.hortonworks.examples.hbase.wikitraffic.hbase.PageDictionary;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TopPages;
 import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
 
 @RunWith(JUnit4.class)
@@ -45,6 +67,7 @@ public class TestWikistatsMapper {
     Configuration mockConfig = new Configuration();
     mockConfig.set("map.input.file", inputFile);
     when(context.getConfiguration()).thenReturn(mockConfig);
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
 
     m.setup(context);
     m.map(inputKey, inputValue, context);
@@ -73,6 +96,7 @@ public class TestWikistatsMapper {
     Configuration mockConfig = new Configuration();
     mockConfig.set("map.input.file", inputFile);
     when(context.getConfiguration()).thenReturn(mockConfig);
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
 
     m.setup(context);
     m.map(inputKey, inputValue, context);
@@ -80,4 +104,220 @@ public class TestWikistatsMapper {
       argThat(comparesEqualTo(outputKey)),
       argThat(isEquivalentPut(outputValue)));
   }
+
+  @Test
+  public void countsMalformedRecords() throws IOException, InterruptedException {
+    String inputFile = "foo/bar/pagecounts-00000000-000000.gz";
+    Text inputValue = new Text("pc pn notanumber 10000");
+
+    WikistatsMapper m = new WikistatsSchemaUtils.TallWikistatsMapper();
+    @SuppressWarnings("unchecked")
+    Mapper<LongWritable, Text, ImmutableBytesWritable, Put>.Context context = mock(Context.class);
+    Configuration mockConfig = new Configuration();
+    mockConfig.set("map.input.file", inputFile);
+    when(context.getConfiguration()).thenReturn(mockConfig);
+    Counter parsed = mock(Counter.class), malformed = mock(Counter.class),
+        bytesIn = mock(Counter.class);
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
+    when(context.getCounter(WikistatsCounters.RECORDS_PARSED)).thenReturn(parsed);
+    when(context.getCounter(WikistatsCounters.RECORDS_MALFORMED)).thenReturn(malformed);
+    when(context.getCounter(WikistatsCounters.BYTES_IN)).thenReturn(bytesIn);
+
+    m.setup(context);
+    m.map(new LongWritable(0L), inputValue, context);
+    verify(malformed).increment(1);
+    verify(parsed, never()).increment(anyLong());
+    verify(bytesIn).increment(inputValue.getLength() + 1);
+    verify(context, never()).write(any(ImmutableBytesWritable.class), any(Put.class));
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void emitsObservations() throws IOException, InterruptedException {
+    String inputFile = "foo/bar/pagecounts-00000000-000000.gz";
+    Text inputValue = new Text("pc pn 100 10000");
+
+    WikistatsMapper m = new WikistatsSchemaUtils.WideWikistatsMapper();
+    Mapper<LongWritable, Text, ImmutableBytesWritable, Put>.Context context = mock(Context.class);
+    Configuration mockConfig = new Configuration();
+    mockConfig.set("map.input.file", inputFile);
+    mockConfig.setBoolean(PutEmitter.OBSERVATION_OUTPUT_KEY, true);
+    when(context.getConfiguration()).thenReturn(mockConfig);
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
+
+    m.setup(context);
+    m.map(new LongWritable(0L), inputValue, context);
+
+    ArgumentCaptor<WikistatsObservation> observation =
+        ArgumentCaptor.forClass(WikistatsObservation.class);
+    TaskInputOutputContext raw = context;
+    verify(raw).write(observation.capture(), eq(NullWritable.get()));
+    assertEquals("pc/pn", Bytes.toString(observation.getValue().getRow()));
+    assertEquals("00000000-000000", Bytes.toString(observation.getValue().getColumn()));
+    assertEquals(100, observation.getValue().getPageViews());
+    assertEquals(10000, observation.getValue().getBytes());
+    // any() matches every argument type; the observation is the only write.
+    verify(raw, times(1)).write(any(), any());
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void takesHourFromEachRecordsFile() throws IOException, InterruptedException {
+    Path h0 = new Path("foo/bar/pagecounts-20090430-220000.gz");
+    Path h1 = new Path("foo/bar/pagecounts-20090430-230000.gz");
+    Text inputValue = new Text("pc pn 100 10000");
+
+    WikistatsMapper m = new WikistatsSchemaUtils.WideWikistatsMapper();
+    Mapper<LongWritable, Text, ImmutableBytesWritable, Put>.Context context = mock(Context.class);
+    Configuration mockConfig = new Configuration();
+    mockConfig.setBoolean(PutEmitter.OBSERVATION_OUTPUT_KEY, true);
+    when(context.getConfiguration()).thenReturn(mockConfig);
+    when(context.getInputSplit()).thenReturn(
+      new MultiFileSplit(new Path[] { h0, h1 }, new long[] { 1, 1 }, new String[0]));
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
+    // the observation is reused; record its hour as each is written.
+    final List<String> hours = new ArrayList<String>();
+    TaskInputOutputContext raw = context;
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        WikistatsObservation o = (WikistatsObservation) invocation.getArguments()[0];
+        hours.add(Bytes.toString(o.getColumn()));
+        return null;
+      }
+    }).when(raw).write(any(WikistatsObservation.class), eq(NullWritable.get()));
+
+    m.setup(context);
+    m.map(new FileOffsetWritable(h0, 0L), inputValue, context);
+    m.map(new FileOffsetWritable(h1, 0L), inputValue, context);
+    m.map(new FileOffsetWritable(h1, 16L), inputValue, context);
+    assertEquals(Arrays.asList("20090430-220000", "20090430-230000", "20090430-230000"), hours);
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void emitsTopPagesWhenDone() throws IOException, InterruptedException {
+    Path h0 = new Path("foo/bar/pagecounts-20090430-220000.gz");
+    Path h1 = new Path("foo/bar/pagecounts-20090430-230000.gz");
+
+    WikistatsMapper m = new WikistatsSchemaUtils.WideWikistatsMapper();
+    Mapper<LongWritable, Text, ImmutableBytesWritable, Put>.Context context = mock(Context.class);
+    Configuration mockConfig = new Configuration();
+    mockConfig.setBoolean(PutEmitter.OBSERVATION_OUTPUT_KEY, true);
+    mockConfig.setInt(TopPages.TOPN_KEY, 2);
+    mockConfig.set(TopPages.TABLE_KEY, "t_topn");
+    when(context.getConfiguration()).thenReturn(mockConfig);
+    when(context.getInputSplit()).thenReturn(
+      new MultiFileSplit(new Path[] { h0, h1 }, new long[] { 1, 1 }, new String[0]));
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
+    Counter topPagesOut = mock(Counter.class);
+    when(context.getCounter(WikistatsCounters.TOP_PAGES_OUT)).thenReturn(topPagesOut);
+    // the candidate is reused; record each as it is written.
+    final List<String> candidates = new ArrayList<String>();
+    TaskInputOutputContext raw = context;
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        WikistatsObservation o = (WikistatsObservation) invocation.getArguments()[0];
+        if (o.isTopPage()) {
+          candidates.add(String.format("%s %s %d", Bytes.toString(o.getRow()),
+            Bytes.toString(o.getColumn()), o.getPageViews()));
+        }
+        return null;
+      }
+    }).when(raw).write(any(WikistatsObservation.class), eq(NullWritable.get()));
+
+    m.setup(context);
+    long offset = 0;
+    for (String line : new String[] { "en Foo 5 500", "en Bar 9 900", "en Baz 7 700",
+        "de Foo 3 300" }) {
+      m.map(new FileOffsetWritable(h1, offset++), new Text(line), context);
+    }
+    m.map(new FileOffsetWritable(h0, 0L), new Text("en Foo 1 100"), context);
+    assertEquals(0, candidates.size());
+    m.cleanup(context);
+
+    Collections.sort(candidates);
+    assertEquals(Arrays.asList(
+      "20090430-220000/en Foo 1",
+      "20090430-230000/de Foo 3",
+      "20090430-230000/en Bar 9",
+      "20090430-230000/en Baz 7"), candidates);
+    verify(topPagesOut, times(4)).increment(1);
+  }
+
+  /** A tall mapper recording the blocks of pages it is asked to resolve. */
+  private static class ResolvingMapper extends WikistatsSchemaUtils.TallWikistatsMapper {
+
+    private final List<String> events;
+
+    ResolvingMapper(List<String> events) {
+      this.events = events;
+    }
+
+    @Override
+    public boolean resolvesPages() {
+      return true;
+    }
+
+    @Override
+    public void resolvePages(List<String> projectCodes, List<String> pageNames) {
+      events.add("resolve " + pageNames);
+    }
+  }
+
+  @Test
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  public void resolvesPagesABlockAtATime() throws IOException, InterruptedException {
+    final List<String> events = new ArrayList<String>();
+    WikistatsMapper m = new ResolvingMapper(events);
+    Mapper<LongWritable, Text, ImmutableBytesWritable, Put>.Context context = mock(Context.class);
+    Configuration mockConfig = new Configuration();
+    mockConfig.set("map.input.file", "foo/bar/pagecounts-20090430-230000.gz");
+    mockConfig.setInt(PageDictionary.RESOLVE_BLOCK_KEY, 2);
+    when(context.getConfiguration()).thenReturn(mockConfig);
+    Counter malformed = mock(Counter.class);
+    when(context.getCounter(any(WikistatsCounters.class))).thenReturn(mock(Counter.class));
+    when(context.getCounter(WikistatsCounters.RECORDS_MALFORMED)).thenReturn(malformed);
+
+    // the reader reuses its key and value, as record readers do.
+    final String[] lines = { "en A 1 100", "en B 2 200", "bad", "en C 3 300", "en D 4 400" };
+    final LongWritable key = new LongWritable();
+    final Text value = new Text();
+    when(context.nextKeyValue()).thenAnswer(new Answer<Boolean>() {
+      private int next = 0;
+
+      @Override
+      public Boolean answer(InvocationOnMock invocation) {
+        if (next == lines.length) {
+          return false;
+        }
+        key.set(next);
+        value.set(lines[next++]);
+        return true;
+      }
+    });
+    when(context.getCurrentKey()).thenReturn(key);
+    when(context.getCurrentValue()).thenReturn(value);
+    TaskInputOutputContext raw = context;
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        events.add("put " + Bytes.toString(((Put) invocation.getArguments()[1]).getRow()));
+        return null;
+      }
+    }).when(raw).write(any(ImmutableBytesWritable.class), any(Put.class));
+
+    m.run(context);
+    // each block's pages are resolved before any of its records is mapped.
+    assertEquals(Arrays.asList(
+      "resolve [A, B]",
+      "put en/A/20090430-230000",
+      "put en/B/20090430-230000",
+      "resolve [C]",
+      "put en/C/20090430-230000",
+      "resolve [D]",
+      "put en/D/20090430-230000"), events);
+    verify(malformed, times(1)).increment(1);
+  }
 }
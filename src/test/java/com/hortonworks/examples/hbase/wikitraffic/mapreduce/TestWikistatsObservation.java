@@ -0,0 +1,161 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.hortonworks.examples.hbase.wikitraffic.hbase.TextWideValueCodec;
+import com.hortonworks.examples.hbase.wikitraffic.hbase.WikistatsSchemaUtils;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsObservation {
+
+  private static WikistatsObservation wide(String row, String hour) {
+    return new WikistatsObservation(Bytes.toBytes(row), Bytes.toBytes(hour), 1, 2);
+  }
+
+  private static WikistatsObservation rollup(byte[] family, String row, String period) {
+    WikistatsObservation o = new WikistatsObservation();
+    o.set(family[0], Bytes.toBytes(row), Bytes.toBytes(period), 1, 2);
+    return o;
+  }
+
+  private static byte[] serialize(WikistatsObservation o) throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    o.write(out);
+    assertEquals(o.getSerializedSize(), out.getLength());
+    return Arrays.copyOf(out.getData(), out.getLength());
+  }
+
+  private static int rawCompare(WikistatsObservation a, WikistatsObservation b)
+      throws IOException {
+    byte[] left = serialize(a);
+    byte[] right = serialize(b);
+    return WritableComparator.get(WikistatsObservation.class)
+        .compare(left, 0, left.length, right, 0, right.length);
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    WikistatsObservation in = new WikistatsObservation(Bytes.toBytes("pc/pn"),
+      Bytes.toBytes("20090430-230000"), 100, 10000);
+    byte[] data = serialize(in);
+
+    DataInputBuffer buf = new DataInputBuffer();
+    buf.reset(data, data.length);
+    WikistatsObservation out = new WikistatsObservation();
+    out.readFields(buf);
+    assertEquals(in, out);
+    assertEquals(100, out.getPageViews());
+    assertEquals(10000, out.getBytes());
+    assertEquals("20090430-230000", Bytes.toString(out.getColumn()));
+  }
+
+  @Test
+  public void readDoesNotOverwriteCallerArrays() throws IOException {
+    byte[] row = Bytes.toBytes("aaaaa");
+    WikistatsObservation o = new WikistatsObservation(row, HConstants.EMPTY_BYTE_ARRAY, 1, 2);
+    byte[] data = serialize(wide("bbbbb", "h"));
+    DataInputBuffer buf = new DataInputBuffer();
+    buf.reset(data, data.length);
+    o.readFields(buf);
+    assertArrayEquals(Bytes.toBytes("aaaaa"), row);
+    assertArrayEquals(Bytes.toBytes("bbbbb"), o.getRow());
+  }
+
+  @Test
+  public void rawOrderMatchesTableOrder() throws IOException {
+    WikistatsObservation[] ordered = {
+      new WikistatsObservation(Bytes.toBytes("a"), HConstants.EMPTY_BYTE_ARRAY, 9, 9),
+      wide("a", "20090101-000000"), wide("a", "20090101-010000"), wide("ab", "0"),
+      wide("b", "0") };
+    for (int i = 0; i + 1 < ordered.length; i++) {
+      assertTrue(ordered[i].compareTo(ordered[i + 1]) < 0);
+      assertTrue(rawCompare(ordered[i], ordered[i + 1]) < 0);
+      assertTrue(rawCompare(ordered[i + 1], ordered[i]) > 0);
+    }
+    // the counts do not take part in ordering.
+    assertEquals(0, rawCompare(wide("a", "h"),
+      new WikistatsObservation(Bytes.toBytes("a"), Bytes.toBytes("h"), 5, 6)));
+  }
+
+  @Test
+  public void cellsInHFileOrder() throws IOException {
+    WikistatsObservation tall =
+        new WikistatsObservation(Bytes.toBytes("pc/pn/dt"), HConstants.EMPTY_BYTE_ARRAY, 3, 4);
+    KeyValue[] cells = WikistatsSchemaUtils.createCells(tall, new TextWideValueCodec());
+    assertEquals(2, cells.length);
+    assertTrue(KeyValue.COMPARATOR.compare(cells[0], cells[1]) < 0);
+    assertArrayEquals(WikistatsSchemaUtils.BYTES_QUAL, cells[0].getQualifier());
+    assertEquals(4, Bytes.toLong(cells[0].getValue()));
+    assertEquals(3, Bytes.toLong(cells[1].getValue()));
+
+    Put put = WikistatsSchemaUtils.createPut(wide("pc/pn", "dt"), new TextWideValueCodec());
+    assertEquals("pc/pn", Bytes.toString(put.getRow()));
+    assertEquals(1, put.size());
+  }
+
+  @Test
+  public void rollupsSortBeforeHoursOfTheirRow() throws IOException {
+    WikistatsObservation[] ordered = {
+      rollup(WikistatsSchemaUtils.DAILY_FAMILY_NAME, "pc/pn", "20090430"),
+      rollup(WikistatsSchemaUtils.DAILY_FAMILY_NAME, "pc/pn", "20090501"),
+      rollup(WikistatsSchemaUtils.MONTHLY_FAMILY_NAME, "pc/pn", "200904"),
+      wide("pc/pn", "20090430-230000") };
+    for (int i = 0; i + 1 < ordered.length; i++) {
+      assertTrue(ordered[i].compareTo(ordered[i + 1]) < 0);
+      assertTrue(rawCompare(ordered[i], ordered[i + 1]) < 0);
+      assertTrue(rawCompare(ordered[i + 1], ordered[i]) > 0);
+    }
+    assertTrue(ordered[0].isRollup());
+    assertFalse(ordered[0].isTall());
+    assertFalse(ordered[3].isRollup());
+    WikistatsObservation top = new WikistatsObservation();
+    top.set(WikistatsObservation.TOP_PAGE_FAMILY, Bytes.toBytes("20090430-230000/pc"),
+      Bytes.toBytes("pn"), 1, 0);
+    assertTrue(top.isTopPage());
+    assertFalse(top.isRollup());
+
+    byte[] data = serialize(ordered[2]);
+    DataInputBuffer buf = new DataInputBuffer();
+    buf.reset(data, data.length);
+    WikistatsObservation out = new WikistatsObservation();
+    out.readFields(buf);
+    assertEquals(WikistatsSchemaUtils.MONTHLY_FAMILY_NAME[0], out.getFamily());
+    assertEquals(ordered[2], out);
+  }
+
+  @Test
+  public void sumsRollupsIntoOneCell() {
+    WikistatsObservation key =
+        rollup(WikistatsSchemaUtils.DAILY_FAMILY_NAME, "pc/pn", "20090430");
+    key.setCounts(5, 500);
+    // each value stands for one more observation of the same day.
+    ObservationShuffle.sumRollup(key, Collections.nCopies(3, NullWritable.get()));
+    assertEquals(15, key.getPageViews());
+    assertEquals(1500, key.getBytes());
+
+    KeyValue[] cells = WikistatsSchemaUtils.createCells(key, new TextWideValueCodec());
+    assertEquals(1, cells.length);
+    assertArrayEquals(WikistatsSchemaUtils.DAILY_FAMILY_NAME, cells[0].getFamily());
+    assertEquals("20090430", Bytes.toString(cells[0].getQualifier()));
+    assertEquals("pc/pn", Bytes.toString(cells[0].getRow()));
+  }
+}
@@ -0,0 +1,94 @@
+package com.hortonworks.examples.hbase.wikitraffic.mapreduce;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TestWikistatsRecordParser {
+
+  private static final String[] SAMPLE = {
+    "en Barack_Obama 997 123091092",
+    "en Barack_Obama%27s_first_100_days 8 850127",
+    "en Barack_Obama,_Jr 1 144103",
+    "de Café 37 938821",
+    "fr.b Page 0 0",
+  };
+
+  @Test
+  public void parseDateTime() {
+    assertEquals("20090430-230000",
+      WikistatsRecordParser.parseDateTime("foo/bar/pagecounts-20090430-230000.gz"));
+    assertEquals("20090430-230000",
+      WikistatsRecordParser.parseDateTime("file:/data/pagecounts-20090430-230000.txt"));
+    assertNull(WikistatsRecordParser.parseDateTime("foo/bar/pagecounts-20090430-230000"));
+    assertNull(WikistatsRecordParser.parseDateTime("foo/bar/projectcounts-20090430-230000.gz"));
+    assertNull(WikistatsRecordParser.parseDateTime(null));
+  }
+
+  @Test
+  public void matchesStringSplit() {
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    Text line = new Text();
+    for (String record : SAMPLE) {
+      line.set(record);
+      assertTrue(record, parser.parse(line));
+
+      String splits[] = record.split(" ", 4);
+      assertEquals(splits[0], parser.getProjectCode());
+      assertEquals(splits[1], parser.getPageName());
+      assertEquals(Long.parseLong(splits[2]), parser.getPageViews());
+      assertEquals(Long.parseLong(splits[3]), parser.getBytes());
+    }
+  }
+
+  @Test
+  public void reusesBuffers() {
+    // Text#set(String) reuses its backing array; shorter lines leave stale bytes.
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    Text line = new Text("commons.m Some_Longer_Page_Name 12345 67890");
+    assertTrue(parser.parse(line));
+    line.set("en A 1 2");
+    assertTrue(parser.parse(line));
+    assertEquals("en", parser.getProjectCode());
+    assertEquals("A", parser.getPageName());
+    assertEquals(1, parser.getPageViews());
+    assertEquals(2, parser.getBytes());
+  }
+
+  @Test
+  public void rejectsMalformed() {
+    WikistatsRecordParser parser = new WikistatsRecordParser();
+    String[] malformed = {
+      "",
+      "en",
+      "en Page",
+      "en Page 1",
+      "en Page one 2",
+      "en Page 1 two",
+      "en Page 1 2 3",
+      "en Page 1 ",
+      "en Page - 2",
+      "en Page 1 99999999999999999999",
+    };
+    for (String record : malformed) {
+      assertFalse(record, parser.parse(new Text(record)));
+    }
+  }
+
+  @Test
+  public void parseLongBounds() {
+    byte[] max = String.valueOf(Long.MAX_VALUE).getBytes();
+    assertEquals(Long.MAX_VALUE, WikistatsRecordParser.parseLong(max, 0, max.length));
+    byte[] neg = "-42".getBytes();
+    assertEquals(-42L, WikistatsRecordParser.parseLong(neg, 0, neg.length));
+    byte[] over = "9223372036854775808".getBytes();
+    assertEquals(Long.MIN_VALUE, WikistatsRecordParser.parseLong(over, 0, over.length));
+  }
+}